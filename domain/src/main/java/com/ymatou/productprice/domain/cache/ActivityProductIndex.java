@@ -0,0 +1,336 @@
+package com.ymatou.productprice.domain.cache;
+
+import com.ymatou.productprice.domain.model.ActivityProduct;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntSupplier;
+
+/**
+ * 活动商品索引
+ * 按商品id保存不可变的活动商品快照 读取不加锁
+ * 按活动商品id(productInActivityId)建立int为key的索引 按活动结束时间建立小顶堆 用于增量合并与过期清理
+ * 增量合并只重建变更涉及的商品快照 耗时与变更条数相关 与索引总条数无关
+ * 写操作串行执行
+ * Created by chenpengxuan on 2017/6/1.
+ */
+public class ActivityProductIndex {
+
+    /**
+     * 过期堆中失效条目超过有效条目时重建
+     */
+    private static final int HEAP_COMPACT_MIN_SIZE = 1024;
+
+    private static final Comparator<ActivityProduct> END_TIME_COMPARATOR =
+            Comparator.comparingLong(ActivityProductIndex::getEndTime);
+
+    private final IntSupplier capacitySupplier;
+
+    private final ConcurrentMap<String, List<ActivityProduct>> productMap = new ConcurrentHashMap<>();
+
+    private final IntObjectHashMap<ActivityProduct> inActivityMap = new IntObjectHashMap<>(1024);
+
+    private PriorityQueue<ActivityProduct> endTimeHeap = new PriorityQueue<>(END_TIME_COMPARATOR);
+
+    private volatile int size;
+
+    private long droppedCount;
+
+    /**
+     * @param capacitySupplier 最多保存的活动商品条数
+     */
+    public ActivityProductIndex(IntSupplier capacitySupplier) {
+        this.capacitySupplier = capacitySupplier;
+    }
+
+    /**
+     * 获取商品的活动商品快照
+     *
+     * @param productId
+     * @return 不可修改的列表 没有活动商品时返回空列表
+     */
+    public List<ActivityProduct> get(String productId) {
+        List<ActivityProduct> activityProductList = productMap.get(productId);
+        return activityProductList != null ? activityProductList : Collections.emptyList();
+    }
+
+    /**
+     * 获取指定时间进行中的活动商品
+     *
+     * @param productId
+     * @param time
+     * @return
+     */
+    public ActivityProduct getActive(String productId, long time) {
+        for (ActivityProduct activityProduct : get(productId)) {
+            if (getStartTime(activityProduct) <= time && getEndTime(activityProduct) >= time) {
+                return activityProduct;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取与时间段有交集的活动商品
+     *
+     * @param productId
+     * @param startTime
+     * @param endTime
+     * @return
+     */
+    public List<ActivityProduct> getInWindow(String productId, long startTime, long endTime) {
+        List<ActivityProduct> result = new ArrayList<>();
+        for (ActivityProduct activityProduct : get(productId)) {
+            if (getStartTime(activityProduct) <= endTime && getEndTime(activityProduct) >= startTime) {
+                result.add(activityProduct);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 根据活动商品id获取活动商品
+     *
+     * @param productInActivityId
+     * @return
+     */
+    public synchronized ActivityProduct getByProductInActivityId(int productInActivityId) {
+        return inActivityMap.get(productInActivityId);
+    }
+
+    /**
+     * 筛选出索引中没有的活动商品id
+     *
+     * @param productInActivityIdList
+     * @return
+     */
+    public synchronized List<Integer> getMissingProductInActivityIdList(Collection<Integer> productInActivityIdList) {
+        List<Integer> result = new ArrayList<>();
+        for (Integer productInActivityId : productInActivityIdList) {
+            if (productInActivityId != null && !inActivityMap.containsKey(productInActivityId)) {
+                result.add(productInActivityId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 删除不在指定活动商品id集合中的活动商品 用于与mongo全量对账
+     *
+     * @param productInActivityIdSet 有效的活动商品id
+     * @return 删除条数
+     */
+    public synchronized int retain(Set<Integer> productInActivityIdSet) {
+        List<Integer> removeIdList = new ArrayList<>();
+        inActivityMap.forEachValue(x -> {
+            if (!productInActivityIdSet.contains(x.getProductInActivityId())) {
+                removeIdList.add(x.getProductInActivityId());
+            }
+        });
+        if (!removeIdList.isEmpty()) {
+            merge(null, removeIdList);
+        }
+        return removeIdList.size();
+    }
+
+    /**
+     * 增量合并
+     * 新增或替换活动商品(按活动商品id) 删除指定的活动商品id 超出容量的新增活动商品不保存
+     *
+     * @param upsertList
+     * @param removeIdList
+     * @return 合并后保存的活动商品条数
+     */
+    public synchronized int merge(Collection<ActivityProduct> upsertList, Collection<Integer> removeIdList) {
+        //商品id -> 本次新增或替换的活动商品
+        Map<String, List<ActivityProduct>> changedProductMap = new HashMap<>();
+        if (removeIdList != null) {
+            for (Integer productInActivityId : removeIdList) {
+                if (productInActivityId != null) {
+                    ActivityProduct previous = inActivityMap.remove(productInActivityId);
+                    if (previous != null) {
+                        changedProductMap.computeIfAbsent(previous.getProductId(), x -> new ArrayList<>());
+                    }
+                }
+            }
+        }
+
+        int mergedCount = 0;
+        int capacity = capacitySupplier.getAsInt();
+        if (upsertList != null) {
+            for (ActivityProduct activityProduct : upsertList) {
+                if (activityProduct == null || activityProduct.getProductInActivityId() == null
+                        || activityProduct.getProductId() == null) {
+                    continue;
+                }
+                int productInActivityId = activityProduct.getProductInActivityId();
+                if (!inActivityMap.containsKey(productInActivityId) && inActivityMap.size() >= capacity) {
+                    droppedCount++;
+                    continue;
+                }
+                ActivityProduct previous = inActivityMap.put(productInActivityId, activityProduct);
+                if (previous != null) {
+                    changedProductMap.computeIfAbsent(previous.getProductId(), x -> new ArrayList<>());
+                }
+                changedProductMap.computeIfAbsent(activityProduct.getProductId(), x -> new ArrayList<>()).add(activityProduct);
+                endTimeHeap.add(activityProduct);
+                mergedCount++;
+            }
+        }
+
+        changedProductMap.forEach(this::rebuildProduct);
+        size = inActivityMap.size();
+        compactHeap();
+        return mergedCount;
+    }
+
+    /**
+     * 替换商品的全部活动商品
+     *
+     * @param productIdList
+     * @param activityProductList 商品最新的活动商品列表
+     */
+    public synchronized void replaceProducts(Collection<String> productIdList, Collection<ActivityProduct> activityProductList) {
+        merge(activityProductList, getProductInActivityIdList(productIdList));
+    }
+
+    /**
+     * 删除商品的全部活动商品
+     *
+     * @param productIdList
+     */
+    public synchronized void removeProducts(Collection<String> productIdList) {
+        merge(null, getProductInActivityIdList(productIdList));
+    }
+
+    /**
+     * 删除结束时间早于指定时间的活动商品
+     *
+     * @param time
+     * @return 删除条数
+     */
+    public synchronized int removeExpired(long time) {
+        List<Integer> expiredIdList = new ArrayList<>();
+        while (!endTimeHeap.isEmpty() && getEndTime(endTimeHeap.peek()) < time) {
+            ActivityProduct activityProduct = endTimeHeap.poll();
+            //只处理索引中的当前值 已被替换或删除的跳过
+            if (inActivityMap.get(activityProduct.getProductInActivityId()) == activityProduct) {
+                expiredIdList.add(activityProduct.getProductInActivityId());
+            }
+        }
+        if (!expiredIdList.isEmpty()) {
+            merge(null, expiredIdList);
+        }
+        return expiredIdList.size();
+    }
+
+    /**
+     * 清空
+     */
+    public synchronized void clear() {
+        productMap.clear();
+        inActivityMap.clear();
+        endTimeHeap = new PriorityQueue<>(END_TIME_COMPARATOR);
+        size = 0;
+    }
+
+    /**
+     * 活动商品条数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 是否达到容量 达到容量后没有命中的商品需要回源查询
+     *
+     * @return
+     */
+    public boolean isFull() {
+        return size >= capacitySupplier.getAsInt();
+    }
+
+    /**
+     * 获取索引统计信息
+     *
+     * @return
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size);
+        stats.put("productCount", productMap.size());
+        stats.put("capacity", capacitySupplier.getAsInt());
+        stats.put("droppedCount", droppedCount);
+        stats.put("endTimeHeapSize", endTimeHeap.size());
+        return stats;
+    }
+
+    private List<Integer> getProductInActivityIdList(Collection<String> productIdList) {
+        List<Integer> result = new ArrayList<>();
+        for (String productId : productIdList) {
+            for (ActivityProduct activityProduct : get(productId)) {
+                result.add(activityProduct.getProductInActivityId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 重建商品快照 原快照中仍在索引的活动商品保持顺序(被替换的取最新值) 新增的活动商品追加在后面
+     *
+     * @param productId
+     * @param upsertList 本次新增或替换的活动商品
+     */
+    private void rebuildProduct(String productId, List<ActivityProduct> upsertList) {
+        List<ActivityProduct> activityProductList = new ArrayList<>();
+        for (ActivityProduct activityProduct : get(productId)) {
+            addIfCurrent(productId, inActivityMap.get(activityProduct.getProductInActivityId()), activityProductList);
+        }
+        for (ActivityProduct activityProduct : upsertList) {
+            addIfCurrent(productId, activityProduct, activityProductList);
+        }
+        if (activityProductList.isEmpty()) {
+            productMap.remove(productId);
+        } else {
+            productMap.put(productId, Collections.unmodifiableList(activityProductList));
+        }
+    }
+
+    /**
+     * 索引中的当前值属于该商品且未添加时添加
+     */
+    private void addIfCurrent(String productId, ActivityProduct activityProduct, List<ActivityProduct> activityProductList) {
+        if (activityProduct == null || !productId.equals(activityProduct.getProductId())
+                || inActivityMap.get(activityProduct.getProductInActivityId()) != activityProduct) {
+            return;
+        }
+        for (ActivityProduct added : activityProductList) {
+            if (added == activityProduct) {
+                return;
+            }
+        }
+        activityProductList.add(activityProduct);
+    }
+
+    /**
+     * 过期堆中失效条目过多时按索引重建
+     */
+    private void compactHeap() {
+        if (endTimeHeap.size() > HEAP_COMPACT_MIN_SIZE && endTimeHeap.size() > inActivityMap.size() * 2) {
+            PriorityQueue<ActivityProduct> heap = new PriorityQueue<>(Math.max(inActivityMap.size(), 1), END_TIME_COMPARATOR);
+            inActivityMap.forEachValue(heap::add);
+            endTimeHeap = heap;
+        }
+    }
+
+    private static long getStartTime(ActivityProduct activityProduct) {
+        return activityProduct.getStartTime() != null ? activityProduct.getStartTime().getTime() : Long.MIN_VALUE;
+    }
+
+    private static long getEndTime(ActivityProduct activityProduct) {
+        return activityProduct.getEndTime() != null ? activityProduct.getEndTime().getTime() : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,271 @@
+package com.ymatou.productprice.domain.cache;
+
+import com.ymatou.productprice.domain.model.ActivityProduct;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 活动商品增量同步水位
+ * 新增活动商品按活动商品id(inaid)水位拉取 活动商品变更按时间戳表活动商品更新时间(aut)水位拉取
+ * aut水位使用大于等于查询 同一时间戳上已处理的商品记录下来 下次拉取时跳过 避免同一毫秒的变更被漏掉
+ * 删除与过期不依赖水位 由定期全量对账处理 对账失败时按退避时间重试 不在每次增量同步时重试
+ * 同步由定时任务单线程执行 统计信息由其他线程读取 方法均加锁
+ * Created by chenpengxuan on 2017/6/2.
+ */
+public class ActivityProductWatermark {
+
+    /**
+     * 对账失败后首次重试间隔 之后每次失败翻倍 不超过对账间隔
+     */
+    private static final long RECONCILE_RETRY_MIN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private int productInActivityIdWatermark;
+
+    private long updateTimeWatermark;
+
+    /**
+     * 时间戳等于updateTimeWatermark且已处理的商品id
+     */
+    private final Set<String> updateTimeProductIdSet = new HashSet<>();
+
+    private long lastReconcileTime;
+
+    private boolean initialized;
+
+    private long lastSyncTime;
+
+    private long tickCount;
+
+    private long failCount;
+
+    private long lastTickElapsedMillis;
+
+    private long maxTickElapsedMillis;
+
+    private int lastNewCount;
+
+    private int lastChangedCount;
+
+    private int lastExpiredCount;
+
+    private long reconcileCount;
+
+    private long lastReconcileElapsedMillis;
+
+    private int lastReconcileAddedCount;
+
+    private int lastReconcileRemovedCount;
+
+    private long reconcileFailCount;
+
+    private int consecutiveReconcileFailCount;
+
+    /**
+     * 全量加载后初始化水位
+     *
+     * @param activityProductList 全量加载的活动商品
+     * @param loadStartTime 全量加载开始时间 之后更新的活动商品由增量同步处理
+     * @param maxProductInActivityId 全量加载前活动商品表中最大的inaid 全量加载没有数据时避免从0开始拉取全部历史活动商品
+     */
+    public synchronized void init(Collection<ActivityProduct> activityProductList, long loadStartTime, int maxProductInActivityId) {
+        productInActivityIdWatermark = Math.max(maxProductInActivityId, 0);
+        advanceProductInActivityId(activityProductList);
+        updateTimeWatermark = loadStartTime;
+        updateTimeProductIdSet.clear();
+        lastReconcileTime = loadStartTime;
+        lastSyncTime = loadStartTime;
+        initialized = true;
+    }
+
+    public synchronized boolean isInitialized() {
+        return initialized;
+    }
+
+    public synchronized int getProductInActivityIdWatermark() {
+        return productInActivityIdWatermark;
+    }
+
+    public synchronized long getUpdateTimeWatermark() {
+        return updateTimeWatermark;
+    }
+
+    /**
+     * 按拉取到的活动商品推进inaid水位
+     *
+     * @param activityProductList
+     */
+    public synchronized void advanceProductInActivityId(Collection<ActivityProduct> activityProductList) {
+        if (activityProductList == null) {
+            return;
+        }
+        for (ActivityProduct activityProduct : activityProductList) {
+            if (activityProduct.getProductInActivityId() != null
+                    && activityProduct.getProductInActivityId() > productInActivityIdWatermark) {
+                productInActivityIdWatermark = activityProduct.getProductInActivityId();
+            }
+        }
+    }
+
+    /**
+     * 获取拉取到的时间戳中需要重新加载的商品id 不推进水位
+     *
+     * @param stampList 按时间戳升序 包含spid与时间戳列
+     * @param stampKey 时间戳列名
+     * @return 已在水位时间戳上处理过的商品不再返回
+     */
+    public synchronized List<String> getChangedProductIdList(List<Map<String, Object>> stampList, String stampKey) {
+        return scanUpdateTime(stampList, stampKey, new HashSet<>(updateTimeProductIdSet), false);
+    }
+
+    /**
+     * 按拉取到的时间戳推进aut水位 商品重新加载成功后调用 加载失败时不推进 下次重新拉取
+     *
+     * @param stampList 按时间戳升序 包含spid与时间戳列
+     * @param stampKey 时间戳列名
+     * @param batchSize 本次拉取的最大条数
+     */
+    public synchronized void advanceUpdateTime(List<Map<String, Object>> stampList, String stampKey, int batchSize) {
+        if (stampList == null || stampList.isEmpty()) {
+            return;
+        }
+        long previousWatermark = updateTimeWatermark;
+        List<String> productIdList = scanUpdateTime(stampList, stampKey, updateTimeProductIdSet, true);
+        //整批都在同一时间戳上且没有新商品时 说明该时间戳上的商品超过单次拉取条数 跳过该时间戳 遗漏的由查询时的时间戳校验兜底
+        if (productIdList.isEmpty() && stampList.size() >= batchSize && updateTimeWatermark == previousWatermark) {
+            updateTimeWatermark++;
+            updateTimeProductIdSet.clear();
+        }
+    }
+
+    /**
+     * 按时间戳顺序筛选水位之后的商品
+     *
+     * @param stampList
+     * @param stampKey
+     * @param productIdSet 时间戳等于水位且已处理的商品id
+     * @param advance 是否推进水位
+     * @return
+     */
+    private List<String> scanUpdateTime(List<Map<String, Object>> stampList, String stampKey,
+                                        Set<String> productIdSet, boolean advance) {
+        List<String> productIdList = new ArrayList<>();
+        if (stampList == null) {
+            return productIdList;
+        }
+        long watermark = updateTimeWatermark;
+        for (Map<String, Object> stamp : stampList) {
+            Object productId = stamp.get("spid");
+            Object updateTime = stamp.get(stampKey);
+            if (productId == null || !(updateTime instanceof Date)) {
+                continue;
+            }
+            long time = ((Date) updateTime).getTime();
+            if (time == watermark && productIdSet.contains(productId.toString())) {
+                continue;
+            }
+            if (time > watermark) {
+                watermark = time;
+                productIdSet.clear();
+            }
+            productIdSet.add(productId.toString());
+            productIdList.add(productId.toString());
+        }
+        if (advance) {
+            updateTimeWatermark = watermark;
+        }
+        return productIdList;
+    }
+
+    /**
+     * 是否需要全量对账 上次对账失败时按退避间隔重试
+     *
+     * @param now
+     * @param reconcileIntervalMillis
+     * @return
+     */
+    public synchronized boolean isReconcileDue(long now, long reconcileIntervalMillis) {
+        long interval = reconcileIntervalMillis;
+        if (consecutiveReconcileFailCount > 0) {
+            interval = Math.min(reconcileIntervalMillis,
+                    RECONCILE_RETRY_MIN_MILLIS << Math.min(consecutiveReconcileFailCount - 1, 16));
+        }
+        return now - lastReconcileTime >= interval;
+    }
+
+    /**
+     * 记录一次增量同步
+     */
+    public synchronized void recordTick(long now, long elapsedNanos, int newCount, int changedCount, int expiredCount) {
+        lastSyncTime = now;
+        tickCount++;
+        lastTickElapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        maxTickElapsedMillis = Math.max(maxTickElapsedMillis, lastTickElapsedMillis);
+        lastNewCount = newCount;
+        lastChangedCount = changedCount;
+        lastExpiredCount = expiredCount;
+    }
+
+    /**
+     * 记录一次全量对账
+     */
+    public synchronized void recordReconcile(long now, long elapsedNanos, int addedCount, int removedCount) {
+        consecutiveReconcileFailCount = 0;
+        updateReconcile(now, elapsedNanos, addedCount, removedCount);
+    }
+
+    /**
+     * 记录一次失败的全量对账 按尝试时间计算下次重试时间
+     *
+     * @param addedCount 失败前已补充的条数
+     * @param removedCount 失败前已删除的条数
+     */
+    public synchronized void recordReconcileFail(long now, long elapsedNanos, int addedCount, int removedCount) {
+        reconcileFailCount++;
+        consecutiveReconcileFailCount++;
+        updateReconcile(now, elapsedNanos, addedCount, removedCount);
+    }
+
+    private void updateReconcile(long now, long elapsedNanos, int addedCount, int removedCount) {
+        lastReconcileTime = now;
+        reconcileCount++;
+        lastReconcileElapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        lastReconcileAddedCount = addedCount;
+        lastReconcileRemovedCount = removedCount;
+    }
+
+    public synchronized void recordFail() {
+        failCount++;
+    }
+
+    /**
+     * 获取同步统计信息
+     * syncLagMillis为距上次成功同步的时间 updateTimeLagMillis为aut水位落后当前时间的时间(没有变更时也会增长)
+     *
+     * @param now
+     * @return
+     */
+    public synchronized Map<String, Object> getStats(long now) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("initialized", initialized);
+        stats.put("productInActivityIdWatermark", productInActivityIdWatermark);
+        stats.put("updateTimeWatermark", initialized ? new Date(updateTimeWatermark) : null);
+        stats.put("syncLagMillis", initialized ? now - lastSyncTime : null);
+        stats.put("updateTimeLagMillis", initialized ? now - updateTimeWatermark : null);
+        stats.put("tickCount", tickCount);
+        stats.put("failCount", failCount);
+        stats.put("lastTickElapsedMillis", lastTickElapsedMillis);
+        stats.put("maxTickElapsedMillis", maxTickElapsedMillis);
+        stats.put("lastNewCount", lastNewCount);
+        stats.put("lastChangedCount", lastChangedCount);
+        stats.put("lastExpiredCount", lastExpiredCount);
+        stats.put("reconcileCount", reconcileCount);
+        stats.put("lastReconcileTime", initialized ? new Date(lastReconcileTime) : null);
+        stats.put("lastReconcileElapsedMillis", lastReconcileElapsedMillis);
+        stats.put("lastReconcileAddedCount", lastReconcileAddedCount);
+        stats.put("lastReconcileRemovedCount", lastReconcileRemovedCount);
+        stats.put("reconcileFailCount", reconcileFailCount);
+        stats.put("consecutiveReconcileFailCount", consecutiveReconcileFailCount);
+        return stats;
+    }
+}
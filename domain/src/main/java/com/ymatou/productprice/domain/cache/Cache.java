@@ -1,6 +1,7 @@
 package com.ymatou.productprice.domain.cache;
 
 import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import com.ymatou.productprice.domain.model.ActivityProduct;
@@ -11,14 +12,13 @@ import com.ymatou.productprice.infrastructure.config.props.BizProps;
 import com.ymatou.productprice.infrastructure.config.props.CacheProps;
 import com.ymatou.productprice.infrastructure.util.CacheUtil.CacheManager;
 import com.ymatou.productprice.infrastructure.util.LogWrapper;
-import com.ymatou.productprice.infrastructure.util.Utils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.*;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -50,6 +50,25 @@ public class Cache {
 
     private Repository realBusinessRepository;
 
+    private ActivityProductIndex activityProductIndex;
+
+    private final ActivityProductWatermark activityProductWatermark = new ActivityProductWatermark();
+
+    /**
+     * 规格缓存回源加载名称
+     */
+    private static final String CATALOG_LOAD_NAME = "catalog";
+
+    /**
+     * 价格区间缓存回源加载名称
+     */
+    private static final String PRICE_RANGE_LOAD_NAME = "priceRange";
+
+    /**
+     * 时间戳表中活动商品更新时间列名
+     */
+    private static final String ACTIVITY_PRODUCT_STAMP_KEY = "aut";
+
     @PostConstruct
     public void init() {
         if (bizProps.isUseParallel()) {
@@ -57,6 +76,7 @@ public class Cache {
         } else {
             realBusinessRepository = mongoRepository;
         }
+        activityProductIndex = new ActivityProductIndex(() -> cacheProps.getActivityProductCacheSize());
     }
 
     /**
@@ -68,6 +88,15 @@ public class Cache {
         return cacheManager.getCacheStats();
     }
 
+    /**
+     * 获取回源加载统计信息
+     *
+     * @return
+     */
+    public Map<String, Long> getLoadStats() {
+        return cacheManager.getLoadStats();
+    }
+
     /**
      * 获取商品缓存信息
      *
@@ -125,167 +154,79 @@ public class Cache {
     }
 
     /**
-     * 创建新缓存数据
+     * 规格缓存数据有效性检查
+     * 由于时间戳by商品维度 当商品中任意规格发生变化 规格时间戳都会发生变化 只取一个规格进行比较即可
      *
-     * @param catalogList
+     * @param productPriceData
+     * @param catalogUpdateTime
+     * @return
      */
-    private void createNewCacheData(List<Catalog> catalogList) {
-        //将从数据库取到的最新数据刷新缓存结构
-        Map<String, List<Catalog>> cacheGroup = catalogList
-                .stream()
-                .collect(Collectors.groupingBy(Catalog::getProductId));
-        Map<String, ProductPriceData> cacheMap = Maps.transformValues(cacheGroup, v -> {
-            ProductPriceData tempData = new ProductPriceData();
-            Catalog tempCatalog = v != null && !v.isEmpty() ? v.stream().findAny().get() : null;
-            tempData.setProductId(tempCatalog != null ? tempCatalog.getProductId() : String.valueOf(""));
-            tempData.setCatalogList(v);
-            return tempData;
-        });
+    private boolean checkValidCatalogCacheData(ProductPriceData productPriceData, Date catalogUpdateTime) {
+        List<Catalog> catalogList = productPriceData.getCatalogList();
+        Catalog tempCatalog = catalogList != null && !catalogList.isEmpty() ? catalogList.get(0) : null;
 
-        //批量刷缓存
-        cacheManager.put(cacheMap);
-    }
+        //缓存中规格更新时间戳
+        //默认值设置为-1为了排除规格时间戳为空 mongo中的时间戳也为空 返回相等的情况
+        Long cacheCatalogUpdateStamp = tempCatalog != null && tempCatalog.getUpdateTime() != null
+                ? tempCatalog.getUpdateTime().getTime() : -1L;
 
-    /**
-     * 过滤有效商品缓存数据
-     *
-     * @param productPriceDataList
-     * @param catalogUpdateTimeMap
-     */
-    private List<ProductPriceData> filterValidCacheData(List<ProductPriceData> productPriceDataList,
-                                                        Map<String, Date> catalogUpdateTimeMap) {
-        //过滤有效的业务数据
-        return productPriceDataList
-                .stream()
-                .filter(p -> {
-                    //缓存中规格更新时间戳
-                    //默认值设置为-1为了排除规格时间戳为空 mongo中的时间戳也为空 返回相等的情况
-                    //由于时间戳by商品维度 当商品中任意规格发生变化 规格时间戳都会发生变化 只取一个规格进行比较即可
-                    Optional<Catalog> catalogOptional = p.getCatalogList() != null ?
-                            p.getCatalogList().stream().findAny() : null;
-
-                    Catalog tempCatalog = catalogOptional != null && catalogOptional.isPresent()
-                            ? catalogOptional.get() : null;
-
-                    Long cacheCatalogUpdateStamp = tempCatalog != null && tempCatalog.getUpdateTime() != null
-                            ? tempCatalog.getUpdateTime().getTime() : -1L;
-
-                    //时间戳表中规格更新时间戳
-                    Long catalogUpdateStamp = catalogUpdateTimeMap != null
-                            && catalogUpdateTimeMap.get(p.getProductId()) != null
-                            ? catalogUpdateTimeMap.get(p.getProductId()).getTime() : 0L;
-
-                    //时间戳比较，不相等则表示发生变更，业务数据需要重新到数据库拉取
-                    return Long.compare(cacheCatalogUpdateStamp, catalogUpdateStamp) == 0;
-                })
-                .collect(Collectors.toList());
+        //时间戳表中规格更新时间戳
+        Long catalogUpdateStamp = catalogUpdateTime != null ? catalogUpdateTime.getTime() : 0L;
+
+        //时间戳比较，不相等则表示发生变更，业务数据需要重新到数据库拉取
+        return Long.compare(cacheCatalogUpdateStamp, catalogUpdateStamp) == 0;
     }
 
     /**
-     * 更新缓存数据
+     * 批量回源加载规格缓存数据
+     * 业务数据过期的缓存保留商品维度数据 只替换规格列表
      *
-     * @param reloadCatalogGroup
+     * @param productIdList
+     * @param invalidCacheMap
+     * @return
      */
-    private void updateCacheData(List<ProductPriceData> cacheProductList,
-                                 Map<String, List<Catalog>> reloadCatalogGroup) {
-        //创建批量刷缓存的结构
-        Map<String, ProductPriceData> batchRefreshCacheMap = new HashMap<>();
-
-        reloadCatalogGroup.entrySet()
-                .forEach(x -> {
-                    ProductPriceData tempData = cacheProductList != null
-                            ? cacheProductList
-                            .stream()
-                            .filter(xx -> Optional.ofNullable(xx.getProductId()).orElse("").equals(x.getKey()))
-                            .findAny()
-                            .orElse(null) : null;
-
-                    //针对没有命中的数据，构建缓存结构
-                    if (tempData == null) {
-                        tempData = new ProductPriceData();
-                        tempData.setProductId(x.getKey());
-                    }
-                    //不管业务数据过期还是缓存没有命中，都需要重新设置数据
-                    tempData.setCatalogList(x.getValue());
+    private Map<String, ProductPriceData> loadCatalogCacheData(List<String> productIdList,
+                                                               Map<String, ProductPriceData> invalidCacheMap) {
+        List<Catalog> catalogList = realBusinessRepository.getCatalogListByProduct(productIdList);
+        if (catalogList == null || catalogList.isEmpty()) {
+            return Collections.emptyMap();
+        }
 
-                    //填充批量缓存的数据
-                    batchRefreshCacheMap.put(x.getKey(), tempData);
-                });
+        Map<String, List<Catalog>> catalogGroup = catalogList
+                .stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(Catalog::getProductId));
+
+        Map<String, ProductPriceData> result = new HashMap<>(catalogGroup.size() * 2);
+        catalogGroup.forEach((productId, productCatalogList) -> {
+            ProductPriceData tempData = invalidCacheMap.get(productId);
 
-        //根据批量缓存结构进行批量缓存
-        cacheManager.put(batchRefreshCacheMap);
+            //针对没有命中的数据，构建缓存结构
+            if (tempData == null) {
+                tempData = new ProductPriceData();
+                tempData.setProductId(productId);
+            }
+            //不管业务数据过期还是缓存没有命中，都需要重新设置数据
+            tempData.setCatalogList(productCatalogList);
+            result.put(productId, tempData);
+        });
+        return result;
     }
 
     /**
-     * 处理并组装商品缓存数据
+     * 根据商品id列表获取规格缓存数据
      *
      * @param productIdList
-     * @param cacheProductList
      * @param catalogUpdateTimeMap
      * @return
      */
-    private List<Catalog> processProductPriceDataCacheList(List<String> productIdList,
-                                                           List<ProductPriceData> cacheProductList,
-                                                           Map<String, Date> catalogUpdateTimeMap) {
-        List<Catalog> result;
-
-        //缓存全部没有命中的情况
-        if (cacheProductList == null || cacheProductList.isEmpty()) {
-            //从数据库中获取数据
-            List<Catalog> catalogList = realBusinessRepository.getCatalogListByProduct(productIdList);
-
-            result = catalogList;
-
-            //设置缓存
-            createNewCacheData(catalogList);
-
-            return result;
-        } else {
-
-            //过滤有效业务缓存数据
-            List<ProductPriceData> validProductList = filterValidCacheData(cacheProductList, catalogUpdateTimeMap);
-
-            //组装有效缓存规格数据
-            List<Catalog> validCatalogList = new ArrayList<>();
-            validProductList.forEach(x -> validCatalogList.addAll(x.getCatalogList()));
-
-            //获取有效缓存ProductId
-            List<String> validProductIdList = validProductList
-                    .stream()
-                    .map(ProductPriceData::getProductId)
-                    .distinct()
-                    .collect(Collectors.toList());
-
-            //组装有效数据
-            result = new ArrayList<>();
-            result.addAll(validCatalogList);
-
-            //传入的productId与有效数据对应的productId列表的差集就是需要重新拉取的数据
-            List<String> needReloadProductIdList = new ArrayList<>();
-
-            needReloadProductIdList.addAll(productIdList);
-            needReloadProductIdList.removeAll(validProductIdList);
-
-            if (!needReloadProductIdList.isEmpty()) {
-                //需要重新刷缓存的数据
-                List<Catalog> reloadCatalogList = realBusinessRepository.getCatalogListByProduct(needReloadProductIdList);
-
-                if (reloadCatalogList != null && !reloadCatalogList.isEmpty()) {
-                    reloadCatalogList.removeAll(Collections.singleton(null));
-                    Map<String, List<Catalog>> reloadCatalogGroup = reloadCatalogList
-                            .stream()
-                            .collect(Collectors.groupingBy(Catalog::getProductId));
-
-                    //更新缓存
-                    updateCacheData(cacheProductList, reloadCatalogGroup);
-
-                    //添加重刷的有效数据
-                    result.addAll(reloadCatalogList);
-                }
-            }
-
-            return result;
-        }
+    private Map<String, ProductPriceData> getCatalogCacheData(Collection<String> productIdList,
+                                                              Map<String, Date> catalogUpdateTimeMap) {
+        return cacheManager.getAll(CATALOG_LOAD_NAME,
+                productIdList,
+                (String productId, ProductPriceData productPriceData) -> checkValidCatalogCacheData(productPriceData,
+                        catalogUpdateTimeMap != null ? catalogUpdateTimeMap.get(productId) : null),
+                this::loadCatalogCacheData);
     }
 
     /**
@@ -296,19 +237,11 @@ public class Cache {
      */
     public List<Catalog> getCatalogListByProduct(List<String> productIdList,
                                                  Map<String, Date> catalogUpdateTimeMap) {
-        //过滤重复商品id
-        productIdList = productIdList
-                .stream()
-                .distinct()
-                .collect(Collectors.toList());
-
-        //根据商品id列表获取缓存信息
-        List<ProductPriceData> cacheProductList = cacheManager.get(productIdList).values()
-                .stream()
-                .map(x -> (ProductPriceData) x)
-                .collect(Collectors.toList());
-
-        return processProductPriceDataCacheList(productIdList, cacheProductList, catalogUpdateTimeMap);
+        List<Catalog> result = new ArrayList<>();
+        getCatalogCacheData(productIdList, catalogUpdateTimeMap)
+                .values()
+                .forEach(x -> result.addAll(x.getCatalogList()));
+        return result;
     }
 
     /**
@@ -319,53 +252,23 @@ public class Cache {
      */
     public List<Catalog> getCatalogByCatalogId(List<Map<String, Object>> mapList,
                                                Map<String, Date> catalogUpdateTimeMap) {
-        //组装商品id列表
-        List<String> productIdList = mapList
-                .stream()
-                .map(x -> x.get("spid").toString())
-                .distinct()
-                .collect(Collectors.toList());
-
-        //根据商品id列表获取缓存信息
-        List<ProductPriceData> cacheProductList = cacheManager.get(productIdList).values()
-                .stream()
-                .map(x -> (ProductPriceData) x)
-                .collect(Collectors.toList());
-
-        //过滤有效业务缓存数据
-        List<ProductPriceData> validProductList = filterValidCacheData(cacheProductList, catalogUpdateTimeMap);
-
-        //组装全部catalogId
-        List<String> catalogIdList = mapList
-                .stream()
-                .map(x -> x.get("cid").toString())
-                .distinct()
-                .collect(Collectors.toList());
-
-        //组装有效的catalogId与catalog
-        List<String> validCatalogIdList = new ArrayList<>();
-        List<Catalog> validCatalogList = new ArrayList<>();
-        validProductList.forEach(p -> p.getCatalogList().forEach(c -> {
-            if (catalogIdList.contains(c.getCatalogId())) {
-                validCatalogIdList.add(c.getCatalogId());
-                validCatalogList.add(c);
-            }
-        }));
-
-        //需要重新取mongo取的catalogIdList
-        List<String> needReloadCatalogIdList = new ArrayList<>();
-        needReloadCatalogIdList.addAll(catalogIdList);
-        needReloadCatalogIdList.removeAll(validCatalogIdList);
+        //组装商品id与规格id集合
+        Set<String> productIdSet = new LinkedHashSet<>();
+        Set<String> catalogIdSet = new HashSet<>();
+        mapList.forEach(x -> {
+            productIdSet.add(x.get("spid").toString());
+            catalogIdSet.add(x.get("cid").toString());
+        });
 
+        //按商品维度获取缓存 再筛选出需要的规格
         List<Catalog> resultList = new ArrayList<>();
-
-        //如果有未命中或者无效的规格数据,则重新取mongo中取
-        if (!needReloadCatalogIdList.isEmpty()) {
-            resultList.addAll(realBusinessRepository.getCatalogByCatalogId(needReloadCatalogIdList));
-        }
-
-        resultList.addAll(validCatalogList);
-
+        getCatalogCacheData(productIdSet, catalogUpdateTimeMap)
+                .values()
+                .forEach(p -> p.getCatalogList().forEach(c -> {
+                    if (catalogIdSet.contains(c.getCatalogId())) {
+                        resultList.add(c);
+                    }
+                }));
         return resultList;
     }
 
@@ -373,70 +276,142 @@ public class Cache {
      * 初始化活动商品缓存
      */
     public int initActivityProductCache() {
+        long loadStartTime = System.currentTimeMillis();
+        //全量加载前取最大inaid 加载期间新增的活动商品inaid更大 由增量同步拉取
+        int maxProductInActivityId = realBusinessRepository.getMaxProductInActivityId();
         List<ActivityProduct> activityProductList = realBusinessRepository.getAllValidActivityProductList();
+        activityProductIndex.clear();
         if (activityProductList != null && !activityProductList.isEmpty()) {
-
-            Map activityProductMap = activityProductList.stream().collect(Collectors.groupingBy(ActivityProduct::getProductId));
-
-            cacheManager.putActivityProduct(activityProductMap);
+            activityProductIndex.merge(activityProductList, null);
         }
-        return activityProductList.size();
+        activityProductWatermark.init(activityProductList, loadStartTime, maxProductInActivityId);
+        return activityProductList != null ? activityProductList.size() : 0;
     }
 
     /**
      * 添加活动商品增量信息
+     * 按inaid水位拉取新增活动商品 按时间戳表aut水位拉取有变更的商品并整商品重新加载 清理已过期的活动商品
+     * 被删除的活动商品由定期全量对账清理
      */
     public void addNewestActivityProductCache() {
-        ConcurrentMap activityProductCache = cacheManager.getActivityProductCacheContainer();
-
-        List<Integer> cacheInActivityIdList = new ArrayList<>();
-
-        activityProductCache.values().forEach(z ->
-                ((List<ActivityProduct>) z).forEach(x -> cacheInActivityIdList.add(x.getProductInActivityId())));
-
-        List<Integer> validInActivityIdList = realBusinessRepository.getValidProductInActivityIdList();
+        if (!activityProductWatermark.isInitialized()) {
+            initActivityProductCache();
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            long now = System.currentTimeMillis();
+            int expiredCount = activityProductIndex.removeExpired(now);
+
+            //新增的活动商品
+            List<ActivityProduct> newestActivityProductList = realBusinessRepository
+                    .getNewestActivityProductIdList(activityProductWatermark.getProductInActivityIdWatermark());
+            int newCount = 0;
+            if (newestActivityProductList != null && !newestActivityProductList.isEmpty()) {
+                List<ActivityProduct> validActivityProductList = newestActivityProductList.stream()
+                        .filter(x -> x.getEndTime() == null || x.getEndTime().getTime() >= now)
+                        .collect(Collectors.toList());
+                newCount = activityProductIndex.merge(validActivityProductList, null);
+                activityProductWatermark.advanceProductInActivityId(newestActivityProductList);
+            }
 
-        List<Integer> needReloadInActivityIdList = new ArrayList<>();
-        needReloadInActivityIdList.addAll(validInActivityIdList);
-        needReloadInActivityIdList.removeAll(cacheInActivityIdList);
+            //有变更的商品
+            int batchSize = cacheProps.getActivityProductSyncBatchSize();
+            List<Map<String, Object>> updatedStampList = realBusinessRepository.getUpdatedTimeStampList(
+                    ACTIVITY_PRODUCT_STAMP_KEY, new Date(activityProductWatermark.getUpdateTimeWatermark()), batchSize);
+            List<String> changedProductIdList = activityProductWatermark
+                    .getChangedProductIdList(updatedStampList, ACTIVITY_PRODUCT_STAMP_KEY);
+            if (!changedProductIdList.isEmpty()) {
+                reloadActivityProductCache(changedProductIdList);
+            }
+            //重新加载成功后才推进水位 加载失败时下次重新拉取这批变更
+            activityProductWatermark.advanceUpdateTime(updatedStampList, ACTIVITY_PRODUCT_STAMP_KEY, batchSize);
+
+            activityProductWatermark.recordTick(now, System.nanoTime() - startNanos,
+                    newCount, changedProductIdList.size(), expiredCount);
+            if (newCount > 0 || !changedProductIdList.isEmpty()) {
+                logWrapper.recordInfoLog("增量添加活动商品缓存已执行,新增{}条,变更商品{}个,清理过期{}条",
+                        newCount, changedProductIdList.size(), expiredCount);
+            }
 
-        //获取新增的mongo活动商品信息
-        List<ActivityProduct> newestActivityProductList = realBusinessRepository
-                .getActivityProductListByInActivityIdList(needReloadInActivityIdList);
+            if (activityProductWatermark.isReconcileDue(now,
+                    TimeUnit.SECONDS.toMillis(cacheProps.getActivityProductReconcileInterval()))) {
+                reconcileActivityProductCache();
+            }
+        } catch (Exception ex) {
+            activityProductWatermark.recordFail();
+            logWrapper.recordErrorLog("增量添加活动商品缓存发生异常", ex);
+        }
+    }
 
-        if (newestActivityProductList != null && !newestActivityProductList.isEmpty()) {
-            List<String> productIdList = newestActivityProductList.stream().map(ActivityProduct::getProductId).collect(Collectors.toList());
-            List<ActivityProduct> cacheActivityProductList = new ArrayList<>();
-            productIdList.forEach(x -> {
-                List<ActivityProduct> tempCacheList = (List)activityProductCache.get(x);
-                if (tempCacheList != null) {
-                    cacheActivityProductList.addAll(tempCacheList);
+    /**
+     * 活动商品全量对账
+     * 获取mongo中全部有效活动商品id 删除缓存中已不存在的活动商品 按activityProductSyncBatchSize分批加载缓存中缺失的活动商品
+     * 后台任务直接查询mongo 不经过并行处理 失败时已加载的批次保留 按退避间隔重试
+     */
+    public void reconcileActivityProductCache() {
+        long startNanos = System.nanoTime();
+        int removedCount = 0;
+        int addedCount = 0;
+        try {
+            List<Integer> validInActivityIdList = mongoRepository.getValidProductInActivityIdList();
+            removedCount = activityProductIndex.retain(new HashSet<>(validInActivityIdList));
+
+            List<Integer> needReloadInActivityIdList = activityProductIndex.getMissingProductInActivityIdList(validInActivityIdList);
+            for (List<Integer> batchInActivityIdList : Lists.partition(needReloadInActivityIdList,
+                    Math.max(cacheProps.getActivityProductSyncBatchSize(), 1))) {
+                List<ActivityProduct> missingActivityProductList = mongoRepository
+                        .getActivityProductListByInActivityIdList(batchInActivityIdList);
+                if (missingActivityProductList != null && !missingActivityProductList.isEmpty()) {
+                    addedCount += activityProductIndex.merge(missingActivityProductList, null);
+                    activityProductWatermark.advanceProductInActivityId(missingActivityProductList);
                 }
-            });
-            //针对mongo中已经删除但是缓存中存在的数据
-            List<Integer> needCacheRemoveIdList = new ArrayList<>();
-            List<Integer> newestProductInActivityIdList = newestActivityProductList.stream().map(ActivityProduct::getProductInActivityId).collect(Collectors.toList());
-            needCacheRemoveIdList.addAll(needReloadInActivityIdList);
-            needCacheRemoveIdList.removeAll(newestProductInActivityIdList);
-
-            if(!needCacheRemoveIdList.isEmpty()){
-                needCacheRemoveIdList.forEach(z -> {
-                    ActivityProduct tempProduct = cacheActivityProductList.stream().filter(x -> x.getProductInActivityId().equals(z)).findAny().orElse(null);
-                    if(tempProduct != null){
-                        cacheActivityProductList.remove(tempProduct);
-                    }
-                });
             }
+            activityProductWatermark.recordReconcile(System.currentTimeMillis(), System.nanoTime() - startNanos,
+                    addedCount, removedCount);
+            logWrapper.recordInfoLog("活动商品缓存全量对账已执行,补充{}条,删除{}条", addedCount, removedCount);
+        } catch (Exception ex) {
+            activityProductWatermark.recordReconcileFail(System.currentTimeMillis(), System.nanoTime() - startNanos,
+                    addedCount, removedCount);
+            logWrapper.recordErrorLog("活动商品缓存全量对账发生异常,已补充{}条,已删除{}条", addedCount, removedCount, ex);
+        }
+    }
+
+    /**
+     * 删除商品规格缓存
+     *
+     * @param productIdList
+     */
+    public void invalidateCatalogCache(Collection<String> productIdList) {
+        cacheManager.invalidate(productIdList);
+    }
 
-            cacheActivityProductList.addAll(newestActivityProductList);
-            Map tempMap = cacheActivityProductList.stream().distinct().collect(Collectors.groupingBy(ActivityProduct::getProductId));
+    /**
+     * 重新加载活动商品缓存
+     *
+     * @param productIdList
+     */
+    public void reloadActivityProductCache(List<String> productIdList) {
+        List<ActivityProduct> activityProductList = realBusinessRepository.getActivityProductList(productIdList);
+        activityProductIndex.replaceProducts(productIdList, activityProductList);
+    }
 
-            //批量添加至缓存
-            cacheManager.putActivityProduct(tempMap);
+    /**
+     * 获取活动商品索引统计信息
+     *
+     * @return
+     */
+    public Map<String, Object> getActivityProductIndexStats() {
+        return activityProductIndex.getStats();
+    }
 
-            logWrapper.recordErrorLog("addNewestActivityProductCache_newestActivityProductList:{}", Utils.toJSONString(newestActivityProductList));
-            logWrapper.recordInfoLog("增量添加活动商品缓存已执行,新增{}条", newestActivityProductList.size());
-        }
+    /**
+     * 获取活动商品增量同步统计信息
+     *
+     * @return
+     */
+    public Map<String, Object> getActivityProductSyncStats() {
+        return activityProductWatermark.getStats(System.currentTimeMillis());
     }
 
     /**
@@ -447,120 +422,78 @@ public class Cache {
      * @return
      */
     public ActivityProduct getActivityProduct(String productId, Date activityProductUpdateTime) {
-        List<ActivityProduct> cacheActivityList;
-        ActivityProduct result;
-        String cacheKey = productId;
-        //先从缓存中取
-        cacheActivityList = cacheManager.getActivityProduct(cacheKey);
+        //进行中的活动商品时间戳一致时直接返回
+        long now = System.currentTimeMillis();
+        ActivityProduct activeActivityProduct = activityProductIndex.getActive(productId, now);
+        if (activeActivityProduct != null && checkValidActivityProduct(activeActivityProduct, activityProductUpdateTime)) {
+            return activeActivityProduct;
+        }
+
+        List<ActivityProduct> cacheActivityList = activityProductIndex.get(productId);
 
         //如果缓存中没有命中，则认为此商品不是活动商品
-        if (cacheActivityList != null && !cacheActivityList.isEmpty()) {
-            Map tempUpdateTimeMap = new HashMap();
+        if (!cacheActivityList.isEmpty()) {
+            Map<String, Date> tempUpdateTimeMap = new HashMap<>();
             tempUpdateTimeMap.put(productId, activityProductUpdateTime);
-            List<ActivityProduct> tempResultList = processCacheActivityProduct(cacheActivityList, tempUpdateTimeMap);
-            return tempResultList.stream().filter(x -> {
-                Long startTime = x.getStartTime().getTime();
-                Long endTime = x.getEndTime().getTime();
-                Long now = new Date().getTime();
-                return now >= startTime && now <= endTime;
-            }).findAny().orElse(null);
+            //时间戳变化的活动商品回源后已合并到索引 从索引中取进行中的活动商品
+            processCacheActivityProduct(cacheActivityList, tempUpdateTimeMap);
+            return activityProductIndex.getActive(productId, now);
+        } else if (!activityProductIndex.isFull()) {
+            return null;
         } else {
-            if (cacheManager.getActivityProductCacheContainer().size() < cacheProps.getActivityProductCacheSize()) {
-                return null;
-            } else {
-                result = realBusinessRepository.getActivityProduct(productId);
-                logWrapper.recordErrorLog("活动商品缓存size需要扩容，超出容量的活动商品已改为从mongo查询，不影响正常业务");
-            }
+            logWrapper.recordErrorLog("活动商品缓存size需要扩容，超出容量的活动商品已改为从mongo查询，不影响正常业务");
+            return realBusinessRepository.getActivityProduct(productId);
         }
-        return result;
     }
 
     /**
      * 缓存活动商品数据处理逻辑
+     * 时间戳变化的活动商品按活动商品id回源加载并合并到索引 mongo中已不存在的从索引中删除
      *
      * @param activityProductList
      * @return
      */
     private List<ActivityProduct> processCacheActivityProduct(List<ActivityProduct> activityProductList, Map<String, Date> activityProductUpdateTimeMap) {
-        if (activityProductList != null && !activityProductList.isEmpty()) {
-            List<ActivityProduct> validProductList = activityProductList.stream().filter(ap -> checkValidActivityProduct(ap, activityProductUpdateTimeMap.get(ap.getProductId())))
-                    .collect(Collectors.toList());
-
-            List<Integer> activityProductIdList = activityProductList.stream().map(ActivityProduct::getProductInActivityId).collect(Collectors.toList());
-            List<Integer> validProductIdList = validProductList.stream().map(ActivityProduct::getProductInActivityId).collect(Collectors.toList());
-
-            List<Integer> needReloadActivityProductIdList = new ArrayList<>();
-            needReloadActivityProductIdList.addAll(activityProductIdList);
-            needReloadActivityProductIdList.removeAll(validProductIdList);
-
-            List<ActivityProduct> cacheActivityProductList = new ArrayList<>();
-            cacheActivityProductList.addAll(validProductList);
-
-            if (!needReloadActivityProductIdList.isEmpty()) {
-                List<ActivityProduct> reloadActivityProductList = realBusinessRepository.getActivityProductListByInActivityIdList(needReloadActivityProductIdList);
-                List<String> reloadActivityProductIdList = reloadActivityProductList.stream().map(ActivityProduct::getProductId).collect(Collectors.toList());
-                reloadActivityProductIdList = reloadActivityProductIdList.stream().distinct().collect(Collectors.toList());
-
-                List<List<ActivityProduct>> tempCacheActivityProductList = cacheManager.getActivityProduct(reloadActivityProductIdList);
-                List<ActivityProduct> plainCacheActivityProductList = new ArrayList<>();
-                tempCacheActivityProductList.forEach(z -> {
-                   z.forEach(x -> {
-                       ActivityProduct tempProduct = plainCacheActivityProductList.stream().filter(pa -> pa.getProductInActivityId().equals(x.getProductInActivityId())
-                       && pa.getProductId().equals(x.getProductId())).findAny().orElse(null);
-
-                       if(tempProduct == null){
-                           plainCacheActivityProductList.add(x);
-                       }
-                   });
-                });
-
-                if (reloadActivityProductList != null && !reloadActivityProductList.isEmpty()) {
-                    reloadActivityProductList.forEach(x -> {
-                        ActivityProduct tempActivityProduct = plainCacheActivityProductList.stream().filter(z -> z.getProductInActivityId().equals(x.getProductInActivityId())).findAny().orElse(null);
-
-                        if (tempActivityProduct != null) {
-                            plainCacheActivityProductList.remove(tempActivityProduct);
-                        }
-                    });
-                }
-
-                cacheActivityProductList.addAll(reloadActivityProductList);
-                cacheActivityProductList.addAll(plainCacheActivityProductList);
-
-                Map tempCacheMap = cacheActivityProductList.stream().collect(Collectors.groupingBy(ActivityProduct::getProductId));
+        List<ActivityProduct> cacheActivityProductList = new ArrayList<>();
+        List<Integer> needReloadActivityProductIdList = new ArrayList<>();
+        for (ActivityProduct activityProduct : activityProductList) {
+            if (checkValidActivityProduct(activityProduct, activityProductUpdateTimeMap.get(activityProduct.getProductId()))) {
+                cacheActivityProductList.add(activityProduct);
+            } else {
+                needReloadActivityProductIdList.add(activityProduct.getProductInActivityId());
+            }
+        }
 
-                cacheManager.putActivityProduct(tempCacheMap);
+        if (!needReloadActivityProductIdList.isEmpty()) {
+            List<ActivityProduct> reloadActivityProductList = realBusinessRepository.getActivityProductListByInActivityIdList(needReloadActivityProductIdList);
+            if (reloadActivityProductList == null) {
+                reloadActivityProductList = Collections.emptyList();
             }
-            return cacheActivityProductList;
+            Set<Integer> reloadIdSet = new HashSet<>();
+            reloadActivityProductList.forEach(x -> reloadIdSet.add(x.getProductInActivityId()));
+            List<Integer> removeIdList = needReloadActivityProductIdList.stream()
+                    .filter(x -> !reloadIdSet.contains(x))
+                    .collect(Collectors.toList());
+
+            activityProductIndex.merge(reloadActivityProductList, removeIdList);
+            cacheActivityProductList.addAll(reloadActivityProductList);
         }
-        return null;
+        return cacheActivityProductList;
     }
 
     /**
-     * 活动商品有效性检查
+     * 活动商品有效性检查 时间戳不一致或已过期时无效
      *
      * @param activityProduct
      * @param activityProductUpdateTime
      * @return
      */
     private boolean checkValidActivityProduct(ActivityProduct activityProduct, Date activityProductUpdateTime) {
-        Long endTime = activityProduct.getEndTime().getTime();
-        Long now = new Date().getTime();
-        Long updateStamp = activityProductUpdateTime != null ? activityProductUpdateTime.getTime() : 0L;
-        Long activityProductStamp = activityProduct.getUpdateTime() != null
+        long updateStamp = activityProductUpdateTime != null ? activityProductUpdateTime.getTime() : 0L;
+        long activityProductStamp = activityProduct.getUpdateTime() != null
                 ? activityProduct.getUpdateTime().getTime() : -1L;
-        //当活动商品发生变更时，有可能从mongo中根据限定条件取出来是空，所以先把productId取出来
-        String activityProductId = activityProduct.getProductId();
-        if (Long.compare(activityProductStamp, updateStamp) != 0) {
-            return false;
-        }
-
-        //过期的活动商品
-        if (now > endTime) {
-            cacheManager.deleteActivityProduct(activityProductId);
-            return false;
-        }
-        return true;
+        return activityProductStamp == updateStamp
+                && System.currentTimeMillis() <= activityProduct.getEndTime().getTime();
     }
 
     /**
@@ -577,28 +510,20 @@ public class Cache {
                 .collect(Collectors.toList());
 
         //从缓存中获取数据
-        List<List<ActivityProduct>> cacheList = cacheManager.getActivityProduct(productIdList);
-        if (cacheList != null && !cacheList.isEmpty()) {
-            //针对Lists.newArrayList创建的列表 排除空元素
-            cacheList.removeAll(Collections.singleton(null));
-        }
-
         List<ActivityProduct> cacheActivityList = new ArrayList<>();
-        List<ActivityProduct> finalCacheActivityList = cacheActivityList;
-        cacheList.forEach(x -> finalCacheActivityList.addAll(x));
+        productIdList.forEach(x -> cacheActivityList.addAll(activityProductIndex.get(x)));
 
         //如果缓存为空 则认为都不是活动商品
-        if (finalCacheActivityList == null || finalCacheActivityList.isEmpty()) {
+        if (cacheActivityList.isEmpty()) {
             //如果缓存为空，但是缓存容器没有满的情况下则认为不是活动商品
-            if (cacheManager.getActivityProductCacheContainer().size() < cacheProps.getActivityProductCacheSize()) {
+            if (!activityProductIndex.isFull()) {
                 return null;
             } else {
-                cacheActivityList = realBusinessRepository.getActivityProductList(productIdList);
                 logWrapper.recordErrorLog("活动商品缓存size需要扩容，超出容量的活动商品已改为从mongo查询，不影响正常业务");
-                return cacheActivityList;
+                return realBusinessRepository.getActivityProductList(productIdList);
             }
         } else {
-            return processCacheActivityProduct(finalCacheActivityList, activityProductStampMap);
+            return processCacheActivityProduct(cacheActivityList, activityProductStampMap);
         }
     }
 
@@ -610,91 +535,35 @@ public class Cache {
      */
     public List<ProductPriceData> getPriceRangeListByProduct(List<String> productIdList,
                                                              Map<String, Date> productUpdateStampMap) {
-        List<ProductPriceData> result;
-
-        //从缓存中获取数据
-        List<ProductPriceData> cacheProductList = cacheManager.get(productIdList).values()
-                .stream()
-                .map(x -> (ProductPriceData) x)
-                .collect(Collectors.toList());
-
-        if (cacheProductList != null && !cacheProductList.isEmpty()) {
-            //针对Lists.newArrayList创建的列表 排除空元素
-            cacheProductList.removeAll(Collections.singleton(null));
-        }
-
-        //缓存完全不命中
-        if (cacheProductList == null || cacheProductList.isEmpty()) {
-            result = realBusinessRepository.getPriceRangeListByProduct(productIdList);
-
-            cacheManager.put(result
-                    .stream()
-                    .collect(Collectors.toMap(ProductPriceData::getProductId, y -> y, (key1, key2) -> key2))
-            );
-        } else {
-            //获取有效的商品缓存数据
-            List<ProductPriceData> validProductPriceDataList = cacheProductList
-                    .stream()
-                    .filter(x -> {
-                        Long cacheProductUpdateStamp = x.getUpdateTime() != null ? x.getUpdateTime().getTime() : -1L;
-                        Long productUpdateStamp = productUpdateStampMap.get(x.getProductId()) != null ?
-                                productUpdateStampMap.get(x.getProductId()).getTime() : 0;
-                        return Long.compare(cacheProductUpdateStamp, productUpdateStamp) == 0;
-                    })
-                    .collect(Collectors.toList());
-
-            List<String> validProductIdList = validProductPriceDataList
-                    .stream()
-                    .map(ProductPriceData::getProductId)
-                    .collect(Collectors.toList());
-
-
-            //过滤出业务数据过期的商品缓存列表
-            List<ProductPriceData> invalidProductPriceDataList = new ArrayList<>();
-            invalidProductPriceDataList.addAll(cacheProductList);
-            invalidProductPriceDataList.removeAll(validProductPriceDataList);
-            invalidProductPriceDataList.removeAll(Collections.singleton(null));
-
-            //组装需要重新取数据库获取的数据
-            List<String> needReloadProductIdList = new ArrayList<>();
-            needReloadProductIdList.addAll(productIdList);
-            needReloadProductIdList.removeAll(validProductIdList);
-
-            List<ProductPriceData> reloadProductList = new ArrayList<>();
-
-            if (needReloadProductIdList != null && !needReloadProductIdList.isEmpty()) {
-                reloadProductList = realBusinessRepository
-                        .getPriceRangeListByProduct(needReloadProductIdList);
-            }
-
-            if (reloadProductList != null && !reloadProductList.isEmpty()) {
-                //去除空数据
-                reloadProductList.removeAll(Collections.singleton(null));
-                //组装需要刷缓存的数据
-                reloadProductList.forEach(x -> {
-                    //针对缓存结构中 商品数据过期 但是商品中规格数据可能有效的情况，保留其规格缓存数据
-                    ProductPriceData invalidProductCacheData = invalidProductPriceDataList
-                            .stream()
-                            .filter(z -> Optional.ofNullable(z.getProductId()).orElse("").equals(x.getProductId()))
-                            .findAny()
-                            .orElse(null);
-
-                    if (invalidProductCacheData != null) {
-                        x.setCatalogList(invalidProductCacheData.getCatalogList());
+        Map<String, ProductPriceData> result = cacheManager.getAll(PRICE_RANGE_LOAD_NAME,
+                productIdList,
+                (String productId, ProductPriceData productPriceData) -> {
+                    Long cacheProductUpdateStamp = productPriceData.getUpdateTime() != null
+                            ? productPriceData.getUpdateTime().getTime() : -1L;
+                    Date productUpdateTime = productUpdateStampMap != null ? productUpdateStampMap.get(productId) : null;
+                    Long productUpdateStamp = productUpdateTime != null ? productUpdateTime.getTime() : 0L;
+                    return Long.compare(cacheProductUpdateStamp, productUpdateStamp) == 0;
+                },
+                (reloadProductIdList, invalidCacheMap) -> {
+                    List<ProductPriceData> reloadProductList = realBusinessRepository
+                            .getPriceRangeListByProduct(reloadProductIdList);
+                    if (reloadProductList == null || reloadProductList.isEmpty()) {
+                        return Collections.emptyMap();
                     }
+                    Map<String, ProductPriceData> reloadMap = new HashMap<>(reloadProductList.size() * 2);
+                    reloadProductList
+                            .stream()
+                            .filter(Objects::nonNull)
+                            .forEach(x -> {
+                                //针对缓存结构中 商品数据过期 但是商品中规格数据可能有效的情况，保留其规格缓存数据
+                                ProductPriceData invalidProductCacheData = invalidCacheMap.get(x.getProductId());
+                                if (invalidProductCacheData != null) {
+                                    x.setCatalogList(invalidProductCacheData.getCatalogList());
+                                }
+                                reloadMap.put(x.getProductId(), x);
+                            });
+                    return reloadMap;
                 });
-
-                //批量刷缓存
-                cacheManager.put(reloadProductList
-                        .stream()
-                        .collect(Collectors.toMap(ProductPriceData::getProductId, y -> y, (key1, key2) -> key2)));
-            }
-
-            //合并有效数据并返回
-            result = new ArrayList<>();
-            result.addAll(validProductPriceDataList);
-            result.addAll(reloadProductList);
-        }
-        return result;
+        return new ArrayList<>(result.values());
     }
 }
@@ -0,0 +1,196 @@
+package com.ymatou.productprice.domain.cache;
+
+import com.ymatou.productprice.domain.cache.changefeed.*;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.infrastructure.constants.Constants;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于数据变更源的缓存失效
+ * 后台拉取时间戳表 规格表 活动商品表的变更 刷新时间戳缓存 删除规格缓存 重新加载活动商品缓存
+ * 变更源正常时请求线程只读取内存数据
+ * 拉取失败 卡住(超过timeStampCacheExpireTime没有成功拉取) 延迟超过timeStampCacheExpireTime时时间戳缓存恢复按时间过期
+ * 消费位置被变更源清除时删除全部时间戳缓存 从变更源当前位置继续
+ * Created by chenpengxuan on 2017/5/12.
+ */
+@Component
+public class CacheInvalidationService {
+
+    /**
+     * 单次定时任务最多处理的批数 超过则认为变更源延迟过大
+     */
+    private static final int MAX_BATCH_COUNT_PER_TICK = 20;
+
+    @Autowired
+    private CacheProps cacheProps;
+
+    @Autowired
+    private BizProps bizProps;
+
+    @Autowired
+    private Cache cache;
+
+    @Autowired
+    private TimeStampCache timeStampCache;
+
+    @Autowired
+    private MongoOplogChangeFeed mongoOplogChangeFeed;
+
+    @Autowired
+    private LocalChangeFeed localChangeFeed;
+
+    @Autowired
+    private LogWrapper logWrapper;
+
+    private ChangeFeedConsumer changeFeedConsumer;
+
+    /**
+     * 变更源独立的拉取线程 不与活动商品同步等定时任务共用调度器 避免互相延迟
+     */
+    private ScheduledExecutorService changeFeedExecutor;
+
+    private final LongAdder eventCount = new LongAdder();
+
+    private final LongAdder pollFailCount = new LongAdder();
+
+    private final LongAdder lostCount = new LongAdder();
+
+    /**
+     * 最近一次成功拉取的时间
+     */
+    private volatile long lastPollTime;
+
+    /**
+     * 最近一次拉取后已处理的变更落后变更源最新变更的时间 追上变更源时为0
+     */
+    private volatile long lagMillis;
+
+    @PostConstruct
+    public void init() {
+        if (!bizProps.isUseCache() || !cacheProps.isUseChangeFeed()) {
+            return;
+        }
+        try {
+            ChangeFeedTypeEnum feedType = ChangeFeedTypeEnum.valueOf(cacheProps.getChangeFeedType().toUpperCase());
+            ChangeFeed changeFeed = feedType == ChangeFeedTypeEnum.LOCAL ? localChangeFeed : mongoOplogChangeFeed;
+            changeFeedConsumer = new ChangeFeedConsumer(changeFeed,
+                    feedType,
+                    new ChangeFeedPositionStore(cacheProps.getChangeFeedPositionFile()),
+                    cacheProps.getChangeFeedBatchSize(),
+                    this::processChangeEvent);
+            logWrapper.recordInfoLog("缓存变更源已启动,类型:{},起始位置:{}", feedType, changeFeedConsumer.getPosition());
+
+            changeFeedExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "change-feed-consumer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            changeFeedExecutor.scheduleWithFixedDelay(this::consume, cacheProps.getChangeFeedInterval(),
+                    cacheProps.getChangeFeedInterval(), TimeUnit.MILLISECONDS);
+        } catch (Exception ex) {
+            logWrapper.recordErrorLog("缓存变更源启动失败,缓存按时间戳校验", ex);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (changeFeedExecutor != null) {
+            changeFeedExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 拉取并处理变更
+     */
+    public void consume() {
+        try {
+            boolean caughtUp = changeFeedConsumer.consume(MAX_BATCH_COUNT_PER_TICK);
+            long now = System.currentTimeMillis();
+            lastPollTime = now;
+            lagMillis = caughtUp ? 0 : Math.max(now - changeFeedConsumer.getLastEventTime(), 0);
+            timeStampCache.setChangeFeedActive(lagMillis < cacheProps.getTimeStampCacheExpireTime());
+        } catch (ChangeFeedLostException ex) {
+            lostCount.increment();
+            timeStampCache.setChangeFeedActive(false);
+            timeStampCache.invalidateAll();
+            logWrapper.recordErrorLog("缓存变更源丢失变更,删除全部时间戳缓存", ex);
+        } catch (Exception ex) {
+            pollFailCount.increment();
+            timeStampCache.setChangeFeedActive(false);
+            logWrapper.recordErrorLog("缓存变更源处理发生异常", ex);
+        }
+    }
+
+    /**
+     * 获取变更源统计信息
+     *
+     * @return
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("eventCount", eventCount.sum());
+        stats.put("pollFailCount", pollFailCount.sum());
+        stats.put("lostCount", lostCount.sum());
+        stats.put("lastPollTime", lastPollTime);
+        stats.put("lagMillis", lagMillis);
+        stats.put("active", timeStampCache.isChangeFeedActive(System.currentTimeMillis()) ? 1L : 0L);
+        if (changeFeedConsumer != null) {
+            stats.put("position", changeFeedConsumer.getPosition());
+            stats.put("lastEventTime", changeFeedConsumer.getLastEventTime());
+        }
+        return stats;
+    }
+
+    /**
+     * 按表处理变更
+     *
+     * @param changeEventList
+     */
+    private void processChangeEvent(List<ChangeEvent> changeEventList) {
+        Set<String> stampProductIdSet = new HashSet<>();
+        Set<String> catalogProductIdSet = new HashSet<>();
+        Set<String> activityProductIdSet = new HashSet<>();
+
+        changeEventList.forEach(x -> {
+            if (x.getProductId() == null) {
+                return;
+            }
+            switch (x.getTableName()) {
+                case Constants.ProductTimeStampDb:
+                    stampProductIdSet.add(x.getProductId());
+                    break;
+                case Constants.CatalogDb:
+                    catalogProductIdSet.add(x.getProductId());
+                    break;
+                case Constants.ActivityProductDb:
+                    activityProductIdSet.add(x.getProductId());
+                    break;
+                default:
+                    break;
+            }
+        });
+        eventCount.add(changeEventList.size());
+
+        if (!catalogProductIdSet.isEmpty()) {
+            cache.invalidateCatalogCache(catalogProductIdSet);
+        }
+        if (!activityProductIdSet.isEmpty() && cacheProps.isUseActivityCache()) {
+            cache.reloadActivityProductCache(new ArrayList<>(activityProductIdSet));
+        }
+        //时间戳最后刷新 保证请求线程看到新时间戳时业务数据缓存已经处理
+        if (!stampProductIdSet.isEmpty()) {
+            timeStampCache.reload(stampProductIdSet);
+        }
+    }
+}
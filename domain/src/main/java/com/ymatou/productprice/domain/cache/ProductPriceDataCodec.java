@@ -0,0 +1,264 @@
+package com.ymatou.productprice.domain.cache;
+
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.domain.model.ProductPriceData;
+import com.ymatou.productprice.infrastructure.util.CacheUtil.CacheValueCodec;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 商品价格缓存数据序列化器(堆外缓存使用)
+ * 商品字段在反序列化时直接解码 规格列表延迟到首次获取时解码
+ * 所有包装类型字段保留null语义 解码结果与MongoRepository转换结果一致
+ * 价格区间同时写入已解析的价格 解码时不再解析
+ * Created by chenpengxuan on 2017/5/4.
+ */
+@Component
+public class ProductPriceDataCodec implements CacheValueCodec<ProductPriceData> {
+
+    private static final byte VERSION = 2;
+
+    private static final int CATALOG_ID = 1;
+
+    private static final int PRODUCT_ID = 1 << 1;
+
+    private static final int SAME_PRODUCT_ID = 1 << 2;
+
+    private static final int SELLER_ID = 1 << 3;
+
+    private static final int QUOTE_PRICE = 1 << 4;
+
+    private static final int NEW_CUSTOMER_PRICE = 1 << 5;
+
+    private static final int VIP_PRICE = 1 << 6;
+
+    private static final int FLIGHT_BALANCE = 1 << 7;
+
+    private static final int UPDATE_TIME = 1 << 8;
+
+    @Override
+    public byte[] encode(ProductPriceData value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeNullableString(out, value.getProductId());
+            writeNullableString(out, value.getPriceMaxRange());
+            writeNullableString(out, value.getPriceMinRange());
+            out.writeDouble(value.getMinOriginalPrice());
+            out.writeDouble(value.getMaxOriginalPrice());
+            out.writeDouble(value.getMinNewCustomerPrice());
+            out.writeDouble(value.getMaxNewCustomerPrice());
+            out.writeDouble(value.getMinVipPrice());
+            out.writeDouble(value.getMaxVipPrice());
+            writeNullableInt(out, value.getSellerId());
+            writeNullableBoolean(out, value.getNoOrdersOrAllCancelled());
+            writeNullableBoolean(out, value.getHasConfirmedOrders());
+            writeNullableDate(out, value.getUpdateTime());
+            out.writeInt(value.getDeliveryMethod());
+            out.writeInt(value.getExtraDeliveryType());
+            out.writeDouble(value.getExtraDeliveryFee());
+
+            List<Catalog> catalogList = value.getCatalogList();
+            out.writeInt(catalogList != null ? catalogList.size() : -1);
+            if (catalogList != null) {
+                String lastProductId = null;
+                for (Catalog catalog : catalogList) {
+                    writeCatalog(out, catalog, lastProductId);
+                    lastProductId = catalog != null ? catalog.getProductId() : null;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ProductPriceData decode(byte[] bytes) {
+        ByteArrayInputStream byteInput = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(byteInput);
+        try {
+            in.readByte();
+            ProductPriceData productPriceData = new ProductPriceData();
+            productPriceData.setProductId(readNullableString(in));
+            productPriceData.setPriceMaxRange(readNullableString(in));
+            productPriceData.setPriceMinRange(readNullableString(in));
+            productPriceData.setMinOriginalPrice(in.readDouble());
+            productPriceData.setMaxOriginalPrice(in.readDouble());
+            productPriceData.setMinNewCustomerPrice(in.readDouble());
+            productPriceData.setMaxNewCustomerPrice(in.readDouble());
+            productPriceData.setMinVipPrice(in.readDouble());
+            productPriceData.setMaxVipPrice(in.readDouble());
+            productPriceData.setSellerId(readNullableInt(in));
+            productPriceData.setNoOrdersOrAllCancelled(readNullableBoolean(in));
+            productPriceData.setHasConfirmedOrders(readNullableBoolean(in));
+            productPriceData.setUpdateTime(readNullableDate(in));
+            productPriceData.setDeliveryMethod(in.readInt());
+            productPriceData.setExtraDeliveryType(in.readInt());
+            productPriceData.setExtraDeliveryFee(in.readDouble());
+
+            int catalogCount = in.readInt();
+            if (catalogCount >= 0) {
+                int catalogOffset = bytes.length - byteInput.available();
+                productPriceData.setCatalogListLoader(() -> decodeCatalogList(bytes, catalogOffset, catalogCount));
+            }
+            return productPriceData;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 解码规格列表
+     *
+     * @param bytes
+     * @param offset
+     * @param count
+     * @return
+     */
+    private List<Catalog> decodeCatalogList(byte[] bytes, int offset, int count) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, bytes.length - offset));
+        List<Catalog> catalogList = new ArrayList<>(count);
+        try {
+            String lastProductId = null;
+            for (int i = 0; i < count; i++) {
+                Catalog catalog = readCatalog(in, lastProductId);
+                catalogList.add(catalog);
+                lastProductId = catalog != null ? catalog.getProductId() : null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return catalogList;
+    }
+
+    private void writeCatalog(DataOutputStream out, Catalog catalog, String lastProductId) throws IOException {
+        if (catalog == null) {
+            out.writeShort(-1);
+            return;
+        }
+        boolean sameProductId = catalog.getProductId() != null && Objects.equals(catalog.getProductId(), lastProductId);
+        Date updateTime = catalog.getUpdateTime();
+
+        int flags = 0;
+        flags |= catalog.getCatalogId() != null ? CATALOG_ID : 0;
+        flags |= catalog.getProductId() != null && !sameProductId ? PRODUCT_ID : 0;
+        flags |= sameProductId ? SAME_PRODUCT_ID : 0;
+        flags |= catalog.getSellerId() != null ? SELLER_ID : 0;
+        flags |= catalog.getQuotePrice() != null ? QUOTE_PRICE : 0;
+        flags |= catalog.getNewCustomerPrice() != null ? NEW_CUSTOMER_PRICE : 0;
+        flags |= catalog.getVipPrice() != null ? VIP_PRICE : 0;
+        flags |= catalog.getFlightBalance() != null ? FLIGHT_BALANCE : 0;
+        flags |= updateTime != null ? UPDATE_TIME : 0;
+        out.writeShort(flags);
+
+        if ((flags & CATALOG_ID) != 0) {
+            out.writeUTF(catalog.getCatalogId());
+        }
+        if ((flags & PRODUCT_ID) != 0) {
+            out.writeUTF(catalog.getProductId());
+        }
+        if ((flags & SELLER_ID) != 0) {
+            out.writeInt(catalog.getSellerId());
+        }
+        if ((flags & QUOTE_PRICE) != 0) {
+            out.writeDouble(catalog.getQuotePrice());
+        }
+        if ((flags & NEW_CUSTOMER_PRICE) != 0) {
+            out.writeDouble(catalog.getNewCustomerPrice());
+        }
+        if ((flags & VIP_PRICE) != 0) {
+            out.writeDouble(catalog.getVipPrice());
+        }
+        if ((flags & FLIGHT_BALANCE) != 0) {
+            out.writeDouble(catalog.getFlightBalance());
+        }
+        if ((flags & UPDATE_TIME) != 0) {
+            out.writeLong(updateTime.getTime());
+        }
+        out.writeInt(catalog.getMultiLogistics());
+    }
+
+    private Catalog readCatalog(DataInputStream in, String lastProductId) throws IOException {
+        int flags = in.readShort();
+        if (flags < 0) {
+            return null;
+        }
+        Catalog catalog = new Catalog();
+        if ((flags & CATALOG_ID) != 0) {
+            catalog.setCatalogId(in.readUTF());
+        }
+        if ((flags & PRODUCT_ID) != 0) {
+            catalog.setProductId(in.readUTF());
+        } else if ((flags & SAME_PRODUCT_ID) != 0) {
+            catalog.setProductId(lastProductId);
+        }
+        if ((flags & SELLER_ID) != 0) {
+            catalog.setSellerId(in.readInt());
+        }
+        if ((flags & QUOTE_PRICE) != 0) {
+            catalog.setQuotePrice(in.readDouble());
+        }
+        if ((flags & NEW_CUSTOMER_PRICE) != 0) {
+            catalog.setNewCustomerPrice(in.readDouble());
+        }
+        if ((flags & VIP_PRICE) != 0) {
+            catalog.setVipPrice(in.readDouble());
+        }
+        if ((flags & FLIGHT_BALANCE) != 0) {
+            catalog.setFlightBalance(in.readDouble());
+        }
+        if ((flags & UPDATE_TIME) != 0) {
+            catalog.setUpdateTime(new Date(in.readLong()));
+        }
+        catalog.setMultiLogistics(in.readInt());
+        return catalog;
+    }
+
+    private void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void writeNullableInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private Integer readNullableInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private void writeNullableBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : (value ? 1 : 0));
+    }
+
+    private Boolean readNullableBoolean(DataInputStream in) throws IOException {
+        byte value = in.readByte();
+        return value < 0 ? null : value == 1;
+    }
+
+    private void writeNullableDate(DataOutputStream out, Date value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getTime());
+        }
+    }
+
+    private Date readNullableDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+}
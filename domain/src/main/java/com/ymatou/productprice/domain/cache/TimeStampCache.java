@@ -0,0 +1,325 @@
+package com.ymatou.productprice.domain.cache;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.ymatou.productprice.domain.repo.Repository;
+import com.ymatou.productprice.domain.repo.RepositoryProxy;
+import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.infrastructure.util.Utils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商品时间戳短时缓存
+ * 时间戳缓存最多过期timeStampCacheExpireTime毫秒(业务数据最大延迟)
+ * 缓存存在超过timeStampCacheRefreshTime毫秒后 命中时仍返回缓存数据 同时后台批量异步刷新
+ * 热点商品在稳定状态下不需要查询mongo
+ * 变更源(CacheInvalidationService)正常工作时 缓存由变更事件刷新 不再按时间过期与后台刷新
+ * Created by chenpengxuan on 2017/5/10.
+ */
+@Component
+public class TimeStampCache {
+
+    /**
+     * 缓存的时间戳列 一次性加载全部列 不同接口查询不同列时可以共用缓存
+     */
+    private static final List<String> STAMP_KEY_LIST = Lists.newArrayList("cut", "aut", "sut");
+
+    /**
+     * 后台刷新单次批量大小
+     */
+    private static final int REFRESH_BATCH_SIZE = 200;
+
+    @Autowired
+    private CacheProps cacheProps;
+
+    @Autowired
+    private RepositoryProxy repositoryProxy;
+
+    @Autowired
+    private LogWrapper logWrapper;
+
+    private Repository repository;
+
+    private com.google.common.cache.Cache<String, StampEntry> stampCache;
+
+    /**
+     * 等待后台刷新的商品id
+     */
+    private final Set<String> refreshProductIdSet = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+
+    /**
+     * 变更源最近一次正常工作的时间 0表示变更源不可用
+     * 超过timeStampCacheExpireTime没有更新时(例如拉取卡住)视为变更源不可用
+     */
+    private volatile long changeFeedActiveTime;
+
+    private final ExecutorService refreshExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "timestamp-cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder refreshCount = new LongAdder();
+
+    private final LongAdder refreshFailCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        repository = repositoryProxy.getRepository();
+        stampCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(cacheProps.getTimeStampCacheSize(), 1))
+                .expireAfterWrite(Math.max(cacheProps.getTimeStampCacheExpireTime(),
+                        cacheProps.isUseChangeFeed() ? cacheProps.getChangeFeedTimeStampExpireTime() : 0),
+                        TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 根据商品id与时间戳列名获取对应时间戳
+     *
+     * @param productId
+     * @param stampKeyList
+     * @return
+     */
+    public Map<String, Object> getTimeStampByProductId(String productId, List<String> stampKeyList) {
+        if (!cacheProps.isUseTimeStampCache()) {
+            return repository.getTimeStampByProductId(productId, stampKeyList);
+        }
+        StampEntry stampEntry = getStampEntryMap(Lists.newArrayList(productId)).get(productId);
+        if (stampEntry == null || stampEntry.stampMap == null) {
+            return Collections.emptyMap();
+        }
+        return project(stampEntry.stampMap, stampKeyList, false);
+    }
+
+    /**
+     * 根据商品id列表与时间戳列名获取对应时间戳
+     * 返回结构与Repository.getTimeStampByProductIdList一致
+     *
+     * @param productIdList
+     * @param stampKeyList
+     * @return
+     */
+    public List<Map<String, Object>> getTimeStampByProductIdList(List<String> productIdList, List<String> stampKeyList) {
+        if (!cacheProps.isUseTimeStampCache()) {
+            return repository.getTimeStampByProductIdList(productIdList, stampKeyList);
+        }
+        List<Map<String, Object>> result = new ArrayList<>(productIdList.size());
+        getStampEntryMap(productIdList).values().forEach(stampEntry -> {
+            if (stampEntry.stampMap != null) {
+                result.add(project(stampEntry.stampMap, stampKeyList, true));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 删除商品时间戳缓存
+     *
+     * @param productIdList
+     */
+    public void invalidate(Collection<String> productIdList) {
+        stampCache.invalidateAll(productIdList);
+    }
+
+    /**
+     * 重新加载已缓存商品的时间戳 没有缓存的商品不加载
+     *
+     * @param productIdList
+     */
+    public void reload(Collection<String> productIdList) {
+        List<String> cachedProductIdList = new ArrayList<>(stampCache.getAllPresent(productIdList).keySet());
+        Lists.partition(cachedProductIdList, REFRESH_BATCH_SIZE).forEach(this::loadStampEntryMap);
+    }
+
+    /**
+     * 删除全部时间戳缓存
+     * 变更源丢失部分变更时使用
+     */
+    public void invalidateAll() {
+        stampCache.invalidateAll();
+    }
+
+    /**
+     * 设置变更源是否正常工作
+     * 变更源异常或者延迟过大时恢复按时间过期 保证数据最大延迟
+     * 设置为正常工作后超过timeStampCacheExpireTime没有再次设置时自动失效
+     *
+     * @param changeFeedActive
+     */
+    public void setChangeFeedActive(boolean changeFeedActive) {
+        this.changeFeedActiveTime = changeFeedActive ? System.currentTimeMillis() : 0;
+    }
+
+    /**
+     * 变更源是否正常工作
+     *
+     * @param now
+     * @return
+     */
+    public boolean isChangeFeedActive(long now) {
+        long activeTime = changeFeedActiveTime;
+        return activeTime > 0 && now - activeTime < cacheProps.getTimeStampCacheExpireTime();
+    }
+
+    /**
+     * 获取时间戳缓存统计信息
+     *
+     * @return
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", stampCache.size());
+        stats.put("hitCount", hitCount.sum());
+        stats.put("missCount", missCount.sum());
+        stats.put("refreshCount", refreshCount.sum());
+        stats.put("refreshFailCount", refreshFailCount.sum());
+        stats.put("pendingRefreshCount", (long) refreshProductIdSet.size());
+        return stats;
+    }
+
+    /**
+     * 获取时间戳缓存 没有命中的商品同步批量加载 即将过期的商品加入后台刷新
+     *
+     * @param productIdList
+     * @return
+     */
+    private Map<String, StampEntry> getStampEntryMap(List<String> productIdList) {
+        Map<String, StampEntry> result = new LinkedHashMap<>(productIdList.size() * 2);
+        List<String> missProductIdList = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        boolean changeFeedActive = isChangeFeedActive(now);
+
+        for (String productId : productIdList) {
+            if (result.containsKey(productId)) {
+                continue;
+            }
+            StampEntry stampEntry = stampCache.getIfPresent(productId);
+            if (stampEntry != null && !changeFeedActive
+                    && now - stampEntry.loadTime >= cacheProps.getTimeStampCacheExpireTime()) {
+                stampEntry = null;
+            }
+            if (stampEntry == null) {
+                missProductIdList.add(productId);
+                result.put(productId, null);
+                continue;
+            }
+            hitCount.increment();
+            result.put(productId, stampEntry);
+            if (!changeFeedActive && now - stampEntry.loadTime >= cacheProps.getTimeStampCacheRefreshTime()) {
+                scheduleRefresh(productId);
+            }
+        }
+
+        if (!missProductIdList.isEmpty()) {
+            missCount.add(missProductIdList.size());
+            result.putAll(loadStampEntryMap(missProductIdList));
+        }
+        return result;
+    }
+
+    /**
+     * 查询mongo并写入缓存 不存在时间戳的商品同样缓存 避免重复查询
+     *
+     * @param productIdList
+     * @return
+     */
+    private Map<String, StampEntry> loadStampEntryMap(List<String> productIdList) {
+        long loadTime = System.currentTimeMillis();
+        List<Map<String, Object>> stampMapList = repository.getTimeStampByProductIdList(productIdList, STAMP_KEY_LIST);
+
+        Map<String, StampEntry> result = new HashMap<>(productIdList.size() * 2);
+        stampMapList.forEach(x -> {
+            Object productId = x.get("spid");
+            if (productId != null) {
+                result.put(productId.toString(), new StampEntry(x, loadTime));
+            }
+        });
+        productIdList.forEach(x -> result.putIfAbsent(x, new StampEntry(null, loadTime)));
+
+        stampCache.putAll(result);
+        return result;
+    }
+
+    private void scheduleRefresh(String productId) {
+        if (refreshProductIdSet.add(productId) && refreshScheduled.compareAndSet(false, true)) {
+            refreshExecutor.execute(this::refresh);
+        }
+    }
+
+    /**
+     * 后台批量刷新
+     */
+    private void refresh() {
+        refreshScheduled.set(false);
+        List<String> productIdList = new ArrayList<>(refreshProductIdSet);
+        Lists.partition(productIdList, REFRESH_BATCH_SIZE).forEach(batch -> {
+            try {
+                loadStampEntryMap(batch);
+                refreshCount.add(batch.size());
+            } catch (Exception ex) {
+                refreshFailCount.add(batch.size());
+                logWrapper.recordErrorLog("商品时间戳缓存后台刷新发生异常,productIdList:{}", Utils.toJSONString(batch), ex);
+            } finally {
+                refreshProductIdSet.removeAll(batch);
+            }
+        });
+    }
+
+    /**
+     * 按列名裁剪时间戳
+     *
+     * @param stampMap
+     * @param stampKeyList
+     * @param withProductId
+     * @return
+     */
+    private Map<String, Object> project(Map<String, Object> stampMap, List<String> stampKeyList, boolean withProductId) {
+        Map<String, Object> result = new HashMap<>();
+        if (withProductId) {
+            result.put("spid", stampMap.get("spid"));
+        }
+        stampKeyList.forEach(key -> {
+            if (stampMap.containsKey(key)) {
+                result.put(key, stampMap.get(key));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 时间戳缓存项
+     */
+    private static class StampEntry {
+
+        /**
+         * 时间戳 为null表示商品不存在时间戳数据
+         */
+        private final Map<String, Object> stampMap;
+
+        /**
+         * 加载时间
+         */
+        private final long loadTime;
+
+        StampEntry(Map<String, Object> stampMap, long loadTime) {
+            this.stampMap = stampMap;
+            this.loadTime = loadTime;
+        }
+    }
+}
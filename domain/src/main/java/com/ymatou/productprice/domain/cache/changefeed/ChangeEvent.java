@@ -0,0 +1,51 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+/**
+ * 数据变更事件
+ * Created by chenpengxuan on 2017/5/12.
+ */
+public class ChangeEvent {
+
+    /**
+     * 变更的表名
+     */
+    private String tableName;
+
+    /**
+     * 变更的商品id
+     */
+    private String productId;
+
+    /**
+     * 变更位置 单调递增
+     */
+    private long position;
+
+    /**
+     * 变更发生时间(毫秒)
+     */
+    private long eventTime;
+
+    public ChangeEvent(String tableName, String productId, long position, long eventTime) {
+        this.tableName = tableName;
+        this.productId = productId;
+        this.position = position;
+        this.eventTime = eventTime;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getEventTime() {
+        return eventTime;
+    }
+}
@@ -0,0 +1,34 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+import java.util.List;
+
+/**
+ * 数据变更源
+ * Created by chenpengxuan on 2017/5/12.
+ */
+public interface ChangeFeed {
+
+    /**
+     * 获取当前最新的变更位置
+     *
+     * @return
+     */
+    long getHeadPosition();
+
+    /**
+     * 获取最早可以继续拉取的位置
+     * 消费位置早于该位置时 之间的变更已经从变更源中清除
+     *
+     * @return
+     */
+    long getTailPosition();
+
+    /**
+     * 按顺序获取指定位置之后的变更事件
+     *
+     * @param afterPosition 上次处理到的位置
+     * @param maxCount      最大返回条数
+     * @return
+     */
+    List<ChangeEvent> poll(long afterPosition, int maxCount);
+}
@@ -0,0 +1,95 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 变更消费者
+ * 按批拉取变更交给处理器 每批处理成功后持久化位置
+ * 首次启动没有位置记录时从变更源当前位置开始
+ * 消费位置已经被变更源清除(例如oplog已滚动覆盖)时 跳到变更源当前位置并抛出ChangeFeedLostException 由调用方处理丢失的变更
+ * Created by chenpengxuan on 2017/5/12.
+ */
+public class ChangeFeedConsumer {
+
+    private final ChangeFeed changeFeed;
+
+    private final ChangeFeedTypeEnum feedType;
+
+    private final ChangeFeedPositionStore positionStore;
+
+    private final int batchSize;
+
+    private final Consumer<List<ChangeEvent>> handler;
+
+    private volatile long position;
+
+    private volatile long lastEventTime;
+
+    public ChangeFeedConsumer(ChangeFeed changeFeed,
+                              ChangeFeedTypeEnum feedType,
+                              ChangeFeedPositionStore positionStore,
+                              int batchSize,
+                              Consumer<List<ChangeEvent>> handler) {
+        this.changeFeed = changeFeed;
+        this.feedType = feedType;
+        this.positionStore = positionStore;
+        this.batchSize = Math.max(batchSize, 1);
+        this.handler = handler;
+
+        Long storedPosition = positionStore.load(feedType);
+        this.position = storedPosition != null ? storedPosition : changeFeed.getHeadPosition();
+    }
+
+    /**
+     * 消费变更
+     *
+     * @param maxBatchCount 本次最多处理的批数
+     * @return 是否已经追上变更源
+     */
+    public boolean consume(int maxBatchCount) {
+        long tailPosition = changeFeed.getTailPosition();
+        if (position < tailPosition) {
+            long lostPosition = position;
+            long headPosition = changeFeed.getHeadPosition();
+            savePosition(headPosition);
+            position = headPosition;
+            throw new ChangeFeedLostException(lostPosition, tailPosition);
+        }
+        for (int i = 0; i < maxBatchCount; i++) {
+            List<ChangeEvent> eventList = changeFeed.poll(position, batchSize);
+            if (eventList.isEmpty()) {
+                return true;
+            }
+            handler.accept(eventList);
+
+            ChangeEvent lastEvent = eventList.get(eventList.size() - 1);
+            savePosition(lastEvent.getPosition());
+            position = lastEvent.getPosition();
+            lastEventTime = lastEvent.getEventTime();
+
+            if (eventList.size() < batchSize) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void savePosition(long newPosition) {
+        try {
+            positionStore.save(feedType, newPosition);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLastEventTime() {
+        return lastEventTime;
+    }
+}
@@ -0,0 +1,12 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+/**
+ * 消费位置已经被变更源清除 之间的变更丢失
+ * Created by chenpengxuan on 2017/5/12.
+ */
+public class ChangeFeedLostException extends RuntimeException {
+
+    public ChangeFeedLostException(long position, long tailPosition) {
+        super("变更源消费位置已失效,position:" + position + ",tailPosition:" + tailPosition);
+    }
+}
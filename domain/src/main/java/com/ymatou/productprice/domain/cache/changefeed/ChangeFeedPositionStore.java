@@ -0,0 +1,60 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 变更处理位置持久化
+ * 以"变更源类型 位置"的格式保存在本地文件 重启后从该位置继续处理
+ * Created by chenpengxuan on 2017/5/12.
+ */
+public class ChangeFeedPositionStore {
+
+    private final Path path;
+
+    public ChangeFeedPositionStore(String fileName) {
+        this.path = Paths.get(fileName);
+    }
+
+    /**
+     * 读取上次处理到的位置
+     *
+     * @param feedType
+     * @return 没有记录或者变更源类型不一致时返回null
+     */
+    public Long load(ChangeFeedTypeEnum feedType) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            String[] content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim().split(" ");
+            if (content.length != 2 || !feedType.name().equals(content[0])) {
+                return null;
+            }
+            return Long.valueOf(content[1]);
+        } catch (IOException | NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 保存处理位置 先写临时文件再替换 避免进程退出时文件内容不完整
+     *
+     * @param feedType
+     * @param position
+     * @throws IOException
+     */
+    public void save(ChangeFeedTypeEnum feedType, long position) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempPath = Paths.get(path.toString() + ".tmp");
+        Files.write(tempPath, (feedType.name() + " " + position).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,17 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+/**
+ * 数据变更源类型
+ * Created by chenpengxuan on 2017/5/12.
+ */
+public enum ChangeFeedTypeEnum {
+    /**
+     * mongo oplog
+     */
+    MONGO,
+
+    /**
+     * 本地内存变更源 用于测试或者由其他渠道推送变更
+     */
+    LOCAL
+}
@@ -0,0 +1,64 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地内存变更源
+ * 只保留最近MAX_RETAIN_COUNT条变更
+ * Created by chenpengxuan on 2017/5/12.
+ */
+@Component
+public class LocalChangeFeed implements ChangeFeed {
+
+    private static final int MAX_RETAIN_COUNT = 100000;
+
+    private final ConcurrentNavigableMap<Long, ChangeEvent> eventMap = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 发布变更
+     *
+     * @param tableName
+     * @param productId
+     * @return 变更位置
+     */
+    public synchronized long publish(String tableName, String productId) {
+        long position = sequence.incrementAndGet();
+        eventMap.put(position, new ChangeEvent(tableName, productId, position, System.currentTimeMillis()));
+        while (eventMap.size() > MAX_RETAIN_COUNT) {
+            eventMap.pollFirstEntry();
+        }
+        return position;
+    }
+
+    @Override
+    public long getHeadPosition() {
+        return sequence.get();
+    }
+
+    @Override
+    public long getTailPosition() {
+        Map.Entry<Long, ChangeEvent> firstEntry = eventMap.firstEntry();
+        return firstEntry != null ? firstEntry.getKey() - 1 : sequence.get();
+    }
+
+    @Override
+    public List<ChangeEvent> poll(long afterPosition, int maxCount) {
+        List<ChangeEvent> result = new ArrayList<>();
+        for (Map.Entry<Long, ChangeEvent> entry : eventMap.tailMap(afterPosition, false).entrySet()) {
+            if (result.size() >= maxCount) {
+                break;
+            }
+            result.add(entry.getValue());
+        }
+        return result;
+    }
+}
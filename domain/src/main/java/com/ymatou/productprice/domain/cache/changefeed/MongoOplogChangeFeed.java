@@ -0,0 +1,180 @@
+package com.ymatou.productprice.domain.cache.changefeed;
+
+import com.google.common.collect.Lists;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.infrastructure.constants.Constants;
+import org.bson.types.BSONTimestamp;
+import org.jongo.Jongo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mongo oplog变更源
+ * 读取local.oplog.rs中时间戳表 规格表 活动商品表的变更 位置为oplog的ts(高32位秒 低32位序号)
+ * 更新操作的oplog只包含_id 需要回查一次原表获取商品id
+ * 删除的数据无法回查商品id 业务方删除规格与活动商品时会同时更新时间戳表 由时间戳表的变更处理
+ * Created by chenpengxuan on 2017/5/12.
+ */
+@Component
+public class MongoOplogChangeFeed implements ChangeFeed {
+
+    private static final List<String> WATCH_TABLE_LIST = Lists.newArrayList(
+            Constants.ProductTimeStampDb,
+            Constants.CatalogDb,
+            Constants.ActivityProductDb);
+
+    @Autowired
+    private Jongo jongoClient;
+
+    @Autowired
+    private CacheProps cacheProps;
+
+    @Override
+    public long getHeadPosition() {
+        try (DBCursor cursor = getOplogCollection()
+                .find(new BasicDBObject())
+                .sort(new BasicDBObject("$natural", -1))
+                .limit(1)
+                .maxTime(getMaxTime(), TimeUnit.MILLISECONDS)) {
+            return cursor.hasNext() ? toPosition((BSONTimestamp) cursor.next().get("ts")) : 0L;
+        }
+    }
+
+    /**
+     * oplog中最早的一条 从该条之后继续拉取不会遗漏
+     *
+     * @return
+     */
+    @Override
+    public long getTailPosition() {
+        try (DBCursor cursor = getOplogCollection()
+                .find(new BasicDBObject())
+                .sort(new BasicDBObject("$natural", 1))
+                .limit(1)
+                .maxTime(getMaxTime(), TimeUnit.MILLISECONDS)) {
+            return cursor.hasNext() ? toPosition((BSONTimestamp) cursor.next().get("ts")) : 0L;
+        }
+    }
+
+    @Override
+    public List<ChangeEvent> poll(long afterPosition, int maxCount) {
+        DB db = jongoClient.getDatabase();
+        List<String> namespaceList = new ArrayList<>();
+        WATCH_TABLE_LIST.forEach(x -> namespaceList.add(db.getName() + "." + x));
+
+        DBObject query = new BasicDBObject("ts", new BasicDBObject("$gt", toTimestamp(afterPosition)))
+                .append("ns", new BasicDBObject("$in", namespaceList));
+
+        List<DBObject> oplogList = new ArrayList<>();
+        try (DBCursor cursor = getOplogCollection()
+                .find(query)
+                .sort(new BasicDBObject("$natural", 1))
+                .addOption(Bytes.QUERYOPTION_OPLOGREPLAY)
+                .limit(maxCount)
+                .maxTime(getMaxTime(), TimeUnit.MILLISECONDS)) {
+            cursor.forEachRemaining(oplogList::add);
+        }
+
+        //更新操作按表汇总_id 批量回查商品id
+        Map<String, Set<Object>> unresolvedIdMap = new HashMap<>();
+        List<String> productIdList = new ArrayList<>(oplogList.size());
+        oplogList.forEach(x -> {
+            String productId = getProductId(x);
+            productIdList.add(productId);
+            if (productId == null && getDocumentId(x) != null) {
+                unresolvedIdMap.computeIfAbsent(getTableName(x), k -> new HashSet<>()).add(getDocumentId(x));
+            }
+        });
+        Map<Object, String> resolvedIdMap = resolveProductId(db, unresolvedIdMap);
+
+        List<ChangeEvent> result = new ArrayList<>(oplogList.size());
+        for (int i = 0; i < oplogList.size(); i++) {
+            DBObject oplog = oplogList.get(i);
+            BSONTimestamp ts = (BSONTimestamp) oplog.get("ts");
+            String productId = productIdList.get(i) != null ? productIdList.get(i) : resolvedIdMap.get(getDocumentId(oplog));
+            //无法获取商品id的变更同样返回 保证位置可以前进
+            result.add(new ChangeEvent(getTableName(oplog), productId, toPosition(ts), ts.getTime() * 1000L));
+        }
+        return result;
+    }
+
+    /**
+     * oplog查询最长执行时间 不超过时间戳缓存过期时间 避免拉取卡住时变更源一直被认为正常工作
+     *
+     * @return
+     */
+    private long getMaxTime() {
+        return Math.max(cacheProps.getTimeStampCacheExpireTime(), 1);
+    }
+
+    private DBCollection getOplogCollection() {
+        return jongoClient.getDatabase().getMongo().getDB("local").getCollection("oplog.rs");
+    }
+
+    /**
+     * 从oplog中直接获取商品id
+     *
+     * @param oplog
+     * @return
+     */
+    private String getProductId(DBObject oplog) {
+        DBObject document = (DBObject) oplog.get("o");
+        if (document == null) {
+            return null;
+        }
+        Object productId = document.get("spid");
+        if (productId == null && document.get("$set") instanceof DBObject) {
+            productId = ((DBObject) document.get("$set")).get("spid");
+        }
+        return productId != null ? productId.toString() : null;
+    }
+
+    private Object getDocumentId(DBObject oplog) {
+        DBObject document = (DBObject) ("u".equals(oplog.get("op")) ? oplog.get("o2") : oplog.get("o"));
+        return document != null ? document.get("_id") : null;
+    }
+
+    private String getTableName(DBObject oplog) {
+        String namespace = oplog.get("ns").toString();
+        return namespace.substring(namespace.indexOf('.') + 1);
+    }
+
+    /**
+     * 根据_id回查商品id
+     *
+     * @param db
+     * @param unresolvedIdMap
+     * @return
+     */
+    private Map<Object, String> resolveProductId(DB db, Map<String, Set<Object>> unresolvedIdMap) {
+        Map<Object, String> result = new HashMap<>();
+        unresolvedIdMap.forEach((tableName, idSet) -> {
+            DBObject query = new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(idSet)));
+            try (DBCursor cursor = db.getCollection(tableName).find(query, new BasicDBObject("spid", 1))) {
+                cursor.forEachRemaining(x -> {
+                    if (x.get("spid") != null) {
+                        result.put(x.get("_id"), x.get("spid").toString());
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    private long toPosition(BSONTimestamp ts) {
+        return ((long) ts.getTime() << 32) | (ts.getInc() & 0xFFFFFFFFL);
+    }
+
+    private BSONTimestamp toTimestamp(long position) {
+        return new BSONTimestamp((int) (position >>> 32), (int) position);
+    }
+}
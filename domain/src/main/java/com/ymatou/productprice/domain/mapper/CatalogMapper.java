@@ -0,0 +1,57 @@
+package com.ymatou.productprice.domain.mapper;
+
+import com.ymatou.productprice.model.Catalog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 规格结构转换器 领域规格与输出规格之间逐字段赋值 不使用反射
+ * 字段与BeanUtils.copyProperties按属性名复制的结果一致 价格为null时按0处理
+ * Created by chenpengxuan on 2017/5/29.
+ */
+public class CatalogMapper {
+
+    /**
+     * 领域规格转换为输出规格
+     *
+     * @param catalog
+     * @return
+     */
+    public static Catalog toOutputCatalog(com.ymatou.productprice.domain.model.Catalog catalog) {
+        Catalog outputCatalog = new Catalog();
+        outputCatalog.setCatalogId(catalog.getCatalogId());
+        outputCatalog.setProductId(catalog.getProductId());
+        outputCatalog.setSellerId(catalog.getSellerId());
+        outputCatalog.setQuotePrice(zeroIfNull(catalog.getQuotePrice()));
+        outputCatalog.setNewCustomerPrice(zeroIfNull(catalog.getNewCustomerPrice()));
+        outputCatalog.setVipPrice(zeroIfNull(catalog.getVipPrice()));
+        outputCatalog.setFlightBalance(catalog.getFlightBalance());
+        outputCatalog.setMultiLogistics(catalog.getMultiLogistics());
+        outputCatalog.setExtraDelivery(catalog.getMultiLogistics() > 0);
+        return outputCatalog;
+    }
+
+    /**
+     * 领域规格列表转换为输出规格列表 跳过null
+     *
+     * @param catalogList
+     * @return
+     */
+    public static List<Catalog> toOutputCatalogList(List<com.ymatou.productprice.domain.model.Catalog> catalogList) {
+        if (catalogList == null) {
+            return new ArrayList<>();
+        }
+        List<Catalog> outputCatalogList = new ArrayList<>(catalogList.size());
+        for (com.ymatou.productprice.domain.model.Catalog catalog : catalogList) {
+            if (catalog != null) {
+                outputCatalogList.add(toOutputCatalog(catalog));
+            }
+        }
+        return outputCatalogList;
+    }
+
+    private static double zeroIfNull(Double value) {
+        return value != null ? value : 0D;
+    }
+}
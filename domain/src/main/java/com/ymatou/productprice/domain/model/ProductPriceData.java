@@ -1,7 +1,10 @@
 package com.ymatou.productprice.domain.model;
 
+import com.google.common.primitives.Doubles;
+
 import java.util.Date;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * 商品价格信息
@@ -24,6 +27,36 @@ public class ProductPriceData {
      */
     private String priceMinRange;
 
+    /**
+     * 最低原价(加载时由价格区间解析)
+     */
+    private double minOriginalPrice;
+
+    /**
+     * 最高原价
+     */
+    private double maxOriginalPrice;
+
+    /**
+     * 最低新客价
+     */
+    private double minNewCustomerPrice;
+
+    /**
+     * 最高新客价
+     */
+    private double maxNewCustomerPrice;
+
+    /**
+     * 最低vip价
+     */
+    private double minVipPrice;
+
+    /**
+     * 最高vip价
+     */
+    private double maxVipPrice;
+
     /**
      * 买手id
      */
@@ -46,6 +79,11 @@ public class ProductPriceData {
      */
     private List<Catalog> catalogList;
 
+    /**
+     * 规格列表延迟加载器(堆外缓存反序列化时使用 首次获取规格列表时才解码)
+     */
+    private transient Supplier<List<Catalog>> catalogListLoader;
+
     /**
      * 更新时间
      */
@@ -98,6 +136,81 @@ public class ProductPriceData {
         this.priceMinRange = priceMinRange;
     }
 
+    /**
+     * 解析价格区间 区间格式为"原价,新客价,vip价" 缺失或无法解析的价格按0处理
+     */
+    public void parsePriceRange() {
+        double[] maxPrices = parsePrices(priceMaxRange);
+        double[] minPrices = parsePrices(priceMinRange);
+        maxOriginalPrice = maxPrices[0];
+        maxNewCustomerPrice = maxPrices[1];
+        maxVipPrice = maxPrices[2];
+        minOriginalPrice = minPrices[0];
+        minNewCustomerPrice = minPrices[1];
+        minVipPrice = minPrices[2];
+    }
+
+    private static double[] parsePrices(String priceRange) {
+        double[] prices = new double[3];
+        if (priceRange == null || priceRange.isEmpty()) {
+            return prices;
+        }
+        String[] priceList = priceRange.split(",");
+        for (int i = 0; i < prices.length && i < priceList.length; i++) {
+            Double price = Doubles.tryParse(priceList[i].trim());
+            prices[i] = price != null ? price : 0D;
+        }
+        return prices;
+    }
+
+    public double getMinOriginalPrice() {
+        return minOriginalPrice;
+    }
+
+    public void setMinOriginalPrice(double minOriginalPrice) {
+        this.minOriginalPrice = minOriginalPrice;
+    }
+
+    public double getMaxOriginalPrice() {
+        return maxOriginalPrice;
+    }
+
+    public void setMaxOriginalPrice(double maxOriginalPrice) {
+        this.maxOriginalPrice = maxOriginalPrice;
+    }
+
+    public double getMinNewCustomerPrice() {
+        return minNewCustomerPrice;
+    }
+
+    public void setMinNewCustomerPrice(double minNewCustomerPrice) {
+        this.minNewCustomerPrice = minNewCustomerPrice;
+    }
+
+    public double getMaxNewCustomerPrice() {
+        return maxNewCustomerPrice;
+    }
+
+    public void setMaxNewCustomerPrice(double maxNewCustomerPrice) {
+        this.maxNewCustomerPrice = maxNewCustomerPrice;
+    }
+
+    public double getMinVipPrice() {
+        return minVipPrice;
+    }
+
+    public void setMinVipPrice(double minVipPrice) {
+        this.minVipPrice = minVipPrice;
+    }
+
+    public double getMaxVipPrice() {
+        return maxVipPrice;
+    }
+
+    public void setMaxVipPrice(double maxVipPrice) {
+        this.maxVipPrice = maxVipPrice;
+    }
+
     public Integer getSellerId() {
         return sellerId;
     }
@@ -123,11 +236,21 @@ public class ProductPriceData {
     }
 
     public List<Catalog> getCatalogList() {
+        if (catalogListLoader != null) {
+            catalogList = catalogListLoader.get();
+            catalogListLoader = null;
+        }
         return catalogList;
     }
 
     public void setCatalogList(List<Catalog> catalogList) {
         this.catalogList = catalogList;
+        this.catalogListLoader = null;
+    }
+
+    public void setCatalogListLoader(Supplier<List<Catalog>> catalogListLoader) {
+        this.catalogList = null;
+        this.catalogListLoader = catalogListLoader;
     }
 
     public Date getUpdateTime() {
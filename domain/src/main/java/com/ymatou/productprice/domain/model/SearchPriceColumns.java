@@ -0,0 +1,279 @@
+package com.ymatou.productprice.domain.model;
+
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics.SellerOrderStatistics;
+import com.ymatou.productprice.model.ProductPriceForSearched;
+
+import java.util.*;
+
+/**
+ * 搜索商品列表价格列式数据
+ * 每个商品占一行 价格区间、买手id、活动与用户行为标识按列存放在基本类型数组中
+ * 价格计算只读写数组 返回结果时才创建ProductPriceForSearched
+ * Created by chenpengxuan on 2017/5/28.
+ */
+public class SearchPriceColumns {
+
+    /**
+     * 价格区间已加载
+     */
+    public static final int LOADED = 1;
+
+    /**
+     * 有活动商品且存在库存与活动价都大于0的活动规格
+     */
+    public static final int ACTIVITY = 1 << 1;
+
+    /**
+     * 活动商品为交易隔离商品
+     */
+    public static final int ACTIVITY_ISOLATION = 1 << 2;
+
+    /**
+     * 活动商品为新人活动商品
+     */
+    public static final int ACTIVITY_NEW_BUYER = 1 << 3;
+
+    /**
+     * 买家在买手下有确认的订单
+     */
+    public static final int HAS_CONFIRMED_ORDERS = 1 << 4;
+
+    /**
+     * 买家在买手下没有订单或订单全部取消
+     */
+    public static final int NO_ORDERS_OR_ALL_CANCELLED = 1 << 5;
+
+    private final int size;
+
+    private final String[] productIds;
+
+    private final Map<String, Integer> rowIndex;
+
+    private final long[] sellerIds;
+
+    private final double[] minOriginalPrices;
+
+    private final double[] maxOriginalPrices;
+
+    private final double[] minNewCustomerPrices;
+
+    private final double[] maxNewCustomerPrices;
+
+    private final double[] minVipPrices;
+
+    private final double[] maxVipPrices;
+
+    private final double[] minActivityPrices;
+
+    private final double[] maxActivityPrices;
+
+    private final int[] flags;
+
+    private final double[] minPrices;
+
+    private final double[] maxPrices;
+
+    private final int[] priceTypes;
+
+    /**
+     * @param productIdList 去重后的商品id列表 结果按此顺序返回
+     */
+    public SearchPriceColumns(List<String> productIdList) {
+        size = productIdList.size();
+        productIds = productIdList.toArray(new String[size]);
+        rowIndex = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            rowIndex.putIfAbsent(productIds[i], i);
+        }
+        sellerIds = new long[size];
+        minOriginalPrices = new double[size];
+        maxOriginalPrices = new double[size];
+        minNewCustomerPrices = new double[size];
+        maxNewCustomerPrices = new double[size];
+        minVipPrices = new double[size];
+        maxVipPrices = new double[size];
+        minActivityPrices = new double[size];
+        maxActivityPrices = new double[size];
+        flags = new int[size];
+        minPrices = new double[size];
+        maxPrices = new double[size];
+        priceTypes = new int[size];
+    }
+
+    /**
+     * 填充价格区间与买手id
+     *
+     * @param productList
+     */
+    public void fillPriceRange(List<ProductPriceData> productList) {
+        for (ProductPriceData productPriceData : productList) {
+            Integer row = rowIndex.get(productPriceData.getProductId());
+            if (row == null) {
+                continue;
+            }
+            minOriginalPrices[row] = productPriceData.getMinOriginalPrice();
+            maxOriginalPrices[row] = productPriceData.getMaxOriginalPrice();
+            minNewCustomerPrices[row] = productPriceData.getMinNewCustomerPrice();
+            maxNewCustomerPrices[row] = productPriceData.getMaxNewCustomerPrice();
+            minVipPrices[row] = productPriceData.getMinVipPrice();
+            maxVipPrices[row] = productPriceData.getMaxVipPrice();
+            sellerIds[row] = productPriceData.getSellerId();
+            flags[row] |= LOADED;
+        }
+    }
+
+    /**
+     * 填充活动标识与有效活动规格的最低、最高活动价
+     *
+     * @param activityProductMap 商品id -> 活动商品
+     */
+    public void fillActivityProduct(Map<String, ActivityProduct> activityProductMap) {
+        for (int i = 0; i < size; i++) {
+            flags[i] &= ~(ACTIVITY | ACTIVITY_ISOLATION | ACTIVITY_NEW_BUYER);
+            minActivityPrices[i] = 0D;
+            maxActivityPrices[i] = 0D;
+
+            ActivityProduct activityProduct = activityProductMap.get(productIds[i]);
+            if (activityProduct == null || activityProduct.getActivityCatalogList() == null) {
+                continue;
+            }
+            double minActivityPrice = Double.MAX_VALUE;
+            double maxActivityPrice = 0D;
+            for (ActivityCatalog activityCatalog : activityProduct.getActivityCatalogList()) {
+                if (activityCatalog.getActivityStock() > 0 && activityCatalog.getActivityCatalogPrice() > 0) {
+                    minActivityPrice = Math.min(minActivityPrice, activityCatalog.getActivityCatalogPrice());
+                    maxActivityPrice = Math.max(maxActivityPrice, activityCatalog.getActivityCatalogPrice());
+                }
+            }
+            if (maxActivityPrice > 0) {
+                minActivityPrices[i] = minActivityPrice;
+                maxActivityPrices[i] = maxActivityPrice;
+                flags[i] |= ACTIVITY
+                        | (activityProduct.getHasIsolation() ? ACTIVITY_ISOLATION : 0)
+                        | (activityProduct.getNewBuyer() ? ACTIVITY_NEW_BUYER : 0);
+            }
+        }
+    }
+
+    /**
+     * 获取需要查询用户行为的买手id列表(vip价或新客价大于0的商品)
+     *
+     * @return
+     */
+    public List<Long> getSellerIdListNeedingOrderStatistics() {
+        List<Long> sellerIdList = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (maxVipPrices[i] > 0 || maxNewCustomerPrices[i] > 0) {
+                sellerIdList.add(sellerIds[i]);
+            }
+        }
+        return sellerIdList;
+    }
+
+    /**
+     * 填充买家在各买手下的订单标识
+     *
+     * @param resp
+     */
+    public void fillOrderStatistics(BuyerOrderStatistics resp) {
+        Map<Long, SellerOrderStatistics> fromSeller = resp != null ? resp.getFromSeller() : null;
+        for (int i = 0; i < size; i++) {
+            flags[i] &= ~(HAS_CONFIRMED_ORDERS | NO_ORDERS_OR_ALL_CANCELLED);
+            SellerOrderStatistics sellerOrderStatistics = fromSeller != null ? fromSeller.get(sellerIds[i]) : null;
+            if (sellerOrderStatistics != null) {
+                flags[i] |= (sellerOrderStatistics.isHasConfirmedOrders() ? HAS_CONFIRMED_ORDERS : 0)
+                        | (sellerOrderStatistics.isNoOrdersOrAllCancelled() ? NO_ORDERS_OR_ALL_CANCELLED : 0);
+            }
+        }
+    }
+
+    /**
+     * 生成返回结果
+     *
+     * @return
+     */
+    public List<ProductPriceForSearched> toProductPriceForSearchedList() {
+        List<ProductPriceForSearched> productPriceList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ProductPriceForSearched productPrice = new ProductPriceForSearched();
+            productPrice.setProductId(productIds[i]);
+            productPrice.setMinPrice(minPrices[i]);
+            productPrice.setMaxPrice(maxPrices[i]);
+            productPrice.setMinOriginalPrice(minOriginalPrices[i]);
+            productPrice.setMaxOriginalPrice(maxOriginalPrices[i]);
+            productPrice.setMinNewpersonPrice(minNewCustomerPrices[i]);
+            productPrice.setMaxNewpersonPrice(maxNewCustomerPrices[i]);
+            productPrice.setMinVipPrice(minVipPrices[i]);
+            productPrice.setMaxVipPrice(maxVipPrices[i]);
+            productPrice.setPriceType(priceTypes[i]);
+            productPrice.setHasConfirmedOrders((flags[i] & HAS_CONFIRMED_ORDERS) != 0);
+            productPrice.setNoOrdersOrAllCancelled((flags[i] & NO_ORDERS_OR_ALL_CANCELLED) != 0);
+            if ((flags[i] & LOADED) != 0) {
+                productPrice.setSellerId(sellerIds[i]);
+            }
+            productPriceList.add(productPrice);
+        }
+        return productPriceList;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String[] getProductIds() {
+        return productIds;
+    }
+
+    public long[] getSellerIds() {
+        return sellerIds;
+    }
+
+    public double[] getMinOriginalPrices() {
+        return minOriginalPrices;
+    }
+
+    public double[] getMaxOriginalPrices() {
+        return maxOriginalPrices;
+    }
+
+    public double[] getMinNewCustomerPrices() {
+        return minNewCustomerPrices;
+    }
+
+    public double[] getMaxNewCustomerPrices() {
+        return maxNewCustomerPrices;
+    }
+
+    public double[] getMinVipPrices() {
+        return minVipPrices;
+    }
+
+    public double[] getMaxVipPrices() {
+        return maxVipPrices;
+    }
+
+    public double[] getMinActivityPrices() {
+        return minActivityPrices;
+    }
+
+    public double[] getMaxActivityPrices() {
+        return maxActivityPrices;
+    }
+
+    public int[] getFlags() {
+        return flags;
+    }
+
+    public double[] getMinPrices() {
+        return minPrices;
+    }
+
+    public double[] getMaxPrices() {
+        return maxPrices;
+    }
+
+    public int[] getPriceTypes() {
+        return priceTypes;
+    }
+}
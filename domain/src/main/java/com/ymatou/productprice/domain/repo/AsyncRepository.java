@@ -0,0 +1,131 @@
+package com.ymatou.productprice.domain.repo;
+
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.domain.model.ProductPriceData;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步仓储接口 与Repository一一对应
+ * 返回的future在mongo驱动线程上完成 后续处理如有阻塞操作需要切换线程池
+ * Created by chenpengxuan on 2017/5/19.
+ */
+public interface AsyncRepository {
+
+    /**
+     * 获取规格信息列表
+     *
+     * @param productId
+     * @return
+     */
+    CompletableFuture<List<Catalog>> getCatalogListByProduct(String productId);
+
+    /**
+     * 获取规格信息列表
+     *
+     * @param productIdList
+     * @return
+     */
+    CompletableFuture<List<Catalog>> getCatalogListByProduct(List<String> productIdList);
+
+    /**
+     * 根据规格id获取规格信息列表
+     *
+     * @param catalogIdList
+     * @return
+     */
+    CompletableFuture<List<Catalog>> getCatalogByCatalogId(List<String> catalogIdList);
+
+    /**
+     * 获取活动商品信息
+     *
+     * @param productId
+     * @return
+     */
+    CompletableFuture<ActivityProduct> getActivityProduct(String productId);
+
+    /**
+     * 获取活动商品信息列表
+     *
+     * @param productIdList
+     * @return
+     */
+    CompletableFuture<List<ActivityProduct>> getActivityProductList(List<String> productIdList);
+
+    /**
+     * 获取活动商品信息列表
+     * @param productInActivityIdList
+     * @return
+     */
+    CompletableFuture<List<ActivityProduct>> getActivityProductListByInActivityIdList(List<Integer> productInActivityIdList);
+
+    /**
+     * 获取活动商品表中所有有效的活动商品id
+     * @return
+     */
+    CompletableFuture<List<Integer>> getValidProductInActivityIdList();
+
+    /**
+     * 根据商品id列表获取价格边界信息（用于新增接口->搜索商品列表）
+     * @param productIdList
+     * @return
+     */
+    CompletableFuture<List<ProductPriceData>> getPriceRangeListByProduct(List<String> productIdList);
+
+    /**
+     * 根据商品id与时间戳列名获取对应时间戳
+     * 用于缓存功能
+     *
+     * @param productId
+     * @param stampKeyList
+     * @return
+     */
+    CompletableFuture<Map<String, Object>> getTimeStampByProductId(String productId, List<String> stampKeyList);
+
+    /**
+     * 根据商品id列表与时间戳列名获取对应时间戳
+     *
+     * @param productIdList
+     * @param stampKeyList
+     * @return
+     */
+    CompletableFuture<List<Map<String, Object>>> getTimeStampByProductIdList(List<String> productIdList, List<String> stampKeyList);
+
+    /**
+     * 获取新增活动商品信息列表
+     *
+     * @param newestProductInActivityId 最新活动商品关联id
+     * @return
+     */
+    CompletableFuture<List<ActivityProduct>> getNewestActivityProductIdList(Integer newestProductInActivityId);
+
+    /**
+     * 根据规格id列表获取商品id规格id映射关系
+     * @param catalogIdList
+     * @return
+     */
+    CompletableFuture<List<Map<String, Object>>> getProductIdByCatalogIdList(List<String> catalogIdList);
+
+    /**
+     * 根据商品id列表获取商品id规格id映射关系
+     * @param catalogIdList
+     * @return
+     */
+    CompletableFuture<List<Map<String, Object>>> getCatalogIdByProductIdList(List<String> catalogIdList);
+
+    /**
+     * 获取全部有效活动商品列表
+     * @return
+     */
+    CompletableFuture<List<ActivityProduct>> getAllValidActivityProductList();
+
+    /**
+     * 获取商品多物流信息
+     * @param productIdList
+     * @return
+     */
+    CompletableFuture<List<Map<String, Object>>> getMultiLogisticsByProductIdList(List<String> productIdList);
+}
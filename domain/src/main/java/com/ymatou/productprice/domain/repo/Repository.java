@@ -5,6 +5,7 @@ import com.ymatou.productprice.domain.model.Catalog;
 import com.ymatou.productprice.domain.model.ProductPriceData;
 import org.springframework.stereotype.Component;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -94,6 +95,16 @@ public interface Repository {
      */
     List<Map<String, Object>> getTimeStampByProductIdList(List<String> productIdList, List<String> stampKeyList);
 
+    /**
+     * 按时间戳升序获取时间戳不早于指定时间的商品时间戳
+     *
+     * @param stampKey 时间戳列名
+     * @param updateTime
+     * @param limit 最多返回条数
+     * @return 包含spid与时间戳列
+     */
+    List<Map<String, Object>> getUpdatedTimeStampList(String stampKey, Date updateTime, int limit);
+
     /**
      * 获取新增活动商品信息列表
      *
@@ -102,6 +113,13 @@ public interface Repository {
      */
     List<ActivityProduct> getNewestActivityProductIdList(Integer newestProductInActivityId);
 
+    /**
+     * 获取活动商品表中最大的活动商品关联id
+     *
+     * @return 没有活动商品时返回0
+     */
+    int getMaxProductInActivityId();
+
     /**
      * 根据规格id列表获取商品id规格id映射关系
      * @param catalogIdList
@@ -0,0 +1,212 @@
+package com.ymatou.productprice.domain.repo.mongorepo;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.domain.model.ProductPriceData;
+import com.ymatou.productprice.domain.repo.AsyncRepository;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.constants.Constants;
+import com.ymatou.productprice.infrastructure.dataprocess.mongo.AsyncMongoProcessor;
+import com.ymatou.productprice.infrastructure.util.MapUtil;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * mongo 异步数据操作相关
+ * 查询条件与MongoRepository保持一致 结果通过注册的Codec直接解码
+ * Created by chenpengxuan on 2017/5/19.
+ */
+@Service("asyncMongoRepository")
+public class AsyncMongoRepository implements AsyncRepository {
+    @Autowired
+    private AsyncMongoProcessor asyncMongoProcessor;
+
+    @Autowired
+    private BizProps bizProps;
+
+    @Override
+    public CompletableFuture<List<Catalog>> getCatalogListByProduct(String productId) {
+        return queryCatalogList(Filters.eq("spid", productId));
+    }
+
+    @Override
+    public CompletableFuture<List<Catalog>> getCatalogListByProduct(List<String> productIdList) {
+        return queryCatalogList(Filters.in("spid", productIdList));
+    }
+
+    @Override
+    public CompletableFuture<List<Catalog>> getCatalogByCatalogId(List<String> catalogIdList) {
+        return queryCatalogList(Filters.in("cid", catalogIdList));
+    }
+
+    @Override
+    public CompletableFuture<ActivityProduct> getActivityProduct(String productId) {
+        Date now = new Date();
+        //正常业务逻辑 一个时间段只能有一个活动 但是有异常情况 变成一个时间段有多个活动 以下代码为兜底逻辑
+        return asyncMongoProcessor.queryMongo(Constants.ActivityProductDb,
+                Filters.and(Filters.eq("spid", productId), Filters.lte("start", now), Filters.gte("end", now)),
+                MongoRepository.ACTIVITY_PRODUCT_PROJECTION,
+                Sorts.descending("inaid"), 1, ActivityProduct.class)
+                .thenCompose(x -> withStamp(x, ActivityProduct::getProductId, ActivityProduct::setUpdateTime, "aut"))
+                .thenApply(x -> x.isEmpty() ? null : x.get(0));
+    }
+
+    @Override
+    public CompletableFuture<List<ActivityProduct>> getActivityProductList(List<String> productIdList) {
+        return queryActivityProductList(Filters.and(Filters.in("spid", productIdList), Filters.gte("end", new Date())));
+    }
+
+    @Override
+    public CompletableFuture<List<ActivityProduct>> getActivityProductListByInActivityIdList(List<Integer> productInActivityIdList) {
+        return queryActivityProductList(Filters.and(Filters.in("inaid", productInActivityIdList), Filters.gte("end", new Date())));
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getValidProductInActivityIdList() {
+        return asyncMongoProcessor.queryMongo(Constants.ActivityProductDb,
+                Filters.gte("end", new Date()),
+                Projections.fields(Projections.include("inaid"), Projections.excludeId()),
+                null, 0, Document.class)
+                .thenApply(list -> list.stream()
+                        .map(x -> x.get("inaid") != null ? Integer.valueOf(x.get("inaid").toString()) : 0)
+                        .collect(Collectors.toList()));
+    }
+
+    @Override
+    public CompletableFuture<List<ProductPriceData>> getPriceRangeListByProduct(List<String> productIdList) {
+        return asyncMongoProcessor.queryMongo(Constants.ProductDb,
+                Filters.in("spid", productIdList),
+                Projections.fields(Projections.include("maxp", "minp", "sid", "spid"), Projections.excludeId()),
+                null, 0, ProductPriceData.class)
+                .thenCompose(x -> withStamp(x, ProductPriceData::getProductId, ProductPriceData::setUpdateTime, "sut"));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> getTimeStampByProductId(String productId, List<String> stampKeyList) {
+        return asyncMongoProcessor.queryMongo(Constants.ProductTimeStampDb,
+                Filters.eq("spid", productId),
+                Projections.fields(Projections.include(stampKeyList), Projections.excludeId()),
+                null, 1, Document.class)
+                .thenApply(x -> x.isEmpty() ? Collections.emptyMap() : x.get(0));
+    }
+
+    @Override
+    public CompletableFuture<List<Map<String, Object>>> getTimeStampByProductIdList(List<String> productIdList, List<String> stampKeyList) {
+        List<String> fieldList = new ArrayList<>(stampKeyList);
+        fieldList.add("spid");
+        return queryMapList(Constants.ProductTimeStampDb, Filters.in("spid", productIdList), fieldList);
+    }
+
+    @Override
+    public CompletableFuture<List<ActivityProduct>> getNewestActivityProductIdList(Integer newestProductInActivityId) {
+        return queryActivityProductList(Filters.gt("inaid", newestProductInActivityId));
+    }
+
+    @Override
+    public CompletableFuture<List<Map<String, Object>>> getProductIdByCatalogIdList(List<String> catalogIdList) {
+        return queryMapList(Constants.CatalogDb, Filters.in("cid", catalogIdList), Arrays.asList("spid", "cid"));
+    }
+
+    @Override
+    public CompletableFuture<List<Map<String, Object>>> getCatalogIdByProductIdList(List<String> catalogIdList) {
+        return queryMapList(Constants.CatalogDb, Filters.in("spid", catalogIdList), Collections.singletonList("cid"));
+    }
+
+    @Override
+    public CompletableFuture<List<ActivityProduct>> getAllValidActivityProductList() {
+        return queryActivityProductList(Filters.gte("end", new Date()));
+    }
+
+    @Override
+    public CompletableFuture<List<Map<String, Object>>> getMultiLogisticsByProductIdList(List<String> productIdList) {
+        return queryMapList(Constants.ProductDb, Filters.in("spid", productIdList), Arrays.asList("spid", "mdeliv", "mflight"));
+    }
+
+    /**
+     * 查询规格并组装规格更新时间
+     * 开启useLookupQuery时通过$lookup在一次查询中关联时间戳表
+     *
+     * @param filter
+     * @return
+     */
+    private CompletableFuture<List<Catalog>> queryCatalogList(Bson filter) {
+        if (!bizProps.isUseLookupQuery()) {
+            return asyncMongoProcessor.queryMongo(Constants.CatalogDb,
+                    filter,
+                    Projections.fields(Projections.include(MongoRepository.CATALOG_FIELD_LIST), Projections.excludeId()),
+                    null, 0, Catalog.class)
+                    .thenCompose(x -> withStamp(x, Catalog::getProductId, Catalog::setUpdateTime, "cut"));
+        }
+
+        List<String> fieldList = new ArrayList<>(MongoRepository.CATALOG_FIELD_LIST);
+        fieldList.add("stamp.cut");
+        return asyncMongoProcessor.aggregateMongo(Constants.CatalogDb,
+                Arrays.asList(
+                        Aggregates.match(filter),
+                        Aggregates.lookup(Constants.ProductTimeStampDb, "spid", "spid", "stamp"),
+                        Aggregates.project(Projections.fields(Projections.include(fieldList), Projections.excludeId()))),
+                Catalog.class);
+    }
+
+    /**
+     * 查询活动商品列表并组装活动商品更新时间
+     *
+     * @param filter
+     * @return
+     */
+    private CompletableFuture<List<ActivityProduct>> queryActivityProductList(Bson filter) {
+        return asyncMongoProcessor.queryMongo(Constants.ActivityProductDb,
+                filter, MongoRepository.ACTIVITY_PRODUCT_PROJECTION, null, 0, ActivityProduct.class)
+                .thenCompose(x -> withStamp(x, ActivityProduct::getProductId, ActivityProduct::setUpdateTime, "aut"));
+    }
+
+    private CompletableFuture<List<Map<String, Object>>> queryMapList(String tableName, Bson filter, List<String> fieldList) {
+        return asyncMongoProcessor.queryMongo(tableName,
+                filter,
+                Projections.fields(Projections.include(fieldList), Projections.excludeId()),
+                null, 0, Document.class)
+                .thenApply(ArrayList::new);
+    }
+
+    /**
+     * 按商品id批量查询时间戳并组装更新时间
+     *
+     * @param dataList
+     * @param productIdGetter
+     * @param updateTimeSetter
+     * @param stampKey
+     * @param <T>
+     * @return
+     */
+    private <T> CompletableFuture<List<T>> withStamp(List<T> dataList,
+                                                     Function<T, String> productIdGetter,
+                                                     BiConsumer<T, Date> updateTimeSetter,
+                                                     String stampKey) {
+        List<String> productIdList = dataList.stream()
+                .map(productIdGetter)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        if (productIdList.isEmpty()) {
+            return CompletableFuture.completedFuture(dataList);
+        }
+        return getTimeStampByProductIdList(productIdList, Collections.singletonList(stampKey))
+                .thenApply(stampList -> {
+                    Map<String, Date> stampMap = MapUtil.indexByKey(stampList, "spid", stampKey);
+                    dataList.forEach(x -> updateTimeSetter.accept(x, stampMap.get(productIdGetter.apply(x))));
+                    return dataList;
+                });
+    }
+}
@@ -1,21 +1,30 @@
 package com.ymatou.productprice.domain.repo.mongorepo;
 
 import com.google.common.collect.Lists;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import com.ymatou.productprice.domain.model.ActivityCatalog;
 import com.ymatou.productprice.domain.model.ActivityProduct;
 import com.ymatou.productprice.domain.model.Catalog;
 import com.ymatou.productprice.domain.model.ProductPriceData;
 import com.ymatou.productprice.domain.repo.Repository;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
 import com.ymatou.productprice.infrastructure.constants.Constants;
+import com.ymatou.productprice.infrastructure.dataprocess.mongo.MongoLookupData;
 import com.ymatou.productprice.infrastructure.dataprocess.mongo.MongoOperationTypeEnum;
 import com.ymatou.productprice.infrastructure.dataprocess.mongo.MongoProcessor;
 import com.ymatou.productprice.infrastructure.dataprocess.mongo.MongoQueryData;
+import com.ymatou.productprice.infrastructure.util.MapUtil;
 import com.ymatou.productprice.infrastructure.util.Utils;
+import org.bson.conversions.Bson;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * mongo 数据操作相关
@@ -26,6 +35,22 @@ public class MongoRepository implements Repository {
     @Autowired
     private MongoProcessor mongoProcessor;
 
+    @Autowired
+    private BizProps bizProps;
+
+    /**
+     * 类型化查询规格字段
+     */
+    static final List<String> CATALOG_FIELD_LIST = Lists.newArrayList(
+            "cid", "newp", "price", "vip", "spid", "mdeliv", "mflight", "sid");
+
+    /**
+     * 类型化查询活动商品字段
+     */
+    static final Bson ACTIVITY_PRODUCT_PROJECTION = Projections.fields(
+            Projections.include("spid", "inaid", "isolation", "catalogs", "nbuyer", "start", "end"),
+            Projections.excludeId());
+
     /**
      * 根据商品id与时间戳列名获取对应时间戳
      * 用于缓存功能
@@ -86,6 +111,41 @@ public class MongoRepository implements Repository {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 按时间戳升序获取时间戳不早于指定时间的商品时间戳
+     * 用于活动商品按更新时间(aut)增量同步 时间戳表需要有对应列的索引
+     *
+     * @param stampKey 时间戳列名
+     * @param updateTime
+     * @param limit 最多返回条数
+     * @return 包含spid与时间戳列
+     */
+    public List<Map<String, Object>> getUpdatedTimeStampList(String stampKey, Date updateTime, int limit) {
+        MongoQueryData queryData = new MongoQueryData();
+
+        Map<String, Object> matchConditionMap = new HashMap<>();
+        Map<String, Object> tempGteMap = new HashMap<>();
+        tempGteMap.put("$gte", updateTime);
+        matchConditionMap.put(stampKey, tempGteMap);
+        queryData.setMatchCondition(matchConditionMap);
+
+        Map<String, Boolean> projectionMap = new HashMap<>();
+        projectionMap.put(stampKey, true);
+        projectionMap.put("spid", true);
+        projectionMap.put("_id", false);
+        queryData.setProjection(projectionMap);
+
+        Map<String, Boolean> sort = new HashMap<>();
+        sort.put(stampKey, true);
+        queryData.setSort(sort);
+        queryData.setLimit(limit);
+
+        queryData.setTableName(Constants.ProductTimeStampDb);
+
+        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
+        return mongoProcessor.queryMongo(queryData);
+    }
+
     /**
      * 根据规格id列表获取商品id规格id映射关系
      * @param catalogIdList
@@ -170,7 +230,12 @@ public class MongoRepository implements Repository {
         queryData.setTableName(Constants.ProductDb);
 
         queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
-        List<ProductPriceData> productPriceDataList = mongoProcessor
+        List<ProductPriceData> productPriceDataList = bizProps.isUseTypedQuery()
+                ? mongoProcessor.queryMongo(Constants.ProductDb,
+                Filters.in("spid", productIdList),
+                Projections.fields(Projections.include("maxp", "minp", "sid", "spid"), Projections.excludeId()),
+                null, 0, ProductPriceData.class)
+                : mongoProcessor
                 .queryMongo(queryData)
                 .stream()
                 .map(this::convertMapToProductPriceData)
@@ -183,19 +248,32 @@ public class MongoRepository implements Repository {
 
     private void setProductStamp(List<ProductPriceData> productPriceDataList){
         if(productPriceDataList != null && !productPriceDataList.isEmpty()){
-            List<String> tempProductIdList = productPriceDataList.stream().map(ProductPriceData::getProductId)
-                    .collect(Collectors.toList());
-
-            List<Map<String,Object>> tempStampList = getTimeStampByProductIdList(tempProductIdList,Arrays.asList("sut"));
+            Map<String, Date> stampMap = getStampMap(productPriceDataList
+                    .stream()
+                    .map(ProductPriceData::getProductId), "sut");
 
-            productPriceDataList.forEach(x -> {
-                Map<String,Object> tempStampMap = tempStampList.stream().filter(z ->
-                        Optional.ofNullable(z.get("spid")).orElse("").equals(x.getProductId()))
-                        .findAny().orElse(null);
+            productPriceDataList.forEach(x -> x.setUpdateTime(stampMap.get(x.getProductId())));
+        }
+    }
 
-                x.setUpdateTime(tempStampMap != null ? Optional.ofNullable((Date)tempStampMap.get("sut")).orElse(null):null);
-            });
+    /**
+     * 按商品id批量获取某一列时间戳
+     * 商品id去重后查询 返回商品id与时间戳的映射
+     *
+     * @param productIdStream
+     * @param stampKey
+     * @return
+     */
+    private Map<String, Date> getStampMap(Stream<String> productIdStream, String stampKey) {
+        List<String> productIdList = productIdStream
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        if (productIdList.isEmpty()) {
+            return Collections.emptyMap();
         }
+        return MapUtil.indexByKey(getTimeStampByProductIdList(productIdList, Collections.singletonList(stampKey)),
+                "spid", stampKey);
     }
 
     /**
@@ -225,14 +303,7 @@ public class MongoRepository implements Repository {
 
         queryData.setTableName(Constants.CatalogDb);
 
-        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
-        List<Catalog> tempCatalogList = mongoProcessor
-                .queryMongo(queryData)
-                .stream().map(this::convertMapToCatalog).collect(Collectors.toList());
-
-        setCatalogStamp(tempCatalogList);
-
-        return tempCatalogList;
+        return queryCatalogList(queryData, Filters.eq("spid", productId));
     }
 
     /**
@@ -264,15 +335,7 @@ public class MongoRepository implements Repository {
 
         queryData.setTableName(Constants.CatalogDb);
 
-        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
-
-        List<Catalog> tempCatalogList = mongoProcessor
-                .queryMongo(queryData)
-                .stream().map(this::convertMapToCatalog).collect(Collectors.toList());
-
-        setCatalogStamp(tempCatalogList);
-
-        return tempCatalogList;
+        return queryCatalogList(queryData, Filters.in("spid", productIdList));
     }
 
     /**
@@ -303,15 +366,78 @@ public class MongoRepository implements Repository {
 
         queryData.setTableName(Constants.CatalogDb);
 
-        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
+        return queryCatalogList(queryData, Filters.in("cid", catalogIdList));
+    }
 
-        List<Catalog> tempCatalogList = mongoProcessor
-                .queryMongo(queryData)
-                .stream().map(this::convertMapToCatalog).collect(Collectors.toList());
+    /**
+     * 查询规格并组装规格更新时间
+     * 开启useLookupQuery时通过$lookup在一次查询中关联时间戳表 否则分两次查询
+     * 开启useTypedQuery时使用typedFilter查询 结果由CatalogBsonCodec直接解码
+     *
+     * @param queryData
+     * @param typedFilter
+     * @return
+     */
+    private List<Catalog> queryCatalogList(MongoQueryData queryData, Bson typedFilter) {
+        if (bizProps.isUseTypedQuery()) {
+            return queryTypedCatalogList(typedFilter);
+        }
+        if (!bizProps.isUseLookupQuery()) {
+            queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
+            queryData.setBatchSize(bizProps.getMongoQueryBatchSize());
 
-        setCatalogStamp(tempCatalogList);
+            List<Catalog> tempCatalogList = mongoProcessor.queryMongo(queryData, this::convertMapToCatalog);
 
-        return tempCatalogList;
+            setCatalogStamp(tempCatalogList);
+            return tempCatalogList;
+        }
+
+        MongoLookupData lookupData = new MongoLookupData();
+        lookupData.setTableName(Constants.ProductTimeStampDb);
+        lookupData.setLocalField("spid");
+        lookupData.setForeignField("spid");
+        lookupData.setAs("stamp");
+        lookupData.setProjection(Collections.singletonList("cut"));
+        queryData.setLookup(lookupData);
+
+        queryData.setOperationType(MongoOperationTypeEnum.AGGREGATE);
+        queryData.setBatchSize(bizProps.getMongoQueryBatchSize());
+
+        return mongoProcessor
+                .queryMongo(queryData, x -> {
+                    Catalog catalog = convertMapToCatalog(x);
+                    List<Map<String, Object>> stampList = (List<Map<String, Object>>) x.get("stamp");
+                    catalog.setUpdateTime(stampList != null && !stampList.isEmpty()
+                            ? (Date) stampList.get(0).get("cut") : null);
+                    return catalog;
+                });
+    }
+
+    /**
+     * 类型化查询规格
+     *
+     * @param filter
+     * @return
+     */
+    private List<Catalog> queryTypedCatalogList(Bson filter) {
+        if (!bizProps.isUseLookupQuery()) {
+            List<Catalog> tempCatalogList = mongoProcessor.queryMongo(Constants.CatalogDb,
+                    filter,
+                    Projections.fields(Projections.include(CATALOG_FIELD_LIST), Projections.excludeId()),
+                    null, 0, Catalog.class);
+
+            setCatalogStamp(tempCatalogList);
+            return tempCatalogList;
+        }
+
+        List<String> fieldList = new ArrayList<>(CATALOG_FIELD_LIST);
+        fieldList.add("stamp.cut");
+        return mongoProcessor.aggregateMongo(Constants.CatalogDb,
+                Lists.newArrayList(
+                        Aggregates.match(filter),
+                        Aggregates.lookup(Constants.ProductTimeStampDb, "spid", "spid", "stamp"),
+                        Aggregates.project(Projections.fields(Projections.include(fieldList), Projections.excludeId()))),
+                Catalog.class);
     }
 
     /**
@@ -320,18 +446,11 @@ public class MongoRepository implements Repository {
      */
     private void setCatalogStamp(List<Catalog> tempCatalogList){
         if(tempCatalogList != null && !tempCatalogList.isEmpty()){
-            List<String> tempProductIdList = tempCatalogList.stream().map(Catalog::getProductId)
-                    .collect(Collectors.toList());
-
-            List<Map<String,Object>> tempStampList = getTimeStampByProductIdList(tempProductIdList,Arrays.asList("cut"));
-
-            tempCatalogList.forEach(x -> {
-                Map<String,Object> tempStampMap = tempStampList.stream().filter(z ->
-                        Optional.ofNullable(z.get("spid")).orElse("").equals(x.getProductId()))
-                        .findAny().orElse(null);
+            Map<String, Date> stampMap = getStampMap(tempCatalogList
+                    .stream()
+                    .map(Catalog::getProductId), "cut");
 
-                x.setUpdateTime(tempStampMap != null ? Optional.ofNullable((Date)tempStampMap.get("cut")).orElse(null):null);
-            });
+            tempCatalogList.forEach(x -> x.setUpdateTime(stampMap.get(x.getProductId())));
         }
     }
 
@@ -373,11 +492,23 @@ public class MongoRepository implements Repository {
 
         queryData.setOperationType(MongoOperationTypeEnum.SELECTSINGLE);
 
-        ActivityProduct activityProduct = mongoProcessor.queryMongo(queryData)
-                .stream()
-                .map(this::convertMapToActivityProduct)
-                .findAny()
-                .orElse(null);
+        ActivityProduct activityProduct;
+        if (bizProps.isUseTypedQuery()) {
+            Date now = new Date();
+            activityProduct = mongoProcessor.queryMongo(Constants.ActivityProductDb,
+                    Filters.and(Filters.eq("spid", productId), Filters.lte("start", now), Filters.gte("end", now)),
+                    ACTIVITY_PRODUCT_PROJECTION,
+                    Sorts.descending("inaid"), 1, ActivityProduct.class)
+                    .stream()
+                    .findAny()
+                    .orElse(null);
+        } else {
+            activityProduct = mongoProcessor.queryMongo(queryData)
+                    .stream()
+                    .map(this::convertMapToActivityProduct)
+                    .findAny()
+                    .orElse(null);
+        }
 
         if(activityProduct != null){
             activityProduct.setUpdateTime(getUpdateTimeByProductId(activityProduct.getProductId(), "aut"));
@@ -419,16 +550,7 @@ public class MongoRepository implements Repository {
 
         queryData.setTableName(Constants.ActivityProductDb);
 
-        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
-
-        List<ActivityProduct> activityProductList = mongoProcessor.queryMongo(queryData)
-                .stream()
-                .map(this::convertMapToActivityProduct)
-                .collect(Collectors.toList());
-
-       setActivityProductStamp(activityProductList);
-
-        return activityProductList;
+        return queryActivityProductList(queryData, Filters.and(Filters.in("spid", productIdList), Filters.gte("end", new Date())));
     }
 
     @Override
@@ -459,16 +581,7 @@ public class MongoRepository implements Repository {
 
         queryData.setTableName(Constants.ActivityProductDb);
 
-        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
-
-        List<ActivityProduct> activityProductList = mongoProcessor.queryMongo(queryData)
-                .stream()
-                .map(this::convertMapToActivityProduct)
-                .collect(Collectors.toList());
-
-        setActivityProductStamp(activityProductList);
-
-        return activityProductList;
+        return queryActivityProductList(queryData, Filters.and(Filters.in("inaid", productInActivityIdList), Filters.gte("end", new Date())));
     }
 
     @Override
@@ -524,12 +637,56 @@ public class MongoRepository implements Repository {
 
         queryData.setTableName(Constants.ActivityProductDb);
 
-        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
+        return queryActivityProductList(queryData, Filters.gt("inaid", newestProductInActivityId));
+    }
 
-        List<ActivityProduct> activityProductList = mongoProcessor.queryMongo(queryData)
+    /**
+     * 获取活动商品表中最大的活动商品关联id
+     * 用于初始化活动商品增量同步的inaid水位
+     *
+     * @return 没有活动商品时返回0
+     */
+    public int getMaxProductInActivityId() {
+        MongoQueryData queryData = new MongoQueryData();
+        Map<String, Boolean> projectionMap = new HashMap<>();
+        projectionMap.put("inaid", true);
+        projectionMap.put("_id", false);
+        queryData.setProjection(projectionMap);
+
+        Map<String, Boolean> sort = new HashMap<>();
+        sort.put("inaid", false);
+        queryData.setSort(sort);
+        queryData.setLimit(1);
+
+        queryData.setTableName(Constants.ActivityProductDb);
+
+        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
+        return mongoProcessor.queryMongo(queryData)
                 .stream()
-                .map(this::convertMapToActivityProduct)
-                .collect(Collectors.toList());
+                .findFirst()
+                .map(x -> x.get("inaid") != null ? Integer.valueOf(x.get("inaid").toString()) : 0)
+                .orElse(0);
+    }
+
+    /**
+     * 查询活动商品列表并组装活动商品更新时间
+     * 开启useTypedQuery时使用typedFilter查询 结果由ActivityProductBsonCodec直接解码
+     *
+     * @param queryData
+     * @param typedFilter
+     * @return
+     */
+    private List<ActivityProduct> queryActivityProductList(MongoQueryData queryData, Bson typedFilter) {
+        List<ActivityProduct> activityProductList;
+        if (bizProps.isUseTypedQuery()) {
+            activityProductList = mongoProcessor.queryMongo(Constants.ActivityProductDb,
+                    typedFilter, ACTIVITY_PRODUCT_PROJECTION, null, 0, ActivityProduct.class);
+        } else {
+            queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
+            queryData.setBatchSize(bizProps.getMongoQueryBatchSize());
+
+            activityProductList = mongoProcessor.queryMongo(queryData, this::convertMapToActivityProduct);
+        }
 
         setActivityProductStamp(activityProductList);
 
@@ -544,18 +701,11 @@ public class MongoRepository implements Repository {
         if(activityProductList != null && !activityProductList.isEmpty()) {
             activityProductList.removeAll(Collections.singleton(null));
 
-            List<String> activityProductIdList = activityProductList.stream().map(ActivityProduct::getProductId)
-                    .collect(Collectors.toList());
-
-            List<Map<String,Object>> tempStampList = getTimeStampByProductIdList(activityProductIdList,Arrays.asList("aut"));
-
-            activityProductList.forEach(x -> {
-                Map<String,Object> tempStampMap = tempStampList.stream().filter(z ->
-                        Optional.ofNullable(z.get("spid")).orElse("").equals(x.getProductId()))
-                        .findAny().orElse(null);
+            Map<String, Date> stampMap = getStampMap(activityProductList
+                    .stream()
+                    .map(ActivityProduct::getProductId), "aut");
 
-                x.setUpdateTime(tempStampMap != null ? Optional.ofNullable((Date)tempStampMap.get("aut")).orElse(null):null);
-            });
+            activityProductList.forEach(x -> x.setUpdateTime(stampMap.get(x.getProductId())));
         }
     }
 
@@ -588,16 +738,7 @@ public class MongoRepository implements Repository {
 
         queryData.setTableName(Constants.ActivityProductDb);
 
-        queryData.setOperationType(MongoOperationTypeEnum.SELECTMANY);
-
-        List<ActivityProduct> activityProductList = mongoProcessor.queryMongo(queryData)
-                .stream()
-                .map(x -> convertMapToActivityProduct(x))
-                .collect(Collectors.toList());
-
-       setActivityProductStamp(activityProductList);
-
-        return activityProductList;
+        return queryActivityProductList(queryData, Filters.gte("end", new Date()));
     }
 
     @Override
@@ -679,6 +820,7 @@ public class MongoRepository implements Repository {
         tempProductPriceData.setPriceMaxRange(Optional.ofNullable((String) productMap.get("maxp")).orElse(""));
         tempProductPriceData.setPriceMinRange(Optional.ofNullable((String) productMap.get("minp")).orElse(""));
         tempProductPriceData.setSellerId(Optional.ofNullable((Integer) productMap.get("sid")).orElse(0));
+        tempProductPriceData.parsePriceRange();
 
         return tempProductPriceData;
     }
@@ -0,0 +1,139 @@
+package com.ymatou.productprice.domain.repo.mongorepo.codec;
+
+import com.ymatou.productprice.domain.model.ActivityCatalog;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 活动商品文档编解码器
+ * 解码结果与MongoRepository.convertMapToActivityProduct一致
+ * Created by chenpengxuan on 2017/5/17.
+ */
+@Component
+public class ActivityProductBsonCodec extends MongoDocumentCodec<ActivityProduct> {
+
+    @Override
+    public ActivityProduct decode(BsonReader reader, DecoderContext decoderContext) {
+        ActivityProduct activityProduct = new ActivityProduct();
+        activityProduct.setProductInActivityId(0);
+        activityProduct.setProductId("");
+        activityProduct.setActivityCatalogList(new ArrayList<>());
+        activityProduct.setHasIsolation(false);
+        activityProduct.setNewBuyer(false);
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "inaid":
+                    Integer productInActivityId = readInteger(reader);
+                    activityProduct.setProductInActivityId(productInActivityId != null ? productInActivityId : 0);
+                    break;
+                case "spid":
+                    String productId = readString(reader);
+                    activityProduct.setProductId(productId != null ? productId : "");
+                    break;
+                case "catalogs":
+                    activityProduct.setActivityCatalogList(readActivityCatalogList(reader));
+                    break;
+                case "isolation":
+                    Boolean isolation = readBoolean(reader);
+                    activityProduct.setHasIsolation(isolation != null ? isolation : false);
+                    break;
+                case "nbuyer":
+                    Boolean newBuyer = readBoolean(reader);
+                    activityProduct.setNewBuyer(newBuyer != null ? newBuyer : false);
+                    break;
+                case "start":
+                    activityProduct.setStartTime(readDate(reader));
+                    break;
+                case "end":
+                    activityProduct.setEndTime(readDate(reader));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        return activityProduct;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, ActivityProduct value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeInteger(writer, "inaid", value.getProductInActivityId());
+        writeString(writer, "spid", value.getProductId());
+        writer.writeStartArray("catalogs");
+        if (value.getActivityCatalogList() != null) {
+            for (ActivityCatalog activityCatalog : value.getActivityCatalogList()) {
+                writer.writeStartDocument();
+                writeString(writer, "cid", activityCatalog.getActivityCatalogId());
+                writeDouble(writer, "price", activityCatalog.getActivityCatalogPrice());
+                writeInteger(writer, "stock", activityCatalog.getActivityStock());
+                writer.writeEndDocument();
+            }
+        }
+        writer.writeEndArray();
+        writeBoolean(writer, "isolation", value.getHasIsolation());
+        writeBoolean(writer, "nbuyer", value.getNewBuyer());
+        writeDate(writer, "start", value.getStartTime());
+        writeDate(writer, "end", value.getEndTime());
+        writer.writeEndDocument();
+    }
+
+    private List<ActivityCatalog> readActivityCatalogList(BsonReader reader) {
+        List<ActivityCatalog> activityCatalogList = new ArrayList<>();
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return activityCatalogList;
+        }
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+                reader.skipValue();
+                continue;
+            }
+            ActivityCatalog activityCatalog = new ActivityCatalog();
+            activityCatalog.setActivityCatalogId("");
+            activityCatalog.setActivityCatalogPrice(0D);
+            activityCatalog.setActivityStock(0);
+
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                switch (reader.readName()) {
+                    case "cid":
+                        String catalogId = readString(reader);
+                        activityCatalog.setActivityCatalogId(catalogId != null ? catalogId : "");
+                        break;
+                    case "price":
+                        activityCatalog.setActivityCatalogPrice(zeroIfNull(readDouble(reader)));
+                        break;
+                    case "stock":
+                        Integer stock = readInteger(reader);
+                        activityCatalog.setActivityStock(stock != null ? stock : 0);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.readEndDocument();
+            activityCatalogList.add(activityCatalog);
+        }
+        reader.readEndArray();
+        return activityCatalogList;
+    }
+
+    @Override
+    public Class<ActivityProduct> getEncoderClass() {
+        return ActivityProduct.class;
+    }
+}
@@ -0,0 +1,138 @@
+package com.ymatou.productprice.domain.repo.mongorepo.codec;
+
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.infrastructure.util.Utils;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * 规格文档编解码器
+ * 解码结果与MongoRepository.convertMapToCatalog一致
+ * 通过$lookup关联的时间戳(stamp.cut)直接解码为规格更新时间 编码时规格更新时间同样写为stamp数组
+ * Created by chenpengxuan on 2017/5/17.
+ */
+@Component
+public class CatalogBsonCodec extends MongoDocumentCodec<Catalog> {
+
+    @Override
+    public Catalog decode(BsonReader reader, DecoderContext decoderContext) {
+        String productId = null;
+        String catalogId = null;
+        Integer sellerId = null;
+        Double price = null;
+        Double newCustomerPrice = null;
+        Double vipPrice = null;
+        Double flightBalance = null;
+        Integer multiLogistics = null;
+
+        Catalog catalog = new Catalog();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "spid":
+                    productId = readString(reader);
+                    break;
+                case "cid":
+                    catalogId = readString(reader);
+                    break;
+                case "sid":
+                    sellerId = readInteger(reader);
+                    break;
+                case "price":
+                    price = readDouble(reader);
+                    break;
+                case "newp":
+                    newCustomerPrice = readDouble(reader);
+                    break;
+                case "vip":
+                    vipPrice = readDouble(reader);
+                    break;
+                case "mflight":
+                    flightBalance = readDouble(reader);
+                    break;
+                case "mdeliv":
+                    multiLogistics = readInteger(reader);
+                    break;
+                case "stamp":
+                    readStamp(reader, catalog);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+
+        catalog.setProductId(productId != null ? productId : "");
+        catalog.setCatalogId(catalogId != null ? catalogId : "");
+        catalog.setSellerId(sellerId != null ? sellerId : 0);
+        catalog.setQuotePrice(Utils.doubleFormat(zeroIfNull(price), 2));
+        catalog.setNewCustomerPrice(Utils.doubleFormat(zeroIfNull(newCustomerPrice), 2));
+        catalog.setVipPrice(Utils.doubleFormat(zeroIfNull(vipPrice), 2));
+        catalog.setFlightBalance(Utils.doubleFormat(zeroIfNull(flightBalance), 2));
+        catalog.setMultiLogistics(multiLogistics != null ? multiLogistics : 0);
+        return catalog;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Catalog value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "spid", value.getProductId());
+        writeString(writer, "cid", value.getCatalogId());
+        writeInteger(writer, "sid", value.getSellerId());
+        writeDouble(writer, "price", value.getQuotePrice());
+        writeDouble(writer, "newp", value.getNewCustomerPrice());
+        writeDouble(writer, "vip", value.getVipPrice());
+        writeDouble(writer, "mflight", value.getFlightBalance());
+        writeInteger(writer, "mdeliv", value.getMultiLogistics());
+        if (value.getUpdateTime() != null) {
+            writer.writeStartArray("stamp");
+            writer.writeStartDocument();
+            writeDate(writer, "cut", value.getUpdateTime());
+            writer.writeEndDocument();
+            writer.writeEndArray();
+        }
+        writer.writeEndDocument();
+    }
+
+    /**
+     * 读取关联的时间戳列表 取第一条的cut
+     *
+     * @param reader
+     * @param catalog
+     */
+    private void readStamp(BsonReader reader, Catalog catalog) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.readStartArray();
+        boolean first = true;
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (!first || reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if ("cut".equals(reader.readName())) {
+                    catalog.setUpdateTime(readDate(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+        }
+        reader.readEndArray();
+    }
+
+    @Override
+    public Class<Catalog> getEncoderClass() {
+        return Catalog.class;
+    }
+}
@@ -0,0 +1,133 @@
+package com.ymatou.productprice.domain.repo.mongorepo.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+
+import java.util.Date;
+
+/**
+ * 业务对象文档编解码器
+ * 解码时数值字段兼容int32/int64/double/string几种存储类型
+ * 编码写出解码读取的同一组字段 编码后再解码得到相同的业务对象 null值写为bson null
+ * Created by chenpengxuan on 2017/5/17.
+ */
+public abstract class MongoDocumentCodec<T> implements Codec<T> {
+
+    protected String readString(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case STRING:
+                return reader.readString();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    protected Double readDouble(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DOUBLE:
+                return reader.readDouble();
+            case INT32:
+                return (double) reader.readInt32();
+            case INT64:
+                return (double) reader.readInt64();
+            case STRING:
+                return Double.valueOf(reader.readString());
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    protected Integer readInteger(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return (int) reader.readInt64();
+            case DOUBLE:
+                return (int) reader.readDouble();
+            case STRING:
+                return Integer.valueOf(reader.readString());
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    protected Boolean readBoolean(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.BOOLEAN) {
+            return reader.readBoolean();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    protected Date readDate(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.DATE_TIME) {
+            return new Date(reader.readDateTime());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    protected void writeString(BsonWriter writer, String name, String value) {
+        writer.writeName(name);
+        if (value != null) {
+            writer.writeString(value);
+        } else {
+            writer.writeNull();
+        }
+    }
+
+    protected void writeDouble(BsonWriter writer, String name, Double value) {
+        writer.writeName(name);
+        if (value != null) {
+            writer.writeDouble(value);
+        } else {
+            writer.writeNull();
+        }
+    }
+
+    protected void writeInteger(BsonWriter writer, String name, Integer value) {
+        writer.writeName(name);
+        if (value != null) {
+            writer.writeInt32(value);
+        } else {
+            writer.writeNull();
+        }
+    }
+
+    protected void writeBoolean(BsonWriter writer, String name, Boolean value) {
+        writer.writeName(name);
+        if (value != null) {
+            writer.writeBoolean(value);
+        } else {
+            writer.writeNull();
+        }
+    }
+
+    protected void writeDate(BsonWriter writer, String name, Date value) {
+        writer.writeName(name);
+        if (value != null) {
+            writer.writeDateTime(value.getTime());
+        } else {
+            writer.writeNull();
+        }
+    }
+
+    protected double zeroIfNull(Double value) {
+        return value != null ? value : 0D;
+    }
+}
@@ -0,0 +1,71 @@
+package com.ymatou.productprice.domain.repo.mongorepo.codec;
+
+import com.ymatou.productprice.domain.model.ProductPriceData;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * 商品价格区间文档编解码器
+ * 解码结果与MongoRepository.convertMapToProductPriceData一致
+ * Created by chenpengxuan on 2017/5/17.
+ */
+@Component
+public class ProductPriceDataBsonCodec extends MongoDocumentCodec<ProductPriceData> {
+
+    @Override
+    public ProductPriceData decode(BsonReader reader, DecoderContext decoderContext) {
+        ProductPriceData productPriceData = new ProductPriceData();
+        productPriceData.setProductId("");
+        productPriceData.setPriceMaxRange("");
+        productPriceData.setPriceMinRange("");
+        productPriceData.setSellerId(0);
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String value;
+            switch (reader.readName()) {
+                case "spid":
+                    value = readString(reader);
+                    productPriceData.setProductId(value != null ? value : "");
+                    break;
+                case "maxp":
+                    value = readString(reader);
+                    productPriceData.setPriceMaxRange(value != null ? value : "");
+                    break;
+                case "minp":
+                    value = readString(reader);
+                    productPriceData.setPriceMinRange(value != null ? value : "");
+                    break;
+                case "sid":
+                    Integer sellerId = readInteger(reader);
+                    productPriceData.setSellerId(sellerId != null ? sellerId : 0);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        productPriceData.parsePriceRange();
+        return productPriceData;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, ProductPriceData value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "spid", value.getProductId());
+        writeString(writer, "maxp", value.getPriceMaxRange());
+        writeString(writer, "minp", value.getPriceMinRange());
+        writeInteger(writer, "sid", value.getSellerId());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<ProductPriceData> getEncoderClass() {
+        return ProductPriceData.class;
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -111,11 +112,21 @@ public class ParallelRepository implements Repository {
         return mongoRepository.getTimeStampByProductIdList(productIdList,stampKeyList);
     }
 
+    @Override
+    public List<Map<String, Object>> getUpdatedTimeStampList(String stampKey, Date updateTime, int limit) {
+        return mongoRepository.getUpdatedTimeStampList(stampKey, updateTime, limit);
+    }
+
     @Override
     public List<ActivityProduct> getNewestActivityProductIdList(Integer newestProductInActivityId) {
         return mongoRepository.getNewestActivityProductIdList(newestProductInActivityId);
     }
 
+    @Override
+    public int getMaxProductInActivityId() {
+        return mongoRepository.getMaxProductInActivityId();
+    }
+
 
     @Override
     public List<Map<String, Object>> getProductIdByCatalogIdList(List<String> catalogIdList) {
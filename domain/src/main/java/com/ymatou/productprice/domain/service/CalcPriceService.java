@@ -3,17 +3,15 @@ package com.ymatou.productprice.domain.service;
 import com.ymatou.productprice.domain.model.ActivityCatalog;
 import com.ymatou.productprice.domain.model.ActivityProduct;
 import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics.SellerOrderStatistics;
 import com.ymatou.productprice.model.Catalog;
 import com.ymatou.productprice.model.PriceEnum;
 import com.ymatou.productprice.model.ProductPrice;
-import com.ymatou.useranalysis.facade.model.resp.GetBuyerOrderStatisticsResp;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * 计算价格的逻辑
@@ -36,49 +34,104 @@ public class CalcPriceService {
     public void decideProductRealPrice(long buyerId,
                                           List<ProductPrice> productPriceList,
                                           List<ActivityProduct> activityProductInfoList,
-                                          GetBuyerOrderStatisticsResp resp,
+                                          BuyerOrderStatistics resp,
                                           boolean isNewBuyer,
                                           boolean isTradeIsolation) {
-        long now = new Date().getTime();
-        productPriceList.forEach(productPrice -> {
-
-            ActivityProduct tempActivityProduct = activityProductInfoList != null
-                    && !activityProductInfoList.isEmpty() ?
-                    activityProductInfoList.stream()
-                            .filter(x -> x.getProductId().equals(productPrice.getProductId())
-                             && x.getStartTime().getTime() <= now && x.getEndTime().getTime() >= now)
-                            .findAny().orElse(null) : null;
-
-            productPrice.getCatalogs().forEach(catalog -> {
-                calcRealPrice(buyerId,catalog.getSellerId(),resp,isNewBuyer,isTradeIsolation,catalog,tempActivityProduct);
-            });
+        Map<String, ActivityProduct> activityProductMap = indexValidActivityProduct(activityProductInfoList, new Date().getTime());
+        //访客判断与请求相关 与规格无关
+        boolean isVisitor = checkVisitorPriceAsRealPrice(buyerId, resp);
+        long lastSellerId = Long.MIN_VALUE;
+        SellerOrderStatistics sellerOrderStatistics = null;
+        for (ProductPrice productPrice : productPriceList) {
+            ActivityProduct tempActivityProduct = activityProductMap.get(productPrice.getProductId());
+            Map<String, ActivityCatalog> activityCatalogMap = indexActivityCatalog(tempActivityProduct);
+
+            for (Catalog catalog : productPrice.getCatalogs()) {
+                //同一买手的规格连续出现 只在买手变化时查找订单统计
+                long sellerId = catalog.getSellerId();
+                if (sellerId != lastSellerId) {
+                    sellerOrderStatistics = getSellerOrderStatistics(sellerId, resp);
+                    lastSellerId = sellerId;
+                }
+                calcRealPrice(isVisitor, sellerOrderStatistics, isNewBuyer, isTradeIsolation, catalog,
+                        tempActivityProduct, activityCatalogMap.get(catalog.getCatalogId()));
+            }
+        }
+    }
+
+    /**
+     * 获取买家在买手下的订单统计 没有统计信息时返回null
+     *
+     * @param sellerId
+     * @param resp
+     * @return
+     */
+    protected SellerOrderStatistics getSellerOrderStatistics(long sellerId, BuyerOrderStatistics resp) {
+        if (resp == null || resp.getFromSeller() == null) {
+            return null;
+        }
+        return resp.getFromSeller().get(sellerId);
+    }
+
+    /**
+     * 按商品id索引活动商品 同一商品有多个活动商品时取第一个
+     *
+     * @param activityProductInfoList
+     * @param now 大于0时只索引当前有效的活动商品
+     * @return
+     */
+    protected Map<String, ActivityProduct> indexValidActivityProduct(List<ActivityProduct> activityProductInfoList, long now) {
+        if (activityProductInfoList == null || activityProductInfoList.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, ActivityProduct> activityProductMap = new HashMap<>(activityProductInfoList.size() * 2);
+        activityProductInfoList.forEach(x -> {
+            if (now <= 0 || (x.getStartTime().getTime() <= now && x.getEndTime().getTime() >= now)) {
+                activityProductMap.putIfAbsent(x.getProductId(), x);
+            }
         });
+        return activityProductMap;
+    }
+
+    /**
+     * 按活动规格id索引活动规格 同一规格有多条时取第一条
+     *
+     * @param activityProductInfo
+     * @return
+     */
+    private Map<String, ActivityCatalog> indexActivityCatalog(ActivityProduct activityProductInfo) {
+        if (activityProductInfo == null
+                || activityProductInfo.getActivityCatalogList() == null
+                || activityProductInfo.getActivityCatalogList().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<ActivityCatalog> activityCatalogList = activityProductInfo.getActivityCatalogList();
+        Map<String, ActivityCatalog> activityCatalogMap = new HashMap<>(activityCatalogList.size() * 2);
+        activityCatalogList.forEach(x -> activityCatalogMap.putIfAbsent(x.getActivityCatalogId(), x));
+        return activityCatalogMap;
     }
 
     /**
      * 计算最终价格
      */
-    protected void calcRealPrice(long buyerId,
-                                 long sellerId,
-                                 GetBuyerOrderStatisticsResp resp,
+    protected void calcRealPrice(boolean isVisitor,
+                                 SellerOrderStatistics sellerOrderStatistics,
                                  boolean isNewBuyer,
                                  boolean isTradeIsolation,
                                  Catalog catalog,
-                                 ActivityProduct activityProductInfo) {
+                                 ActivityProduct activityProductInfo,
+                                 ActivityCatalog activityCatalog) {
         //活动商品价格逻辑优先级最高
-        if (checkActivityPriceAsRealPrice(isNewBuyer, isTradeIsolation, catalog, activityProductInfo)) {
-            ActivityCatalog activityCatalog = activityProductInfo.getActivityCatalogList()
-                    .stream().filter(x -> x.getActivityCatalogId().equals(catalog.getCatalogId()))
-                    .findAny().orElse(null);
+        if (checkActivityPriceAsRealPrice(isNewBuyer, isTradeIsolation, activityCatalog, activityProductInfo)) {
             setActivityPriceAsRealPrice(catalog, activityCatalog);
         }
-        else if (checkVisitorPriceAsRealPrice(buyerId,resp)){
+        else if (isVisitor){
             setVisitorPriceAsRealPrice(catalog);
         }
-        else if(checkVipPriceAsRealPrice(sellerId,resp,catalog)){
+        else if(checkVipPriceAsRealPrice(sellerOrderStatistics,catalog)){
             setVipPriceAsRealPrice(catalog);
         }
-        else if(checkNewCustomerPriceAsRealPrice(sellerId,resp,catalog)){
+        else if(checkNewCustomerPriceAsRealPrice(sellerOrderStatistics,catalog)){
             setNewCustomerPriceAsRealPrice(catalog);
         }
         else{
@@ -100,15 +153,13 @@ public class CalcPriceService {
     /**
      * 检查新客价格是否作为最终价格
      *
-     * @param sellerId
-     * @param resp
+     * @param sellerOrderStatistics
      * @param catalog
      */
-    private boolean checkNewCustomerPriceAsRealPrice(Long sellerId, GetBuyerOrderStatisticsResp resp, Catalog catalog) {
+    private boolean checkNewCustomerPriceAsRealPrice(SellerOrderStatistics sellerOrderStatistics, Catalog catalog) {
         //买家如果没有订单或订单全部取消
-        if (resp != null
-                && resp.getFromSeller().get(sellerId) != null
-                && resp.getFromSeller().get(sellerId).isNoOrdersOrAllCancelled()
+        if (sellerOrderStatistics != null
+                && sellerOrderStatistics.isNoOrdersOrAllCancelled()
                 && catalog.getNewCustomerPrice() > 0
                 && catalog.getNewCustomerPrice() < catalog.getQuotePrice()) {
             return true;
@@ -128,16 +179,14 @@ public class CalcPriceService {
     /**
      * 检查vip价格是否作为最终价格
      *
-     * @param sellerId
-     * @param resp
+     * @param sellerOrderStatistics
      * @param catalog
      * @return
      */
-    private boolean checkVipPriceAsRealPrice(Long sellerId, GetBuyerOrderStatisticsResp resp, Catalog catalog) {
+    private boolean checkVipPriceAsRealPrice(SellerOrderStatistics sellerOrderStatistics, Catalog catalog) {
         //买家已经有确认的订单
-        if (resp != null
-                && resp.getFromSeller().get(sellerId) != null
-                && resp.getFromSeller().get(sellerId).isHasConfirmedOrders()
+        if (sellerOrderStatistics != null
+                && sellerOrderStatistics.isHasConfirmedOrders()
                 && catalog.getVipPrice() > 0
                 && catalog.getVipPrice() < catalog.getQuotePrice()) {
             return true;
@@ -161,7 +210,7 @@ public class CalcPriceService {
      * @param buyerId
      * @param resp
      */
-    protected boolean checkVisitorPriceAsRealPrice(Long buyerId, GetBuyerOrderStatisticsResp resp) {
+    protected boolean checkVisitorPriceAsRealPrice(Long buyerId, BuyerOrderStatistics resp) {
         //买家未登录记录日志
         if (buyerId <= 0) {
             logWrapper.recordInfoLog("buyerId <=0");
@@ -179,16 +228,19 @@ public class CalcPriceService {
      * @return
      */
     private void setVisitorPriceAsRealPrice(Catalog catalog) {
-        Map<PriceEnum, Double> priceMap = new HashMap<>();
-        priceMap.put(PriceEnum.NEWCUSTOMERPRICE, catalog.getNewCustomerPrice());
-        priceMap.put(PriceEnum.QUOTEPRICE, catalog.getQuotePrice());
-        priceMap.put(PriceEnum.VIPPRICE, catalog.getVipPrice());
-        Map.Entry<PriceEnum, Double> entry = priceMap.entrySet()
-                .stream()
-                .min((x, y) -> Double.compare(x.getValue().doubleValue(), y.getValue().doubleValue()))
-                .get();
-        catalog.setPrice(entry.getValue());
-        catalog.setPriceType(entry.getKey().getCode());
+        //取新客价、原价、vip价中的最低价 价格相同时按新客价、原价、vip价的顺序决定价格类型
+        double price = catalog.getNewCustomerPrice();
+        int priceType = PriceEnum.NEWCUSTOMERPRICE.getCode();
+        if (catalog.getQuotePrice() < price) {
+            price = catalog.getQuotePrice();
+            priceType = PriceEnum.QUOTEPRICE.getCode();
+        }
+        if (catalog.getVipPrice() < price) {
+            price = catalog.getVipPrice();
+            priceType = PriceEnum.VIPPRICE.getCode();
+        }
+        catalog.setPrice(price);
+        catalog.setPriceType(priceType);
     }
 
 
@@ -198,12 +250,12 @@ public class CalcPriceService {
      *
      * @param isNewBuyer
      * @param isTradeIsolation
-     * @param catalog
+     * @param activityCatalog
      * @param activityProductInfo
      */
     private boolean checkActivityPriceAsRealPrice(boolean isNewBuyer,
                                                   boolean isTradeIsolation,
-                                                  Catalog catalog,
+                                                  ActivityCatalog activityCatalog,
                                                   ActivityProduct activityProductInfo) {
         /**
          * 是否需要计算活动价格
@@ -212,10 +264,6 @@ public class CalcPriceService {
                 && (!activityProductInfo.getHasIsolation()
                 || isTradeIsolation);
 
-        ActivityCatalog activityCatalog = needsCalculateActivityProductPrice ? activityProductInfo.getActivityCatalogList()
-                .stream().filter(x -> x.getActivityCatalogId().equals(catalog.getCatalogId()))
-                .findAny().orElse(null) : null;
-
         if (needsCalculateActivityProductPrice
                 && activityCatalog != null
                 && activityCatalog.getActivityCatalogPrice() > 0
@@ -2,16 +2,15 @@ package com.ymatou.productprice.domain.service;
 
 import com.ymatou.productprice.domain.model.ActivityCatalog;
 import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.model.SearchPriceColumns;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics.SellerOrderStatistics;
 import com.ymatou.productprice.model.PriceEnum;
 import com.ymatou.productprice.model.ProductPriceForSearched;
-import com.ymatou.useranalysis.facade.model.resp.GetBuyerOrderStatisticsResp;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * 计算价格的逻辑（用于新增接口->搜索商品列表）
@@ -31,27 +30,119 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
     protected void decideProductRealPriceForSearch(long buyerId,
                                           List<ProductPriceForSearched> productPriceForSearchedList,
                                           List<ActivityProduct> activityProductInfoList,
-                                          GetBuyerOrderStatisticsResp resp,
+                                          BuyerOrderStatistics resp,
                                           boolean isNewBuyer,
                                           boolean isTradeIsolation) {
 
-        productPriceForSearchedList.forEach(productPrice -> {
+        Map<String, ActivityProduct> activityProductMap = indexValidActivityProduct(activityProductInfoList, 0);
+        boolean isVisitor = checkVisitorPriceAsRealPrice(buyerId, resp);
+        long lastSellerId = Long.MIN_VALUE;
+        SellerOrderStatistics sellerOrderStatistics = null;
+        for (ProductPriceForSearched productPrice : productPriceForSearchedList) {
+            ActivityProduct tempActivityProduct = activityProductMap.get(productPrice.getProductId());
+            long sellerId = productPrice.getSellerId();
+            if (sellerId != lastSellerId) {
+                sellerOrderStatistics = getSellerOrderStatistics(sellerId, resp);
+                lastSellerId = sellerId;
+            }
+            calcRealPrice(isVisitor, sellerOrderStatistics, isNewBuyer, isTradeIsolation, productPrice, tempActivityProduct);
+        }
+    }
+
+    /**
+     * 决定最终价格(列式数据)
+     * 活动与用户行为标识在计算前填充 之后在一次循环中按列计算最终价格 判断顺序与decideProductRealPriceForSearch一致
+     *
+     * @param buyerId
+     * @param priceColumns
+     * @param activityProductInfoList
+     * @param resp
+     * @param isNewBuyer
+     * @param isTradeIsolation
+     */
+    protected void decideProductRealPriceForSearch(long buyerId,
+                                                   SearchPriceColumns priceColumns,
+                                                   List<ActivityProduct> activityProductInfoList,
+                                                   BuyerOrderStatistics resp,
+                                                   boolean isNewBuyer,
+                                                   boolean isTradeIsolation) {
+        priceColumns.fillActivityProduct(indexValidActivityProduct(activityProductInfoList, 0));
+        priceColumns.fillOrderStatistics(resp);
+        boolean isVisitor = checkVisitorPriceAsRealPrice(buyerId, resp);
+
+        int size = priceColumns.size();
+        int[] flags = priceColumns.getFlags();
+        double[] minOriginalPrices = priceColumns.getMinOriginalPrices();
+        double[] maxOriginalPrices = priceColumns.getMaxOriginalPrices();
+        double[] minNewCustomerPrices = priceColumns.getMinNewCustomerPrices();
+        double[] maxNewCustomerPrices = priceColumns.getMaxNewCustomerPrices();
+        double[] minVipPrices = priceColumns.getMinVipPrices();
+        double[] maxVipPrices = priceColumns.getMaxVipPrices();
+        double[] minActivityPrices = priceColumns.getMinActivityPrices();
+        double[] maxActivityPrices = priceColumns.getMaxActivityPrices();
+        double[] minPrices = priceColumns.getMinPrices();
+        double[] maxPrices = priceColumns.getMaxPrices();
+        int[] priceTypes = priceColumns.getPriceTypes();
 
-            ActivityProduct tempActivityProduct = activityProductInfoList != null
-                    && !activityProductInfoList.isEmpty() ?
-                    activityProductInfoList.stream()
-                            .filter(x -> x.getProductId().equals(productPrice.getProductId()))
-                            .findAny().orElse(null) : null;
-                calcRealPrice(buyerId, productPrice.getSellerId(), resp, isNewBuyer, isTradeIsolation, productPrice, tempActivityProduct);
-            });
+        //不参与判断的活动标识
+        int ignoredActivityFlags = (isTradeIsolation ? SearchPriceColumns.ACTIVITY_ISOLATION : 0)
+                | (isNewBuyer ? SearchPriceColumns.ACTIVITY_NEW_BUYER : 0);
+        for (int i = 0; i < size; i++) {
+            int flag = flags[i];
+            double minOriginalPrice = minOriginalPrices[i];
+            double maxOriginalPrice = maxOriginalPrices[i];
+            double minNewCustomerPrice = minNewCustomerPrices[i];
+            double maxNewCustomerPrice = maxNewCustomerPrices[i];
+            double minVipPrice = minVipPrices[i];
+            double maxVipPrice = maxVipPrices[i];
+
+            //默认原价
+            double minPrice = minOriginalPrice;
+            double maxPrice = maxOriginalPrice;
+            int priceType = PriceEnum.QUOTEPRICE.getCode();
+
+            if ((flag & SearchPriceColumns.ACTIVITY) != 0
+                    && (flag & (SearchPriceColumns.ACTIVITY_ISOLATION | SearchPriceColumns.ACTIVITY_NEW_BUYER) & ~ignoredActivityFlags) == 0) {
+                minPrice = minActivityPrices[i];
+                maxPrice = maxActivityPrices[i];
+                priceType = PriceEnum.YMTACTIVITYPRICE.getCode();
+            } else if (isVisitor) {
+                //价格相同时按新客价、原价、vip价的顺序决定价格类型
+                double newCustomerPrice = minNewCustomerPrice > 0 ? minNewCustomerPrice : maxNewCustomerPrice;
+                double quotePrice = minOriginalPrice > 0 ? minOriginalPrice : maxOriginalPrice;
+                double vipPrice = minVipPrice > 0 ? minVipPrice : maxVipPrice;
+                minPrice = newCustomerPrice;
+                priceType = PriceEnum.NEWCUSTOMERPRICE.getCode();
+                if (quotePrice < minPrice) {
+                    minPrice = quotePrice;
+                    priceType = PriceEnum.QUOTEPRICE.getCode();
+                }
+                if (vipPrice < minPrice) {
+                    minPrice = vipPrice;
+                    priceType = PriceEnum.VIPPRICE.getCode();
+                }
+                maxPrice = Math.max(newCustomerPrice, Math.max(quotePrice, vipPrice));
+            } else if ((flag & SearchPriceColumns.HAS_CONFIRMED_ORDERS) != 0 && (minVipPrice > 0 || maxVipPrice > 0)) {
+                minPrice = minVipPrice > 0 ? minVipPrice : minOriginalPrice;
+                maxPrice = maxVipPrice > 0 ? maxVipPrice : maxOriginalPrice;
+                priceType = PriceEnum.VIPPRICE.getCode();
+            } else if ((flag & SearchPriceColumns.NO_ORDERS_OR_ALL_CANCELLED) != 0
+                    && (minNewCustomerPrice > 0 || maxNewCustomerPrice > 0)) {
+                minPrice = minNewCustomerPrice > 0 ? minNewCustomerPrice : minOriginalPrice;
+                maxPrice = maxNewCustomerPrice > 0 ? maxNewCustomerPrice : maxOriginalPrice;
+                priceType = PriceEnum.NEWCUSTOMERPRICE.getCode();
+            }
+            minPrices[i] = minPrice;
+            maxPrices[i] = maxPrice;
+            priceTypes[i] = priceType;
+        }
     }
 
     /**
      * 计算最终价格
      */
-    protected void calcRealPrice(long buyerId,
-                                 long sellerId,
-                                 GetBuyerOrderStatisticsResp resp,
+    protected void calcRealPrice(boolean isVisitor,
+                                 SellerOrderStatistics sellerOrderStatistics,
                                  boolean isNewBuyer,
                                  boolean isTradeIsolation,
                                  ProductPriceForSearched productPriceForSearched,
@@ -60,13 +151,13 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
         if (checkActivityPriceAsRealPrice(isNewBuyer, isTradeIsolation, activityProductInfo)) {
             setActivityPriceAsRealPrice(productPriceForSearched, activityProductInfo);
         }
-        else if (checkVisitorPriceAsRealPrice(buyerId, resp)) {
+        else if (isVisitor) {
             setVisitorPriceAsRealPriceLogicForSearch(productPriceForSearched);
         }
-        else if (checkVipPriceAsRealPriceForSearch(sellerId, resp, productPriceForSearched)) {
+        else if (checkVipPriceAsRealPriceForSearch(sellerOrderStatistics, productPriceForSearched)) {
             setVipPriceAsRealPriceForSearch(productPriceForSearched);
         }
-        else if (checkNewCustomerPriceAsRealPrice(sellerId, resp, productPriceForSearched)) {
+        else if (checkNewCustomerPriceAsRealPrice(sellerOrderStatistics, productPriceForSearched)) {
             setNewCustomerPriceAsRealPrice(productPriceForSearched);
         }
         else {
@@ -77,16 +168,14 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
     /**
      * 检查新客价格是否作为最终价格(用于新增接口->搜索商品列表)
      *
-     * @param sellerId
-     * @param resp
+     * @param sellerOrderStatistics
      * @param productPriceForSearched
      * @return
      */
-    private boolean checkNewCustomerPriceAsRealPrice(Long sellerId, GetBuyerOrderStatisticsResp resp, ProductPriceForSearched productPriceForSearched) {
+    private boolean checkNewCustomerPriceAsRealPrice(SellerOrderStatistics sellerOrderStatistics, ProductPriceForSearched productPriceForSearched) {
         //买家如果没有订单或订单全部取消
-        if (resp != null
-                && resp.getFromSeller().get(sellerId) != null
-                && resp.getFromSeller().get(sellerId).isNoOrdersOrAllCancelled()
+        if (sellerOrderStatistics != null
+                && sellerOrderStatistics.isNoOrdersOrAllCancelled()
                 && (productPriceForSearched.getMinNewpersonPrice() > 0 || productPriceForSearched.getMaxNewpersonPrice() > 0)
                 ) {
             return true;
@@ -110,18 +199,15 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
     /**
      * 检查vip价格是否作为最终价格(用于新增接口->搜索商品列表)
      *
-     * @param sellerId
-     * @param resp
+     * @param sellerOrderStatistics
      * @param productPriceForSearched
      * @return
      */
-    private boolean checkVipPriceAsRealPriceForSearch(Long sellerId,
-                                                      GetBuyerOrderStatisticsResp resp,
+    private boolean checkVipPriceAsRealPriceForSearch(SellerOrderStatistics sellerOrderStatistics,
                                                       ProductPriceForSearched productPriceForSearched) {
         //买家已经有确认的订单
-        if (resp != null
-                && resp.getFromSeller().get(sellerId) != null
-                && resp.getFromSeller().get(sellerId).isHasConfirmedOrders()
+        if (sellerOrderStatistics != null
+                && sellerOrderStatistics.isHasConfirmedOrders()
                 && (productPriceForSearched.getMinVipPrice() > 0 || productPriceForSearched.getMaxVipPrice() > 0)
                 ) {
             return true;
@@ -146,26 +232,27 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
      * @param productPriceForSearched
      */
     private void setVisitorPriceAsRealPriceLogicForSearch( ProductPriceForSearched productPriceForSearched) {
-        Map<PriceEnum, Double> priceMap = new HashMap<>();
-        priceMap.put(PriceEnum.NEWCUSTOMERPRICE, productPriceForSearched.getMinNewpersonPrice() > 0 ?
-                productPriceForSearched.getMinNewpersonPrice() : productPriceForSearched.getMaxNewpersonPrice());
-        priceMap.put(PriceEnum.QUOTEPRICE, productPriceForSearched.getMinOriginalPrice() > 0 ?
-                productPriceForSearched.getMinOriginalPrice() : productPriceForSearched.getMaxOriginalPrice());
-        priceMap.put(PriceEnum.VIPPRICE, productPriceForSearched.getMinVipPrice() > 0 ?
-                productPriceForSearched.getMinVipPrice() : productPriceForSearched.getMaxVipPrice());
+        double newCustomerPrice = productPriceForSearched.getMinNewpersonPrice() > 0 ?
+                productPriceForSearched.getMinNewpersonPrice() : productPriceForSearched.getMaxNewpersonPrice();
+        double quotePrice = productPriceForSearched.getMinOriginalPrice() > 0 ?
+                productPriceForSearched.getMinOriginalPrice() : productPriceForSearched.getMaxOriginalPrice();
+        double vipPrice = productPriceForSearched.getMinVipPrice() > 0 ?
+                productPriceForSearched.getMinVipPrice() : productPriceForSearched.getMaxVipPrice();
 
-        Map.Entry<PriceEnum, Double> minEntry = priceMap.entrySet()
-                .stream()
-                .min((x, y) -> Double.compare(x.getValue().doubleValue(), y.getValue().doubleValue()))
-                .get();
-
-        Map.Entry<PriceEnum, Double> maxEntry = priceMap.entrySet()
-                .stream()
-                .max((x, y) -> Double.compare(x.getValue().doubleValue(), y.getValue().doubleValue()))
-                .get();
-        productPriceForSearched.setMinPrice(minEntry.getValue());
-        productPriceForSearched.setMaxPrice(maxEntry.getValue());
-        productPriceForSearched.setPriceType(minEntry.getKey().getCode());
+        //价格相同时按新客价、原价、vip价的顺序决定价格类型
+        double minPrice = newCustomerPrice;
+        int priceType = PriceEnum.NEWCUSTOMERPRICE.getCode();
+        if (quotePrice < minPrice) {
+            minPrice = quotePrice;
+            priceType = PriceEnum.QUOTEPRICE.getCode();
+        }
+        if (vipPrice < minPrice) {
+            minPrice = vipPrice;
+            priceType = PriceEnum.VIPPRICE.getCode();
+        }
+        productPriceForSearched.setMinPrice(minPrice);
+        productPriceForSearched.setMaxPrice(Math.max(newCustomerPrice, Math.max(quotePrice, vipPrice)));
+        productPriceForSearched.setPriceType(priceType);
     }
 
     /**
@@ -185,20 +272,9 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
         boolean needsCalculateActivityProductPrice = activityProductInfo != null
                 && (!activityProductInfo.getHasIsolation()
                 || isTradeIsolation);
-        List<ActivityCatalog> activityProductCatalogList = activityProductInfo != null ?
-                activityProductInfo.getActivityCatalogList() : null;
-
-        //过滤掉无效的商品规格列表
-        List<ActivityCatalog> validActivityProductCatalogList = activityProductCatalogList != null ? activityProductCatalogList
-                .stream()
-                .filter(catalog ->
-                        catalog.getActivityStock() > 0
-                                && catalog.getActivityCatalogPrice() > 0).collect(Collectors.toList()) : null;
 
         if (needsCalculateActivityProductPrice
-                && validActivityProductCatalogList != null
-                && !validActivityProductCatalogList.isEmpty()
-                ) {
+                && hasValidActivityCatalog(activityProductInfo.getActivityCatalogList())) {
             //新人活动
             if (activityProductInfo.getNewBuyer()
                     && isNewBuyer) {
@@ -212,8 +288,28 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
         return false;
     }
 
+    /**
+     * 是否有库存与活动价都大于0的活动规格
+     *
+     * @param activityCatalogList
+     * @return
+     */
+    private boolean hasValidActivityCatalog(List<ActivityCatalog> activityCatalogList) {
+        if (activityCatalogList == null) {
+            return false;
+        }
+        for (int i = 0; i < activityCatalogList.size(); i++) {
+            ActivityCatalog activityCatalog = activityCatalogList.get(i);
+            if (activityCatalog.getActivityStock() > 0 && activityCatalog.getActivityCatalogPrice() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 设置活动价作为最终价格
+     * 取有效活动规格中的最低与最高活动价
      *
      * @param productPriceForSearched
      * @param activityProductInfo
@@ -221,37 +317,19 @@ public class CalcPriceServiceForSearch extends CalcPriceService{
      */
     private void setActivityPriceAsRealPrice(ProductPriceForSearched productPriceForSearched,
                                              ActivityProduct activityProductInfo) {
-
-        List<ActivityCatalog> activityProductCatalogList = activityProductInfo != null ?
-                activityProductInfo.getActivityCatalogList() : null;
-
-        List<ActivityCatalog> validActivityProductCatalogList = activityProductCatalogList != null ? activityProductCatalogList
-                .stream()
-                .filter(catalog ->
-                        catalog.getActivityStock() > 0
-                                && catalog.getActivityCatalogPrice() > 0).collect(Collectors.toList()) : null;
-
-        Optional<ActivityCatalog> maxValidActivityCatalogOptional = validActivityProductCatalogList
-                .stream()
-                .max((x, y) -> Double.compare(x.getActivityCatalogPrice(), y.getActivityCatalogPrice()));
-
-        Optional<ActivityCatalog> minValidActivityCatalogOptional = validActivityProductCatalogList
-                .stream()
-                .min((x, y) -> Double.compare(x.getActivityCatalogPrice(), y.getActivityCatalogPrice()));
-
-        //最高活动商品规格活动价
-        double maxActivityPrice = maxValidActivityCatalogOptional.isPresent() ?
-                maxValidActivityCatalogOptional
-                        .get()
-                        .getActivityCatalogPrice() : 0D;
-
-        //最低活动商品规格活动价
-        double minActivityPrice = minValidActivityCatalogOptional.isPresent() ?
-                minValidActivityCatalogOptional
-                        .get()
-                        .getActivityCatalogPrice() : 0D;
+        List<ActivityCatalog> activityCatalogList = activityProductInfo.getActivityCatalogList();
+        double maxActivityPrice = 0D;
+        double minActivityPrice = Double.MAX_VALUE;
+        for (int i = 0; i < activityCatalogList.size(); i++) {
+            ActivityCatalog activityCatalog = activityCatalogList.get(i);
+            if (activityCatalog.getActivityStock() > 0 && activityCatalog.getActivityCatalogPrice() > 0) {
+                double activityPrice = activityCatalog.getActivityCatalogPrice();
+                maxActivityPrice = Math.max(maxActivityPrice, activityPrice);
+                minActivityPrice = Math.min(minActivityPrice, activityPrice);
+            }
+        }
         productPriceForSearched.setMaxPrice(maxActivityPrice);
-        productPriceForSearched.setMinPrice(minActivityPrice);
+        productPriceForSearched.setMinPrice(minActivityPrice == Double.MAX_VALUE ? 0D : minActivityPrice);
         productPriceForSearched.setPriceType(PriceEnum.YMTACTIVITYPRICE.getCode());
     }
 
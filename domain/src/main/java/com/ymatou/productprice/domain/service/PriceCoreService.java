@@ -1,21 +1,18 @@
 package com.ymatou.productprice.domain.service;
 
-import com.google.common.collect.Lists;
 import com.google.common.primitives.Longs;
 import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.model.SearchPriceColumns;
 import com.ymatou.productprice.infrastructure.util.LogWrapper;
-import com.ymatou.productprice.intergration.client.UserBehaviorAnalysisService;
+import com.ymatou.productprice.intergration.cache.UserBehaviorCache;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
 import com.ymatou.productprice.model.Catalog;
 import com.ymatou.productprice.model.ProductPrice;
 import com.ymatou.productprice.model.ProductPriceForSearched;
-import com.ymatou.useranalysis.facade.model.req.GetBuyerFirstOrderInfoReq;
-import com.ymatou.useranalysis.facade.model.resp.GetBuyerFirstOrderInfoResp;
-import com.ymatou.useranalysis.facade.model.resp.GetBuyerOrderStatisticsResp;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -29,7 +26,7 @@ public class PriceCoreService {
     private LogWrapper logWrapper;
 
     @Autowired
-    private UserBehaviorAnalysisService userBehaviorAnalysisService;
+    private UserBehaviorCache userBehaviorCache;
 
     @Autowired
     private CalcPriceService calcPriceService;
@@ -52,25 +49,10 @@ public class PriceCoreService {
                                             List<ActivityProduct> activityProductList,
                                             boolean isTradeIsolation) {
         //填充catalogs
-        productPriceList.forEach(productPrice -> {
-            List<Catalog> tempCatalogList = catalogList
-                    .stream().filter(x -> x.getProductId().equals(productPrice.getProductId()))
-                    .collect(Collectors.toList());
-            productPrice.setCatalogs(tempCatalogList);
-
-            Optional<Catalog> catalogOptional = tempCatalogList
-                    .stream()
-                    .findAny();
-
-            productPrice.setSellerId(catalogOptional
-                    .isPresent() ?
-                    catalogOptional
-                            .get()
-                            .getSellerId() : 0L);
-        });
+        fillCatalogs(catalogList, productPriceList);
 
         //决定当前买家对不同的买手而言是新客还是老客
-        GetBuyerOrderStatisticsResp resp = determineVipOrNewCustomer(buyerId, productPriceList);
+        BuyerOrderStatistics resp = determineVipOrNewCustomer(buyerId, productPriceList);
 
         boolean isNewBuyer = checkIsNewBuyer(buyerId,activityProductList);
 
@@ -83,6 +65,98 @@ public class PriceCoreService {
                 isTradeIsolation);
     }
 
+    /**
+     * 按商品填充规格与买手id
+     *
+     * @param catalogList
+     * @param productPriceList
+     */
+    public void fillCatalogs(List<Catalog> catalogList, List<ProductPrice> productPriceList) {
+        //按商品id分组 保持规格原有顺序
+        Map<String, List<Catalog>> catalogMap = catalogList
+                .stream()
+                .collect(Collectors.groupingBy(Catalog::getProductId, LinkedHashMap::new, Collectors.toList()));
+
+        productPriceList.forEach(productPrice -> {
+            List<Catalog> tempCatalogList = new ArrayList<>(catalogMap.getOrDefault(productPrice.getProductId(), Collections.emptyList()));
+            productPrice.setCatalogs(tempCatalogList);
+            productPrice.setSellerId(!tempCatalogList.isEmpty() ? tempCatalogList.get(0).getSellerId() : 0L);
+        });
+    }
+
+    /**
+     * 设置最终商品价格
+     * 用户行为与码头新客信息由调用方预先查询
+     *
+     * @param buyerId
+     * @param productPriceList
+     * @param activityProductList
+     * @param resp
+     * @param isNewBuyer
+     * @param isTradeIsolation
+     */
+    public void decideProductRealPrice(int buyerId,
+                                       List<ProductPrice> productPriceList,
+                                       List<ActivityProduct> activityProductList,
+                                       BuyerOrderStatistics resp,
+                                       boolean isNewBuyer,
+                                       boolean isTradeIsolation) {
+        calcPriceService.decideProductRealPrice(buyerId,
+                productPriceList,
+                activityProductList,
+                resp,
+                isNewBuyer,
+                isTradeIsolation);
+    }
+
+    /**
+     * 设置最终商品价格（用于新增接口->搜索商品列表）
+     *
+     * @param buyerId
+     * @param productPriceForSearchedList
+     * @param activityProductList
+     * @param resp
+     * @param isNewBuyer
+     * @param isTradeIsolation
+     */
+    public void decideProductRealPriceForSearch(int buyerId,
+                                                List<ProductPriceForSearched> productPriceForSearchedList,
+                                                List<ActivityProduct> activityProductList,
+                                                BuyerOrderStatistics resp,
+                                                boolean isNewBuyer,
+                                                boolean isTradeIsolation) {
+        calcPriceServiceForSearch.decideProductRealPriceForSearch(buyerId,
+                productPriceForSearchedList,
+                activityProductList,
+                resp,
+                isNewBuyer,
+                isTradeIsolation);
+    }
+
+    /**
+     * 设置最终商品价格（用于新增接口->搜索商品列表 列式数据）
+     *
+     * @param buyerId
+     * @param priceColumns
+     * @param activityProductList
+     * @param resp
+     * @param isNewBuyer
+     * @param isTradeIsolation
+     */
+    public void decideProductRealPriceForSearch(int buyerId,
+                                                SearchPriceColumns priceColumns,
+                                                List<ActivityProduct> activityProductList,
+                                                BuyerOrderStatistics resp,
+                                                boolean isNewBuyer,
+                                                boolean isTradeIsolation) {
+        calcPriceServiceForSearch.decideProductRealPriceForSearch(buyerId,
+                priceColumns,
+                activityProductList,
+                resp,
+                isNewBuyer,
+                isTradeIsolation);
+    }
+
     /**
      * 价格服务核心逻辑（用于新增接口->搜索商品列表）
      *
@@ -96,7 +170,7 @@ public class PriceCoreService {
                                             List<ActivityProduct> activityProductList,
                                             boolean isTradeIsolation) {
         //决定当前买家对不同的买手而言是新客还是老客
-        GetBuyerOrderStatisticsResp resp = determineVipOrNewCustomerForSearched(buyerId, productPriceForSearchedList);
+        BuyerOrderStatistics resp = determineVipOrNewCustomerForSearched(buyerId, productPriceForSearchedList);
 
         boolean isNewBuyer = checkIsNewBuyer(buyerId,activityProductList);
 
@@ -116,7 +190,7 @@ public class PriceCoreService {
      * @param activityProductInfoList
      * @return
      */
-    private boolean checkIsNewBuyer(long buyerId, List<ActivityProduct> activityProductInfoList) {
+    public boolean checkIsNewBuyer(long buyerId, List<ActivityProduct> activityProductInfoList) {
 
         List<ActivityProduct> newBuyerActivityProductList =
                 activityProductInfoList != null
@@ -134,28 +208,12 @@ public class PriceCoreService {
         if (!isNewBuyerActivityProduct) {
             return false;
         }
-        GetBuyerFirstOrderInfoReq req = new GetBuyerFirstOrderInfoReq();
-        req.setBuyerIds(Lists.newArrayList(buyerId));
-
-        boolean isNewBuyer;
         try {
-            GetBuyerFirstOrderInfoResp resp = userBehaviorAnalysisService.getBuyerFirstOrderInfo(buyerId);
-            if (resp == null
-                    || resp.getFirstOrderInfos() == null
-                    || resp.getFirstOrderInfos().get(buyerId) == null) {
-                logWrapper.recordErrorLog("用户行为服务_getBuyerFirstOrderInfo接口返回值不正确,response：{}", resp);
-            }
-            isNewBuyer =
-                    resp != null
-                            && resp.getFirstOrderInfos() != null
-                            && resp.getFirstOrderInfos().get(buyerId) != null
-                            && resp.getFirstOrderInfos().get(buyerId).isNewCustomer();
-
+            return userBehaviorCache.isNewCustomer(buyerId);
         } catch (Exception ex) {
             logWrapper.recordErrorLog("获取用户特征_发生异常,buyerId:{}", buyerId, ex);
             return false;
         }
-        return isNewBuyer;
     }
 
     /**
@@ -177,21 +235,21 @@ public class PriceCoreService {
      * @param productPriceList
      * @return
      */
-    private GetBuyerOrderStatisticsResp determineVipOrNewCustomer(int buyerId, List<ProductPrice> productPriceList) {
+    public BuyerOrderStatistics determineVipOrNewCustomer(int buyerId, List<ProductPrice> productPriceList) {
         //过滤掉vip和新客价都为0的商品，如果全部都是0则不用查询sellerId也不用调用用户行为服务
         List<ProductPrice> needsCalculateVipAndNewCustomerPriceList = productPriceList.stream().filter(productPrice ->
                 preCheckVipAndNewCustomer(productPrice.getCatalogs())
         ).collect(Collectors.toList());
-        GetBuyerOrderStatisticsResp resp = null;
+        BuyerOrderStatistics resp = null;
         if (!needsCalculateVipAndNewCustomerPriceList.isEmpty()) {
 
-            resp = userBehaviorAnalysisService.getBuyerBehavior(needsCalculateVipAndNewCustomerPriceList
+            resp = userBehaviorCache.getBuyerOrderStatistics(needsCalculateVipAndNewCustomerPriceList
                     .stream()
                     .map(ProductPrice::getSellerId)
                     .collect(Collectors.toList()), buyerId);
 
             //填充sellerId及对应用户行为信息
-            GetBuyerOrderStatisticsResp finalResp = resp;
+            BuyerOrderStatistics finalResp = resp;
             productPriceList
                     .forEach(x -> {
                         x.setHasConfirmedOrders(
@@ -227,20 +285,20 @@ public class PriceCoreService {
      * @param productPriceForSearchedList
      * @return
      */
-    private GetBuyerOrderStatisticsResp determineVipOrNewCustomerForSearched(int buyerId, List<ProductPriceForSearched> productPriceForSearchedList) {
+    public BuyerOrderStatistics determineVipOrNewCustomerForSearched(int buyerId, List<ProductPriceForSearched> productPriceForSearchedList) {
         //过滤掉vip和新客价都为0的商品，如果全部都是0则不用查询sellerId也不用调用用户行为服务
         List<ProductPriceForSearched> needsCalculateVipAndNewCustomerPriceList = productPriceForSearchedList.stream().filter(productPrice ->
                 productPrice.getMaxVipPrice() > 0 || productPrice.getMaxNewpersonPrice() > 0).collect(Collectors.toList());
-        GetBuyerOrderStatisticsResp resp = null;
+        BuyerOrderStatistics resp = null;
         if (needsCalculateVipAndNewCustomerPriceList != null
                 && needsCalculateVipAndNewCustomerPriceList.size() > 0) {
             //查询ProductId --> SellerId map
             long[] sellerIdList = needsCalculateVipAndNewCustomerPriceList.stream().mapToLong(x -> x.getSellerId()).toArray();
 
-            resp = userBehaviorAnalysisService.getBuyerBehavior(Longs.asList(sellerIdList), buyerId);
+            resp = userBehaviorCache.getBuyerOrderStatistics(Longs.asList(sellerIdList), buyerId);
 
             //填充用户行为信息
-            GetBuyerOrderStatisticsResp finalResp = resp;
+            BuyerOrderStatistics finalResp = resp;
             productPriceForSearchedList
                     .stream().forEach(x -> {
                 x.setHasConfirmedOrders(
@@ -268,4 +326,20 @@ public class PriceCoreService {
         }
         return resp;
     }
+
+    /**
+     * 查询买家在各买手下的订单统计(用于新增接口->搜索商品列表 列式数据)
+     * vip和新客价都为0的商品不查询
+     *
+     * @param buyerId
+     * @param priceColumns
+     * @return
+     */
+    public BuyerOrderStatistics determineVipOrNewCustomerForSearched(int buyerId, SearchPriceColumns priceColumns) {
+        List<Long> sellerIdList = priceColumns.getSellerIdListNeedingOrderStatistics();
+        if (sellerIdList.isEmpty()) {
+            return null;
+        }
+        return userBehaviorCache.getBuyerOrderStatistics(sellerIdList, buyerId);
+    }
 }
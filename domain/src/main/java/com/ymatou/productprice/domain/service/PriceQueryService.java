@@ -2,16 +2,24 @@ package com.ymatou.productprice.domain.service;
 
 import com.google.common.cache.CacheStats;
 import com.google.common.collect.Lists;
-import com.google.common.primitives.Doubles;
 import com.ymatou.productprice.domain.cache.Cache;
+import com.ymatou.productprice.domain.cache.CacheInvalidationService;
+import com.ymatou.productprice.domain.cache.TimeStampCache;
+import com.ymatou.productprice.domain.mapper.CatalogMapper;
 import com.ymatou.productprice.domain.model.ActivityProduct;
 import com.ymatou.productprice.domain.model.ProductPriceData;
+import com.ymatou.productprice.domain.model.SearchPriceColumns;
+import com.ymatou.productprice.domain.repo.AsyncRepository;
 import com.ymatou.productprice.domain.repo.Repository;
 import com.ymatou.productprice.domain.repo.RepositoryProxy;
 import com.ymatou.productprice.infrastructure.config.props.BizProps;
 import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.infrastructure.util.MapUtil;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.QueryStageExecutor;
 import com.ymatou.productprice.infrastructure.util.Tuple;
-import com.ymatou.productprice.infrastructure.util.Utils;
+import com.ymatou.productprice.intergration.cache.UserBehaviorCache;
+import com.ymatou.productprice.intergration.client.UserBehaviorAnalysisService;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
 import com.ymatou.productprice.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -19,6 +27,8 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 /**
@@ -42,11 +52,29 @@ public class PriceQueryService {
     @Autowired
     private Cache cache;
 
+    @Autowired
+    private TimeStampCache timeStampCache;
+
+    @Autowired
+    private CacheInvalidationService cacheInvalidationService;
+
     private Repository repository;
 
     @Resource(name = "mongoRepository")
     private Repository mongoRepository;
 
+    @Autowired
+    private AsyncRepository asyncRepository;
+
+    @Autowired
+    private QueryStageExecutor queryStageExecutor;
+
+    @Autowired
+    private UserBehaviorCache userBehaviorCache;
+
+    @Autowired
+    private UserBehaviorAnalysisService userBehaviorAnalysisService;
+
     @PostConstruct
     public void init() {
         repository = repositoryProxy.getRepository();
@@ -54,6 +82,8 @@ public class PriceQueryService {
 
     /**
      * 根据商品id获取价格信息
+     * 多物流 时间戳并行查询 规格 活动商品在时间戳返回后(使用缓存时)并行查询
+     * 用户行为在规格返回后查询 码头新客在活动商品返回后查询
      *
      * @param buyerId
      * @param productId
@@ -66,50 +96,65 @@ public class PriceQueryService {
         //组装商品价格信息
         ProductPrice productPrice = new ProductPrice();
         productPrice.setProductId(productId);
+        List<ProductPrice> productPriceList = Lists.newArrayList(productPrice);
 
-        //组装商品多物流信息
-        setProductMultiLogisticsInfo(Lists.newArrayList(productPrice));
+        //查询商品多物流信息
+        CompletableFuture<List<Map<String, Object>>> multiLogisticsFuture = getMultiLogisticsInfo(Lists.newArrayList(productId));
 
         //获取活动商品与规格的变更时间戳
-        Map<String, Object> updateStampMap = repository
-                .getTimeStampByProductId(productId, Lists.newArrayList("cut", "aut"));
-
-        //如果时间戳为空
-        Date catalogUpdateTime = Optional.ofNullable((Date) updateStampMap.get("cut")).orElse(null);
-
-        Map<String, Date> catalogUpdateMap = new HashMap<>();
-        catalogUpdateMap.put(productId, catalogUpdateTime);
+        CompletableFuture<Map<String, Object>> updateStampFuture = queryStageExecutor.supplyAsync("timeStamp", () ->
+                timeStampCache.getTimeStampByProductId(productId, Lists.newArrayList("cut", "aut")));
 
         //查询商品规格信息列表
-        List<com.ymatou.productprice.domain.model.Catalog> catalogList;
+        CompletableFuture<List<com.ymatou.productprice.domain.model.Catalog>> catalogFuture;
         if (bizProps.isUseCache()) {
-            catalogList = cache.getCatalogListByProduct(Arrays.asList(productId), catalogUpdateMap);
+            catalogFuture = queryStageExecutor.thenApplyAsync("catalog", updateStampFuture, x -> {
+                Map<String, Date> catalogUpdateMap = new HashMap<>();
+                catalogUpdateMap.put(productId, (Date) x.get("cut"));
+                return cache.getCatalogListByProduct(Arrays.asList(productId), catalogUpdateMap);
+            });
+        } else if (bizProps.isUseAsyncRepository()) {
+            catalogFuture = queryStageExecutor.timed("catalog", asyncRepository.getCatalogListByProduct(productId));
         } else {
-            catalogList = repository.getCatalogListByProduct(productId);
-        }
-
-        if (catalogList == null || catalogList.isEmpty()) {
-            BizException.throwBizException("商品信息不存在");
+            catalogFuture = queryStageExecutor.supplyAsync("catalog", () -> repository.getCatalogListByProduct(productId));
         }
 
-        //如果时间戳为空，则取当前时间
-        Date activityProductUpdateTime = Optional.ofNullable((Date) updateStampMap.get("aut")).orElse(null);
-
         //查询活动商品信息
-        ActivityProduct activityProductInfo;
+        CompletableFuture<ActivityProduct> activityProductFuture;
         if (bizProps.isUseCache() && cacheProps.isUseActivityCache()) {
-            activityProductInfo = cache.getActivityProduct(productId, activityProductUpdateTime);
+            activityProductFuture = queryStageExecutor.thenApplyAsync("activityProduct", updateStampFuture, x ->
+                    cache.getActivityProduct(productId, (Date) x.get("aut")));
+        } else if (bizProps.isUseAsyncRepository()) {
+            activityProductFuture = queryStageExecutor.timed("activityProduct", asyncRepository.getActivityProduct(productId));
         } else {
-            activityProductInfo = repository.getActivityProduct(productId);
+            activityProductFuture = queryStageExecutor.supplyAsync("activityProduct", () -> repository.getActivityProduct(productId));
+        }
+        CompletableFuture<List<ActivityProduct>> activityProductListFuture = activityProductFuture
+                .thenApply(x -> x != null ? Lists.newArrayList(x) : null);
+
+        //规格返回后转换结构并查询用户行为 与活动商品查询并行
+        CompletableFuture<List<Catalog>> outputCatalogFuture = catalogFuture.thenApply(this::convertCatalogForOutput);
+        CompletableFuture<BuyerOrderStatistics> buyerBehaviorFuture = getBuyerBehavior(buyerId, outputCatalogFuture, productPriceList);
+        CompletableFuture<Boolean> newBuyerFuture = queryStageExecutor.thenApplyAsync("newBuyer", activityProductListFuture, x ->
+                priceCoreService.checkIsNewBuyer(buyerId, x));
+
+        //转换后的规格列表不包含空规格
+        if (join(outputCatalogFuture).isEmpty()) {
+            BizException.throwBizException("商品信息不存在");
         }
 
-        List<Catalog> outputCatalogList = convertCatalogForOutput(catalogList);
+        //用户行为阶段会写入商品价格信息 等待其完成后再在请求线程组装多物流信息
+        BuyerOrderStatistics buyerOrderStatistics = join(buyerBehaviorFuture);
+
+        //组装商品多物流信息
+        setProductMultiLogisticsInfo(productPriceList, join(multiLogisticsFuture));
 
         //价格核心逻辑
-        priceCoreService.calculateRealPriceCoreLogic(buyerId,
-                outputCatalogList,
-                Lists.newArrayList(productPrice),
-                activityProductInfo != null ? Lists.newArrayList(activityProductInfo) : null,
+        priceCoreService.decideProductRealPrice(buyerId,
+                productPriceList,
+                join(activityProductListFuture),
+                buyerOrderStatistics,
+                join(newBuyerFuture),
                 isTradeIsolation);
 
         return productPrice;
@@ -122,23 +167,13 @@ public class PriceQueryService {
      * @return
      */
     private List<Catalog> convertCatalogForOutput(List<com.ymatou.productprice.domain.model.Catalog> inputCatalogList) {
-        List<Catalog> catalogList = new ArrayList<>();
-        if (inputCatalogList != null && !inputCatalogList.isEmpty()) {
-            inputCatalogList.removeAll(Collections.singleton(null));
-        }
-
-        inputCatalogList
-                .forEach(x -> {
-                    Catalog tempOutputCatalog = new Catalog();
-                    Utils.copyProperties(tempOutputCatalog, x);
-                    tempOutputCatalog.setExtraDelivery(x.getMultiLogistics() > 0);
-                    catalogList.add(tempOutputCatalog);
-                });
-        return catalogList;
+        return CatalogMapper.toOutputCatalogList(inputCatalogList);
     }
 
     /**
      * 根据商品id获取价格信息
+     * 多物流 时间戳并行查询 规格 活动商品在时间戳返回后(使用缓存时)并行查询
+     * 用户行为在规格返回后查询 码头新客在活动商品返回后查询
      *
      * @param buyerId
      * @param productIdList
@@ -155,61 +190,57 @@ public class PriceQueryService {
             return tempProductPrice;
         }).collect(Collectors.toList());
 
-        //组装商品多物流信息
-        setProductMultiLogisticsInfo(Lists.newArrayList(productPriceList));
+        //查询商品多物流信息
+        CompletableFuture<List<Map<String, Object>>> multiLogisticsFuture = getMultiLogisticsInfo(productIdList);
 
         //获取活动商品与规格的变更时间戳
-        List<Map<String, Object>> updateStampMapList = repository
-                .getTimeStampByProductIdList(productIdList, Lists.newArrayList("cut", "aut"));
-
-        Map<String, Date> activityProductUpdateTimeMap = new HashMap<>();
-        Map<String, Date> catalogUpdateTimeMap = new HashMap<>();
-
-        //填充活动商品与规格时间戳
-        updateStampMapList.forEach(x -> {
-            activityProductUpdateTimeMap.put(x.get("spid").toString(),
-                    Optional.ofNullable((Date) x.get("aut")).orElse(null));
-            catalogUpdateTimeMap.put(x.get("spid").toString(),
-                    Optional.ofNullable((Date) x.get("cut")).orElse(null));
-        });
-
+        CompletableFuture<List<Map<String, Object>>> updateStampFuture = getTimeStampList(productIdList, "cut", "aut");
 
         //查询所有商品的规格信息
-        List<com.ymatou.productprice.domain.model.Catalog> catalogList;
+        CompletableFuture<List<com.ymatou.productprice.domain.model.Catalog>> catalogFuture;
         if (bizProps.isUseCache()) {
-            catalogList = cache.getCatalogListByProduct(productIdList, catalogUpdateTimeMap);
+            catalogFuture = queryStageExecutor.thenApplyAsync("catalog", updateStampFuture, x ->
+                    cache.getCatalogListByProduct(productIdList, MapUtil.indexByKey(x, "spid", "cut")));
+        } else if (bizProps.isUseAsyncRepository()) {
+            catalogFuture = queryStageExecutor.timed("catalog", asyncRepository.getCatalogListByProduct(productIdList));
         } else {
-            catalogList = repository.getCatalogListByProduct(productIdList);
+            catalogFuture = queryStageExecutor.supplyAsync("catalog", () -> repository.getCatalogListByProduct(productIdList));
         }
 
-        if (catalogList == null || catalogList.isEmpty()) {
+        //查询活动商品列表
+        CompletableFuture<List<ActivityProduct>> activityProductFuture = getActivityProductList(productIdList, updateStampFuture);
+
+        //规格返回后转换结构并查询用户行为 与活动商品查询并行
+        CompletableFuture<List<Catalog>> outputCatalogFuture = catalogFuture.thenApply(this::convertCatalogForOutput);
+        CompletableFuture<BuyerOrderStatistics> buyerBehaviorFuture = getBuyerBehavior(buyerId, outputCatalogFuture, productPriceList);
+        CompletableFuture<Boolean> newBuyerFuture = queryStageExecutor.thenApplyAsync("newBuyer", activityProductFuture, x ->
+                priceCoreService.checkIsNewBuyer(buyerId, x));
+
+        //转换后的规格列表不包含空规格
+        if (join(outputCatalogFuture).isEmpty()) {
             BizException.throwBizException("商品信息不存在");
         }
 
-        //查询活动商品列表
-        List<ActivityProduct> activityProductList;
-        if (bizProps.isUseCache() && cacheProps.isUseActivityCache()) {
-            activityProductList = cache.getActivityProductList(productIdList, activityProductUpdateTimeMap);
-        } else {
-            activityProductList = repository.getActivityProductList(productIdList);
-        }
-        List<Catalog> outputCatalogList = convertCatalogForOutput(catalogList);
+        //用户行为阶段会写入商品价格信息 等待其完成后再在请求线程组装多物流信息
+        BuyerOrderStatistics buyerOrderStatistics = join(buyerBehaviorFuture);
 
-        if (activityProductList != null && !activityProductList.isEmpty()) {
-            activityProductList.removeAll(Collections.singleton(null));
-        }
+        //组装商品多物流信息
+        setProductMultiLogisticsInfo(productPriceList, join(multiLogisticsFuture));
 
         //价格核心逻辑
-        priceCoreService.calculateRealPriceCoreLogic(buyerId,
-                outputCatalogList,
+        priceCoreService.decideProductRealPrice(buyerId,
                 productPriceList,
-                activityProductList,
+                join(activityProductFuture),
+                buyerOrderStatistics,
+                join(newBuyerFuture),
                 isTradeIsolation);
         return productPriceList;
     }
 
     /**
      * 根据商品id获取价格信息（用于新增接口->搜索商品列表）
+     * 价格区间 活动商品在时间戳返回后(使用缓存时)并行查询
+     * 用户行为在价格区间返回后查询 码头新客在活动商品返回后查询
      *
      * @param buyerId
      * @param productIdList
@@ -219,89 +250,108 @@ public class PriceQueryService {
     public List<ProductPriceForSearched> getPriceInfoByProductIdListForSearched(int buyerId,
                                                                                 List<String> productIdList,
                                                                                 boolean isTradeIsolation) throws BizException {
-        productIdList = productIdList
+        List<String> distinctProductIdList = productIdList
                 .stream()
                 .distinct()
                 .collect(Collectors.toList());
 
-        //初始化商品价格信息列表
-        List<ProductPriceForSearched> productPriceList = productIdList.stream().map(x -> {
+        //初始化商品价格信息 按列式数据计算时返回结果时才创建商品价格信息列表
+        SearchPriceColumns priceColumns = bizProps.isUseColumnarSearchPricing()
+                ? new SearchPriceColumns(distinctProductIdList) : null;
+        List<ProductPriceForSearched> productPriceList = priceColumns != null ? null : distinctProductIdList.stream().map(x -> {
             ProductPriceForSearched tempProductPrice = new ProductPriceForSearched();
             tempProductPrice.setProductId(x);
             return tempProductPrice;
         }).collect(Collectors.toList());
 
         //获取活动商品与商品的变更时间戳
-        List<Map<String, Object>> updateStampMapList = repository
-                .getTimeStampByProductIdList(productIdList, Lists.newArrayList("sut", "aut"));
+        CompletableFuture<List<Map<String, Object>>> updateStampFuture = getTimeStampList(distinctProductIdList, "sut", "aut");
 
-        Map<String, Date> activityUpdateStampMap = new HashMap<>();
-        Map<String, Date> productUpdateStampMap = new HashMap<>();
-
-        //填充活动商品与规格时间戳
-        updateStampMapList.forEach(x -> {
-            activityUpdateStampMap.put(x.get("spid").toString(),
-                    Optional.ofNullable((Date) x.get("aut")).orElse(null));
-            productUpdateStampMap.put(x.get("spid").toString(),
-                    Optional.ofNullable((Date) x.get("sut")).orElse(null));
-        });
-
-
-        //查询所有商品的价格区间信息并进行组装
-        List<ProductPriceData> productList;
+        //查询所有商品的价格区间信息
+        CompletableFuture<List<ProductPriceData>> productFuture;
         if (bizProps.isUseCache()) {
-            productList = cache.getPriceRangeListByProduct(productIdList, productUpdateStampMap);
+            productFuture = queryStageExecutor.thenApplyAsync("priceRange", updateStampFuture, x ->
+                    cache.getPriceRangeListByProduct(distinctProductIdList, MapUtil.indexByKey(x, "spid", "sut")));
+        } else if (bizProps.isUseAsyncRepository()) {
+            productFuture = queryStageExecutor.timed("priceRange", asyncRepository.getPriceRangeListByProduct(distinctProductIdList));
         } else {
-            productList = repository.getPriceRangeListByProduct
-                    (productIdList);
+            productFuture = queryStageExecutor.supplyAsync("priceRange", () -> repository.getPriceRangeListByProduct(distinctProductIdList));
         }
 
+        //查询活动商品列表
+        CompletableFuture<List<ActivityProduct>> activityProductFuture = getActivityProductList(distinctProductIdList, updateStampFuture);
+
+        //价格区间返回后组装价格区间并查询用户行为 与活动商品查询并行
+        CompletableFuture<BuyerOrderStatistics> buyerBehaviorFuture = queryStageExecutor.thenApplyAsync("buyerBehavior", productFuture, x -> {
+            if (x == null || x.isEmpty()) {
+                return null;
+            }
+            if (priceColumns != null) {
+                priceColumns.fillPriceRange(x);
+                return priceCoreService.determineVipOrNewCustomerForSearched(buyerId, priceColumns);
+            }
+            setPriceRange(x, productPriceList);
+            return priceCoreService.determineVipOrNewCustomerForSearched(buyerId, productPriceList);
+        });
+        CompletableFuture<Boolean> newBuyerFuture = queryStageExecutor.thenApplyAsync("newBuyer", activityProductFuture, x ->
+                priceCoreService.checkIsNewBuyer(buyerId, x));
+
+        List<ProductPriceData> productList = join(productFuture);
         if (productList == null || productList.isEmpty()) {
             BizException.throwBizException("商品信息不存在");
         }
 
-        productList.forEach(x -> {
-            ProductPriceForSearched tempPrice = productPriceList
-                    .stream()
-                    .filter(p -> p.getProductId().equals(x.getProductId()))
-                    .findAny()
-                    .orElse(null);
+        //价格核心逻辑
+        if (priceColumns != null) {
+            priceCoreService.decideProductRealPriceForSearch(buyerId,
+                    priceColumns,
+                    join(activityProductFuture),
+                    join(buyerBehaviorFuture),
+                    join(newBuyerFuture),
+                    isTradeIsolation);
+            return priceColumns.toProductPriceForSearchedList();
+        }
+        priceCoreService.decideProductRealPriceForSearch(buyerId,
+                productPriceList,
+                join(activityProductFuture),
+                join(buyerBehaviorFuture),
+                join(newBuyerFuture),
+                isTradeIsolation);
+        return productPriceList;
+    }
 
-            String[] maxPriceList = x.getPriceMaxRange().split(",");
-            String[] minPriceList = x.getPriceMinRange().split(",");
+    /**
+     * 组装价格区间
+     *
+     * @param productList
+     * @param productPriceList
+     */
+    private void setPriceRange(List<ProductPriceData> productList, List<ProductPriceForSearched> productPriceList) {
+        Map<String, ProductPriceForSearched> productPriceMap = new HashMap<>(productPriceList.size() * 2);
+        productPriceList.forEach(x -> productPriceMap.put(x.getProductId(), x));
 
+        productList.forEach(x -> {
+            ProductPriceForSearched tempPrice = productPriceMap.get(x.getProductId());
+            if (tempPrice == null) {
+                return;
+            }
             //设置原价区间
-            tempPrice.setMinOriginalPrice(Doubles.tryParse(minPriceList[0]));
-            tempPrice.setMaxOriginalPrice(Doubles.tryParse(maxPriceList[0]));
+            tempPrice.setMinOriginalPrice(x.getMinOriginalPrice());
+            tempPrice.setMaxOriginalPrice(x.getMaxOriginalPrice());
             //设置新客价区间
-            tempPrice.setMinNewpersonPrice(Doubles.tryParse(minPriceList[1]));
-            tempPrice.setMaxNewpersonPrice(Doubles.tryParse(maxPriceList[1]));
+            tempPrice.setMinNewpersonPrice(x.getMinNewCustomerPrice());
+            tempPrice.setMaxNewpersonPrice(x.getMaxNewCustomerPrice());
             //设置vip价区间
-            tempPrice.setMinVipPrice(Doubles.tryParse(minPriceList[2]));
-            tempPrice.setMaxVipPrice(Doubles.tryParse(maxPriceList[2]));
+            tempPrice.setMinVipPrice(x.getMinVipPrice());
+            tempPrice.setMaxVipPrice(x.getMaxVipPrice());
             //设置sellerId
             tempPrice.setSellerId(Long.valueOf(x.getSellerId()));
         });
-
-        //查询活动商品列表
-        List<ActivityProduct> activityProductList;
-        if (bizProps.isUseCache() && cacheProps.isUseActivityCache()) {
-            activityProductList = cache.getActivityProductList(productIdList, activityUpdateStampMap);
-        } else {
-            activityProductList = repository.getActivityProductList(productIdList);
-        }
-
-        if (activityProductList != null && !activityProductList.isEmpty()) {
-            activityProductList.removeAll(Collections.singleton(null));
-        }
-
-        //价格核心逻辑
-        priceCoreService.calculateRealPriceCoreLogic(buyerId, productPriceList, activityProductList, isTradeIsolation);
-        return productPriceList;
     }
 
     /**
      * 根据规格id列表获取价格信息
+     * 不使用缓存时规格查询与商品id查询并行 其余阶段依赖商品id
      *
      * @param buyerId
      * @param catalogIdList
@@ -310,10 +360,18 @@ public class PriceQueryService {
      */
     public List<CatalogPrice> getPriceInfoByCatalogIdList(int buyerId, List<String> catalogIdList, boolean isTradeIsolation) throws BizException {
         //过滤重复catalogId
-        catalogIdList = catalogIdList.stream().distinct().collect(Collectors.toList());
+        List<String> distinctCatalogIdList = catalogIdList.stream().distinct().collect(Collectors.toList());
+
+        //不使用缓存时规格查询不依赖商品id 提前发起
+        CompletableFuture<List<com.ymatou.productprice.domain.model.Catalog>> catalogFuture = null;
+        if (!bizProps.isUseCache()) {
+            catalogFuture = bizProps.isUseAsyncRepository()
+                    ? queryStageExecutor.timed("catalog", asyncRepository.getCatalogByCatalogId(distinctCatalogIdList))
+                    : queryStageExecutor.supplyAsync("catalog", () -> repository.getCatalogByCatalogId(distinctCatalogIdList));
+        }
 
         //根据catalogId获取商品id
-        List<Map<String, Object>> mapList = repository.getProductIdByCatalogIdList(catalogIdList);
+        List<Map<String, Object>> mapList = repository.getProductIdByCatalogIdList(distinctCatalogIdList);
         List<String> productIdList = mapList
                 .stream()
                 .map(x -> x.get("spid").toString())
@@ -321,32 +379,16 @@ public class PriceQueryService {
                 .collect(Collectors.toList());
 
         //获取活动商品与规格的变更时间戳
-        List<Map<String, Object>> updateStampMapList = repository
-                .getTimeStampByProductIdList(productIdList, Lists.newArrayList("cut", "aut"));
-
-        Map<String, Date> activityProductUpdateTimeMap = new HashMap<>();
-        Map<String, Date> catalogUpdateStampMap = new HashMap<>();
-
-        //填充活动商品与规格时间戳
-        updateStampMapList.forEach(x -> {
-            activityProductUpdateTimeMap.put(x.get("spid").toString(),
-                    Optional.ofNullable((Date) x.get("aut")).orElse(null));
-            catalogUpdateStampMap.put(x.get("spid").toString(),
-                    Optional.ofNullable((Date) x.get("cut")).orElse(null));
-        });
+        CompletableFuture<List<Map<String, Object>>> updateStampFuture = getTimeStampList(productIdList, "cut", "aut");
 
         //获取规格信息
-        List<com.ymatou.productprice.domain.model.Catalog> catalogList;
-
         if (bizProps.isUseCache()) {
-            catalogList = cache.getCatalogByCatalogId(mapList, catalogUpdateStampMap);
-        } else {
-            catalogList = repository.getCatalogByCatalogId(catalogIdList);
+            catalogFuture = queryStageExecutor.thenApplyAsync("catalog", updateStampFuture, x ->
+                    cache.getCatalogByCatalogId(mapList, MapUtil.indexByKey(x, "spid", "cut")));
         }
 
-        if (catalogList == null || catalogList.isEmpty()) {
-            BizException.throwBizException("商品信息不存在");
-        }
+        //查询活动商品列表
+        CompletableFuture<List<ActivityProduct>> activityProductFuture = getActivityProductList(productIdList, updateStampFuture);
 
         //组装商品价格信息列表
         List<ProductPrice> productPriceList = productIdList.stream().map(x -> {
@@ -355,37 +397,31 @@ public class PriceQueryService {
             return tempProductPrice;
         }).collect(Collectors.toList());
 
-        Map<String, Date> activityProductUpdateStampMap = new HashMap<>();
-        updateStampMapList
-                .forEach(x -> activityProductUpdateStampMap.put(Optional.ofNullable((String) x.get("spid")).orElse(""),
-                        Optional.ofNullable((Date) x.get("aut")).orElse(null)));
-
-        //查询活动商品列表
-        List<ActivityProduct> activityProductList;
-        if (bizProps.isUseCache() && cacheProps.isUseActivityCache()) {
-            activityProductList = cache.getActivityProductList(productIdList, activityProductUpdateStampMap);
-        } else {
-            activityProductList = repository.getActivityProductList(productIdList);
-        }
-
-        List<Catalog> outputCatalogList = convertCatalogForOutput(catalogList);
+        //规格返回后转换结构并查询用户行为 与活动商品查询并行
+        CompletableFuture<List<Catalog>> outputCatalogFuture = catalogFuture.thenApply(this::convertCatalogForOutput);
+        CompletableFuture<BuyerOrderStatistics> buyerBehaviorFuture = getBuyerBehavior(buyerId, outputCatalogFuture, productPriceList);
+        CompletableFuture<Boolean> newBuyerFuture = queryStageExecutor.thenApplyAsync("newBuyer", activityProductFuture, x ->
+                priceCoreService.checkIsNewBuyer(buyerId, x));
 
-        if (activityProductList != null && !activityProductList.isEmpty()) {
-            activityProductList.removeAll(Collections.singleton(null));
+        //转换后的规格列表不包含空规格
+        if (join(outputCatalogFuture).isEmpty()) {
+            BizException.throwBizException("商品信息不存在");
         }
 
         //价格核心逻辑
-        priceCoreService.calculateRealPriceCoreLogic(buyerId,
-                outputCatalogList,
+        priceCoreService.decideProductRealPrice(buyerId,
                 productPriceList,
-                activityProductList,
+                join(activityProductFuture),
+                join(buyerBehaviorFuture),
+                join(newBuyerFuture),
                 isTradeIsolation);
 
         //组装规格价格信息列表
         List<CatalogPrice> catalogPriceList = new ArrayList<>();
         productPriceList.stream().forEach(productPrice -> {
             //将规格中的多物流信息给到商品，基于多物流的物流差价by商品的前提下，不查询商品表，从规格表中获取多物流信息
-            Catalog catalogInfo = outputCatalogList.stream().filter(x -> x.getProductId().equals(productPrice.getProductId())).findAny().orElse(null);
+            //商品的规格已按商品id分组填充 第一个规格即该商品在规格列表中的第一个规格
+            Catalog catalogInfo = !productPrice.getCatalogs().isEmpty() ? productPrice.getCatalogs().get(0) : null;
 
             if(catalogInfo != null){
                 productPrice.setExtraDeliveryFee(catalogInfo.getFlightBalance());
@@ -416,7 +452,7 @@ public class PriceQueryService {
      */
     public Tuple<Map<String, ProductPriceData>, List<ActivityProduct>> getCacheInfoByProductIdList(List<String> productIdList) {
         //获取活动商品与商品的变更时间戳
-        List<Map<String, Object>> updateStampMapList = repository
+        List<Map<String, Object>> updateStampMapList = timeStampCache
                 .getTimeStampByProductIdList(productIdList, Lists.newArrayList("sut", "aut"));
 
         Map<String, Date> activityUpdateStampMap = new HashMap<>();
@@ -444,6 +480,41 @@ public class PriceQueryService {
         return cache.getCacheStats();
     }
 
+    /**
+     * 获取缓存回源加载统计信息
+     */
+    public Map<String, Long> getCacheLoadStatisticsInfo() {
+        return cache.getLoadStats();
+    }
+
+    /**
+     * 获取时间戳缓存统计信息
+     */
+    public Map<String, Long> getTimeStampCacheStatisticsInfo() {
+        return timeStampCache.getStats();
+    }
+
+    /**
+     * 获取缓存变更源统计信息
+     */
+    public Map<String, Long> getChangeFeedStatisticsInfo() {
+        return cacheInvalidationService.getStats();
+    }
+
+    /**
+     * 获取活动商品索引统计信息
+     */
+    public Map<String, Object> getActivityProductIndexStatisticsInfo() {
+        return cache.getActivityProductIndexStats();
+    }
+
+    /**
+     * 获取活动商品增量同步统计信息 包括同步延迟与每次同步耗时
+     */
+    public Map<String, Object> getActivityProductSyncStatisticsInfo() {
+        return cache.getActivityProductSyncStats();
+    }
+
     /**
      * 处理多物流逻辑
      * @param catalogDeliveryInfoList
@@ -480,24 +551,139 @@ public class PriceQueryService {
     }
 
     /**
-     * 组装商品多物流信息
+     * 获取活动商品与规格(商品)的变更时间戳
+     *
+     * @param productIdList
+     * @param stampKeys
+     * @return
+     */
+    private CompletableFuture<List<Map<String, Object>>> getTimeStampList(List<String> productIdList, String... stampKeys) {
+        return queryStageExecutor.supplyAsync("timeStamp", () ->
+                timeStampCache.getTimeStampByProductIdList(productIdList, Lists.newArrayList(stampKeys)));
+    }
+
+    /**
+     * 查询活动商品列表
+     * 使用活动商品缓存时依赖时间戳 否则直接查询仓储
+     *
+     * @param productIdList
+     * @param updateStampFuture
+     * @return
+     */
+    private CompletableFuture<List<ActivityProduct>> getActivityProductList(List<String> productIdList,
+                                                                           CompletableFuture<List<Map<String, Object>>> updateStampFuture) {
+        CompletableFuture<List<ActivityProduct>> activityProductFuture;
+        if (bizProps.isUseCache() && cacheProps.isUseActivityCache()) {
+            activityProductFuture = queryStageExecutor.thenApplyAsync("activityProduct", updateStampFuture, x ->
+                    cache.getActivityProductList(productIdList, MapUtil.indexByKey(x, "spid", "aut")));
+        } else if (bizProps.isUseAsyncRepository()) {
+            activityProductFuture = queryStageExecutor.timed("activityProduct", asyncRepository.getActivityProductList(productIdList));
+        } else {
+            activityProductFuture = queryStageExecutor.supplyAsync("activityProduct", () -> repository.getActivityProductList(productIdList));
+        }
+        return activityProductFuture.thenApply(x -> {
+            if (x != null && !x.isEmpty()) {
+                x.removeAll(Collections.singleton(null));
+            }
+            return x;
+        });
+    }
+
+    /**
+     * 规格返回后填充商品规格与买手id 并查询用户行为
      *
+     * @param buyerId
+     * @param outputCatalogFuture
      * @param productPriceList
+     * @return
+     */
+    private CompletableFuture<BuyerOrderStatistics> getBuyerBehavior(int buyerId,
+                                                                           CompletableFuture<List<Catalog>> outputCatalogFuture,
+                                                                           List<ProductPrice> productPriceList) {
+        return queryStageExecutor.thenApplyAsync("buyerBehavior", outputCatalogFuture, x -> {
+            priceCoreService.fillCatalogs(x, productPriceList);
+            return priceCoreService.determineVipOrNewCustomer(buyerId, productPriceList);
+        });
+    }
+
+    /**
+     * 获取查询阶段统计信息
+     */
+    public Map<String, Map<String, Long>> getQueryStageStatisticsInfo() {
+        return queryStageExecutor.getStats();
+    }
+
+    /**
+     * 获取用户行为缓存统计信息
+     */
+    public Map<String, Long> getUserBehaviorCacheStatisticsInfo() {
+        return userBehaviorCache.getStats();
+    }
+
+    /**
+     * 获取用户行为请求合并统计信息
      */
-    private void setProductMultiLogisticsInfo(List<ProductPrice> productPriceList) {
-        List<String> productIdList = new ArrayList<>();
+    public Map<String, Map<String, Number>> getUserBehaviorBatchStatisticsInfo() {
+        return userBehaviorAnalysisService.getBatchStats();
+    }
 
+    /**
+     * 获取用户行为服务熔断与调用统计信息
+     */
+    public Map<String, Object> getUserBehaviorDependencyStatisticsInfo() {
+        return userBehaviorAnalysisService.getDependencyStats();
+    }
+
+    /**
+     * 查询商品多物流信息
+     * 开启useAsyncRepository时通过异步仓储查询 否则作为查询阶段提交
+     *
+     * @param productIdList
+     * @return
+     */
+    private CompletableFuture<List<Map<String, Object>>> getMultiLogisticsInfo(List<String> productIdList) {
+        List<String> distinctProductIdList = productIdList.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (bizProps.isUseAsyncRepository()) {
+            return queryStageExecutor.timed("multiLogistics", asyncRepository.getMultiLogisticsByProductIdList(distinctProductIdList));
+        }
+        return queryStageExecutor.supplyAsync("multiLogistics", () -> repository.getMultiLogisticsByProductIdList(distinctProductIdList));
+    }
+
+    /**
+     * 等待异步查询结果 异常时抛出原始异常
+     *
+     * @param future
+     * @param <T>
+     * @return
+     */
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * 组装商品多物流信息
+     *
+     * @param productPriceList
+     * @param multiLogisticsInfoList
+     */
+    private void setProductMultiLogisticsInfo(List<ProductPrice> productPriceList, List<Map<String, Object>> multiLogisticsInfoList) {
         if (productPriceList != null && !productPriceList.isEmpty()) {
             productPriceList.removeAll(Collections.singleton(null));
-            productIdList = productPriceList.stream().map(ProductPrice::getProductId).distinct().collect(Collectors.toList());
         }
 
-        List<Map<String, Object>> multiLogisticsInfoList = repository.getMultiLogisticsByProductIdList(productIdList);
         if (multiLogisticsInfoList != null && !multiLogisticsInfoList.isEmpty()) {
             multiLogisticsInfoList.removeAll(Collections.singleton(null));
+            Map<String, ProductPrice> productPriceMap = new HashMap<>(productPriceList.size() * 2);
+            productPriceList.forEach(x -> productPriceMap.putIfAbsent(x.getProductId(), x));
             multiLogisticsInfoList.forEach(z -> {
-                ProductPrice productPrice = productPriceList.stream()
-                        .filter(x -> x.getProductId().equals(Optional.ofNullable(z.get("spid").toString()).orElse(""))).findAny().orElse(null);
+                ProductPrice productPrice = productPriceMap.get(z.get("spid").toString());
 
                 if (productPrice != null) {
                     productPrice.setExtraDeliveryType(z.get("mdeliv") != null ? Integer.valueOf(z.get("mdeliv").toString()):0);
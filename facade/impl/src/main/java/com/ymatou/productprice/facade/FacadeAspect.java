@@ -1,8 +1,10 @@
 package com.ymatou.productprice.facade;
 
 import com.alibaba.dubbo.common.utils.StringUtils;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
 import com.ymatou.productprice.infrastructure.constants.Constants;
 import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.infrastructure.util.RequestDeadline;
 import com.ymatou.productprice.infrastructure.util.Utils;
 import com.ymatou.productprice.model.BizException;
 import com.ymatou.productprice.model.req.BaseRequest;
@@ -29,6 +31,9 @@ public class FacadeAspect {
     @Autowired
     private LogWrapper logWrapper;
 
+    @Autowired
+    private BizProps bizProps;
+
     @Pointcut("execution(com.ymatou.productprice.model.resp.BaseResponseNetAdapter com.ymatou.productprice.facade.ProductPriceFacade.*(*)) && args(req)")
     public void executeFacade(BaseRequest req) {
     }
@@ -59,6 +64,9 @@ public class FacadeAspect {
         // log日志配有"logPrefix"占位符
         MDC.put(Constants.LOG_PREFIX, getRequestFlag(req));
 
+        //下游依赖按剩余时间决定超时
+        RequestDeadline.start(bizProps.getRequestTimeBudget());
+
         logWrapper.recordInfoLog("RequestInfo:{}", req);
 
         Object resp = null;
@@ -88,6 +96,7 @@ public class FacadeAspect {
                 logWrapper.recordErrorLog("Slow query({}ms). Req:{}", consumedTime, req);
             }
             MDC.clear();
+            RequestDeadline.clear();
         }
         logWrapper.recordInfoLog("ResponseInfo:{}", resp);
         return resp;
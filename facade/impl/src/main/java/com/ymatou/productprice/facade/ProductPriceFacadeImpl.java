@@ -326,7 +326,32 @@ public class ProductPriceFacadeImpl implements ProductPriceFacade {
                 .replace("{","")
                 .replace("}","")
                 .replace("CacheStats",""));
+        cacheInfoList.put("CacheLoadStatsInfo", priceQueryService.getCacheLoadStatisticsInfo());
+        cacheInfoList.put("TimeStampCacheStatsInfo", priceQueryService.getTimeStampCacheStatisticsInfo());
+        cacheInfoList.put("ChangeFeedStatsInfo", priceQueryService.getChangeFeedStatisticsInfo());
+        cacheInfoList.put("ActivityProductIndexStatsInfo", priceQueryService.getActivityProductIndexStatisticsInfo());
+        cacheInfoList.put("ActivityProductSyncStatsInfo", priceQueryService.getActivityProductSyncStatisticsInfo());
+        cacheInfoList.put("QueryStageStatsInfo", priceQueryService.getQueryStageStatisticsInfo());
+        cacheInfoList.put("UserBehaviorCacheStatsInfo", priceQueryService.getUserBehaviorCacheStatisticsInfo());
+        cacheInfoList.put("UserBehaviorBatchStatsInfo", priceQueryService.getUserBehaviorBatchStatisticsInfo());
 
         return BaseResponseNetAdapter.newSuccessInstance(cacheInfoList);
     }
+
+    /**
+     * 获取下游依赖(用户行为服务)熔断与调用统计信息
+     * @return
+     */
+    @Override
+    @GET
+    @Path("/{api:(?i:api)}/{Price:(?i:Price)}/{GetDependencyStatsInfo:(?i:GetDependencyStatsInfo)}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public BaseResponseNetAdapter getDependencyStatsInfo(){
+        Map<String, Object> dependencyInfoList = new HashMap<>();
+        dependencyInfoList.put("UserBehaviorStatsInfo", priceQueryService.getUserBehaviorDependencyStatisticsInfo());
+        dependencyInfoList.put("UserBehaviorBatchStatsInfo", priceQueryService.getUserBehaviorBatchStatisticsInfo());
+        dependencyInfoList.put("UserBehaviorCacheStatsInfo", priceQueryService.getUserBehaviorCacheStatisticsInfo());
+
+        return BaseResponseNetAdapter.newSuccessInstance(dependencyInfoList);
+    }
 }
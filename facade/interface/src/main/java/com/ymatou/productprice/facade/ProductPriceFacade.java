@@ -92,4 +92,10 @@ public interface ProductPriceFacade {
      * @return
      */
     BaseResponseNetAdapter getPriceByCatalogIdListByDeliveryExtra(GetCatalogPriceListByDeliveryExtraRequest request);
+
+    /**
+     * 获取下游依赖(用户行为服务)熔断与调用统计信息
+     * @return
+     */
+    BaseResponseNetAdapter getDependencyStatsInfo();
 }
@@ -1,15 +1,23 @@
 package com.ymatou.productprice.infrastructure.config.datasource;
 
+import com.mongodb.ConnectionString;
 import com.mongodb.DB;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
 import com.ymatou.productprice.infrastructure.config.props.MongoProps;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.jongo.Jongo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
 
+import java.util.List;
+
 /** mongo data source
  * Created by chenpengxuan on 2017/2/6.
  */
@@ -19,11 +27,60 @@ public class MongoDataSource {
     @Autowired
     private MongoProps mongoProps;
 
+    /**
+     * 类型化查询使用的文档编解码器
+     */
+    @Autowired(required = false)
+    private List<Codec<?>> codecList;
+
+    @Bean
+    public MongoClient mongoClient(){
+        return new MongoClient(new MongoClientURI(mongoProps.getMongoProductUrl()));
+    }
+
     @Bean
     public Jongo jongoClient(){
         MongoClientURI uri = new MongoClientURI(mongoProps.getMongoProductUrl());
         //Todo getDB deprecated,please use getDatabase
-        DB db =new MongoClient(uri).getDB(uri.getDatabase());
+        DB db = mongoClient().getDB(uri.getDatabase());
         return new Jongo(db);
     }
+
+    /**
+     * 类型化查询使用 与jongo共用连接池
+     * @return
+     */
+    @Bean
+    public MongoDatabase mongoDatabase(){
+        MongoClientURI uri = new MongoClientURI(mongoProps.getMongoProductUrl());
+        return mongoClient().getDatabase(uri.getDatabase());
+    }
+
+    /**
+     * 注册的文档编解码器优先 其余类型使用驱动默认编解码器
+     * @return
+     */
+    @Bean
+    public CodecRegistry codecRegistry(){
+        return codecList != null && !codecList.isEmpty()
+                ? CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(codecList), MongoClient.getDefaultCodecRegistry())
+                : MongoClient.getDefaultCodecRegistry();
+    }
+
+    /**
+     * 异步驱动 独立连接池 用于非阻塞查询
+     * @return
+     */
+    @Bean(destroyMethod = "close")
+    public com.mongodb.async.client.MongoClient asyncMongoClient(){
+        return MongoClients.create(new ConnectionString(mongoProps.getMongoProductUrl()));
+    }
+
+    @Bean
+    public com.mongodb.async.client.MongoDatabase asyncMongoDatabase(){
+        ConnectionString connectionString = new ConnectionString(mongoProps.getMongoProductUrl());
+        return asyncMongoClient()
+                .getDatabase(connectionString.getDatabase())
+                .withCodecRegistry(codecRegistry());
+    }
 }
@@ -65,6 +65,126 @@ public class BizProps {
      */
     private boolean useCache;
 
+    /**
+     * 规格查询是否通过$lookup关联时间戳
+     */
+    private boolean useLookupQuery;
+
+    /**
+     * 是否使用类型化查询(codec直接解码为领域对象)
+     */
+    private boolean useTypedQuery;
+
+    /**
+     * mongo 游标每批返回条数
+     */
+    private int mongoQueryBatchSize;
+
+    /**
+     * 是否使用异步仓储(基于mongo异步驱动)
+     */
+    private boolean useAsyncRepository;
+
+    /**
+     * 价格查询中互不依赖的阶段是否并行执行
+     */
+    private boolean useParallelQueryStage;
+
+    /**
+     * 查询阶段线程池线程数
+     */
+    private int queryStageThreadCount;
+
+    /**
+     * 查询阶段线程池队列长度 0表示不排队 没有空闲线程时由请求线程执行 不超过线程数
+     */
+    private int queryStageQueueSize;
+
+    /**
+     * 用户行为服务调用是否合并批量请求
+     */
+    private boolean useUserBehaviorBatch;
+
+    /**
+     * 用户行为请求合并最大等待时间(单位：毫秒)
+     */
+    private int userBehaviorBatchMaxWait;
+
+    /**
+     * 用户行为请求单批最大买手数/买家数
+     */
+    private int userBehaviorBatchMaxSize;
+
+    /**
+     * 请求时间预算(单位：毫秒) 下游依赖超时不超过剩余时间 0表示不限制
+     */
+    private int requestTimeBudget;
+
+    /**
+     * 用户行为服务调用超时时间(单位：毫秒)
+     */
+    private int userBehaviorTimeout;
+
+    /**
+     * 用户行为服务调用线程数(隔离线程池)
+     */
+    private int userBehaviorThreadCount;
+
+    /**
+     * 用户行为服务调用等待队列长度 队列满时不调用
+     */
+    private int userBehaviorQueueSize;
+
+    /**
+     * 用户行为服务熔断统计最近调用次数
+     */
+    private int userBehaviorBreakerWindowSize;
+
+    /**
+     * 用户行为服务熔断失败率(失败与慢调用占比 单位：百分比)
+     */
+    private int userBehaviorBreakerFailureRate;
+
+    /**
+     * 用户行为服务慢调用时间(单位：毫秒)
+     */
+    private int userBehaviorBreakerSlowCallTime;
+
+    /**
+     * 用户行为服务熔断后恢复尝试间隔(单位：毫秒)
+     */
+    private int userBehaviorBreakerOpenTime;
+
+    /**
+     * 搜索商品列表价格是否按列式数据计算
+     */
+    private boolean useColumnarSearchPricing;
+
+    /**
+     * 默认并行处理方式 FORKJOIN:forkjoin THREADPOOL:线程池固定分块 ADAPTIVE:自适应分块
+     */
+    private String parallelType;
+
+    /**
+     * 并行线程池最大线程数
+     */
+    private int parallelMaxCount;
+
+    /**
+     * 并行线程池队列长度
+     */
+    private int parallelQueueSize;
+
+    /**
+     * 并行处理超时时间 只对设置了请求截止时间的调用生效(单位：毫秒 0表示只受请求时间预算限制)
+     */
+    private long parallelTimeout;
+
+    /**
+     * VIRTUAL方式同时执行的最大分块数
+     */
+    private int parallelVirtualMaxCount;
+
     @DisconfFileItem(name = "exceptionWarningSwitch")
     public Boolean getExceptionWarningSwitch() {
         return exceptionWarningSwitch;
@@ -151,7 +271,223 @@ public class BizProps {
         this.useCache = useCache;
     }
 
+    @DisconfFileItem(name = "useLookupQuery")
+    public boolean isUseLookupQuery() {
+        return useLookupQuery;
+    }
+
+    public void setUseLookupQuery(boolean useLookupQuery) {
+        this.useLookupQuery = useLookupQuery;
+    }
+
+    @DisconfFileItem(name = "useTypedQuery")
+    public boolean isUseTypedQuery() {
+        return useTypedQuery;
+    }
+
+    public void setUseTypedQuery(boolean useTypedQuery) {
+        this.useTypedQuery = useTypedQuery;
+    }
+
+    @DisconfFileItem(name = "mongoQueryBatchSize")
+    public int getMongoQueryBatchSize() {
+        return mongoQueryBatchSize;
+    }
+
+    public void setMongoQueryBatchSize(int mongoQueryBatchSize) {
+        this.mongoQueryBatchSize = mongoQueryBatchSize;
+    }
+
+    @DisconfFileItem(name = "useAsyncRepository")
+    public boolean isUseAsyncRepository() {
+        return useAsyncRepository;
+    }
+
+    public void setUseAsyncRepository(boolean useAsyncRepository) {
+        this.useAsyncRepository = useAsyncRepository;
+    }
+
+    @DisconfFileItem(name = "useParallelQueryStage")
+    public boolean isUseParallelQueryStage() {
+        return useParallelQueryStage;
+    }
+
+    public void setUseParallelQueryStage(boolean useParallelQueryStage) {
+        this.useParallelQueryStage = useParallelQueryStage;
+    }
+
+    @DisconfFileItem(name = "queryStageThreadCount")
+    public int getQueryStageThreadCount() {
+        return queryStageThreadCount;
+    }
+
+    public void setQueryStageThreadCount(int queryStageThreadCount) {
+        this.queryStageThreadCount = queryStageThreadCount;
+    }
+
+    @DisconfFileItem(name = "queryStageQueueSize")
+    public int getQueryStageQueueSize() {
+        return queryStageQueueSize;
+    }
+
+    public void setQueryStageQueueSize(int queryStageQueueSize) {
+        this.queryStageQueueSize = queryStageQueueSize;
+    }
+
     public void setParallelCount(int parallelCount) {
         this.parallelCount = parallelCount;
     }
+
+    @DisconfFileItem(name = "useUserBehaviorBatch")
+    public boolean isUseUserBehaviorBatch() {
+        return useUserBehaviorBatch;
+    }
+
+    public void setUseUserBehaviorBatch(boolean useUserBehaviorBatch) {
+        this.useUserBehaviorBatch = useUserBehaviorBatch;
+    }
+
+    @DisconfFileItem(name = "userBehaviorBatchMaxWait")
+    public int getUserBehaviorBatchMaxWait() {
+        return userBehaviorBatchMaxWait;
+    }
+
+    public void setUserBehaviorBatchMaxWait(int userBehaviorBatchMaxWait) {
+        this.userBehaviorBatchMaxWait = userBehaviorBatchMaxWait;
+    }
+
+    @DisconfFileItem(name = "userBehaviorBatchMaxSize")
+    public int getUserBehaviorBatchMaxSize() {
+        return userBehaviorBatchMaxSize;
+    }
+
+    public void setUserBehaviorBatchMaxSize(int userBehaviorBatchMaxSize) {
+        this.userBehaviorBatchMaxSize = userBehaviorBatchMaxSize;
+    }
+
+    @DisconfFileItem(name = "requestTimeBudget")
+    public int getRequestTimeBudget() {
+        return requestTimeBudget;
+    }
+
+    public void setRequestTimeBudget(int requestTimeBudget) {
+        this.requestTimeBudget = requestTimeBudget;
+    }
+
+    @DisconfFileItem(name = "userBehaviorTimeout")
+    public int getUserBehaviorTimeout() {
+        return userBehaviorTimeout;
+    }
+
+    public void setUserBehaviorTimeout(int userBehaviorTimeout) {
+        this.userBehaviorTimeout = userBehaviorTimeout;
+    }
+
+    @DisconfFileItem(name = "userBehaviorThreadCount")
+    public int getUserBehaviorThreadCount() {
+        return userBehaviorThreadCount;
+    }
+
+    public void setUserBehaviorThreadCount(int userBehaviorThreadCount) {
+        this.userBehaviorThreadCount = userBehaviorThreadCount;
+    }
+
+    @DisconfFileItem(name = "userBehaviorQueueSize")
+    public int getUserBehaviorQueueSize() {
+        return userBehaviorQueueSize;
+    }
+
+    public void setUserBehaviorQueueSize(int userBehaviorQueueSize) {
+        this.userBehaviorQueueSize = userBehaviorQueueSize;
+    }
+
+    @DisconfFileItem(name = "userBehaviorBreakerWindowSize")
+    public int getUserBehaviorBreakerWindowSize() {
+        return userBehaviorBreakerWindowSize;
+    }
+
+    public void setUserBehaviorBreakerWindowSize(int userBehaviorBreakerWindowSize) {
+        this.userBehaviorBreakerWindowSize = userBehaviorBreakerWindowSize;
+    }
+
+    @DisconfFileItem(name = "userBehaviorBreakerFailureRate")
+    public int getUserBehaviorBreakerFailureRate() {
+        return userBehaviorBreakerFailureRate;
+    }
+
+    public void setUserBehaviorBreakerFailureRate(int userBehaviorBreakerFailureRate) {
+        this.userBehaviorBreakerFailureRate = userBehaviorBreakerFailureRate;
+    }
+
+    @DisconfFileItem(name = "userBehaviorBreakerSlowCallTime")
+    public int getUserBehaviorBreakerSlowCallTime() {
+        return userBehaviorBreakerSlowCallTime;
+    }
+
+    public void setUserBehaviorBreakerSlowCallTime(int userBehaviorBreakerSlowCallTime) {
+        this.userBehaviorBreakerSlowCallTime = userBehaviorBreakerSlowCallTime;
+    }
+
+    @DisconfFileItem(name = "userBehaviorBreakerOpenTime")
+    public int getUserBehaviorBreakerOpenTime() {
+        return userBehaviorBreakerOpenTime;
+    }
+
+    public void setUserBehaviorBreakerOpenTime(int userBehaviorBreakerOpenTime) {
+        this.userBehaviorBreakerOpenTime = userBehaviorBreakerOpenTime;
+    }
+
+    @DisconfFileItem(name = "useColumnarSearchPricing")
+    public boolean isUseColumnarSearchPricing() {
+        return useColumnarSearchPricing;
+    }
+
+    public void setUseColumnarSearchPricing(boolean useColumnarSearchPricing) {
+        this.useColumnarSearchPricing = useColumnarSearchPricing;
+    }
+
+    @DisconfFileItem(name = "parallelType")
+    public String getParallelType() {
+        return parallelType;
+    }
+
+    public void setParallelType(String parallelType) {
+        this.parallelType = parallelType;
+    }
+
+    @DisconfFileItem(name = "parallelMaxCount")
+    public int getParallelMaxCount() {
+        return parallelMaxCount;
+    }
+
+    public void setParallelMaxCount(int parallelMaxCount) {
+        this.parallelMaxCount = parallelMaxCount;
+    }
+
+    @DisconfFileItem(name = "parallelQueueSize")
+    public int getParallelQueueSize() {
+        return parallelQueueSize;
+    }
+
+    public void setParallelQueueSize(int parallelQueueSize) {
+        this.parallelQueueSize = parallelQueueSize;
+    }
+
+    @DisconfFileItem(name = "parallelTimeout")
+    public long getParallelTimeout() {
+        return parallelTimeout;
+    }
+
+    public void setParallelTimeout(long parallelTimeout) {
+        this.parallelTimeout = parallelTimeout;
+    }
+
+    @DisconfFileItem(name = "parallelVirtualMaxCount")
+    public int getParallelVirtualMaxCount() {
+        return parallelVirtualMaxCount;
+    }
+
+    public void setParallelVirtualMaxCount(int parallelVirtualMaxCount) {
+        this.parallelVirtualMaxCount = parallelVirtualMaxCount;
+    }
 }
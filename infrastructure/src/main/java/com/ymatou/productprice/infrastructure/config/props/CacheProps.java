@@ -26,6 +26,11 @@ public class CacheProps {
      */
     private int expireTime;
 
+    /**
+     * 堆外缓存大小(单位：MB)
+     */
+    private int offHeapCacheSize;
+
     /**
      * 写缓存的线程数
      */
@@ -46,6 +51,81 @@ public class CacheProps {
      */
     private int activityProductFrequency;
 
+    /**
+     * 是否使用时间戳缓存
+     */
+    private boolean useTimeStampCache;
+
+    /**
+     * 时间戳缓存过期时间(单位：毫秒)
+     */
+    private int timeStampCacheExpireTime;
+
+    /**
+     * 时间戳缓存后台刷新时间(单位：毫秒)
+     */
+    private int timeStampCacheRefreshTime;
+
+    /**
+     * 时间戳缓存条目数
+     */
+    private int timeStampCacheSize;
+
+    /**
+     * 是否使用变更源失效缓存
+     */
+    private boolean useChangeFeed;
+
+    /**
+     * 变更源类型 MONGO表示mongo oplog LOCAL表示本地内存
+     */
+    private String changeFeedType;
+
+    /**
+     * 变更源拉取间隔(单位：毫秒)
+     */
+    private int changeFeedInterval;
+
+    /**
+     * 变更源单次拉取条数
+     */
+    private int changeFeedBatchSize;
+
+    /**
+     * 变更处理位置保存文件
+     */
+    private String changeFeedPositionFile;
+
+    /**
+     * 变更源正常工作时时间戳缓存过期时间(单位：毫秒)
+     */
+    private int changeFeedTimeStampExpireTime;
+
+    /**
+     * 是否使用用户行为缓存
+     */
+    private boolean useUserBehaviorCache;
+
+    /**
+     * 用户行为缓存买家数
+     */
+    private int userBehaviorCacheSize;
+
+    /**
+     * 用户行为缓存过期时间(单位：毫秒)
+     */
+    private int userBehaviorCacheExpireTime;
+
+    /**
+     * 活动商品按更新时间增量同步单次拉取条数 全量对账时也按此条数分批加载
+     */
+    private int activityProductSyncBatchSize;
+
+    /**
+     * 活动商品缓存全量对账间隔(单位：秒)
+     */
+    private int activityProductReconcileInterval;
+
     @DisconfFileItem(name = "cacheType")
     public String getCacheType() {
         return cacheType;
@@ -73,6 +153,15 @@ public class CacheProps {
         this.expireTime = expireTime;
     }
 
+    @DisconfFileItem(name = "offHeapCacheSize")
+    public int getOffHeapCacheSize() {
+        return offHeapCacheSize;
+    }
+
+    public void setOffHeapCacheSize(int offHeapCacheSize) {
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
     @DisconfFileItem(name = "writeConcurrencyNum")
     public int getWriteConcurrencyNum() {
         return writeConcurrencyNum;
@@ -108,4 +197,139 @@ public class CacheProps {
     public void setActivityProductFrequency(int activityProductFrequency) {
         this.activityProductFrequency = activityProductFrequency;
     }
+
+    @DisconfFileItem(name = "useTimeStampCache")
+    public boolean isUseTimeStampCache() {
+        return useTimeStampCache;
+    }
+
+    public void setUseTimeStampCache(boolean useTimeStampCache) {
+        this.useTimeStampCache = useTimeStampCache;
+    }
+
+    @DisconfFileItem(name = "timeStampCacheExpireTime")
+    public int getTimeStampCacheExpireTime() {
+        return timeStampCacheExpireTime;
+    }
+
+    public void setTimeStampCacheExpireTime(int timeStampCacheExpireTime) {
+        this.timeStampCacheExpireTime = timeStampCacheExpireTime;
+    }
+
+    @DisconfFileItem(name = "timeStampCacheRefreshTime")
+    public int getTimeStampCacheRefreshTime() {
+        return timeStampCacheRefreshTime;
+    }
+
+    public void setTimeStampCacheRefreshTime(int timeStampCacheRefreshTime) {
+        this.timeStampCacheRefreshTime = timeStampCacheRefreshTime;
+    }
+
+    @DisconfFileItem(name = "timeStampCacheSize")
+    public int getTimeStampCacheSize() {
+        return timeStampCacheSize;
+    }
+
+    public void setTimeStampCacheSize(int timeStampCacheSize) {
+        this.timeStampCacheSize = timeStampCacheSize;
+    }
+
+    @DisconfFileItem(name = "useChangeFeed")
+    public boolean isUseChangeFeed() {
+        return useChangeFeed;
+    }
+
+    public void setUseChangeFeed(boolean useChangeFeed) {
+        this.useChangeFeed = useChangeFeed;
+    }
+
+    @DisconfFileItem(name = "changeFeedType")
+    public String getChangeFeedType() {
+        return changeFeedType;
+    }
+
+    public void setChangeFeedType(String changeFeedType) {
+        this.changeFeedType = changeFeedType;
+    }
+
+    @DisconfFileItem(name = "changeFeedInterval")
+    public int getChangeFeedInterval() {
+        return changeFeedInterval;
+    }
+
+    public void setChangeFeedInterval(int changeFeedInterval) {
+        this.changeFeedInterval = changeFeedInterval;
+    }
+
+    @DisconfFileItem(name = "changeFeedBatchSize")
+    public int getChangeFeedBatchSize() {
+        return changeFeedBatchSize;
+    }
+
+    public void setChangeFeedBatchSize(int changeFeedBatchSize) {
+        this.changeFeedBatchSize = changeFeedBatchSize;
+    }
+
+    @DisconfFileItem(name = "changeFeedPositionFile")
+    public String getChangeFeedPositionFile() {
+        return changeFeedPositionFile;
+    }
+
+    public void setChangeFeedPositionFile(String changeFeedPositionFile) {
+        this.changeFeedPositionFile = changeFeedPositionFile;
+    }
+
+    @DisconfFileItem(name = "changeFeedTimeStampExpireTime")
+    public int getChangeFeedTimeStampExpireTime() {
+        return changeFeedTimeStampExpireTime;
+    }
+
+    public void setChangeFeedTimeStampExpireTime(int changeFeedTimeStampExpireTime) {
+        this.changeFeedTimeStampExpireTime = changeFeedTimeStampExpireTime;
+    }
+
+    @DisconfFileItem(name = "useUserBehaviorCache")
+    public boolean isUseUserBehaviorCache() {
+        return useUserBehaviorCache;
+    }
+
+    public void setUseUserBehaviorCache(boolean useUserBehaviorCache) {
+        this.useUserBehaviorCache = useUserBehaviorCache;
+    }
+
+    @DisconfFileItem(name = "userBehaviorCacheSize")
+    public int getUserBehaviorCacheSize() {
+        return userBehaviorCacheSize;
+    }
+
+    public void setUserBehaviorCacheSize(int userBehaviorCacheSize) {
+        this.userBehaviorCacheSize = userBehaviorCacheSize;
+    }
+
+    @DisconfFileItem(name = "userBehaviorCacheExpireTime")
+    public int getUserBehaviorCacheExpireTime() {
+        return userBehaviorCacheExpireTime;
+    }
+
+    public void setUserBehaviorCacheExpireTime(int userBehaviorCacheExpireTime) {
+        this.userBehaviorCacheExpireTime = userBehaviorCacheExpireTime;
+    }
+
+    @DisconfFileItem(name = "activityProductSyncBatchSize")
+    public int getActivityProductSyncBatchSize() {
+        return activityProductSyncBatchSize;
+    }
+
+    public void setActivityProductSyncBatchSize(int activityProductSyncBatchSize) {
+        this.activityProductSyncBatchSize = activityProductSyncBatchSize;
+    }
+
+    @DisconfFileItem(name = "activityProductReconcileInterval")
+    public int getActivityProductReconcileInterval() {
+        return activityProductReconcileInterval;
+    }
+
+    public void setActivityProductReconcileInterval(int activityProductReconcileInterval) {
+        this.activityProductReconcileInterval = activityProductReconcileInterval;
+    }
 }
@@ -0,0 +1,107 @@
+package com.ymatou.productprice.infrastructure.dataprocess.mongo;
+
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoDatabase;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * mongo 异步操作处理器
+ * 基于异步驱动 查询期间不占用调用线程 结果在驱动的io线程上回调完成
+ * 后续处理如有阻塞操作 调用方需要切换到自己的线程池
+ * Created by chenpengxuan on 2017/5/19.
+ */
+@Component
+public class AsyncMongoProcessor {
+    @Autowired
+    private MongoDatabase asyncMongoDatabase;
+
+    @Autowired
+    private BizProps bizProps;
+
+    /**
+     * mongo 异步查询
+     *
+     * @param tableName   表名
+     * @param filter      查询条件
+     * @param projection  查询字段
+     * @param sort        排序 可以为null
+     * @param limit       最大返回条数 0表示不限制
+     * @param resultClass 返回类型 需要注册对应的Codec
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<List<T>> queryMongo(String tableName,
+                                                     Bson filter,
+                                                     Bson projection,
+                                                     Bson sort,
+                                                     int limit,
+                                                     Class<T> resultClass) {
+        CompletableFuture<List<T>> future = new CompletableFuture<>();
+        try {
+            FindIterable<T> findIterable = getCollection(tableName, resultClass)
+                    .find(filter)
+                    .projection(projection);
+            if (sort != null) {
+                findIterable = findIterable.sort(sort);
+            }
+            if (limit > 0) {
+                findIterable = findIterable.limit(limit);
+            }
+            if (bizProps.getMongoQueryBatchSize() > 0) {
+                findIterable = findIterable.batchSize(bizProps.getMongoQueryBatchSize());
+            }
+            findIterable.into(new ArrayList<>(), complete(future));
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * mongo 异步聚合查询
+     *
+     * @param tableName   表名
+     * @param pipeline    聚合阶段
+     * @param resultClass 返回类型 需要注册对应的Codec
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<List<T>> aggregateMongo(String tableName, List<Bson> pipeline, Class<T> resultClass) {
+        CompletableFuture<List<T>> future = new CompletableFuture<>();
+        try {
+            getCollection(tableName, resultClass)
+                    .aggregate(pipeline)
+                    .useCursor(true)
+                    .into(new ArrayList<>(), complete(future));
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    private <T> MongoCollection<T> getCollection(String tableName, Class<T> resultClass) {
+        if (tableName == null || tableName.isEmpty()) {
+            throw new IllegalArgumentException("mongo table name 不能为空");
+        }
+        return asyncMongoDatabase.getCollection(tableName, resultClass);
+    }
+
+    private static <T> SingleResultCallback<T> complete(CompletableFuture<T> future) {
+        return (result, t) -> {
+            if (t != null) {
+                future.completeExceptionally(t);
+            } else {
+                future.complete(result);
+            }
+        };
+    }
+}
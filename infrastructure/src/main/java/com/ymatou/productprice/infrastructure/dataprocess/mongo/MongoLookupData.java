@@ -0,0 +1,74 @@
+package com.ymatou.productprice.infrastructure.dataprocess.mongo;
+
+import java.util.List;
+
+/**
+ * mongo 关联查询($lookup)抽象
+ * Created by chenpengxuan on 2017/5/16.
+ */
+public class MongoLookupData {
+    /**
+     * 关联的表名
+     */
+    private String tableName;
+
+    /**
+     * 主表关联字段
+     */
+    private String localField;
+
+    /**
+     * 关联表关联字段
+     */
+    private String foreignField;
+
+    /**
+     * 关联结果字段名
+     */
+    private String as;
+
+    /**
+     * 关联表需要返回的字段
+     */
+    private List<String> projection;
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public String getLocalField() {
+        return localField;
+    }
+
+    public void setLocalField(String localField) {
+        this.localField = localField;
+    }
+
+    public String getForeignField() {
+        return foreignField;
+    }
+
+    public void setForeignField(String foreignField) {
+        this.foreignField = foreignField;
+    }
+
+    public String getAs() {
+        return as;
+    }
+
+    public void setAs(String as) {
+        this.as = as;
+    }
+
+    public List<String> getProjection() {
+        return projection;
+    }
+
+    public void setProjection(List<String> projection) {
+        this.projection = projection;
+    }
+}
@@ -16,5 +16,7 @@ public enum  MongoOperationTypeEnum {
     //查询单个
     SELECTSINGLE,
     //查询多个
-    SELECTMANY
+    SELECTMANY,
+    //关联查询
+    AGGREGATE
 }
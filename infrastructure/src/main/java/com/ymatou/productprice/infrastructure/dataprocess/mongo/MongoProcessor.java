@@ -1,22 +1,31 @@
 package com.ymatou.productprice.infrastructure.dataprocess.mongo;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.mongodb.AggregationOptions;
 import com.mongodb.DuplicateKeyException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoDatabase;
 import com.ymatou.performancemonitorclient.PerformanceStatisticContainer;
 import com.ymatou.productprice.infrastructure.config.datasource.DynamicDataSourceAspect;
 import com.ymatou.productprice.infrastructure.constants.Constants;
 import com.ymatou.productprice.infrastructure.util.LogWrapper;
 import com.ymatou.productprice.infrastructure.util.MapUtil;
 import com.ymatou.productprice.infrastructure.util.Utils;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.jongo.Aggregate;
+import org.jongo.Find;
 import org.jongo.Jongo;
 import org.jongo.MongoCollection;
+import org.jongo.MongoCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -31,6 +40,12 @@ public class MongoProcessor {
     @Autowired
     private LogWrapper logWrapper;
 
+    @Autowired
+    private MongoDatabase mongoDatabase;
+
+    @Autowired
+    private CodecRegistry codecRegistry;
+
     private final Logger logger = LoggerFactory.getLogger(DynamicDataSourceAspect.class);
 
     /**
@@ -63,43 +78,257 @@ public class MongoProcessor {
      */
     @SuppressWarnings("unchecked")
     public List<Map<String, Object>> queryMongo(MongoQueryData mongoQueryData) throws IllegalArgumentException {
-        if (mongoQueryData == null) {
-            throw new IllegalArgumentException("mongoData 不能为空");
-        }
-        if (mongoQueryData.getTableName().isEmpty()) {
-            throw new IllegalArgumentException("mongo table name 不能为空");
+        checkQueryData(mongoQueryData);
+        if (mongoQueryData.getOperationType() != MongoOperationTypeEnum.SELECTSINGLE) {
+            return queryMongo(mongoQueryData, Function.identity());
         }
         MongoCollection collection = jongoClient.getCollection(mongoQueryData.getTableName());
 
 
         Object[] paramList = processQueryCondition(mongoQueryData.getMatchCondition());
-        String matchCondition = mongoQueryData.getMatchCondition() != null
-                ? MapUtil.makeJsonStringFromMapForJongo(mongoQueryData.getMatchCondition()):"{}";
-        String projection = mongoQueryData.getProjection() != null
-                ? MapUtil.makeJsonStringFromMapForJongo(Maps.transformEntries(mongoQueryData.getProjection(),(x,y)-> y ? 1:0)):"{}";
+        String matchCondition = makeMatchCondition(mongoQueryData);
+        String projection = makeProjection(mongoQueryData);
         String sort = mongoQueryData.getSort() != null
                 ? MapUtil.makeJsonStringFromMapForJongo(Maps.transformEntries(mongoQueryData.getSort(),(x,y)-> y ? 1:-1)):"{}";
         //增加定制化性能监控汇报
         List<Map<String, Object>> result = PerformanceStatisticContainer.addWithReturn(() -> {
-            Map<String, Object> tempMap = new HashMap<>();
             List<Map<String, Object>> mapList = new ArrayList<>();
+            Map<String, Object> tempMap = collection.findOne(matchCondition, paramList).projection(projection).orderBy(sort).as(HashMap.class);
+            if (tempMap != null) {
+                mapList.add(tempMap);
+            }
+            return mapList;
+        },"processMongoData_" + mongoQueryData.getOperationType().name() + "_" + mongoQueryData.getTableName(), Constants.APP_ID);
+        logger.info("mongo查询信息为{}",mongoQueryData);
+        return result;
+    }
+
+    /**
+     * mongo 流式查询
+     * 每条文档从游标取出后立即转换 不保留原始文档列表 mapper返回null的文档会被忽略
+     * 操作类型只支持SELECTMANY与AGGREGATE
+     *
+     * @param mongoQueryData
+     * @param mapper         文档转换
+     * @param <T>
+     * @return
+     * @throws IllegalArgumentException
+     */
+    public <T> List<T> queryMongo(MongoQueryData mongoQueryData, Function<Map<String, Object>, T> mapper) throws IllegalArgumentException {
+        List<T> result = new ArrayList<>();
+        forEachMongo(mongoQueryData, x -> {
+            T item = mapper.apply(x);
+            if (item != null) {
+                result.add(item);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * mongo 流式遍历
+     * 游标按batchSize分批从服务端拉取 遍历结束或发生异常时关闭游标
+     * 操作类型只支持SELECTMANY与AGGREGATE
+     *
+     * @param mongoQueryData
+     * @param consumer       文档处理
+     * @throws IllegalArgumentException
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachMongo(MongoQueryData mongoQueryData, Consumer<Map<String, Object>> consumer) throws IllegalArgumentException {
+        checkQueryData(mongoQueryData);
+        MongoCollection collection = jongoClient.getCollection(mongoQueryData.getTableName());
+
+        Object[] paramList = processQueryCondition(mongoQueryData.getMatchCondition());
+        String matchCondition = makeMatchCondition(mongoQueryData);
+        int batchSize = mongoQueryData.getBatchSize();
+        int limit = mongoQueryData.getLimit();
+        //增加定制化性能监控汇报
+        int count = PerformanceStatisticContainer.addWithReturn(() -> {
+            int tempCount = 0;
             switch (mongoQueryData.getOperationType()) {
-                case SELECTSINGLE:
-                    tempMap = collection.findOne(matchCondition, paramList).projection(projection).orderBy(sort).as(HashMap.class);
-                    if (tempMap != null) {
-                        mapList.add(tempMap);
+                case SELECTMANY:
+                    Find find = collection.find(matchCondition, paramList).projection(makeProjection(mongoQueryData));
+                    if (mongoQueryData.getSort() != null) {
+                        find.sort(MapUtil.makeJsonStringFromMapForJongo(Maps.transformEntries(mongoQueryData.getSort(), (x, y) -> y ? 1 : -1)));
+                    }
+                    if (batchSize > 0) {
+                        find.batchSize(batchSize);
+                    }
+                    if (limit > 0) {
+                        find.limit(limit);
+                    }
+                    try (MongoCursor<HashMap> cursor = find.as(HashMap.class)) {
+                        while (cursor.hasNext()) {
+                            consumer.accept(cursor.next());
+                            tempCount++;
+                        }
                     }
                     break;
-                case SELECTMANY:
-                    mapList = Lists.newArrayList((Iterator<? extends Map<String, Object>>) collection.find(matchCondition, paramList).projection(projection).as(tempMap.getClass()).iterator());
+                case AGGREGATE:
+                    Aggregate aggregate = collection
+                            .aggregate("{$match:" + matchCondition + "}", paramList)
+                            .and(makeLookupStage(mongoQueryData.getLookup()))
+                            .and("{$project:" + makeLookupProjection(mongoQueryData) + "}");
+                    if (limit > 0) {
+                        aggregate.and("{$limit:" + limit + "}");
+                    }
+                    if (batchSize > 0) {
+                        aggregate.options(AggregationOptions.builder()
+                                .batchSize(batchSize)
+                                .outputMode(AggregationOptions.OutputMode.CURSOR)
+                                .build());
+                    }
+                    Iterator<HashMap> iterator = aggregate.as(HashMap.class);
+                    try {
+                        while (iterator.hasNext()) {
+                            consumer.accept(iterator.next());
+                            tempCount++;
+                        }
+                    } finally {
+                        closeCursor(iterator);
+                    }
                     break;
                 default:
                     throw new IllegalArgumentException("mongo 操作类型不正确");
             }
-            return mapList;
-        },"processMongoData_" + mongoQueryData.getOperationType().name() + "_" + mongoQueryData.getTableName(), Constants.APP_ID);
-        logger.info("mongo查询信息为{}",mongoQueryData);
-        return result;
+            return tempCount;
+        }, "processMongoData_" + mongoQueryData.getOperationType().name() + "_" + mongoQueryData.getTableName(), Constants.APP_ID);
+        logger.info("mongo查询信息为{},返回条数{}", mongoQueryData, count);
+    }
+
+    /**
+     * 关闭聚合结果游标 消费中途抛出异常时避免服务端游标泄漏
+     * 聚合结果迭代器可关闭时(jongo ResultsIterator实现Closeable)关闭 否则只能依赖迭代结束时自动关闭
+     *
+     * @param iterator
+     */
+    private void closeCursor(Iterator<?> iterator) {
+        if (iterator instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) iterator).close();
+            } catch (Exception ex) {
+                logger.warn("关闭mongo聚合游标失败", ex);
+            }
+        }
+    }
+
+    private void checkQueryData(MongoQueryData mongoQueryData) {
+        if (mongoQueryData == null) {
+            throw new IllegalArgumentException("mongoData 不能为空");
+        }
+        if (mongoQueryData.getTableName().isEmpty()) {
+            throw new IllegalArgumentException("mongo table name 不能为空");
+        }
+    }
+
+    private String makeMatchCondition(MongoQueryData mongoQueryData) {
+        return mongoQueryData.getMatchCondition() != null
+                ? MapUtil.makeJsonStringFromMapForJongo(mongoQueryData.getMatchCondition()) : "{}";
+    }
+
+    private String makeProjection(MongoQueryData mongoQueryData) {
+        return mongoQueryData.getProjection() != null
+                ? MapUtil.makeJsonStringFromMapForJongo(Maps.transformEntries(mongoQueryData.getProjection(), (x, y) -> y ? 1 : 0)) : "{}";
+    }
+
+    /**
+     * mongo 类型化查询
+     * 查询条件直接构建为Bson 查询结果通过注册的Codec直接解码为业务对象
+     *
+     * @param tableName   表名
+     * @param filter      查询条件
+     * @param projection  查询字段
+     * @param sort        排序 可以为null
+     * @param limit       最大返回条数 0表示不限制
+     * @param resultClass 返回类型 需要注册对应的Codec
+     * @param <T>
+     * @return
+     */
+    public <T> List<T> queryMongo(String tableName,
+                                  Bson filter,
+                                  Bson projection,
+                                  Bson sort,
+                                  int limit,
+                                  Class<T> resultClass) {
+        if (tableName == null || tableName.isEmpty()) {
+            throw new IllegalArgumentException("mongo table name 不能为空");
+        }
+        return PerformanceStatisticContainer.addWithReturn(() -> {
+            FindIterable<T> findIterable = getTypedCollection(tableName, resultClass)
+                    .find(filter)
+                    .projection(projection);
+            if (sort != null) {
+                findIterable = findIterable.sort(sort);
+            }
+            if (limit > 0) {
+                findIterable = findIterable.limit(limit);
+            }
+            return findIterable.into(new ArrayList<>());
+        }, "processMongoData_TYPED_" + tableName, Constants.APP_ID);
+    }
+
+    /**
+     * mongo 类型化聚合查询
+     *
+     * @param tableName   表名
+     * @param pipeline    聚合阶段
+     * @param resultClass 返回类型 需要注册对应的Codec
+     * @param <T>
+     * @return
+     */
+    public <T> List<T> aggregateMongo(String tableName, List<Bson> pipeline, Class<T> resultClass) {
+        if (tableName == null || tableName.isEmpty()) {
+            throw new IllegalArgumentException("mongo table name 不能为空");
+        }
+        return PerformanceStatisticContainer.addWithReturn(() ->
+                getTypedCollection(tableName, resultClass)
+                        .aggregate(pipeline)
+                        .into(new ArrayList<>()), "processMongoData_TYPED_AGGREGATE_" + tableName, Constants.APP_ID);
+    }
+
+    private <T> com.mongodb.client.MongoCollection<T> getTypedCollection(String tableName, Class<T> resultClass) {
+        return mongoDatabase
+                .getCollection(tableName, resultClass)
+                .withCodecRegistry(codecRegistry);
+    }
+
+    /**
+     * 组装$lookup阶段
+     *
+     * @param lookupData
+     * @return
+     */
+    private String makeLookupStage(MongoLookupData lookupData) {
+        if (lookupData == null) {
+            throw new IllegalArgumentException("mongo lookup 不能为空");
+        }
+        Map<String, Object> lookupMap = new LinkedHashMap<>();
+        lookupMap.put("from", lookupData.getTableName());
+        lookupMap.put("localField", lookupData.getLocalField());
+        lookupMap.put("foreignField", lookupData.getForeignField());
+        lookupMap.put("as", lookupData.getAs());
+        return "{$lookup:" + MapUtil.makeJsonStringFromMapForJongo(lookupMap) + "}";
+    }
+
+    /**
+     * 组装关联查询的$project阶段 主表字段与关联表字段一起返回
+     *
+     * @param mongoQueryData
+     * @return
+     */
+    private String makeLookupProjection(MongoQueryData mongoQueryData) {
+        Map<String, Object> projectionMap = new LinkedHashMap<>();
+        if (mongoQueryData.getProjection() != null) {
+            mongoQueryData.getProjection().forEach((x, y) -> projectionMap.put(x, y ? 1 : 0));
+        }
+        MongoLookupData lookupData = mongoQueryData.getLookup();
+        if (lookupData.getProjection() != null && !lookupData.getProjection().isEmpty()) {
+            lookupData.getProjection().forEach(x -> projectionMap.put(lookupData.getAs() + "." + x, 1));
+        } else {
+            projectionMap.put(lookupData.getAs(), 1);
+        }
+        return MapUtil.makeJsonStringFromMapForJongo(projectionMap);
     }
 
     /**
@@ -35,6 +35,20 @@ public class MongoQueryData extends PrintFriendliness{
      */
     private Map<String,Boolean> sort;
 
+    /**
+     * mongo 关联查询 操作类型为AGGREGATE时使用
+     */
+    private MongoLookupData lookup;
+
+    /**
+     * mongo 游标每批返回条数 0表示使用驱动默认值
+     */
+    private int batchSize;
+
+    /**
+     * mongo 最大返回条数 0表示不限制
+     */
+    private int limit;
 
     public String getTableName() {
         return tableName;
@@ -76,6 +90,30 @@ public class MongoQueryData extends PrintFriendliness{
         this.sort = sort;
     }
 
+    public MongoLookupData getLookup() {
+        return lookup;
+    }
+
+    public void setLookup(MongoLookupData lookup) {
+        this.lookup = lookup;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,66 @@
+package com.ymatou.productprice.infrastructure.util.CacheUtil;
+
+import com.google.common.cache.CacheStats;
+
+import java.util.Map;
+
+/**
+ * 缓存引擎扩展点
+ * CacheManager只依赖该接口 具体实现由cacheType决定
+ * Created by chenpengxuan on 2017/5/2.
+ */
+public interface CacheEngine<K, V> {
+
+    /**
+     * 获取单个key的缓存
+     *
+     * @param key
+     * @return 没有命中或者已过期时返回null
+     */
+    V getIfPresent(Object key);
+
+    /**
+     * 获取多个key的缓存
+     *
+     * @param keys
+     * @return 只包含命中的数据
+     */
+    Map<K, V> getAllPresent(Iterable<?> keys);
+
+    /**
+     * 添加单个缓存
+     *
+     * @param key
+     * @param value
+     */
+    void put(K key, V value);
+
+    /**
+     * 添加多个缓存
+     *
+     * @param map
+     */
+    void putAll(Map<? extends K, ? extends V> map);
+
+    /**
+     * 删除单个缓存
+     *
+     * @param key
+     */
+    void invalidate(Object key);
+
+    /**
+     * 当前缓存条目数
+     *
+     * @return
+     */
+    long size();
+
+    /**
+     * 缓存统计信息
+     * 统一使用guava的CacheStats 保证对外输出格式不变
+     *
+     * @return
+     */
+    CacheStats stats();
+}
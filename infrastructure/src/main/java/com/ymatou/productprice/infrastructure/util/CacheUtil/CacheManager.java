@@ -1,11 +1,10 @@
 package com.ymatou.productprice.infrastructure.util.CacheUtil;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheStats;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
@@ -14,11 +13,8 @@ import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * 缓存管理类
@@ -31,32 +27,57 @@ public class CacheManager {
     @Autowired
     private CacheProps cacheProps;
 
-    private Cache cacheContainer;
+    @Autowired
+    private LogWrapper logWrapper;
 
-    private ConcurrentMap activityProductCacheContainer;
+    /**
+     * 堆外缓存使用的序列化器
+     */
+    @Autowired(required = false)
+    private CacheValueCodec cacheValueCodec;
 
-    private static final int CACHE_SIZE_UNIT = 10000;
+    private CacheEngine cacheContainer;
 
     /**
-     * 预期活动商品缓存数量
+     * 合并同一个key的并发回源加载
+     * 按加载方式区分 不同加载方式返回的数据结构不同 不能互相合并
      */
-    private volatile int expectActivityCacheSize;
+    private final ConcurrentMap<String, SingleFlight> loadingFlightMap = new ConcurrentHashMap<>();
+
+    /**
+     * 单个key回源加载使用的合并器名称
+     */
+    private static final String DEFAULT_LOAD_NAME = "default";
+
+    private static final int CACHE_SIZE_UNIT = 10000;
 
     @PostConstruct
     public void init() {
+        long maximumSize = cacheProps.getCacheSize() * CACHE_SIZE_UNIT;
         switch (CacheTypeEnum.valueOf(cacheProps.getCacheType().toUpperCase())) {
             case GUAVACACHE:
-                cacheContainer = CacheBuilder.newBuilder()
-                        .maximumSize(cacheProps.getCacheSize() * CACHE_SIZE_UNIT)
-                        .expireAfterAccess(cacheProps.getExpireTime(), TimeUnit.HOURS)
-                        .concurrencyLevel(cacheProps.getWriteConcurrencyNum())
-                        .recordStats()
-                        .build();
-                activityProductCacheContainer = new ConcurrentHashMap(cacheProps.getActivityProductCacheSize());
+                cacheContainer = new GuavaCacheEngine(maximumSize,
+                        cacheProps.getExpireTime(),
+                        cacheProps.getWriteConcurrencyNum());
                 break;
-            case EHCACHE:
+            case TINYLFU:
+                cacheContainer = new TinyLfuCacheEngine(maximumSize,
+                        cacheProps.getExpireTime(),
+                        cacheProps.getWriteConcurrencyNum());
                 break;
+            case OFFHEAP:
+                if (cacheValueCodec != null) {
+                    cacheContainer = new OffHeapCacheEngine(cacheProps.getOffHeapCacheSize() * 1024L * 1024L,
+                            cacheProps.getExpireTime(),
+                            cacheValueCodec);
+                    break;
+                }
             default:
+                //未实现或缺少序列化器的缓存类型降级为guava 避免缓存容器为空
+                logWrapper.recordErrorLog("cacheType:{} 不可用,降级使用GUAVACACHE", cacheProps.getCacheType());
+                cacheContainer = new GuavaCacheEngine(maximumSize,
+                        cacheProps.getExpireTime(),
+                        cacheProps.getWriteConcurrencyNum());
                 break;
         }
     }
@@ -78,6 +99,7 @@ public class CacheManager {
      * @param generateKeyFunc     生成缓存key的func
      * @param repositoryFunc      查mongo获取相关数据的func
      * @param checkCacheValidFunc 检查缓存是否有效的func
+     *                            同一个缓存key并发回源时只执行一次repositoryFunc
      * @param <K>                 参数与缓存key的数据类型
      * @param <V>                 返回数据的类型
      * @return
@@ -93,13 +115,13 @@ public class CacheManager {
         V cacheResult = (V) cacheContainer.getIfPresent(cacheKey);
 
         if (cacheResult == null) {
-            Z tempData = repositoryFunc.apply(queryParam);
+            Z tempData = (Z) getLoadingFlight(DEFAULT_LOAD_NAME).execute(cacheKey, () -> repositoryFunc.apply(queryParam));
             //将缓存数据结构中部分无效的数据结构更新掉
             cacheResult = updateDataFunc.apply(cacheResult, tempData);
         } else {
             //如果缓存检查无效则重新从repository里面取一把数据
             if (!checkCacheValidFunc.apply(queryParam, cacheResult)) {
-                Z tempData = repositoryFunc.apply(queryParam);
+                Z tempData = (Z) getLoadingFlight(DEFAULT_LOAD_NAME).execute(cacheKey, () -> repositoryFunc.apply(queryParam));
                 cacheResult = updateDataFunc.apply(cacheResult, tempData);
             }
         }
@@ -110,113 +132,103 @@ public class CacheManager {
     }
 
     /**
-     * 获取单个key的缓存
-     *
-     * @param cacheKey
-     * @param <K>
-     * @param <V>
-     */
-    public <K, V> V get(K cacheKey) {
-        return
-                Optional.ofNullable((V) cacheContainer.getIfPresent(cacheKey)).orElse(null);
-    }
-
-    /**
-     * 获取活动商品
-     *
-     * @param cacheKey
-     * @param <K>
-     * @param <V>
-     * @return
-     */
-    public <K, V> V getActivityProduct(K cacheKey) {
-        return
-                Optional.ofNullable((V) activityProductCacheContainer.get(cacheKey)).orElse(null);
-    }
-
-    /**
-     * 获取活动商品
+     * 批量获取缓存 没有命中或者已失效的key合并为一次批量加载
+     * 与其他线程正在加载的相同key合并 加载结果通过一次putAll写回缓存
      *
+     * @param loadName            加载方式名称 相同名称的加载结果数据结构必须一致
+     * @param cacheKeyList        缓存key列表
+     * @param checkCacheValidFunc 检查缓存是否有效的func
+     * @param bulkLoadFunc        批量加载的func 参数为需要加载的key列表与其中已失效的缓存数据 返回缓存key与数据的映射
      * @param <K>
      * @param <V>
-     * @param cacheKeyList
-     * @return
+     * @return 按传入顺序返回有数据的key与数据
      */
-    public <K, V> List<V> getActivityProduct(List<K> cacheKeyList) {
-        return cacheKeyList
-                .stream()
-                .map(x -> (V) getActivityProduct(x))
-                .collect(Collectors.toList());
-    }
+    public <K, V> Map<K, V> getAll(String loadName,
+                                   Collection<K> cacheKeyList,
+                                   BiFunction<K, V, Boolean> checkCacheValidFunc,
+                                   BiFunction<List<K>, Map<K, V>, Map<K, V>> bulkLoadFunc) {
+        Set<K> cacheKeySet = new LinkedHashSet<>(cacheKeyList);
+        Map<K, V> cacheResultMap = cacheContainer.getAllPresent(cacheKeySet);
+
+        Map<K, V> validCacheMap = new HashMap<>(cacheResultMap.size() * 2);
+        Map<K, V> invalidCacheMap = new HashMap<>();
+        List<K> needReloadKeyList = new ArrayList<>();
+        cacheKeySet.forEach(key -> {
+            V cacheValue = cacheResultMap.get(key);
+            if (cacheValue != null && checkCacheValidFunc.apply(key, cacheValue)) {
+                validCacheMap.put(key, cacheValue);
+            } else {
+                needReloadKeyList.add(key);
+                if (cacheValue != null) {
+                    invalidCacheMap.put(key, cacheValue);
+                }
+            }
+        });
 
-    /**
-     * 添加活动商品缓存
-     *
-     * @param cacheKey
-     * @param cacheVal
-     * @param <K>
-     * @param <V>
-     */
-    public <K, V> void putActivityProduct(K cacheKey, V cacheVal) {
-        synchronized (this) {
-            expectActivityCacheSize = activityProductCacheContainer.size() + ((List)(cacheVal)).size();
+        Map<K, V> reloadMap = Collections.emptyMap();
+        if (!needReloadKeyList.isEmpty()) {
+            SingleFlight<K, V> flight = getLoadingFlight(loadName);
+            reloadMap = flight.executeAll(needReloadKeyList, keyList -> {
+                Map<K, V> loadResult = bulkLoadFunc.apply(keyList, invalidCacheMap);
+                if (loadResult != null && !loadResult.isEmpty()) {
+                    cacheContainer.putAll(loadResult);
+                }
+                return loadResult;
+            });
         }
-        if (expectActivityCacheSize <= cacheProps.getActivityProductCacheSize()) {
-            activityProductCacheContainer.putIfAbsent(cacheKey, cacheVal);
+
+        Map<K, V> result = new LinkedHashMap<>(cacheKeySet.size() * 2);
+        for (K key : cacheKeySet) {
+            V value = validCacheMap.containsKey(key) ? validCacheMap.get(key) : reloadMap.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
         }
+        return result;
     }
 
     /**
-     * 添加活动商品缓存
+     * 获取回源加载统计信息
      *
-     * @param cacheList
-     * @param <K>
-     * @param <V>
+     * @return key为统计项 value为次数
      */
-    public <K, V> void putActivityProduct(Map<K, V> cacheList) {
-        if(cacheList != null && !cacheList.isEmpty()){
-            AtomicInteger tempSizeCount = new AtomicInteger(0);
-                    cacheList.forEach((k,v) -> tempSizeCount.getAndAdd(v != null ? ((List)v).size():0));
-            synchronized (this) {
-                expectActivityCacheSize = activityProductCacheContainer.size() + tempSizeCount.get();
-            }
-            if (expectActivityCacheSize <= cacheProps.getActivityProductCacheSize()) {
-                activityProductCacheContainer.putAll(cacheList);
-            }
+    public Map<String, Long> getLoadStats() {
+        long loadCount = 0;
+        long dedupLoadCount = 0;
+        for (SingleFlight flight : loadingFlightMap.values()) {
+            loadCount += flight.getLoadCount();
+            dedupLoadCount += flight.getDedupCount();
         }
+        Map<String, Long> loadStats = new LinkedHashMap<>();
+        loadStats.put("loadCount", loadCount);
+        loadStats.put("dedupLoadCount", dedupLoadCount);
+        return loadStats;
     }
 
-    /**
-     * 删除无效商品缓存数据
-     *
-     * @param cacheKeyList
-     * @param <K>
-     */
-    public <K> void deleteActivityProduct(List<K> cacheKeyList) {
-        cacheKeyList.forEach(x -> activityProductCacheContainer.remove(x));
+    private SingleFlight getLoadingFlight(String loadName) {
+        return loadingFlightMap.computeIfAbsent(loadName, name -> new SingleFlight());
     }
 
     /**
-     * 删除无效商品缓存数据
+     * 获取单个key的缓存
      *
      * @param cacheKey
      * @param <K>
+     * @param <V>
      */
-    public <K> void deleteActivityProduct(K cacheKey) {
-        if(activityProductCacheContainer.keySet().contains(cacheKey)){
-            activityProductCacheContainer.remove(cacheKey);
-        }
+    public <K, V> V get(K cacheKey) {
+        return
+                Optional.ofNullable((V) cacheContainer.getIfPresent(cacheKey)).orElse(null);
     }
 
     /**
-     * 获取活动商品容器
+     * 删除缓存
      *
+     * @param cacheKeyList
      * @param <K>
-     * @param <V>
-     * @return
      */
-    public <K, V> ConcurrentMap<K, V> getActivityProductCacheContainer() {
-        return activityProductCacheContainer;
+    public <K> void invalidate(Collection<K> cacheKeyList) {
+        cacheKeyList.forEach(cacheContainer::invalidate);
     }
 
     /**
@@ -8,5 +8,15 @@ public enum  CacheTypeEnum {
 
     GUAVACACHE,
 
-    EHCACHE;
+    EHCACHE,
+
+    /**
+     * 基于访问频率淘汰(W-TinyLFU)
+     */
+    TINYLFU,
+
+    /**
+     * 堆外缓存 缓存值序列化后存储在堆外内存
+     */
+    OFFHEAP;
 }
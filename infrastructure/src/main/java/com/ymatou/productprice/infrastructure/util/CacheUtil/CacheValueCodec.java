@@ -0,0 +1,25 @@
+package com.ymatou.productprice.infrastructure.util.CacheUtil;
+
+/**
+ * 缓存值序列化器
+ * 堆外缓存引擎通过该接口将缓存值转换为二进制记录
+ * Created by chenpengxuan on 2017/5/4.
+ */
+public interface CacheValueCodec<V> {
+
+    /**
+     * 序列化
+     *
+     * @param value
+     * @return
+     */
+    byte[] encode(V value);
+
+    /**
+     * 反序列化
+     *
+     * @param bytes
+     * @return
+     */
+    V decode(byte[] bytes);
+}
@@ -0,0 +1,91 @@
+package com.ymatou.productprice.infrastructure.util.CacheUtil;
+
+/**
+ * 访问频率估算器(count-min sketch)
+ * 每个key占4行计数器 每个计数器最大15
+ * 累计写入次数达到采样上限后所有计数器减半 使历史热点逐渐冷却
+ * 非线程安全 由TinyLfuCacheEngine在锁内调用
+ * Created by chenpengxuan on 2017/5/2.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final int MAX_COUNT = 15;
+
+    private final byte[][] table;
+
+    private final int tableMask;
+
+    private final long sampleSize;
+
+    private long additions;
+
+    FrequencySketch(long maximumSize) {
+        int width = ceilingPowerOfTwo((int) Math.min(Math.max(maximumSize, 16), 1 << 26));
+        table = new byte[SEEDS.length][width];
+        tableMask = width - 1;
+        sampleSize = 10L * Math.max(maximumSize, 16);
+    }
+
+    /**
+     * 估算key的访问频率
+     *
+     * @param key
+     * @return
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            if (table[i][index] < MAX_COUNT) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >>> 1);
+            }
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.ymatou.productprice.infrastructure.util.CacheUtil;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于guava cache的缓存引擎(LRU)
+ * Created by chenpengxuan on 2017/5/2.
+ */
+public class GuavaCacheEngine<K, V> implements CacheEngine<K, V> {
+
+    private final Cache<K, V> cacheContainer;
+
+    public GuavaCacheEngine(long maximumSize, int expireHours, int concurrencyLevel) {
+        cacheContainer = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireHours, TimeUnit.HOURS)
+                .concurrencyLevel(concurrencyLevel)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public V getIfPresent(Object key) {
+        return cacheContainer.getIfPresent(key);
+    }
+
+    @Override
+    public Map<K, V> getAllPresent(Iterable<?> keys) {
+        return cacheContainer.getAllPresent(keys);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        cacheContainer.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        cacheContainer.putAll(map);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        cacheContainer.invalidate(key);
+    }
+
+    @Override
+    public long size() {
+        return cacheContainer.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return cacheContainer.stats();
+    }
+}
@@ -0,0 +1,241 @@
+package com.ymatou.productprice.infrastructure.util.CacheUtil;
+
+import com.google.common.cache.CacheStats;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 堆外缓存引擎
+ * 缓存值序列化后顺序追加写入堆外内存段(direct buffer) 堆内只保留key到记录地址的索引
+ * 写满一个内存段后切换到下一个 循环复用时整段淘汰(FIFO)
+ * 过期与guava/TinyLFU缓存引擎一致按最后访问时间计算 访问时间记录在堆内索引中 读命中时只更新索引不改写内存段
+ * 读操作使用乐观读 内存段被复用时回退为读锁重读
+ * Created by chenpengxuan on 2017/5/4.
+ */
+public class OffHeapCacheEngine<K, V> implements CacheEngine<K, V> {
+
+    /**
+     * 单个内存段大小(16M)
+     */
+    public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 记录头 int记录长度
+     */
+    private static final int RECORD_HEADER_SIZE = 4;
+
+    private final CacheValueCodec<V> codec;
+
+    private final ByteBuffer[] segments;
+
+    private final List<K>[] segmentKeys;
+
+    private final ConcurrentHashMap<K, IndexEntry> index = new ConcurrentHashMap<>();
+
+    private final StampedLock lock = new StampedLock();
+
+    private final long expireNanos;
+
+    private int currentSegment;
+
+    private int writeOffset;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param capacityBytes 堆外内存总大小
+     * @param expireHours   过期时间(按最后访问时间)
+     * @param codec         缓存值序列化器
+     */
+    public OffHeapCacheEngine(long capacityBytes, int expireHours, CacheValueCodec<V> codec) {
+        int segmentCount = (int) Math.max(2, Math.min(capacityBytes / SEGMENT_SIZE, 1 << 15));
+        this.codec = codec;
+        this.segments = new ByteBuffer[segmentCount];
+        this.segmentKeys = new List[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segmentKeys[i] = new ArrayList<>();
+        }
+        this.expireNanos = expireHours > 0 ? TimeUnit.HOURS.toNanos(expireHours) : Long.MAX_VALUE;
+        this.segments[0] = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+    }
+
+    @Override
+    public V getIfPresent(Object key) {
+        long now = System.nanoTime();
+        IndexEntry entry = null;
+        byte[] bytes = null;
+        long stamp = lock.tryOptimisticRead();
+        try {
+            entry = index.get(key);
+            bytes = entry != null ? readRecord(entry.address) : null;
+        } catch (RuntimeException e) {
+            //乐观读期间内存段被复用 读到的数据无效 下面通过validate回退重读
+            stamp = 0L;
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                entry = index.get(key);
+                bytes = entry != null ? readRecord(entry.address) : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (entry != null && now - entry.accessTime >= expireNanos) {
+            //已过期
+            index.remove(key, entry);
+            bytes = null;
+        }
+        if (bytes == null) {
+            missCount.increment();
+            return null;
+        }
+        entry.accessTime = now;
+        hitCount.increment();
+        return codec.decode(bytes);
+    }
+
+    @Override
+    public Map<K, V> getAllPresent(Iterable<?> keys) {
+        Map<K, V> result = new HashMap<>();
+        for (Object key : keys) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                result.put((K) key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        byte[] bytes = codec.encode(value);
+        if (bytes.length + RECORD_HEADER_SIZE > SEGMENT_SIZE) {
+            //超过单个内存段大小的数据不缓存
+            index.remove(key);
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            writeRecord(key, bytes, System.nanoTime());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (map == null || map.isEmpty()) {
+            return;
+        }
+        map.forEach(this::put);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        //内存空间在内存段复用时回收
+        index.remove(key);
+    }
+
+    @Override
+    public long size() {
+        return index.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, evictionCount.sum());
+    }
+
+    /**
+     * 读取记录
+     *
+     * @param address
+     * @return
+     */
+    private byte[] readRecord(long address) {
+        int segment = (int) (address >>> 32);
+        int offset = (int) address;
+        ByteBuffer buffer = segments[segment].duplicate();
+        int length = buffer.getInt(offset);
+        if (length < 0 || offset + RECORD_HEADER_SIZE + length > SEGMENT_SIZE) {
+            throw new IllegalStateException("invalid off-heap record");
+        }
+        byte[] bytes = new byte[length];
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 写入记录 需持有写锁
+     *
+     * @param key
+     * @param bytes
+     * @param now
+     */
+    private void writeRecord(K key, byte[] bytes, long now) {
+        int recordSize = RECORD_HEADER_SIZE + bytes.length;
+        if (writeOffset + recordSize > SEGMENT_SIZE) {
+            nextSegment();
+        }
+        ByteBuffer buffer = segments[currentSegment].duplicate();
+        buffer.putInt(writeOffset, bytes.length);
+        buffer.position(writeOffset + RECORD_HEADER_SIZE);
+        buffer.put(bytes);
+
+        index.put(key, new IndexEntry(((long) currentSegment << 32) | writeOffset, now));
+        segmentKeys[currentSegment].add(key);
+        writeOffset += recordSize;
+    }
+
+    /**
+     * 切换到下一个内存段 淘汰该段中仍被索引引用的数据
+     */
+    private void nextSegment() {
+        currentSegment = (currentSegment + 1) % segments.length;
+        writeOffset = 0;
+        if (segments[currentSegment] == null) {
+            segments[currentSegment] = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+            return;
+        }
+        for (K key : segmentKeys[currentSegment]) {
+            IndexEntry entry = index.get(key);
+            if (entry != null && (int) (entry.address >>> 32) == currentSegment) {
+                index.remove(key, entry);
+                evictionCount.increment();
+            }
+        }
+        segmentKeys[currentSegment].clear();
+    }
+
+    /**
+     * 堆内索引项 记录地址(内存段序号 << 32 | 段内偏移)与最后访问时间
+     */
+    private static class IndexEntry {
+
+        private final long address;
+
+        private volatile long accessTime;
+
+        IndexEntry(long address, long accessTime) {
+            this.address = address;
+            this.accessTime = accessTime;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.ymatou.productprice.infrastructure.util.CacheUtil;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 合并并发加载
+ * 同一个key同一时刻只有一个线程执行加载 其余线程等待并共享加载结果
+ * Created by chenpengxuan on 2017/5/8.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlightMap = new ConcurrentHashMap<>();
+
+    /**
+     * 实际执行的加载次数(按key计)
+     */
+    private final LongAdder loadCount = new LongAdder();
+
+    /**
+     * 被合并掉的加载次数(按key计)
+     */
+    private final LongAdder dedupCount = new LongAdder();
+
+    /**
+     * 加载单个key
+     *
+     * @param key
+     * @param loader
+     * @return
+     */
+    public V execute(K key, Supplier<V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = inFlightMap.putIfAbsent(key, future);
+        if (inFlight != null) {
+            dedupCount.increment();
+            return await(inFlight);
+        }
+
+        loadCount.increment();
+        try {
+            V value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlightMap.remove(key, future);
+        }
+    }
+
+    /**
+     * 批量加载
+     * 已经在加载中的key等待已有结果 其余key合并为一次批量加载
+     *
+     * @param keyList
+     * @param batchLoader 返回key与数据的映射 没有数据的key可以不返回
+     * @return 按传入顺序返回有数据的key
+     */
+    public Map<K, V> executeAll(Collection<K> keyList, Function<List<K>, Map<K, V>> batchLoader) {
+        Map<K, CompletableFuture<V>> ownFutureMap = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> inFlightFutureMap = new LinkedHashMap<>();
+
+        for (K key : keyList) {
+            if (ownFutureMap.containsKey(key) || inFlightFutureMap.containsKey(key)) {
+                continue;
+            }
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> inFlight = inFlightMap.putIfAbsent(key, future);
+            if (inFlight != null) {
+                inFlightFutureMap.put(key, inFlight);
+            } else {
+                ownFutureMap.put(key, future);
+            }
+        }
+
+        if (!ownFutureMap.isEmpty()) {
+            loadCount.add(ownFutureMap.size());
+            try {
+                Map<K, V> loadResult = batchLoader.apply(new ArrayList<>(ownFutureMap.keySet()));
+                ownFutureMap.forEach((key, future) -> future.complete(loadResult != null ? loadResult.get(key) : null));
+            } catch (RuntimeException | Error ex) {
+                ownFutureMap.values().forEach(future -> future.completeExceptionally(ex));
+                throw ex;
+            } finally {
+                ownFutureMap.forEach(inFlightMap::remove);
+            }
+        }
+        dedupCount.add(inFlightFutureMap.size());
+
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keyList) {
+            CompletableFuture<V> future = ownFutureMap.containsKey(key) ? ownFutureMap.get(key) : inFlightFutureMap.get(key);
+            V value = await(future);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    public long getDedupCount() {
+        return dedupCount.sum();
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待并发加载结果被中断", ex);
+        } catch (ExecutionException | CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
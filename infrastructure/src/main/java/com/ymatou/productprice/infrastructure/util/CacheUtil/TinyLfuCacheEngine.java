@@ -0,0 +1,473 @@
+package com.ymatou.productprice.infrastructure.util.CacheUtil;
+
+import com.google.common.cache.CacheStats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于W-TinyLFU淘汰策略的缓存引擎
+ * 新数据先进入窗口区(1%容量,LRU) 从窗口区淘汰出来的数据与主区(SLRU)的淘汰候选比较访问频率 频率高者留下
+ * 可以避免搜索爬虫扫过长尾商品时把热点商品挤出缓存
+ * 读操作只记录到读缓冲区 由持锁线程批量重放 读路径无锁
+ * 写操作直接写入ConcurrentHashMap 新增的数据记录到写缓冲区 由抢到锁的线程批量加入淘汰队列 写路径不等待锁
+ * 写缓冲区积压超过上限时写线程等待锁并处理积压 限制超出容量的数据量
+ * Created by chenpengxuan on 2017/5/2.
+ */
+public class TinyLfuCacheEngine<K, V> implements CacheEngine<K, V> {
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    private static final int REMOVED = -1;
+
+    /**
+     * 已写入map 尚未从写缓冲区加入淘汰队列
+     */
+    private static final int NEW = -2;
+
+    /**
+     * 窗口区占总容量的比例
+     */
+    private static final double WINDOW_PERCENT = 0.01d;
+
+    /**
+     * 保护区占主区容量的比例
+     */
+    private static final double PROTECTED_PERCENT = 0.8d;
+
+    /**
+     * 读缓冲区上限 超出后丢弃访问记录(只影响淘汰精度 不影响正确性)
+     */
+    private static final int READ_BUFFER_MAX = 1024;
+
+    /**
+     * 读缓冲区达到该数量时尝试重放
+     */
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+
+    /**
+     * 写缓冲区积压上限 超出后写线程等待锁处理积压
+     */
+    private static final int WRITE_BUFFER_MAX = 1024;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+
+    private final long maximumSize;
+
+    private final long windowMaximum;
+
+    private final long protectedMaximum;
+
+    private final long expireNanos;
+
+    private final FrequencySketch sketch;
+
+    private final AccessOrderDeque<K, V> windowDeque = new AccessOrderDeque<>();
+
+    private final AccessOrderDeque<K, V> probationDeque = new AccessOrderDeque<>();
+
+    private final AccessOrderDeque<K, V> protectedDeque = new AccessOrderDeque<>();
+
+    private long windowSize;
+
+    private long protectedSize;
+
+    private final Queue<Node<K, V>> readBuffer = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger readBufferSize = new AtomicInteger();
+
+    private final Queue<Node<K, V>> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger writeBufferSize = new AtomicInteger();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    public TinyLfuCacheEngine(long maximumSize, int expireHours, int concurrencyLevel) {
+        this.maximumSize = Math.max(maximumSize, 1);
+        this.windowMaximum = Math.max(1, (long) (this.maximumSize * WINDOW_PERCENT));
+        this.protectedMaximum = (long) ((this.maximumSize - windowMaximum) * PROTECTED_PERCENT);
+        this.expireNanos = expireHours > 0 ? TimeUnit.HOURS.toNanos(expireHours) : Long.MAX_VALUE;
+        this.sketch = new FrequencySketch(this.maximumSize);
+        this.data = new ConcurrentHashMap<>(16, 0.75f, Math.max(concurrencyLevel, 1));
+    }
+
+    @Override
+    public V getIfPresent(Object key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        long now = System.nanoTime();
+        if (isExpired(node, now)) {
+            missCount.increment();
+            if (evictionLock.tryLock()) {
+                try {
+                    expireEntries(now);
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+            return null;
+        }
+        node.accessTime = now;
+        hitCount.increment();
+        afterRead(node);
+        return node.value;
+    }
+
+    @Override
+    public Map<K, V> getAllPresent(Iterable<?> keys) {
+        Map<K, V> result = new HashMap<>();
+        for (Object key : keys) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                result.put((K) key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        long now = System.nanoTime();
+        putToMap(key, value, now);
+        afterWrite(now);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (map == null || map.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        map.forEach((k, v) -> putToMap(k, v, now));
+        afterWrite(now);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        evictionLock.lock();
+        try {
+            Node<K, V> node = data.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return data.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, evictionCount.sum());
+    }
+
+    private boolean isExpired(Node<K, V> node, long now) {
+        return now - node.accessTime >= expireNanos;
+    }
+
+    private void afterRead(Node<K, V> node) {
+        if (readBufferSize.incrementAndGet() > READ_BUFFER_MAX) {
+            readBufferSize.decrementAndGet();
+        } else {
+            readBuffer.offer(node);
+        }
+        if (readBufferSize.get() >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        Node<K, V> node;
+        while ((node = readBuffer.poll()) != null) {
+            readBufferSize.decrementAndGet();
+            onAccess(node);
+        }
+    }
+
+    /**
+     * 写入map 不持锁
+     * 新增的数据记录到写缓冲区 已存在的数据更新值后按一次访问记录
+     *
+     * @param key
+     * @param value
+     * @param now
+     */
+    private void putToMap(K key, V value, long now) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            Node<K, V> node = data.get(key);
+            if (node == null) {
+                node = new Node<>(key, value, now);
+                if (data.putIfAbsent(key, node) == null) {
+                    writeBufferSize.incrementAndGet();
+                    writeBuffer.offer(node);
+                    return;
+                }
+                continue;
+            }
+            node.value = value;
+            node.accessTime = now;
+            //更新期间节点被淘汰时重新写入
+            if (data.get(key) == node) {
+                afterRead(node);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写入后处理写缓冲区 抢不到锁时由持锁线程处理 积压超过上限时等待锁
+     *
+     * @param now
+     */
+    private void afterWrite(long now) {
+        if (writeBufferSize.get() > WRITE_BUFFER_MAX) {
+            evictionLock.lock();
+        } else if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            drainBuffers();
+            expireEntries(now);
+        } finally {
+            evictionLock.unlock();
+        }
+        //释放锁前其他线程写入的数据
+        if (!writeBuffer.isEmpty() && evictionLock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainBuffers() {
+        drainWriteBuffer();
+        drainReadBuffer();
+    }
+
+    /**
+     * 新增的数据加入窗口区 已被删除的数据跳过
+     */
+    private void drainWriteBuffer() {
+        Node<K, V> node;
+        while ((node = writeBuffer.poll()) != null) {
+            writeBufferSize.decrementAndGet();
+            if (node.queue != NEW) {
+                continue;
+            }
+            sketch.increment(node.key);
+            node.queue = WINDOW;
+            windowDeque.addLast(node);
+            windowSize++;
+            evictEntries();
+        }
+    }
+
+    /**
+     * 重放一次访问 窗口区与保护区移到队尾 试用区晋升到保护区
+     *
+     * @param node
+     */
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == REMOVED || node.queue == NEW) {
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.queue == WINDOW) {
+            windowDeque.moveToBack(node);
+        } else if (node.queue == PROBATION) {
+            probationDeque.remove(node);
+            node.queue = PROTECTED;
+            protectedDeque.addLast(node);
+            protectedSize++;
+            while (protectedSize > protectedMaximum) {
+                Node<K, V> demoted = protectedDeque.pollFirst();
+                if (demoted == null) {
+                    break;
+                }
+                protectedSize--;
+                demoted.queue = PROBATION;
+                probationDeque.addLast(demoted);
+            }
+        } else {
+            protectedDeque.moveToBack(node);
+        }
+    }
+
+    /**
+     * 窗口区溢出的数据作为候选者 与主区队首的淘汰者比较频率
+     */
+    private void evictEntries() {
+        while (windowSize > windowMaximum) {
+            Node<K, V> candidate = windowDeque.pollFirst();
+            windowSize--;
+            candidate.queue = PROBATION;
+            probationDeque.addLast(candidate);
+
+            if (data.size() <= maximumSize) {
+                continue;
+            }
+            Node<K, V> victim = probationDeque.peekFirst();
+            if (victim == candidate || victim == null) {
+                victim = protectedDeque.peekFirst();
+            }
+            if (victim == null) {
+                evict(candidate);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    /**
+     * 按访问顺序淘汰过期数据 每个队列只需检查队首
+     *
+     * @param now
+     */
+    private void expireEntries(long now) {
+        expireDeque(windowDeque, now);
+        expireDeque(probationDeque, now);
+        expireDeque(protectedDeque, now);
+    }
+
+    private void expireDeque(AccessOrderDeque<K, V> deque, long now) {
+        Node<K, V> node;
+        while ((node = deque.peekFirst()) != null && isExpired(node, now)) {
+            evict(node);
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        data.remove(node.key, node);
+        unlink(node);
+        evictionCount.increment();
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            windowDeque.remove(node);
+            windowSize--;
+        } else if (node.queue == PROBATION) {
+            probationDeque.remove(node);
+        } else if (node.queue == PROTECTED) {
+            protectedDeque.remove(node);
+            protectedSize--;
+        }
+        //尚在写缓冲区中的数据处理写缓冲区时跳过
+        node.queue = REMOVED;
+    }
+
+    /**
+     * 缓存节点
+     */
+    private static final class Node<K, V> {
+
+        final K key;
+
+        volatile V value;
+
+        volatile long accessTime;
+
+        int queue = NEW;
+
+        Node<K, V> prev;
+
+        Node<K, V> next;
+
+        Node(K key, V value, long accessTime) {
+            this.key = key;
+            this.value = value;
+            this.accessTime = accessTime;
+        }
+    }
+
+    /**
+     * 按访问顺序排列的双向链表 队首为最久未访问的数据
+     * 只在持锁时操作
+     */
+    private static final class AccessOrderDeque<K, V> {
+
+        private Node<K, V> head;
+
+        private Node<K, V> tail;
+
+        Node<K, V> peekFirst() {
+            return head;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = head;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+    }
+}
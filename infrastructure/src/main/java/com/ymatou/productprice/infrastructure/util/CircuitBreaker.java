@@ -0,0 +1,220 @@
+package com.ymatou.productprice.infrastructure.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * 熔断器
+ * 统计最近windowSize次调用 失败与慢调用占比达到failureRate时熔断 熔断期间直接跳过调用
+ * 熔断openTime毫秒后放行一次试探调用 试探成功恢复 失败继续熔断
+ * Created by chenpengxuan on 2017/5/25.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final IntSupplier windowSizeSupplier;
+
+    private final IntSupplier failureRateSupplier;
+
+    private final IntSupplier slowCallTimeSupplier;
+
+    private final IntSupplier openTimeSupplier;
+
+    private State state = State.CLOSED;
+
+    /**
+     * 最近调用结果 true表示失败或慢调用
+     */
+    private boolean[] window = new boolean[0];
+
+    private int windowIndex;
+
+    private int windowCount;
+
+    private int windowFailureCount;
+
+    private long openedAt;
+
+    private boolean halfOpenCalling;
+
+    private final LongAdder successCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    private final LongAdder slowCount = new LongAdder();
+
+    private final LongAdder notPermittedCount = new LongAdder();
+
+    private final LongAdder deadlineTimeoutCount = new LongAdder();
+
+    private final LongAdder openCount = new LongAdder();
+
+    /**
+     * @param windowSizeSupplier   统计最近调用次数
+     * @param failureRateSupplier  熔断失败率(单位：百分比)
+     * @param slowCallTimeSupplier 慢调用时间(单位：毫秒)
+     * @param openTimeSupplier     熔断后恢复尝试间隔(单位：毫秒)
+     */
+    public CircuitBreaker(IntSupplier windowSizeSupplier,
+                          IntSupplier failureRateSupplier,
+                          IntSupplier slowCallTimeSupplier,
+                          IntSupplier openTimeSupplier) {
+        this.windowSizeSupplier = windowSizeSupplier;
+        this.failureRateSupplier = failureRateSupplier;
+        this.slowCallTimeSupplier = slowCallTimeSupplier;
+        this.openTimeSupplier = openTimeSupplier;
+    }
+
+    /**
+     * 是否允许调用 返回true时调用方需要在调用结束后调用onSuccess或onFailure
+     *
+     * @return
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN
+                && System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(openTimeSupplier.getAsInt())) {
+            state = State.HALF_OPEN;
+            halfOpenCalling = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !halfOpenCalling) {
+            halfOpenCalling = true;
+            return true;
+        }
+        notPermittedCount.increment();
+        return false;
+    }
+
+    /**
+     * 调用成功 耗时超过慢调用时间按失败统计
+     *
+     * @param elapsedMillis
+     */
+    public void onSuccess(long elapsedMillis) {
+        boolean isSlow = elapsedMillis >= slowCallTimeSupplier.getAsInt();
+        if (isSlow) {
+            slowCount.increment();
+        } else {
+            successCount.increment();
+        }
+        record(isSlow);
+    }
+
+    public void onFailure() {
+        failureCount.increment();
+        record(true);
+    }
+
+    /**
+     * 调用超时
+     * 等待时间被请求剩余时间截断(未等满完整超时时间)时不能说明依赖服务异常 只释放许可并单独计数 不计入失败
+     *
+     * @param truncated 等待时间是否被请求剩余时间截断
+     */
+    public void onTimeout(boolean truncated) {
+        if (truncated) {
+            deadlineTimeoutCount.increment();
+            release();
+        } else {
+            onFailure();
+        }
+    }
+
+    /**
+     * 已获得许可但未发起调用(例如线程池已满) 不统计结果
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            halfOpenCalling = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 获取熔断统计信息
+     *
+     * @return
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("state", state.name());
+            stats.put("windowCount", windowCount);
+            stats.put("windowFailureCount", windowFailureCount);
+        }
+        stats.put("successCount", successCount.sum());
+        stats.put("failureCount", failureCount.sum());
+        stats.put("slowCount", slowCount.sum());
+        stats.put("notPermittedCount", notPermittedCount.sum());
+        stats.put("deadlineTimeoutCount", deadlineTimeoutCount.sum());
+        stats.put("openCount", openCount.sum());
+        return stats;
+    }
+
+    private synchronized void record(boolean isFailure) {
+        if (state == State.HALF_OPEN) {
+            halfOpenCalling = false;
+            if (isFailure) {
+                open();
+            } else {
+                state = State.CLOSED;
+                resetWindow();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            //熔断前已经发起的调用
+            return;
+        }
+
+        int windowSize = Math.max(windowSizeSupplier.getAsInt(), 1);
+        if (window.length != windowSize) {
+            window = new boolean[windowSize];
+            resetWindow();
+        }
+        if (windowCount == windowSize) {
+            if (window[windowIndex]) {
+                windowFailureCount--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = isFailure;
+        if (isFailure) {
+            windowFailureCount++;
+        }
+        windowIndex = (windowIndex + 1) % windowSize;
+
+        if (windowCount == windowSize
+                && windowFailureCount * 100L >= (long) failureRateSupplier.getAsInt() * windowSize) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        openCount.increment();
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailureCount = 0;
+        for (int i = 0; i < window.length; i++) {
+            window[i] = false;
+        }
+    }
+}
@@ -179,4 +179,24 @@ public class MapUtil {
         });
         return tempDataList;
     }
+
+    /**
+     * 按指定列建立索引 key列相同时保留第一条
+     *
+     * @param mapList
+     * @param keyName   作为索引key的列名
+     * @param valueName 作为索引value的列名
+     * @param <V>
+     * @return
+     */
+    public static <V> Map<String, V> indexByKey(List<Map<String, Object>> mapList, String keyName, String valueName) {
+        Map<String, V> result = new HashMap<>(mapList.size() * 2);
+        mapList.forEach(x -> {
+            Object key = x.get(keyName);
+            if (key != null) {
+                result.putIfAbsent(key.toString(), (V) x.get(valueName));
+            }
+        });
+        return result;
+    }
 }
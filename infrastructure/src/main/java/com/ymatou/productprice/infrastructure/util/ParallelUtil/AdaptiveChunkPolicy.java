@@ -0,0 +1,132 @@
+package com.ymatou.productprice.infrastructure.util.ParallelUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * 自适应分块策略
+ * 分块耗时按 固定开销 + 单条耗时 * 条数 估算(按条数与耗时做指数衰减的最小二乘)
+ * 每块条数不少于 固定开销 / 单条耗时 保证每块的处理耗时不低于调用开销
+ * 分块数不超过可用线程数(空闲线程 + 调用线程)的2倍 线程池繁忙或有排队任务时减少分块
+ * 样本不足 分块条数没有差异或估算的单条耗时不为正时无法估算 按默认条数分块
+ * Created by chenpengxuan on 2017/5/29.
+ */
+public class AdaptiveChunkPolicy {
+
+    /**
+     * 旧样本权重衰减系数
+     */
+    private static final double DECAY = 0.98;
+
+    /**
+     * 开始估算的最小样本权重
+     */
+    private static final double MIN_SAMPLE_WEIGHT = 8;
+
+    /**
+     * 每个可用线程的分块数 多出的分块由先完成的线程继续处理
+     */
+    private static final int CHUNK_PER_WORKER = 2;
+
+    private final IntSupplier defaultChunkSizeSupplier;
+
+    private double sampleWeight;
+
+    private double sumSize;
+
+    private double sumElapsed;
+
+    private double sumSizeSquare;
+
+    private double sumSizeElapsed;
+
+    private long chunkCount;
+
+    /**
+     * @param defaultChunkSizeSupplier 无法估算时的每块条数
+     */
+    public AdaptiveChunkPolicy(IntSupplier defaultChunkSizeSupplier) {
+        this.defaultChunkSizeSupplier = defaultChunkSizeSupplier;
+    }
+
+    /**
+     * 记录分块耗时
+     *
+     * @param chunkSize
+     * @param elapsedNanos
+     */
+    public synchronized void record(int chunkSize, long elapsedNanos) {
+        double elapsedMicros = elapsedNanos / 1000D;
+        sampleWeight = sampleWeight * DECAY + 1;
+        sumSize = sumSize * DECAY + chunkSize;
+        sumElapsed = sumElapsed * DECAY + elapsedMicros;
+        sumSizeSquare = sumSizeSquare * DECAY + (double) chunkSize * chunkSize;
+        sumSizeElapsed = sumSizeElapsed * DECAY + chunkSize * elapsedMicros;
+        chunkCount++;
+    }
+
+    /**
+     * 决定分块数
+     *
+     * @param size        总条数
+     * @param parallelism 线程池线程数
+     * @param activeCount 线程池正在执行任务的线程数
+     * @param queueSize   线程池排队任务数
+     * @return
+     */
+    public int chunkCount(int size, int parallelism, int activeCount, int queueSize) {
+        if (size <= 1) {
+            return 1;
+        }
+        //调用线程总会参与处理分块 计入可用线程
+        int workerCount = Math.max(parallelism - activeCount - queueSize, 0) + 1;
+        int maxChunkCountBySize = Math.max(size / getMinChunkSize(), 1);
+        return Math.min(Math.min(workerCount * CHUNK_PER_WORKER, maxChunkCountBySize), size);
+    }
+
+    /**
+     * 每块最少条数
+     *
+     * @return
+     */
+    public synchronized int getMinChunkSize() {
+        int defaultChunkSize = Math.max(defaultChunkSizeSupplier.getAsInt(), 1);
+        if (sampleWeight < MIN_SAMPLE_WEIGHT) {
+            return defaultChunkSize;
+        }
+        double meanSize = sumSize / sampleWeight;
+        double meanElapsed = sumElapsed / sampleWeight;
+        double sizeVariance = sumSizeSquare / sampleWeight - meanSize * meanSize;
+        if (sizeVariance < 1) {
+            return defaultChunkSize;
+        }
+        double perItemElapsed = (sumSizeElapsed / sampleWeight - meanSize * meanElapsed) / sizeVariance;
+        double overheadElapsed = meanElapsed - perItemElapsed * meanSize;
+        if (perItemElapsed <= 0) {
+            //耗时以往返开销为主时样本噪声会使斜率不为正 无法估算 按默认条数分块 不关闭并行
+            return defaultChunkSize;
+        }
+        if (overheadElapsed <= 0) {
+            return 1;
+        }
+        return (int) Math.min(Math.ceil(overheadElapsed / perItemElapsed), Integer.MAX_VALUE);
+    }
+
+    /**
+     * 获取估算信息
+     *
+     * @return
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chunkCount", chunkCount);
+        stats.put("minChunkSize", getMinChunkSize());
+        if (sampleWeight > 0) {
+            stats.put("avgChunkSize", sumSize / sampleWeight);
+            stats.put("avgChunkElapsed(ms)", sumElapsed / sampleWeight / TimeUnit.MILLISECONDS.toMicros(1));
+        }
+        return stats;
+    }
+}
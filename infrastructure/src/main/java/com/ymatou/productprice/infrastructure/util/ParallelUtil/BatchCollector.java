@@ -0,0 +1,190 @@
+package com.ymatou.productprice.infrastructure.util.ParallelUtil;
+
+import com.ymatou.productprice.infrastructure.util.RequestDeadline;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * 请求合并收集器
+ * 同一分组在maxWait毫秒内到达的请求合并为一次批量调用 合并的key达到maxBatchSize时立即发起
+ * 批次的第一个请求线程等待maxWait后在自己的线程中发起调用 达到maxBatchSize时由使批次满的请求线程发起 不使用额外的定时线程
+ * 调用时的请求截止时间(RequestDeadline)为批次内所有请求中最早的截止时间 两种发起方式的超时一致
+ * 请求不拆分 单批key数可能因最后加入的请求超过maxBatchSize
+ * 批量调用结果原样交给该批次的所有调用方 由调用方按自己的key读取
+ * Created by chenpengxuan on 2017/5/24.
+ *
+ * @param <G> 分组 不同分组不会合并
+ * @param <K> 合并的key
+ * @param <R> 批量调用结果
+ */
+public class BatchCollector<G, K, R> {
+
+    private final BiFunction<G, List<K>, R> batchLoader;
+
+    private final IntSupplier maxWaitSupplier;
+
+    private final IntSupplier maxBatchSizeSupplier;
+
+    private final ConcurrentMap<G, Batch> pendingBatchMap = new ConcurrentHashMap<>();
+
+    private final LongAdder requestCount = new LongAdder();
+
+    private final LongAdder keyCount = new LongAdder();
+
+    private final LongAdder batchCount = new LongAdder();
+
+    private final LongAdder batchKeyCount = new LongAdder();
+
+    private final LongAdder sizeFlushCount = new LongAdder();
+
+    /**
+     * @param maxWaitSupplier      最大等待时间(单位：毫秒)
+     * @param maxBatchSizeSupplier 单批最大key数
+     * @param batchLoader          批量调用 参数为分组与去重后的key列表
+     */
+    public BatchCollector(IntSupplier maxWaitSupplier,
+                          IntSupplier maxBatchSizeSupplier,
+                          BiFunction<G, List<K>, R> batchLoader) {
+        this.maxWaitSupplier = maxWaitSupplier;
+        this.maxBatchSizeSupplier = maxBatchSizeSupplier;
+        this.batchLoader = batchLoader;
+    }
+
+    /**
+     * 提交请求 返回所在批次的调用结果
+     * 批次的第一个请求会阻塞至多maxWait毫秒 之后在当前线程发起调用 返回时结果已完成
+     *
+     * @param group
+     * @param keyCollection
+     * @return
+     */
+    public CompletableFuture<R> submit(G group, Collection<K> keyCollection) {
+        requestCount.increment();
+        keyCount.add(keyCollection.size());
+        CompletableFuture<R> future = new CompletableFuture<>();
+        int maxBatchSize = Math.max(maxBatchSizeSupplier.getAsInt(), 1);
+
+        while (true) {
+            Batch batch = pendingBatchMap.computeIfAbsent(group, Batch::new);
+            synchronized (batch) {
+                if (batch.closed) {
+                    pendingBatchMap.remove(group, batch);
+                    continue;
+                }
+                boolean leader = batch.futureList.isEmpty();
+                batch.keySet.addAll(keyCollection);
+                batch.futureList.add(future);
+                Long deadline = RequestDeadline.get();
+                if (deadline != null && (batch.deadline == null || deadline - batch.deadline < 0)) {
+                    batch.deadline = deadline;
+                }
+                if (batch.keySet.size() < maxBatchSize) {
+                    if (!leader || !awaitClose(batch)) {
+                        return future;
+                    }
+                } else {
+                    //批次已满 由当前线程发起调用 当前线程本来也要等待该批次结果
+                    close(batch);
+                    sizeFlushCount.increment();
+                }
+            }
+            load(batch);
+            return future;
+        }
+    }
+
+    /**
+     * 获取合并统计信息
+     * requestPerBatch与keyPerBatch为平均每批合并的请求数与key数(保留两位小数)
+     *
+     * @return
+     */
+    public Map<String, Number> getStats() {
+        long tempBatchCount = batchCount.sum();
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("requestCount", requestCount.sum());
+        stats.put("keyCount", keyCount.sum());
+        stats.put("batchCount", tempBatchCount);
+        stats.put("sizeFlushCount", sizeFlushCount.sum());
+        stats.put("requestPerBatch", tempBatchCount > 0 ? Math.round(requestCount.sum() * 100.0 / tempBatchCount) / 100.0 : 0);
+        stats.put("keyPerBatch", tempBatchCount > 0 ? Math.round(batchKeyCount.sum() * 100.0 / tempBatchCount) / 100.0 : 0);
+        return stats;
+    }
+
+    /**
+     * 批次的第一个请求线程等待批次满或等待时间结束
+     * 需要持有批次锁
+     *
+     * @param batch
+     * @return 是否由当前线程发起调用 批次已被其他请求凑满时由该请求发起
+     */
+    private boolean awaitClose(Batch batch) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(maxWaitSupplier.getAsInt(), 0));
+        try {
+            long remaining;
+            while (!batch.closed && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(batch, remaining);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (batch.closed) {
+            return false;
+        }
+        close(batch);
+        return true;
+    }
+
+    /**
+     * 关闭批次 之后到达的请求进入新批次
+     * 需要持有批次锁
+     *
+     * @param batch
+     */
+    private void close(Batch batch) {
+        batch.closed = true;
+        pendingBatchMap.remove(batch.group, batch);
+        batch.notifyAll();
+    }
+
+    private void load(Batch batch) {
+        batchCount.increment();
+        batchKeyCount.add(batch.keySet.size());
+        Long callerDeadline = RequestDeadline.get();
+        RequestDeadline.set(batch.deadline);
+        try {
+            R result = batchLoader.apply(batch.group, new ArrayList<>(batch.keySet));
+            batch.futureList.forEach(x -> x.complete(result));
+        } catch (Throwable t) {
+            batch.futureList.forEach(x -> x.completeExceptionally(t));
+        } finally {
+            RequestDeadline.set(callerDeadline);
+        }
+    }
+
+    /**
+     * 合并批次
+     */
+    private class Batch {
+        private final G group;
+
+        private final Set<K> keySet = new LinkedHashSet<>();
+
+        private final List<CompletableFuture<R>> futureList = new ArrayList<>();
+
+        private boolean closed;
+
+        /**
+         * 批次内请求最早的截止时间 都未设置时为null
+         */
+        private Long deadline;
+
+        Batch(G group) {
+            this.group = group;
+        }
+    }
+}
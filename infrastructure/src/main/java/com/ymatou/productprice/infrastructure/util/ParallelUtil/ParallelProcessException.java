@@ -0,0 +1,22 @@
+package com.ymatou.productprice.infrastructure.util.ParallelUtil;
+
+/**
+ * 并行处理部分分块失败
+ * 携带成功分块的结果与失败分块的源数据
+ * Created by chenpengxuan on 2017/5/30.
+ */
+public class ParallelProcessException extends RuntimeException {
+
+    private final ParallelResult<?> parallelResult;
+
+    public ParallelProcessException(ParallelResult<?> parallelResult) {
+        super("并行处理失败 失败条数:" + parallelResult.getFailedSourceList().size()
+                        + " 超时:" + parallelResult.isTimedOut(),
+                parallelResult.getErrorList().isEmpty() ? null : parallelResult.getErrorList().get(0));
+        this.parallelResult = parallelResult;
+    }
+
+    public ParallelResult<?> getParallelResult() {
+        return parallelResult;
+    }
+}
@@ -2,19 +2,32 @@ package com.ymatou.productprice.infrastructure.util.ParallelUtil;
 
 import com.ymatou.productprice.infrastructure.config.props.BizProps;
 import com.ymatou.productprice.infrastructure.util.LogWrapper;
-import com.ymatou.productprice.infrastructure.util.Utils;
+import com.ymatou.productprice.infrastructure.util.RequestDeadline;
 import org.assertj.core.util.Lists;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 /**
  * 并行处理器
+ * 单例无状态 每次调用的分块、结果与截止时间都在调用内部 支持并发调用
+ * 线程池线程数按需增长到parallelMaxCount 空闲后回收 使用有界队列 线程与队列都满时不再提交 剩余分块由调用线程处理
+ * 调用线程与线程池一起领取分块 每个分块开始前检查截止时间 超时时调用线程最多多用正在处理的一个分块的时间
+ * 有请求截止时间时 截止时间取请求剩余时间与parallelTimeout的较小值 超时后未开始的分块不再执行 线程池中执行的分块被中断
+ * 没有请求截止时间的调用(定时任务 缓存加载等后台调用)不限制时间 执行到所有分块完成
+ * 分块失败或超时不再静默丢弃 通过ParallelResult返回失败分块的源数据
+ * VIRTUAL方式每个分块一个虚拟线程(运行在JDK21及以上时) 同时执行的分块数受parallelVirtualMaxCount限制
  * Created by chenpengxuan on 2017/3/15.
  */
 @Component
@@ -26,26 +39,89 @@ public class ParallelProcessor<T extends List, R extends List> {
     @Autowired
     private LogWrapper logWrapper;
 
-    private ParallelTask parallelTask;
-
     private ForkJoinPool forkJoinPool;
 
     private ThreadPoolExecutor threadPoolExecutor;
 
-    private ParallelTypeEnum parallelTypeEnum;
+    private ExecutorService virtualExecutor;
+
+    private boolean virtualThread;
+
+    private Semaphore virtualPermits;
+
+    private AdaptiveChunkPolicy adaptiveChunkPolicy;
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private final LongAdder failedChunkCount = new LongAdder();
 
     @PostConstruct
     private void init() {
-        forkJoinPool = new ForkJoinPool(bizProps.getParallelCount());
-        threadPoolExecutor = new ThreadPoolExecutor(bizProps.getParallelCount(),
-                bizProps.getParallelCount() * 100,
-                Long.MAX_VALUE,
+        int parallelCount = Math.max(bizProps.getParallelCount(), 1);
+        forkJoinPool = new ForkJoinPool(parallelCount);
+        AtomicInteger threadNumber = new AtomicInteger();
+        //核心线程数即最大线程数 空闲超时回收 否则队列满之前不会创建超过核心数的线程
+        int maxCount = Math.max(bizProps.getParallelMaxCount(), parallelCount);
+        threadPoolExecutor = new ThreadPoolExecutor(maxCount,
+                maxCount,
+                60L,
                 TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>());
+                new ArrayBlockingQueue<>(Math.max(bizProps.getParallelQueueSize(), 1)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "parallel-processor-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        adaptiveChunkPolicy = new AdaptiveChunkPolicy(() -> bizProps.getParallelThresHoldCount());
+
+        int virtualMaxCount = Math.max(bizProps.getParallelVirtualMaxCount(), 1);
+        virtualPermits = new Semaphore(virtualMaxCount);
+        virtualExecutor = newVirtualThreadExecutor();
+        virtualThread = virtualExecutor != null;
+        if (!virtualThread) {
+            AtomicInteger virtualThreadNumber = new AtomicInteger();
+            virtualExecutor = new ThreadPoolExecutor(0,
+                    virtualMaxCount,
+                    60L,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "parallel-virtual-" + virtualThreadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器(Executors.newVirtualThreadPerTaskExecutor) 运行时JDK不支持时返回null
+     *
+     * @return
+     */
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            logWrapper.recordInfoLog("运行时不支持虚拟线程,VIRTUAL方式使用平台线程{}", e.toString());
+            return null;
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        threadPoolExecutor.shutdownNow();
+        forkJoinPool.shutdownNow();
+        virtualExecutor.shutdownNow();
     }
 
     /**
      * 并行操作方法
+     * 有分块失败或超时时抛出ParallelProcessException 异常中携带成功分块的结果与失败分块的源数据
      *
      * @param sourceList
      * @param func
@@ -53,43 +129,312 @@ public class ParallelProcessor<T extends List, R extends List> {
      * @return
      */
     public R doParallelProcess(T sourceList, Function<T, R> func, ParallelTypeEnum parallelType) {
+        ParallelResult<R> parallelResult = process(sourceList, func, parallelType);
+        if (!parallelResult.isComplete()) {
+            ParallelProcessException exception = new ParallelProcessException(parallelResult);
+            logWrapper.recordErrorLog("并行操作方法_doParallelProcess发生异常{}", exception.getLocalizedMessage(), exception);
+            throw exception;
+        }
+        return parallelResult.getResult();
+    }
+
+    /**
+     * 并行操作方法
+     *
+     * @param sourceList
+     * @param func
+     * @return
+     */
+    public R doParallelProcess(T sourceList, Function<T, R> func) {
+        return doParallelProcess(sourceList, func, getParallelType());
+    }
+
+    /**
+     * 并行操作方法 返回成功分块的结果与失败分块的源数据 由调用方决定如何处理部分失败
+     *
+     * @param sourceList
+     * @param func
+     * @param parallelType
+     * @return
+     */
+    public ParallelResult<R> process(T sourceList, Function<T, R> func, ParallelTypeEnum parallelType) {
+        int size = sourceList.size();
+        if (size == 0) {
+            return new ParallelResult<>((R) new ArrayList(), null, null, false);
+        }
+        long timeoutNanos = getTimeoutNanos();
+        int thresHoldCount = Math.max(bizProps.getParallelThresHoldCount(), 1);
         switch (parallelType) {
             case FORKJOIN:
-                parallelTask = new ParallelTask(sourceList, func, bizProps.getParallelThresHoldCount());
-                return (R) forkJoinPool.invoke(parallelTask);
+                return doForkJoinProcess(sourceList, func, timeoutNanos);
             case THREADPOOL:
-                R result = (R) Lists.newArrayList();
-                List<Future> futureList = Lists.newArrayList();
-                List<List<T>> lists = Utils.splitCollectionToCollectionList(sourceList, bizProps.getParallelThresHoldCount());
-                lists.stream().forEach(x -> {
-                    Future tempFuture = threadPoolExecutor.submit(new ThreadPoolTask(x, func));
-                    futureList.add(tempFuture);
-                });
-                futureList.stream().forEach(r -> {
-                    try {
-                        result.addAll((R) r.get());
-                    } catch (InterruptedException e) {
-                        logWrapper.recordErrorLog("并行操作方法_doParallelProcess发生线程中断异常{}", e.getLocalizedMessage(), e);
-                    } catch (ExecutionException e) {
-                        logWrapper.recordErrorLog("并行操作方法_doParallelProcess发生异常{}", e.getLocalizedMessage(), e);
-                    }
-                });
-                return result;
+                return doChunkProcess(sourceList, func, (size + thresHoldCount - 1) / thresHoldCount, timeoutNanos,
+                        threadPoolExecutor, false);
+            case ADAPTIVE:
+                int chunkCount = adaptiveChunkPolicy.chunkCount(size,
+                        threadPoolExecutor.getCorePoolSize(),
+                        threadPoolExecutor.getActiveCount(),
+                        threadPoolExecutor.getQueue().size());
+                return doChunkProcess(sourceList, func, chunkCount, timeoutNanos, threadPoolExecutor, false);
+            case VIRTUAL:
+                return doChunkProcess(sourceList, withVirtualPermit(func, timeoutNanos), (size + thresHoldCount - 1) / thresHoldCount,
+                        timeoutNanos, virtualExecutor, true);
             default:
-                return null;
+                throw new IllegalArgumentException("不支持的并行处理方式:" + parallelType);
         }
     }
 
     /**
-     * 并行操作方法
+     * forkjoin并行处理 失败或超时时整个源列表作为失败数据
      *
      * @param sourceList
      * @param func
+     * @param timeoutNanos
      * @return
      */
-    public R doParallelProcess(T sourceList, Function<T, R> func) {
-        parallelTypeEnum = Optional.ofNullable(parallelTypeEnum).orElse(ParallelTypeEnum.THREADPOOL);
-        return doParallelProcess(sourceList,func,parallelTypeEnum);
+    private ParallelResult<R> doForkJoinProcess(T sourceList, Function<T, R> func, long timeoutNanos) {
+        ForkJoinTask<R> task = forkJoinPool.submit(new ParallelTask<T, R>(sourceList, func, bizProps.getParallelThresHoldCount()));
+        try {
+            R result = timeoutNanos > 0 ? task.get(timeoutNanos, TimeUnit.NANOSECONDS) : task.get();
+            return new ParallelResult<>(result, null, null, false);
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            timeoutCount.increment();
+            return new ParallelResult<>((R) new ArrayList(), sourceList, null, true);
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            return new ParallelResult<>((R) new ArrayList(), sourceList, Collections.singletonList(e), false);
+        } catch (ExecutionException e) {
+            failedChunkCount.increment();
+            return new ParallelResult<>((R) new ArrayList(), sourceList, Collections.singletonList(e.getCause()), false);
+        }
+    }
+
+    /**
+     * 分块并行处理
+     * 分块为原列表的子列表视图 线程池任务与调用线程按顺序领取分块 线程池拒绝时由调用线程处理剩余分块
+     * 线程池繁忙时分块也不会全部排队等待 调用线程至少能处理自己领取的分块
+     * 超时后停止领取分块并中断线程池中执行的分块 未完成的分块作为失败数据
+     * 结果按分块顺序合并
+     *
+     * @param sourceList
+     * @param func
+     * @param chunkCount
+     * @param timeoutNanos
+     * @param executor
+     * @param waitOnly     调用线程是否只等待(每个分块提交一个任务 线程池拒绝时调用线程才参与处理)
+     * @return
+     */
+    private ParallelResult<R> doChunkProcess(T sourceList, Function<T, R> func, int chunkCount, long timeoutNanos,
+                                             ExecutorService executor, boolean waitOnly) {
+        int size = sourceList.size();
+        chunkCount = Math.max(Math.min(chunkCount, size), 1);
+        long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0L;
+        Long requestDeadline = RequestDeadline.get();
+
+        AtomicReferenceArray<List> chunkResults = new AtomicReferenceArray<>(chunkCount);
+        AtomicReferenceArray<Throwable> chunkErrors = new AtomicReferenceArray<>(chunkCount);
+        AtomicInteger nextChunk = new AtomicInteger();
+        CountDownLatch doneLatch = new CountDownLatch(chunkCount);
+        int totalChunkCount = chunkCount;
+        //只有线程池分块的耗时用于自适应分块估算
+        boolean recordElapsed = executor == threadPoolExecutor;
+        Runnable chunkWorker = () -> {
+            int chunkIndex;
+            while ((deadline == 0L || System.nanoTime() < deadline)
+                    && (chunkIndex = nextChunk.getAndIncrement()) < totalChunkCount) {
+                try {
+                    R chunkResult = processChunk(getChunk(sourceList, chunkIndex, totalChunkCount), func, recordElapsed);
+                    chunkResults.set(chunkIndex, chunkResult != null ? chunkResult : Collections.emptyList());
+                } catch (Throwable e) {
+                    chunkErrors.set(chunkIndex, e);
+                } finally {
+                    doneLatch.countDown();
+                }
+            }
+        };
+
+        //调用线程参与领取分块 每个分块开始前检查截止时间 VIRTUAL方式每个分块一个任务 线程池拒绝时调用线程才参与处理
+        boolean callerJoins = !waitOnly;
+        int helperCount = callerJoins ? chunkCount - 1 : chunkCount;
+        boolean rejected = false;
+        List<Future<?>> futureList = new ArrayList<>(helperCount);
+        for (int i = 0; i < helperCount; i++) {
+            try {
+                futureList.add(executor.submit(() -> runWithDeadline(requestDeadline, chunkWorker)));
+            } catch (RejectedExecutionException e) {
+                rejectedCount.increment();
+                rejected = true;
+                break;
+            }
+        }
+        if (callerJoins || rejected) {
+            chunkWorker.run();
+        }
+
+        boolean timedOut = false;
+        List<Throwable> errorList = new ArrayList<>();
+        try {
+            if (deadline == 0L) {
+                doneLatch.await();
+            } else {
+                timedOut = !doneLatch.await(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errorList.add(e);
+        }
+        if (doneLatch.getCount() > 0) {
+            nextChunk.set(totalChunkCount);
+            futureList.forEach(x -> x.cancel(true));
+            if (timedOut) {
+                timeoutCount.increment();
+            }
+        }
+
+        int resultSize = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            List chunkResult = chunkResults.get(i);
+            resultSize += chunkResult != null ? chunkResult.size() : 0;
+        }
+        R result = (R) new ArrayList(resultSize);
+        List failedSourceList = new ArrayList();
+        for (int i = 0; i < chunkCount; i++) {
+            List chunkResult = chunkResults.get(i);
+            if (chunkResult != null) {
+                result.addAll(chunkResult);
+            } else {
+                failedChunkCount.increment();
+                failedSourceList.addAll(getChunk(sourceList, i, chunkCount));
+                Throwable chunkError = chunkErrors.get(i);
+                if (chunkError != null) {
+                    errorList.add(chunkError);
+                }
+            }
+        }
+        return new ParallelResult<>(result, failedSourceList, errorList, timedOut);
+    }
+
+    /**
+     * 获取第chunkIndex个分块 各分块条数相差不超过1
+     *
+     * @param sourceList
+     * @param chunkIndex
+     * @param chunkCount
+     * @return
+     */
+    private T getChunk(T sourceList, int chunkIndex, int chunkCount) {
+        int size = sourceList.size();
+        int fromIndex = (int) ((long) size * chunkIndex / chunkCount);
+        int toIndex = (int) ((long) size * (chunkIndex + 1) / chunkCount);
+        return (T) sourceList.subList(fromIndex, toIndex);
+    }
+
+    /**
+     * 分块执行前获取虚拟线程许可 限制同时执行的分块数(mongo连接池等待队列有上限) 截止时间前获取不到时分块失败
+     *
+     * @param func
+     * @param timeoutNanos
+     * @return
+     */
+    private Function<T, R> withVirtualPermit(Function<T, R> func, long timeoutNanos) {
+        long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0L;
+        return chunk -> {
+            try {
+                if (deadline == 0L) {
+                    virtualPermits.acquire();
+                } else if (!virtualPermits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    rejectedCount.increment();
+                    throw new RejectedExecutionException("并行处理等待虚拟线程许可超时");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("并行处理等待虚拟线程许可被中断", e);
+            }
+            try {
+                return func.apply(chunk);
+            } finally {
+                virtualPermits.release();
+            }
+        };
+    }
+
+    /**
+     * 线程池中执行时沿用调用线程的请求截止时间
+     *
+     * @param deadline
+     * @param runnable
+     */
+    private void runWithDeadline(Long deadline, Runnable runnable) {
+        RequestDeadline.set(deadline);
+        try {
+            runnable.run();
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+
+    /**
+     * 处理单个分块并记录耗时
+     *
+     * @param chunk
+     * @param func
+     * @param recordElapsed
+     * @return
+     */
+    private R processChunk(T chunk, Function<T, R> func, boolean recordElapsed) {
+        long startTime = System.nanoTime();
+        R result = func.apply(chunk);
+        if (recordElapsed) {
+            adaptiveChunkPolicy.record(chunk.size(), System.nanoTime() - startTime);
+        }
+        return result;
+    }
+
+    /**
+     * 单次调用超时时间 取请求剩余时间与parallelTimeout的较小值 没有请求截止时间时不限制
+     *
+     * @return 单位：纳秒 0表示不限制
+     */
+    private long getTimeoutNanos() {
+        if (RequestDeadline.get() == null) {
+            return 0L;
+        }
+        long timeout = bizProps.getParallelTimeout() > 0 ? bizProps.getParallelTimeout() : Long.MAX_VALUE;
+        timeout = Math.min(timeout, RequestDeadline.remainingMillis());
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(timeout, 1L));
+    }
+
+    /**
+     * 获取默认并行处理方式 未配置或配置错误时使用线程池
+     *
+     * @return
+     */
+    private ParallelTypeEnum getParallelType() {
+        try {
+            return ParallelTypeEnum.valueOf(bizProps.getParallelType());
+        } catch (Exception e) {
+            return ParallelTypeEnum.THREADPOOL;
+        }
+    }
+
+    /**
+     * 获取自适应分块、线程池与拒绝、超时、失败分块统计信息
+     *
+     * @return
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = adaptiveChunkPolicy.getStats();
+        stats.put("poolSize", threadPoolExecutor.getPoolSize());
+        stats.put("activeCount", threadPoolExecutor.getActiveCount());
+        stats.put("queueSize", threadPoolExecutor.getQueue().size());
+        stats.put("rejectedCount", rejectedCount.sum());
+        stats.put("timeoutCount", timeoutCount.sum());
+        stats.put("failedChunkCount", failedChunkCount.sum());
+        stats.put("virtualThread", virtualThread);
+        stats.put("virtualInFlight", Math.max(bizProps.getParallelVirtualMaxCount(), 1) - virtualPermits.availablePermits());
+        return stats;
     }
 }
 
@@ -117,9 +462,9 @@ class ParallelTask<T extends List, R extends List> extends RecursiveTask<R> {
             result = processFunc.apply(sourceCollection);
         } else {
             int mid = sourceCollection.size() >>> 1;
-            List<List> subLists = Utils.splitCollectionToTwoList(sourceCollection, mid);
-            ParallelTask left = new ParallelTask(subLists.get(0), processFunc, this.parallelTaskThresholdNum);
-            ParallelTask right = new ParallelTask(subLists.get(1), processFunc, this.parallelTaskThresholdNum);
+            //子列表视图 拆分时不复制
+            ParallelTask left = new ParallelTask(sourceCollection.subList(0, mid), processFunc, this.parallelTaskThresholdNum);
+            ParallelTask right = new ParallelTask(sourceCollection.subList(mid, sourceCollection.size()), processFunc, this.parallelTaskThresholdNum);
             left.fork();
             right.fork();
             result.addAll((R) left.join());
@@ -128,27 +473,3 @@ class ParallelTask<T extends List, R extends List> extends RecursiveTask<R> {
         return result;
     }
 }
-
-/**
- * 线程任务
- *
- * @param <T>
- * @param <R>
- */
-class ThreadPoolTask<T extends List, R extends List> implements Callable<R> {
-
-    private T sourceCollection;
-    private Function<T, R> processFunc;
-
-    public ThreadPoolTask(T sourceCollection, Function<T, R> processFunc) {
-        this.sourceCollection = sourceCollection;
-        this.processFunc = processFunc;
-    }
-
-    @Override
-    public R call() throws Exception {
-        return processFunc.apply(this.sourceCollection);
-    }
-}
-
-
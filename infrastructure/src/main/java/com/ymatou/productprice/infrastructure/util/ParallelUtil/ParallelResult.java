@@ -0,0 +1,72 @@
+package com.ymatou.productprice.infrastructure.util.ParallelUtil;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 并行处理结果
+ * 包含成功分块的合并结果与失败(异常、超时或未执行)分块的源数据
+ * Created by chenpengxuan on 2017/5/30.
+ */
+public class ParallelResult<R extends List> {
+
+    private final R result;
+
+    private final List failedSourceList;
+
+    private final List<Throwable> errorList;
+
+    private final boolean timedOut;
+
+    public ParallelResult(R result, List failedSourceList, List<Throwable> errorList, boolean timedOut) {
+        this.result = result;
+        this.failedSourceList = failedSourceList != null ? failedSourceList : Collections.emptyList();
+        this.errorList = errorList != null ? errorList : Collections.emptyList();
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * 成功分块的合并结果 按分块顺序
+     *
+     * @return
+     */
+    public R getResult() {
+        return result;
+    }
+
+    /**
+     * 失败分块的源数据
+     *
+     * @return
+     */
+    public List getFailedSourceList() {
+        return failedSourceList;
+    }
+
+    /**
+     * 分块异常
+     *
+     * @return
+     */
+    public List<Throwable> getErrorList() {
+        return errorList;
+    }
+
+    /**
+     * 是否超过截止时间
+     *
+     * @return
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * 所有分块是否都处理成功
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return failedSourceList.isEmpty() && !timedOut;
+    }
+}
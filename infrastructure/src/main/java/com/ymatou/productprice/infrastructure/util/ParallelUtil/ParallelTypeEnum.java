@@ -12,5 +12,15 @@ public enum  ParallelTypeEnum {
     /**
      * 线程池
      */
-    THREADPOOL
+    THREADPOOL,
+
+    /**
+     * 自适应分块 按子列表视图分块 由线程池与调用线程共同领取分块
+     */
+    ADAPTIVE,
+
+    /**
+     * 虚拟线程 每个分块一个虚拟线程 运行时JDK不支持虚拟线程时使用按需创建的平台线程
+     */
+    VIRTUAL
 }
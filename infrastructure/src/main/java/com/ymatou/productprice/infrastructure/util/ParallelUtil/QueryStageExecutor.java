@@ -0,0 +1,186 @@
+package com.ymatou.productprice.infrastructure.util.ParallelUtil;
+
+import com.ymatou.performancemonitorclient.PerformanceStatisticContainer;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.constants.Constants;
+import com.ymatou.productprice.infrastructure.util.RequestDeadline;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 查询阶段执行器
+ * 价格查询中互不依赖的阶段(时间戳 规格 活动商品 多物流 用户行为)提交到有界线程池并行执行
+ * 默认不排队(队列长度为0时直接移交给空闲线程) 没有空闲线程时由请求线程自己执行 避免阶段排在其他请求的阶段之后增加耗时
+ * 队列长度不超过线程数 关闭useParallelQueryStage时所有阶段在请求线程顺序执行
+ * 每个阶段记录调用次数 总耗时 最大耗时 并上报性能监控
+ * 阶段执行时沿用提交时的MDC与请求截止时间 执行完恢复执行线程原有的值(请求线程自己执行时不会清空请求的上下文)
+ * Created by chenpengxuan on 2017/5/22.
+ */
+@Component
+public class QueryStageExecutor {
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    @Autowired
+    private BizProps bizProps;
+
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private final ConcurrentMap<String, StageStats> stageStatsMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(bizProps.getQueryStageThreadCount());
+        taskExecutor.setMaxPoolSize(bizProps.getQueryStageThreadCount());
+        //队列长度为0时使用SynchronousQueue
+        taskExecutor.setQueueCapacity(Math.min(bizProps.getQueryStageQueueSize(), bizProps.getQueryStageThreadCount()));
+        taskExecutor.setThreadNamePrefix("price-query-stage-");
+        taskExecutor.setDaemon(true);
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        taskExecutor.initialize();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        taskExecutor.shutdown();
+    }
+
+    /**
+     * 阶段使用的执行器
+     *
+     * @return
+     */
+    public Executor getExecutor() {
+        return bizProps.isUseParallelQueryStage() ? taskExecutor : DIRECT_EXECUTOR;
+    }
+
+    /**
+     * 提交无前置依赖的阶段
+     *
+     * @param stageName
+     * @param supplier
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> supplyAsync(String stageName, Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(withContext(MDC.getCopyOfContextMap(), RequestDeadline.get(), timed(stageName, supplier)), getExecutor());
+    }
+
+    /**
+     * 前置阶段完成后执行
+     *
+     * @param stageName
+     * @param previousStage
+     * @param function
+     * @param <T>
+     * @param <R>
+     * @return
+     */
+    public <T, R> CompletableFuture<R> thenApplyAsync(String stageName, CompletableFuture<T> previousStage, Function<T, R> function) {
+        Map<String, String> contextMap = MDC.getCopyOfContextMap();
+        Long deadline = RequestDeadline.get();
+        return previousStage.thenApplyAsync(x -> withContext(contextMap, deadline, timed(stageName, () -> function.apply(x))).get(), getExecutor());
+    }
+
+    /**
+     * 记录已经发起的异步操作(例如异步仓储查询)的耗时
+     *
+     * @param stageName
+     * @param future
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> timed(String stageName, CompletableFuture<T> future) {
+        long startTime = System.nanoTime();
+        return future.whenComplete((x, ex) -> getStageStats(stageName).record(System.nanoTime() - startTime));
+    }
+
+    /**
+     * 获取各阶段统计信息 耗时单位微秒
+     *
+     * @return
+     */
+    public Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> result = new TreeMap<>();
+        stageStatsMap.forEach((x, y) -> result.put(x, y.toMap()));
+        return result;
+    }
+
+    private <T> Supplier<T> timed(String stageName, Supplier<T> supplier) {
+        return () -> {
+            long startTime = System.nanoTime();
+            try {
+                return PerformanceStatisticContainer.addWithReturn(supplier, "PriceQueryStage_" + stageName, Constants.APP_ID);
+            } finally {
+                getStageStats(stageName).record(System.nanoTime() - startTime);
+            }
+        };
+    }
+
+    private <T> Supplier<T> withContext(Map<String, String> contextMap, Long deadline, Supplier<T> supplier) {
+        return () -> {
+            Map<String, String> previousContextMap = MDC.getCopyOfContextMap();
+            Long previousDeadline = RequestDeadline.get();
+            setContextMap(contextMap);
+            RequestDeadline.set(deadline);
+            try {
+                return supplier.get();
+            } finally {
+                setContextMap(previousContextMap);
+                RequestDeadline.set(previousDeadline);
+            }
+        };
+    }
+
+    private void setContextMap(Map<String, String> contextMap) {
+        if (contextMap != null) {
+            MDC.setContextMap(contextMap);
+        } else {
+            MDC.clear();
+        }
+    }
+
+    private StageStats getStageStats(String stageName) {
+        return stageStatsMap.computeIfAbsent(stageName, x -> new StageStats());
+    }
+
+    /**
+     * 阶段统计
+     */
+    private static class StageStats {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0L);
+
+        void record(long elapsedNanos) {
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+        }
+
+        Map<String, Long> toMap() {
+            long tempCount = count.sum();
+            Map<String, Long> result = new LinkedHashMap<>();
+            result.put("count", tempCount);
+            result.put("avgMicros", tempCount > 0 ? TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / tempCount) : 0L);
+            result.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+            return result;
+        }
+    }
+}
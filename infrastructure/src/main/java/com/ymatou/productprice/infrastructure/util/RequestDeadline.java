@@ -0,0 +1,65 @@
+package com.ymatou.productprice.infrastructure.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求截止时间
+ * 请求入口按时间预算设置 下游依赖调用按剩余时间决定超时 查询阶段线程池沿用提交线程的截止时间
+ * Created by chenpengxuan on 2017/5/25.
+ */
+public class RequestDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    /**
+     * 按时间预算设置当前请求的截止时间
+     *
+     * @param budgetMillis 时间预算(单位：毫秒) 小于等于0表示不限制
+     */
+    public static void start(long budgetMillis) {
+        if (budgetMillis > 0) {
+            DEADLINE.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+        } else {
+            DEADLINE.remove();
+        }
+    }
+
+    /**
+     * 获取截止时间(System.nanoTime) 未设置时返回null
+     *
+     * @return
+     */
+    public static Long get() {
+        return DEADLINE.get();
+    }
+
+    /**
+     * 设置截止时间 用于在其他线程沿用请求的截止时间
+     *
+     * @param deadline
+     */
+    public static void set(Long deadline) {
+        if (deadline != null) {
+            DEADLINE.set(deadline);
+        } else {
+            DEADLINE.remove();
+        }
+    }
+
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * 剩余时间 未设置截止时间时返回Long.MAX_VALUE
+     *
+     * @return 单位：毫秒
+     */
+    public static long remainingMillis() {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+}
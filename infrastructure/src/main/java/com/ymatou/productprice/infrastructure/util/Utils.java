@@ -16,7 +16,6 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.sql.Timestamp;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Created by zhangyifan on 2016/12/14.
@@ -135,7 +134,8 @@ public class Utils {
         List<List<T>> resultCollection = new ArrayList<>();
 
         for (int i = 0; i < splitTimes; i++) {
-            List<T> subObjectList = objectList.stream().skip(splitLimitNum * i).limit(splitLimitNum).collect(Collectors.toList());
+            List<T> subObjectList = new ArrayList<>(objectList.subList(splitLimitNum * i,
+                    Math.min(splitLimitNum * (i + 1), objectList.size())));
             resultCollection.add(subObjectList);
         }
 
@@ -159,8 +159,8 @@ public class Utils {
         objectList = optional(objectList, Collections.emptyList());
 
         List<List<T>> resultCollection = new ArrayList<>();
-        List<T> sub1ObjectList = objectList.stream().skip(0).limit(splitLimitNum).collect(Collectors.toList());
-        List<T> sub2ObjectList = objectList.stream().skip(splitLimitNum).limit(objectList.size() - splitLimitNum).collect(Collectors.toList());
+        List<T> sub1ObjectList = new ArrayList<>(objectList.subList(0, splitLimitNum));
+        List<T> sub2ObjectList = new ArrayList<>(objectList.subList(splitLimitNum, objectList.size()));
         resultCollection.add(sub1ObjectList);
         resultCollection.add(sub2ObjectList);
 
@@ -0,0 +1,216 @@
+package com.ymatou.productprice.intergration.cache;
+
+import com.google.common.cache.CacheBuilder;
+import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.intergration.client.UserBehaviorAnalysisService;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics.SellerOrderStatistics;
+import com.ymatou.useranalysis.facade.model.resp.GetBuyerFirstOrderInfoResp;
+import com.ymatou.useranalysis.facade.model.resp.GetBuyerOrderStatisticsResp;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 用户行为短时缓存
+ * (buyerId, sellerId) -> 是否有确认订单/是否无订单或全部取消  buyerId -> 是否码头新客
+ * 只向用户行为服务查询缓存中缺少的买手 服务异常或返回值不正确时不缓存
+ * 缓存按买家淘汰 同一买家下后加入的买手随买家一起过期 过期时间即用户行为数据最大延迟
+ * Created by chenpengxuan on 2017/5/23.
+ */
+@Component
+public class UserBehaviorCache {
+
+    @Autowired
+    private CacheProps cacheProps;
+
+    @Autowired
+    private UserBehaviorAnalysisService userBehaviorAnalysisService;
+
+    private com.google.common.cache.Cache<Long, ConcurrentMap<Long, SellerOrderStatistics>> sellerStatisticsCache;
+
+    private com.google.common.cache.Cache<Long, Boolean> newCustomerCache;
+
+    private final LongAdder sellerHitCount = new LongAdder();
+
+    private final LongAdder sellerMissCount = new LongAdder();
+
+    private final LongAdder buyerBehaviorCallCount = new LongAdder();
+
+    private final LongAdder newCustomerHitCount = new LongAdder();
+
+    private final LongAdder newCustomerCallCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        sellerStatisticsCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(cacheProps.getUserBehaviorCacheSize(), 1))
+                .expireAfterWrite(Math.max(cacheProps.getUserBehaviorCacheExpireTime(), 1), TimeUnit.MILLISECONDS)
+                .build();
+        newCustomerCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(cacheProps.getUserBehaviorCacheSize(), 1))
+                .expireAfterWrite(Math.max(cacheProps.getUserBehaviorCacheExpireTime(), 1), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 获取买家在各买手下的订单统计
+     * 用户行为服务未返回的买手不在结果中
+     *
+     * @param sellerIdList
+     * @param buyerId
+     * @return 买家未登录时返回null
+     */
+    public BuyerOrderStatistics getBuyerOrderStatistics(List<Long> sellerIdList, int buyerId) {
+        if (buyerId <= 0) {
+            return null;
+        }
+        Set<Long> sellerIdSet = sellerIdList.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Long, SellerOrderStatistics> result = new HashMap<>(sellerIdSet.size() * 2);
+
+        if (!cacheProps.isUseUserBehaviorCache()) {
+            fetchBuyerOrderStatistics(sellerIdSet, buyerId, result);
+            return new BuyerOrderStatistics(result);
+        }
+
+        //先取得当前买家的缓存 查询期间买家被失效时 结果写入已失效的缓存 不会覆盖失效后的数据
+        ConcurrentMap<Long, SellerOrderStatistics> cachedMap;
+        try {
+            cachedMap = sellerStatisticsCache.get((long) buyerId, ConcurrentHashMap::new);
+        } catch (ExecutionException ex) {
+            cachedMap = new ConcurrentHashMap<>();
+        }
+
+        List<Long> missSellerIdList = new ArrayList<>();
+        for (Long sellerId : sellerIdSet) {
+            SellerOrderStatistics sellerOrderStatistics = cachedMap.get(sellerId);
+            if (sellerOrderStatistics != null) {
+                result.put(sellerId, sellerOrderStatistics);
+            } else {
+                missSellerIdList.add(sellerId);
+            }
+        }
+        sellerHitCount.add(sellerIdSet.size() - missSellerIdList.size());
+        sellerMissCount.add(missSellerIdList.size());
+
+        if (!missSellerIdList.isEmpty()) {
+            Map<Long, SellerOrderStatistics> fetchedMap = new HashMap<>(missSellerIdList.size() * 2);
+            if (fetchBuyerOrderStatistics(missSellerIdList, buyerId, fetchedMap)) {
+                cachedMap.putAll(fetchedMap);
+            }
+            result.putAll(fetchedMap);
+        }
+        return new BuyerOrderStatistics(result);
+    }
+
+    /**
+     * 检查买家是否为码头新客
+     *
+     * @param buyerId
+     * @return
+     */
+    public boolean isNewCustomer(long buyerId) {
+        if (cacheProps.isUseUserBehaviorCache()) {
+            Boolean isNewCustomer = newCustomerCache.getIfPresent(buyerId);
+            if (isNewCustomer != null) {
+                newCustomerHitCount.increment();
+                return isNewCustomer;
+            }
+        }
+
+        newCustomerCallCount.increment();
+        GetBuyerFirstOrderInfoResp resp = userBehaviorAnalysisService.getBuyerFirstOrderInfo(buyerId);
+        if (resp == null
+                || resp.getFirstOrderInfos() == null
+                || resp.getFirstOrderInfos().get(buyerId) == null) {
+            return false;
+        }
+        boolean isNewCustomer = resp.getFirstOrderInfos().get(buyerId).isNewCustomer();
+        if (cacheProps.isUseUserBehaviorCache()) {
+            newCustomerCache.put(buyerId, isNewCustomer);
+        }
+        return isNewCustomer;
+    }
+
+    /**
+     * 买家下单 取消订单等行为发生变化时失效该买家的缓存
+     *
+     * @param buyerId
+     */
+    public void invalidate(long buyerId) {
+        sellerStatisticsCache.invalidate(buyerId);
+        newCustomerCache.invalidate(buyerId);
+    }
+
+    /**
+     * 失效买家在指定买手下的缓存
+     *
+     * @param buyerId
+     * @param sellerId
+     */
+    public void invalidate(long buyerId, long sellerId) {
+        ConcurrentMap<Long, SellerOrderStatistics> cachedMap = sellerStatisticsCache.getIfPresent(buyerId);
+        if (cachedMap != null) {
+            cachedMap.remove(sellerId);
+        }
+        newCustomerCache.invalidate(buyerId);
+    }
+
+    /**
+     * 失效全部缓存
+     */
+    public void invalidateAll() {
+        sellerStatisticsCache.invalidateAll();
+        newCustomerCache.invalidateAll();
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("buyerSize", sellerStatisticsCache.size());
+        stats.put("sellerHitCount", sellerHitCount.sum());
+        stats.put("sellerMissCount", sellerMissCount.sum());
+        stats.put("buyerBehaviorCallCount", buyerBehaviorCallCount.sum());
+        stats.put("newCustomerSize", newCustomerCache.size());
+        stats.put("newCustomerHitCount", newCustomerHitCount.sum());
+        stats.put("newCustomerCallCount", newCustomerCallCount.sum());
+        return stats;
+    }
+
+    /**
+     * 调用用户行为服务查询买手订单统计
+     * 服务正常返回但不包含的买手按没有订单统计处理(与未缓存时价格逻辑一致)
+     *
+     * @param sellerIdCollection
+     * @param buyerId
+     * @param result
+     * @return 服务是否正常返回
+     */
+    private boolean fetchBuyerOrderStatistics(Collection<Long> sellerIdCollection, int buyerId, Map<Long, SellerOrderStatistics> result) {
+        if (sellerIdCollection.isEmpty()) {
+            return true;
+        }
+        buyerBehaviorCallCount.increment();
+        GetBuyerOrderStatisticsResp resp = userBehaviorAnalysisService.getBuyerBehavior(new ArrayList<>(sellerIdCollection), buyerId);
+        if (resp == null || resp.getFromSeller() == null) {
+            return false;
+        }
+        sellerIdCollection.forEach(sellerId -> result.put(sellerId,
+                Optional.ofNullable(resp.getFromSeller().get(sellerId))
+                        .map(x -> new SellerOrderStatistics(x.isHasConfirmedOrders(), x.isNoOrdersOrAllCancelled()))
+                        .orElse(SellerOrderStatistics.NONE)));
+        return true;
+    }
+}
@@ -2,27 +2,44 @@ package com.ymatou.productprice.intergration.client;
 
 import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Lists;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.util.CircuitBreaker;
 import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.BatchCollector;
+import com.ymatou.productprice.infrastructure.util.RequestDeadline;
 import com.ymatou.useranalysis.facade.BuyerFirstOrderFacade;
 import com.ymatou.useranalysis.facade.BuyerOrderStatisticsFacade;
 import com.ymatou.useranalysis.facade.model.req.GetBuyerFirstOrderInfoReq;
 import com.ymatou.useranalysis.facade.model.req.GetBuyerOrderStatisticsReq;
 import com.ymatou.useranalysis.facade.model.resp.GetBuyerFirstOrderInfoResp;
 import com.ymatou.useranalysis.facade.model.resp.GetBuyerOrderStatisticsResp;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 用户行为服务
+ * 开启useUserBehaviorBatch时 短时间内同一买家的买手查询合并为一次调用 不同买家的首单查询合并为一次调用
+ * 调用在独立的有界线程池中执行 等待时间不超过userBehaviorTimeout与请求剩余时间(合并调用为批次内最早的截止时间) 线程池满 超时 熔断时不调用直接返回null
+ * 返回null时价格逻辑不使用vip价与新客价
  * Created by chenpengxuan on 2017/3/7.
  */
 @Component
 public class UserBehaviorAnalysisService {
 
+    /**
+     * 首单查询不区分买家 所有请求在同一分组内合并
+     */
+    private static final String FIRST_ORDER_INFO_GROUP = "buyer";
+
     @Resource
     private BuyerOrderStatisticsFacade buyerOrderStatisticsFacade;
 
@@ -32,8 +49,65 @@ public class UserBehaviorAnalysisService {
     @Autowired
     private LogWrapper logWrapper;
 
+    @Autowired
+    private BizProps bizProps;
+
+    /**
+     * 按买家合并买手订单统计查询
+     */
+    private BatchCollector<Integer, Long, GetBuyerOrderStatisticsResp> buyerBehaviorCollector;
+
+    /**
+     * 合并不同买家的首单查询
+     */
+    private BatchCollector<String, Long, GetBuyerFirstOrderInfoResp> firstOrderInfoCollector;
+
+    /**
+     * 用户行为服务调用线程池 与请求线程隔离
+     */
+    private ThreadPoolExecutor userBehaviorExecutor;
+
+    private CircuitBreaker circuitBreaker;
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private final LongAdder deadlineSkipCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        userBehaviorExecutor = new ThreadPoolExecutor(bizProps.getUserBehaviorThreadCount(),
+                bizProps.getUserBehaviorThreadCount(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(bizProps.getUserBehaviorQueueSize(), 1)),
+                r -> {
+                    Thread thread = new Thread(r, "user-behavior-call-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        circuitBreaker = new CircuitBreaker(bizProps::getUserBehaviorBreakerWindowSize,
+                bizProps::getUserBehaviorBreakerFailureRate,
+                bizProps::getUserBehaviorBreakerSlowCallTime,
+                bizProps::getUserBehaviorBreakerOpenTime);
+        buyerBehaviorCollector = new BatchCollector<>(bizProps::getUserBehaviorBatchMaxWait,
+                bizProps::getUserBehaviorBatchMaxSize,
+                (buyerId, sellerIdList) -> invokeGetBuyerBehavior(sellerIdList, buyerId));
+        firstOrderInfoCollector = new BatchCollector<>(bizProps::getUserBehaviorBatchMaxWait,
+                bizProps::getUserBehaviorBatchMaxSize,
+                (group, buyerIdList) -> invokeGetBuyerFirstOrderInfo(buyerIdList));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        userBehaviorExecutor.shutdownNow();
+    }
+
     /**
      * 获取用户特征
+     * 合并调用时返回的是同批次的结果 包含其他调用方的买手
      *
      * @param sellerIdList
      * @param buyerId
@@ -43,15 +117,82 @@ public class UserBehaviorAnalysisService {
         if (buyerId <= 0) {
             return null;
         }
+        if (!bizProps.isUseUserBehaviorBatch()) {
+            return invokeGetBuyerBehavior(sellerIdList, buyerId);
+        }
+        try {
+            return waitBatch(buyerBehaviorCollector.submit(buyerId, sellerIdList));
+        } catch (Exception ex) {
+            logWrapper.recordErrorLog("获取用户特征_合并请求发生异常,sellerIdList:{},buyerId:{}", JSON.toJSONString(Optional.ofNullable(sellerIdList).orElse(Lists.newArrayList())), buyerId, ex);
+            return null;
+        }
+    }
 
+    /**
+     * 获取用户首单信息
+     * 合并调用时返回的是同批次的结果 包含其他买家的首单信息
+     *
+     * @param buyerId
+     * @return
+     */
+    public GetBuyerFirstOrderInfoResp getBuyerFirstOrderInfo(long buyerId) {
+        GetBuyerFirstOrderInfoResp resp;
+        if (!bizProps.isUseUserBehaviorBatch()) {
+            resp = invokeGetBuyerFirstOrderInfo(Lists.newArrayList(buyerId));
+        } else {
+            try {
+                resp = waitBatch(firstOrderInfoCollector.submit(FIRST_ORDER_INFO_GROUP, Collections.singletonList(buyerId)));
+            } catch (Exception ex) {
+                logWrapper.recordErrorLog("用户行为服务_getBuyerFirstOrderInfo合并请求发生异常,buyerId：{}", buyerId, ex);
+                return null;
+            }
+        }
+        if (resp != null
+                && (resp.getFirstOrderInfos() == null
+                || resp.getFirstOrderInfos().get(buyerId) == null)) {
+            logWrapper.recordErrorLog("用户行为服务_getBuyerFirstOrderInfo接口返回值不正确,response：{},buyerId:{}", resp, buyerId);
+        }
+        return resp;
+    }
+
+    /**
+     * 获取用户请求合并统计信息
+     *
+     * @return
+     */
+    public Map<String, Map<String, Number>> getBatchStats() {
+        Map<String, Map<String, Number>> stats = new LinkedHashMap<>();
+        stats.put("getBuyerBehavior", buyerBehaviorCollector.getStats());
+        stats.put("getBuyerFirstOrderInfo", firstOrderInfoCollector.getStats());
+        return stats;
+    }
+
+    /**
+     * 获取用户行为服务熔断与隔离线程池统计信息
+     *
+     * @return
+     */
+    public Map<String, Object> getDependencyStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("circuitBreaker", circuitBreaker.getStats());
+        stats.put("activeCount", userBehaviorExecutor.getActiveCount());
+        stats.put("queueSize", userBehaviorExecutor.getQueue().size());
+        stats.put("rejectedCount", rejectedCount.sum());
+        stats.put("timeoutCount", timeoutCount.sum());
+        stats.put("deadlineSkipCount", deadlineSkipCount.sum());
+        return stats;
+    }
+
+    private GetBuyerOrderStatisticsResp invokeGetBuyerBehavior(List<Long> sellerIdList, int buyerId) {
         GetBuyerOrderStatisticsReq req = new GetBuyerOrderStatisticsReq();
         req.setBuyerId(buyerId);
         req.setSellerIds(sellerIdList);
 
         try {
-            GetBuyerOrderStatisticsResp resp = buyerOrderStatisticsFacade.getBuyerOrderStatistics(req);
-            if (resp == null
-                    || resp.getFromSeller() == null) {
+            GetBuyerOrderStatisticsResp resp = callWithGuard("getBuyerOrderStatistics",
+                    () -> buyerOrderStatisticsFacade.getBuyerOrderStatistics(req));
+            if (resp != null
+                    && resp.getFromSeller() == null) {
                 logWrapper.recordErrorLog("用户行为服务_getBuyerOrderStatistics接口返回值不正确,response：{},buyerId:{},sellerIdList{}",
                         resp,buyerId, JSON.toJSONString(Optional.ofNullable(sellerIdList).orElse(Lists.newArrayList())));
             }
@@ -62,26 +203,101 @@ public class UserBehaviorAnalysisService {
         return null;
     }
 
+    private GetBuyerFirstOrderInfoResp invokeGetBuyerFirstOrderInfo(List<Long> buyerIdList) {
+        GetBuyerFirstOrderInfoReq req = new GetBuyerFirstOrderInfoReq();
+        req.setBuyerIds(buyerIdList);
+
+        try {
+            return callWithGuard("getBuyerFirstOrderInfo", () -> buyerFirstOrderFacade.getBuyerFirstOrderInfo(req));
+        } catch (Exception ex) {
+            logWrapper.recordErrorLog("用户行为服务_getBuyerFirstOrderInfo发生异常,buyerIdList：{}", JSON.toJSONString(buyerIdList), ex);
+            return null;
+        }
+    }
+
     /**
-     * 获取用户首单信息
+     * 在隔离线程池中调用用户行为服务
+     * 熔断 线程池已满 剩余时间不足 超时时返回null 调用异常时抛出原异常
+     * 只有等满userBehaviorTimeout的超时计入熔断失败 因请求剩余时间不足而提前结束的等待单独计数
      *
-     * @param buyerId
+     * @param methodName
+     * @param callable
+     * @param <T>
      * @return
+     * @throws Exception
      */
-    public GetBuyerFirstOrderInfoResp getBuyerFirstOrderInfo(long buyerId) {
-        GetBuyerFirstOrderInfoReq req = new GetBuyerFirstOrderInfoReq();
-        req.setBuyerIds(Lists.newArrayList(buyerId));
+    private <T> T callWithGuard(String methodName, Callable<T> callable) throws Exception {
+        long fullTimeout = bizProps.getUserBehaviorTimeout();
+        long timeout = Math.min(fullTimeout, RequestDeadline.remainingMillis());
+        if (timeout <= 0) {
+            deadlineSkipCount.increment();
+            return null;
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            return null;
+        }
 
+        Map<String, String> contextMap = MDC.getCopyOfContextMap();
+        long startTime = System.nanoTime();
+        Future<T> future;
         try {
-            GetBuyerFirstOrderInfoResp resp = buyerFirstOrderFacade.getBuyerFirstOrderInfo(req);
-            if (resp == null
-                    || resp.getFirstOrderInfos() == null
-                    || resp.getFirstOrderInfos().get(buyerId) == null) {
-                logWrapper.recordErrorLog("用户行为服务_getBuyerFirstOrderInfo接口返回值不正确,response：{},buyerId:{}", resp,buyerId);
+            future = userBehaviorExecutor.submit(() -> {
+                if (contextMap != null) {
+                    MDC.setContextMap(contextMap);
+                }
+                try {
+                    return callable.call();
+                } finally {
+                    MDC.clear();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            circuitBreaker.release();
+            rejectedCount.increment();
+            logWrapper.recordErrorLog("用户行为服务_{}调用线程池已满", methodName);
+            return null;
+        }
+
+        try {
+            T result = future.get(timeout, TimeUnit.MILLISECONDS);
+            circuitBreaker.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            return result;
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            //等待时间被请求剩余时间截断时不计入熔断失败
+            boolean truncated = timeout < fullTimeout;
+            circuitBreaker.onTimeout(truncated);
+            if (!truncated) {
+                timeoutCount.increment();
+                logWrapper.recordErrorLog("用户行为服务_{}调用超时,timeout:{}ms", methodName, timeout);
             }
-            return resp;
-        } catch (Exception ex) {
-            logWrapper.recordErrorLog("用户行为服务_getBuyerFirstOrderInfo发生异常,buyerId：{}", buyerId,ex);
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            circuitBreaker.release();
+            return null;
+        } catch (ExecutionException ex) {
+            circuitBreaker.onFailure();
+            throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        }
+    }
+
+    /**
+     * 等待合并请求结果 不超过请求剩余时间
+     *
+     * @param future
+     * @param <T>
+     * @return 超时返回null
+     * @throws Exception
+     */
+    private <T> T waitBatch(CompletableFuture<T> future) throws Exception {
+        long waitTime = Math.min(RequestDeadline.remainingMillis(),
+                (long) bizProps.getUserBehaviorBatchMaxWait() + bizProps.getUserBehaviorTimeout());
+        try {
+            return future.get(Math.max(waitTime, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            deadlineSkipCount.increment();
             return null;
         }
     }
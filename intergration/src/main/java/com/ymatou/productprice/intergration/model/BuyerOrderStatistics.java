@@ -0,0 +1,67 @@
+package com.ymatou.productprice.intergration.model;
+
+import java.util.Map;
+
+/**
+ * 买家在各买手下的订单统计(用户行为服务结果的本地结构 可按买手缓存与合并)
+ * Created by chenpengxuan on 2017/5/23.
+ */
+public class BuyerOrderStatistics {
+    /**
+     * 买手id -> 买家在该买手下的订单统计
+     */
+    private Map<Long, SellerOrderStatistics> fromSeller;
+
+    public BuyerOrderStatistics() {
+    }
+
+    public BuyerOrderStatistics(Map<Long, SellerOrderStatistics> fromSeller) {
+        this.fromSeller = fromSeller;
+    }
+
+    public Map<Long, SellerOrderStatistics> getFromSeller() {
+        return fromSeller;
+    }
+
+    public void setFromSeller(Map<Long, SellerOrderStatistics> fromSeller) {
+        this.fromSeller = fromSeller;
+    }
+
+    /**
+     * 买家在单个买手下的订单统计
+     */
+    public static class SellerOrderStatistics {
+        /**
+         * 用户行为服务未返回该买手时使用
+         */
+        public static final SellerOrderStatistics NONE = new SellerOrderStatistics(false, false);
+
+        /**
+         * 是否有确认的订单(vip价)
+         */
+        private final boolean hasConfirmedOrders;
+
+        /**
+         * 是否没有订单或订单全部取消(新客价)
+         */
+        private final boolean noOrdersOrAllCancelled;
+
+        public SellerOrderStatistics(boolean hasConfirmedOrders, boolean noOrdersOrAllCancelled) {
+            this.hasConfirmedOrders = hasConfirmedOrders;
+            this.noOrdersOrAllCancelled = noOrdersOrAllCancelled;
+        }
+
+        public boolean isHasConfirmedOrders() {
+            return hasConfirmedOrders;
+        }
+
+        public boolean isNoOrdersOrAllCancelled() {
+            return noOrdersOrAllCancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "{hasConfirmedOrders=" + hasConfirmedOrders + ", noOrdersOrAllCancelled=" + noOrdersOrAllCancelled + "}";
+        }
+    }
+}
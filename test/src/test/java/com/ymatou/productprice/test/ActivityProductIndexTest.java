@@ -0,0 +1,154 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.domain.cache.ActivityProductIndex;
+import com.ymatou.productprice.domain.cache.Cache;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.repo.Repository;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 活动商品索引测试
+ * Created by chenpengxuan on 2017/6/1.
+ */
+public class ActivityProductIndexTest {
+
+    /**
+     * 测试随机增量合并、删除与过期清理后 索引与按活动商品id保存的全量数据一致
+     */
+    @Test
+    public void testConsistentWithFullMap() {
+        Random random = new Random(20170601);
+        ActivityProductIndex activityProductIndex = new ActivityProductIndex(() -> Integer.MAX_VALUE);
+        Map<Integer, ActivityProduct> expectedMap = new HashMap<>();
+        long now = 0;
+
+        for (int round = 0; round < 2000; round++) {
+            now += 10;
+            //合并时先删除再新增
+            List<Integer> removeIdList = new ArrayList<>();
+            for (int i = random.nextInt(5); i > 0; i--) {
+                removeIdList.add(random.nextInt(3000));
+            }
+            removeIdList.forEach(expectedMap::remove);
+            List<ActivityProduct> upsertList = new ArrayList<>();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                //同一活动商品id可能换到其他商品
+                ActivityProduct activityProduct = newActivityProduct(random.nextInt(3000),
+                        "p" + random.nextInt(500), now, now + random.nextInt(2000));
+                upsertList.add(activityProduct);
+                expectedMap.put(activityProduct.getProductInActivityId(), activityProduct);
+            }
+            activityProductIndex.merge(upsertList, removeIdList);
+
+            if (round % 10 == 0) {
+                long expireTime = now;
+                int expiredCount = activityProductIndex.removeExpired(expireTime);
+                List<Integer> expiredIdList = expectedMap.values().stream()
+                        .filter(x -> x.getEndTime().getTime() < expireTime)
+                        .map(ActivityProduct::getProductInActivityId)
+                        .collect(Collectors.toList());
+                expiredIdList.forEach(expectedMap::remove);
+                Assert.assertEquals(expiredIdList.size(), expiredCount);
+            }
+            assertIndex(expectedMap, activityProductIndex);
+        }
+    }
+
+    /**
+     * 测试进行中与时间段查询、缺失id筛选、整商品替换与容量限制
+     */
+    @Test
+    public void testQuery() {
+        ActivityProductIndex activityProductIndex = new ActivityProductIndex(() -> 3);
+        ActivityProduct first = newActivityProduct(1, "p1", 100, 200);
+        ActivityProduct second = newActivityProduct(2, "p1", 300, 400);
+        ActivityProduct third = newActivityProduct(3, "p2", 100, 400);
+        activityProductIndex.merge(Arrays.asList(first, second, third, newActivityProduct(4, "p3", 100, 400)), null);
+
+        Assert.assertTrue(activityProductIndex.isFull());
+        Assert.assertEquals(Arrays.asList(first, second), activityProductIndex.get("p1"));
+        Assert.assertTrue(activityProductIndex.get("p3").isEmpty());
+        Assert.assertSame(first, activityProductIndex.getActive("p1", 150));
+        Assert.assertNull(activityProductIndex.getActive("p1", 250));
+        Assert.assertEquals(Collections.singletonList(second), activityProductIndex.getInWindow("p1", 250, 350));
+        Assert.assertSame(third, activityProductIndex.getByProductInActivityId(3));
+        Assert.assertEquals(Arrays.asList(4, 5), activityProductIndex.getMissingProductInActivityIdList(Arrays.asList(1, 4, 2, 5)));
+
+        ActivityProduct newSecond = newActivityProduct(2, "p1", 300, 500);
+        activityProductIndex.replaceProducts(Collections.singletonList("p1"), Collections.singletonList(newSecond));
+        Assert.assertEquals(Collections.singletonList(newSecond), activityProductIndex.get("p1"));
+        Assert.assertNull(activityProductIndex.getByProductInActivityId(1));
+        Assert.assertFalse(activityProductIndex.isFull());
+
+        activityProductIndex.removeProducts(Arrays.asList("p1", "p2"));
+        Assert.assertEquals(0, activityProductIndex.size());
+    }
+
+    /**
+     * 测试Cache.getActivityProduct通过索引取进行中的活动商品 时间戳一致时不回源 时间戳变化时回源合并后再从索引中取
+     */
+    @Test
+    public void testCacheGetActivityProduct() {
+        long now = System.currentTimeMillis();
+        Date stamp = new Date(now - 1000);
+        ActivityProduct ended = newActivityProduct(1, "p1", now - 20000, now - 10000);
+        ActivityProduct active = newActivityProduct(2, "p1", now - 10000, now + 10000);
+        ended.setUpdateTime(stamp);
+        active.setUpdateTime(stamp);
+        ActivityProductIndex activityProductIndex = new ActivityProductIndex(() -> 100);
+        activityProductIndex.merge(Arrays.asList(ended, active), null);
+
+        List<List<Integer>> reloadRequestList = new ArrayList<>();
+        ActivityProduct reloaded = newActivityProduct(2, "p1", now - 10000, now + 20000);
+        reloaded.setUpdateTime(new Date(now));
+        Repository repository = (Repository) Proxy.newProxyInstance(Repository.class.getClassLoader(),
+                new Class[]{Repository.class}, (proxy, method, args) -> {
+                    Assert.assertEquals("getActivityProductListByInActivityIdList", method.getName());
+                    reloadRequestList.add((List<Integer>) args[0]);
+                    return Collections.singletonList(reloaded);
+                });
+        Cache cache = new Cache();
+        ReflectionTestUtils.setField(cache, "activityProductIndex", activityProductIndex);
+        ReflectionTestUtils.setField(cache, "realBusinessRepository", repository);
+
+        Assert.assertSame(active, cache.getActivityProduct("p1", stamp));
+        Assert.assertTrue(reloadRequestList.isEmpty());
+        Assert.assertNull(cache.getActivityProduct("p2", stamp));
+
+        //时间戳变化 已结束的活动商品回源后不存在 从索引中删除
+        Assert.assertSame(reloaded, cache.getActivityProduct("p1", new Date(now)));
+        Assert.assertEquals(1, reloadRequestList.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(reloadRequestList.get(0)));
+        Assert.assertEquals(Collections.singletonList(reloaded), activityProductIndex.get("p1"));
+    }
+
+    private void assertIndex(Map<Integer, ActivityProduct> expectedMap, ActivityProductIndex activityProductIndex) {
+        Assert.assertEquals(expectedMap.size(), activityProductIndex.size());
+        Map<String, Set<ActivityProduct>> expectedProductMap = new HashMap<>();
+        expectedMap.values().forEach(x ->
+                expectedProductMap.computeIfAbsent(x.getProductId(), y -> new HashSet<>()).add(x));
+        for (int i = 0; i < 500; i++) {
+            String productId = "p" + i;
+            List<ActivityProduct> actualList = activityProductIndex.get(productId);
+            Set<ActivityProduct> expectedSet = expectedProductMap.getOrDefault(productId, Collections.emptySet());
+            Assert.assertEquals(productId, expectedSet.size(), actualList.size());
+            Assert.assertEquals(productId, expectedSet, new HashSet<>(actualList));
+        }
+        expectedMap.forEach((x, y) -> Assert.assertSame(y, activityProductIndex.getByProductInActivityId(x)));
+    }
+
+    private ActivityProduct newActivityProduct(int productInActivityId, String productId, long startTime, long endTime) {
+        ActivityProduct activityProduct = new ActivityProduct();
+        activityProduct.setProductInActivityId(productInActivityId);
+        activityProduct.setProductId(productId);
+        activityProduct.setStartTime(new Date(startTime));
+        activityProduct.setEndTime(new Date(endTime));
+        return activityProduct;
+    }
+}
@@ -0,0 +1,96 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.domain.cache.ActivityProductWatermark;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * 活动商品增量同步水位测试
+ * Created by chenpengxuan on 2017/6/2.
+ */
+public class ActivityProductWatermarkTest {
+
+    /**
+     * 测试aut水位推进 同一时间戳上已处理的商品不重复返回 新到的同时间戳商品不遗漏
+     */
+    @Test
+    public void testAdvanceUpdateTime() {
+        ActivityProductWatermark watermark = new ActivityProductWatermark();
+        watermark.init(Arrays.asList(newActivityProduct(3), newActivityProduct(7)), 1000, 5);
+        Assert.assertEquals(7, watermark.getProductInActivityIdWatermark());
+
+        List<Map<String, Object>> stampList = Arrays.asList(stamp("p1", 1000), stamp("p2", 1005));
+        Assert.assertEquals(Arrays.asList("p1", "p2"), watermark.getChangedProductIdList(stampList, "aut"));
+        //加载成功前不推进水位
+        Assert.assertEquals(1000, watermark.getUpdateTimeWatermark());
+        watermark.advanceUpdateTime(stampList, "aut", 10);
+        Assert.assertEquals(1005, watermark.getUpdateTimeWatermark());
+
+        //p2已在1005处理过 p3为同一毫秒后到的变更
+        stampList = Arrays.asList(stamp("p2", 1005), stamp("p3", 1005), stamp("p1", 1010));
+        Assert.assertEquals(Arrays.asList("p3", "p1"), watermark.getChangedProductIdList(stampList, "aut"));
+        watermark.advanceUpdateTime(stampList, "aut", 10);
+        Assert.assertEquals(1010, watermark.getUpdateTimeWatermark());
+        stampList = Collections.singletonList(stamp("p1", 1010));
+        Assert.assertTrue(watermark.getChangedProductIdList(stampList, "aut").isEmpty());
+        watermark.advanceUpdateTime(stampList, "aut", 10);
+        Assert.assertEquals(1010, watermark.getUpdateTimeWatermark());
+
+        //同一时间戳上的商品超过单次拉取条数时跳过该时间戳
+        stampList = Arrays.asList(stamp("p4", 1020), stamp("p5", 1020));
+        watermark.advanceUpdateTime(stampList, "aut", 2);
+        Assert.assertTrue(watermark.getChangedProductIdList(stampList, "aut").isEmpty());
+        watermark.advanceUpdateTime(stampList, "aut", 2);
+        Assert.assertEquals(1021, watermark.getUpdateTimeWatermark());
+
+        watermark.advanceProductInActivityId(Arrays.asList(newActivityProduct(5), newActivityProduct(12)));
+        Assert.assertEquals(12, watermark.getProductInActivityIdWatermark());
+        Assert.assertFalse(watermark.isReconcileDue(1500, 1000));
+        Assert.assertTrue(watermark.isReconcileDue(2000, 1000));
+    }
+
+    /**
+     * 测试对账失败后按退避间隔重试 不超过对账间隔 成功后恢复正常间隔
+     */
+    @Test
+    public void testReconcileBackoff() {
+        ActivityProductWatermark watermark = new ActivityProductWatermark();
+        watermark.init(Collections.emptyList(), 0, 42);
+        //全量加载没有数据时从表中最大的inaid开始
+        Assert.assertEquals(42, watermark.getProductInActivityIdWatermark());
+        long interval = 300000;
+
+        watermark.recordReconcileFail(300000, 0, 0, 0);
+        Assert.assertFalse(watermark.isReconcileDue(305000, interval));
+        Assert.assertTrue(watermark.isReconcileDue(310000, interval));
+        watermark.recordReconcileFail(310000, 0, 0, 0);
+        Assert.assertFalse(watermark.isReconcileDue(325000, interval));
+        Assert.assertTrue(watermark.isReconcileDue(330000, interval));
+        for (int i = 0; i < 20; i++) {
+            watermark.recordReconcileFail(330000, 0, 0, 0);
+        }
+        Assert.assertTrue(watermark.isReconcileDue(630000, interval));
+        Assert.assertEquals(22L, watermark.getStats(630000).get("reconcileFailCount"));
+
+        watermark.recordReconcile(630000, 0, 1, 1);
+        Assert.assertFalse(watermark.isReconcileDue(640000, interval));
+        Assert.assertTrue(watermark.isReconcileDue(930000, interval));
+    }
+
+    private Map<String, Object> stamp(String productId, long updateTime) {
+        Map<String, Object> stamp = new HashMap<>();
+        stamp.put("spid", productId);
+        stamp.put("aut", new Date(updateTime));
+        return stamp;
+    }
+
+    private ActivityProduct newActivityProduct(int productInActivityId) {
+        ActivityProduct activityProduct = new ActivityProduct();
+        activityProduct.setProductInActivityId(productInActivityId);
+        activityProduct.setProductId("p" + productInActivityId);
+        return activityProduct;
+    }
+}
@@ -0,0 +1,62 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.AdaptiveChunkPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应分块策略测试
+ * Created by chenpengxuan on 2017/5/29.
+ */
+public class AdaptiveChunkPolicyTest {
+
+    /**
+     * 测试样本不足或分块条数没有差异时按默认条数分块
+     */
+    @Test
+    public void testDefaultChunkSize() {
+        AdaptiveChunkPolicy policy = new AdaptiveChunkPolicy(() -> 50);
+        Assert.assertEquals(50, policy.getMinChunkSize());
+
+        for (int i = 0; i < 20; i++) {
+            policy.record(100, TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        Assert.assertEquals(50, policy.getMinChunkSize());
+    }
+
+    /**
+     * 测试按 固定开销 + 单条耗时 * 条数 估算每块最少条数
+     */
+    @Test
+    public void testFitMinChunkSize() {
+        AdaptiveChunkPolicy policy = new AdaptiveChunkPolicy(() -> 50);
+        //固定开销1000微秒 单条10微秒
+        for (int i = 0; i < 40; i++) {
+            int chunkSize = 10 + (i % 4) * 30;
+            policy.record(chunkSize, TimeUnit.MICROSECONDS.toNanos(1000 + 10 * chunkSize));
+        }
+        Assert.assertEquals(100, policy.getMinChunkSize());
+
+        //1000条 最少每块100条 可用线程(3个空闲加调用线程)每个2块
+        Assert.assertEquals(8, policy.chunkCount(1000, 8, 4, 1));
+        Assert.assertEquals(3, policy.chunkCount(300, 8, 0, 0));
+        Assert.assertEquals(1, policy.chunkCount(50, 8, 0, 0));
+        Assert.assertEquals(1, policy.chunkCount(1, 8, 0, 0));
+    }
+
+    /**
+     * 测试耗时不随条数增加(斜率不为正)时按默认条数分块 不退化为单块串行
+     */
+    @Test
+    public void testNonPositiveSlope() {
+        AdaptiveChunkPolicy policy = new AdaptiveChunkPolicy(() -> 50);
+        for (int i = 0; i < 40; i++) {
+            int chunkSize = 10 + (i % 4) * 30;
+            policy.record(chunkSize, TimeUnit.MICROSECONDS.toNanos(2000 - chunkSize));
+        }
+        Assert.assertEquals(50, policy.getMinChunkSize());
+        Assert.assertEquals(8, policy.chunkCount(1000, 8, 5, 0));
+    }
+}
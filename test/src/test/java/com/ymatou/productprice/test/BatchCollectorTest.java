@@ -0,0 +1,164 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.BatchCollector;
+import com.ymatou.productprice.infrastructure.util.RequestDeadline;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 请求合并收集器测试
+ * 并发调用方通过CyclicBarrier同时提交 最大等待时间设置得足够长 批次只会因凑满而发起 结果不依赖线程调度时机
+ * Created by chenpengxuan on 2017/5/24.
+ */
+public class BatchCollectorTest {
+
+    /**
+     * 测试同一分组的请求合并为一次调用 不同分组分别调用
+     */
+    @Test
+    public void testMergeByGroup() throws Exception {
+        List<List<Long>> loadedList = new CopyOnWriteArrayList<>();
+        BatchCollector<Integer, Long, List<Long>> collector = new BatchCollector<>(
+                () -> 60000, () -> 3, (group, keyList) -> {
+            loadedList.add(keyList);
+            return keyList;
+        });
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(4);
+            Future<List<Long>> future1 = submitTogether(executorService, barrier, () -> collector.submit(1, Arrays.asList(1L, 2L)));
+            Future<List<Long>> future2 = submitTogether(executorService, barrier, () -> collector.submit(1, Arrays.asList(2L, 3L)));
+            Future<List<Long>> future3 = submitTogether(executorService, barrier, () -> collector.submit(2, Arrays.asList(4L, 5L)));
+            Future<List<Long>> future4 = submitTogether(executorService, barrier, () -> collector.submit(2, Collections.singletonList(6L)));
+
+            Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), new HashSet<>(future1.get(5, TimeUnit.SECONDS)));
+            Assert.assertSame(future1.get(), future2.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(new HashSet<>(Arrays.asList(4L, 5L, 6L)), new HashSet<>(future3.get(5, TimeUnit.SECONDS)));
+            Assert.assertSame(future3.get(), future4.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, loadedList.size());
+
+            Map<String, Number> stats = collector.getStats();
+            Assert.assertEquals(4L, stats.get("requestCount").longValue());
+            Assert.assertEquals(2L, stats.get("batchCount").longValue());
+            Assert.assertEquals(2L, stats.get("sizeFlushCount").longValue());
+            Assert.assertEquals(2.0, stats.get("requestPerBatch").doubleValue(), 0.001);
+            Assert.assertEquals(3.0, stats.get("keyPerBatch").doubleValue(), 0.001);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 测试批次未凑满时第一个请求等待maxWait后在自己的线程中调用
+     */
+    @Test
+    public void testFlushByMaxWait() {
+        List<Thread> loadThreadList = new CopyOnWriteArrayList<>();
+        BatchCollector<Integer, Long, List<Long>> collector = new BatchCollector<>(
+                () -> 10, () -> 100, (group, keyList) -> {
+            loadThreadList.add(Thread.currentThread());
+            return keyList;
+        });
+        CompletableFuture<List<Long>> future = collector.submit(1, Arrays.asList(1L, 2L));
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(Arrays.asList(1L, 2L), future.join());
+        Assert.assertEquals(Collections.singletonList(Thread.currentThread()), loadThreadList);
+
+        Map<String, Number> stats = collector.getStats();
+        Assert.assertEquals(1L, stats.get("batchCount").longValue());
+        Assert.assertEquals(0L, stats.get("sizeFlushCount").longValue());
+        Assert.assertEquals(1.0, stats.get("requestPerBatch").doubleValue(), 0.001);
+    }
+
+    /**
+     * 测试达到单批最大key数时立即调用 批次内调用方得到同一结果 异常传递给批次内所有调用方
+     */
+    @Test
+    public void testFlushBySizeAndFail() throws Exception {
+        BatchCollector<Integer, Long, List<Long>> collector = new BatchCollector<>(
+                () -> 60000, () -> 3, (group, keyList) -> {
+            if (keyList.contains(0L)) {
+                throw new IllegalStateException("load fail");
+            }
+            return keyList;
+        });
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Future<List<Long>> future1 = submitTogether(executorService, barrier, () -> collector.submit(1, Arrays.asList(1L, 2L)));
+            Future<List<Long>> future2 = submitTogether(executorService, barrier, () -> collector.submit(1, Collections.singletonList(3L)));
+            Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), new HashSet<>(future1.get(5, TimeUnit.SECONDS)));
+            Assert.assertSame(future1.get(), future2.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1L, collector.getStats().get("sizeFlushCount").longValue());
+            Assert.assertEquals(1L, collector.getStats().get("batchCount").longValue());
+            Assert.assertEquals(2.0, collector.getStats().get("requestPerBatch").doubleValue(), 0.001);
+
+            CompletableFuture<List<Long>> future3 = collector.submit(1, Arrays.asList(0L, 1L, 2L));
+            try {
+                future3.join();
+                Assert.fail();
+            } catch (CompletionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+            }
+            Assert.assertEquals(2L, collector.getStats().get("sizeFlushCount").longValue());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 测试批量调用使用批次内最早的截止时间 调用后恢复发起线程自己的截止时间
+     */
+    @Test
+    public void testEarliestDeadline() throws Exception {
+        List<Long> loadRemainingList = new CopyOnWriteArrayList<>();
+        BatchCollector<Integer, Long, List<Long>> collector = new BatchCollector<>(
+                () -> 60000, () -> 2, (group, keyList) -> {
+            loadRemainingList.add(RequestDeadline.remainingMillis());
+            return keyList;
+        });
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Future<Long> future1 = submitTogether(executorService, barrier, () -> submitWithDeadline(collector, 1L, 100));
+            Future<Long> future2 = submitTogether(executorService, barrier, () -> submitWithDeadline(collector, 2L, 60000));
+            Assert.assertTrue(future1.get(5, TimeUnit.SECONDS) <= 100);
+            Assert.assertTrue(future2.get(5, TimeUnit.SECONDS) > 1000);
+            Assert.assertEquals(1, loadRemainingList.size());
+            Assert.assertTrue(loadRemainingList.get(0) <= 100);
+            Assert.assertEquals(1L, collector.getStats().get("batchCount").longValue());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 在指定截止时间内提交请求
+     *
+     * @return 调用完成后当前线程的剩余时间
+     */
+    private CompletableFuture<Long> submitWithDeadline(BatchCollector<Integer, Long, List<Long>> collector,
+                                                       long key, long timeout) {
+        RequestDeadline.start(timeout);
+        try {
+            collector.submit(1, Collections.singletonList(key)).join();
+            return CompletableFuture.completedFuture(RequestDeadline.remainingMillis());
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+
+    /**
+     * 所有调用方都到达barrier后再提交 返回提交结果
+     */
+    private <T> Future<T> submitTogether(ExecutorService executorService, CyclicBarrier barrier,
+                                         Callable<CompletableFuture<T>> submitter) {
+        return executorService.submit(() -> {
+            barrier.await(5, TimeUnit.SECONDS);
+            return submitter.call().join();
+        });
+    }
+}
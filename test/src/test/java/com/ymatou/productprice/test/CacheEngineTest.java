@@ -0,0 +1,125 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.infrastructure.util.CacheUtil.CacheEngine;
+import com.ymatou.productprice.infrastructure.util.CacheUtil.GuavaCacheEngine;
+import com.ymatou.productprice.infrastructure.util.CacheUtil.TinyLfuCacheEngine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * 缓存引擎测试
+ * Created by chenpengxuan on 2017/5/2.
+ */
+public class CacheEngineTest {
+
+    private static final int KEY_SPACE = 200000;
+
+    private static final int CACHE_SIZE = 5000;
+
+    /**
+     * 回放倾斜分布的key序列(热点商品 + 30%爬虫顺序扫描长尾)
+     * TinyLFU命中率必须高于guava LRU
+     */
+    @Test
+    public void testTinyLfuHitRate_SkewedTraceWithScan() {
+        int[] trace = buildSkewedTrace(600000);
+
+        double guavaHitRate = replay(new GuavaCacheEngine<>(CACHE_SIZE, 48, 8), trace);
+        double tinyLfuHitRate = replay(new TinyLfuCacheEngine<>(CACHE_SIZE, 48, 8), trace);
+
+        Assert.assertTrue("TinyLFU命中率必须高于guava,guava:" + guavaHitRate + " tinylfu:" + tinyLfuHitRate,
+                tinyLfuHitRate > guavaHitRate);
+    }
+
+    /**
+     * 测试容量限制与统计信息
+     */
+    @Test
+    public void testTinyLfuSizeAndStats() {
+        CacheEngine<Integer, Integer> engine = new TinyLfuCacheEngine<>(100, 48, 8);
+        for (int i = 0; i < 1000; i++) {
+            engine.put(i, i);
+        }
+        Assert.assertTrue("缓存条目数不能超过上限", engine.size() <= 100);
+        Assert.assertEquals(900, engine.stats().evictionCount());
+
+        engine.invalidate(999);
+        Assert.assertNull(engine.getIfPresent(999));
+        Assert.assertEquals(1, engine.stats().missCount());
+    }
+
+    /**
+     * 测试多线程并发写入 写缓冲区处理完后条目数不超过上限 读到的值为最后写入的值
+     */
+    @Test
+    public void testTinyLfuConcurrentPut() throws Exception {
+        CacheEngine<Integer, Integer> engine = new TinyLfuCacheEngine<>(1000, 48, 8);
+        int threadCount = 8;
+        CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futureList = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                int offset = t;
+                futureList.add(executorService.submit(() -> {
+                    barrier.await();
+                    for (int i = 0; i < 20000; i++) {
+                        int key = (i * threadCount + offset) % 5000;
+                        engine.put(key, key);
+                        engine.getIfPresent(key);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        //处理其他线程留在写缓冲区的数据
+        engine.put(-1, -1);
+        Assert.assertTrue("缓存条目数不能超过上限,size:" + engine.size(), engine.size() <= 1000);
+        for (int key = 0; key < 5000; key++) {
+            Integer value = engine.getIfPresent(key);
+            Assert.assertTrue(value == null || value == key);
+        }
+    }
+
+    private double replay(CacheEngine<Integer, Integer> engine, int[] trace) {
+        for (int key : trace) {
+            if (engine.getIfPresent(key) == null) {
+                engine.put(key, key);
+            }
+        }
+        return engine.stats().hitRate();
+    }
+
+    private int[] buildSkewedTrace(int length) {
+        Random random = new Random(42);
+        double[] cdf = new double[KEY_SPACE];
+        double sum = 0;
+        for (int i = 0; i < KEY_SPACE; i++) {
+            sum += 1.0d / Math.pow(i + 1, 0.9d);
+            cdf[i] = sum;
+        }
+        int[] trace = new int[length];
+        int scanKey = KEY_SPACE;
+        for (int i = 0; i < length; i++) {
+            if (i % 10 < 3) {
+                trace[i] = scanKey++;
+            } else {
+                int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                trace[i] = index < 0 ? -index - 1 : index;
+            }
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,192 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.domain.cache.Cache;
+import com.ymatou.productprice.domain.cache.CacheInvalidationService;
+import com.ymatou.productprice.domain.cache.TimeStampCache;
+import com.ymatou.productprice.domain.cache.changefeed.*;
+import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.infrastructure.constants.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 缓存变更源测试
+ * Created by chenpengxuan on 2017/5/12.
+ */
+public class ChangeFeedTest {
+
+    /**
+     * 测试按批消费本地变更源
+     */
+    @Test
+    public void testConsume() throws IOException {
+        LocalChangeFeed changeFeed = new LocalChangeFeed();
+        changeFeed.publish(Constants.CatalogDb, "p0");
+        ChangeFeedPositionStore positionStore = new ChangeFeedPositionStore(createPositionFile());
+
+        List<ChangeEvent> receivedList = new ArrayList<>();
+        ChangeFeedConsumer consumer = new ChangeFeedConsumer(changeFeed, ChangeFeedTypeEnum.LOCAL,
+                positionStore, 2, receivedList::addAll);
+
+        //首次启动从变更源当前位置开始 之前的变更不处理
+        for (int i = 1; i <= 5; i++) {
+            changeFeed.publish(Constants.ProductTimeStampDb, "p" + i);
+        }
+        Assert.assertFalse(consumer.consume(2));
+        Assert.assertEquals(4, receivedList.size());
+        Assert.assertEquals("p1", receivedList.get(0).getProductId());
+
+        Assert.assertTrue(consumer.consume(2));
+        Assert.assertEquals(5, receivedList.size());
+        Assert.assertEquals(changeFeed.getHeadPosition(), consumer.getPosition());
+    }
+
+    /**
+     * 测试重启后从保存的位置继续消费
+     */
+    @Test
+    public void testResumeFromPosition() throws IOException {
+        LocalChangeFeed changeFeed = new LocalChangeFeed();
+        ChangeFeedPositionStore positionStore = new ChangeFeedPositionStore(createPositionFile());
+
+        ChangeFeedConsumer consumer = new ChangeFeedConsumer(changeFeed, ChangeFeedTypeEnum.LOCAL,
+                positionStore, 10, x -> {});
+        changeFeed.publish(Constants.ActivityProductDb, "p1");
+        consumer.consume(1);
+
+        //重启前后发生的变更
+        changeFeed.publish(Constants.ActivityProductDb, "p2");
+        changeFeed.publish(Constants.CatalogDb, "p3");
+
+        List<ChangeEvent> receivedList = new ArrayList<>();
+        ChangeFeedConsumer restartConsumer = new ChangeFeedConsumer(changeFeed, ChangeFeedTypeEnum.LOCAL,
+                positionStore, 10, receivedList::addAll);
+        restartConsumer.consume(1);
+
+        Assert.assertEquals(2, receivedList.size());
+        Assert.assertEquals("p2", receivedList.get(0).getProductId());
+        Assert.assertEquals(Constants.CatalogDb, receivedList.get(1).getTableName());
+
+        //变更源类型不一致时位置无效
+        Assert.assertNull(positionStore.load(ChangeFeedTypeEnum.MONGO));
+    }
+
+    /**
+     * 测试消费位置被变更源清除时跳到当前位置并抛出异常
+     */
+    @Test
+    public void testLostPosition() throws IOException {
+        LocalChangeFeed changeFeed = new LocalChangeFeed();
+        ChangeFeedPositionStore positionStore = new ChangeFeedPositionStore(createPositionFile());
+        positionStore.save(ChangeFeedTypeEnum.LOCAL, 1);
+        for (int i = 1; i <= 3; i++) {
+            changeFeed.publish(Constants.CatalogDb, "p" + i);
+        }
+
+        List<ChangeEvent> receivedList = new ArrayList<>();
+        ChangeFeedConsumer consumer = new ChangeFeedConsumer(new ChangeFeed() {
+            @Override
+            public long getHeadPosition() {
+                return changeFeed.getHeadPosition();
+            }
+
+            @Override
+            public long getTailPosition() {
+                //位置1与2的变更已被清除
+                return 2;
+            }
+
+            @Override
+            public List<ChangeEvent> poll(long afterPosition, int maxCount) {
+                return changeFeed.poll(afterPosition, maxCount);
+            }
+        }, ChangeFeedTypeEnum.LOCAL, positionStore, 10, receivedList::addAll);
+
+        try {
+            consumer.consume(1);
+            Assert.fail();
+        } catch (ChangeFeedLostException ex) {
+            Assert.assertEquals(3, consumer.getPosition());
+            Assert.assertEquals(Long.valueOf(3), positionStore.load(ChangeFeedTypeEnum.LOCAL));
+        }
+        Assert.assertTrue(receivedList.isEmpty());
+    }
+
+    /**
+     * 测试按表处理变更 删除规格缓存 重新加载活动商品缓存 刷新时间戳缓存 没有商品id的变更不处理
+     */
+    @Test
+    public void testProcessChangeEvent() {
+        Map<String, Collection<String>> processedMap = new LinkedHashMap<>();
+        Cache cache = new Cache() {
+            @Override
+            public void invalidateCatalogCache(Collection<String> productIdList) {
+                processedMap.put("catalog", new TreeSet<>(productIdList));
+            }
+
+            @Override
+            public void reloadActivityProductCache(List<String> productIdList) {
+                processedMap.put("activityProduct", new TreeSet<>(productIdList));
+            }
+        };
+        TimeStampCache timeStampCache = new TimeStampCache() {
+            @Override
+            public void reload(Collection<String> productIdList) {
+                processedMap.put("timeStamp", new TreeSet<>(productIdList));
+            }
+        };
+        CacheProps cacheProps = new CacheProps();
+        cacheProps.setUseActivityCache(true);
+        ReflectionTestUtils.setField(timeStampCache, "cacheProps", cacheProps);
+        CacheInvalidationService cacheInvalidationService = new CacheInvalidationService();
+        ReflectionTestUtils.setField(cacheInvalidationService, "cache", cache);
+        ReflectionTestUtils.setField(cacheInvalidationService, "timeStampCache", timeStampCache);
+        ReflectionTestUtils.setField(cacheInvalidationService, "cacheProps", cacheProps);
+
+        List<ChangeEvent> changeEventList = Arrays.asList(
+                new ChangeEvent(Constants.CatalogDb, "p1", 1, 0),
+                new ChangeEvent(Constants.CatalogDb, "p2", 2, 0),
+                new ChangeEvent(Constants.ActivityProductDb, "p2", 3, 0),
+                new ChangeEvent(Constants.ProductTimeStampDb, "p1", 4, 0),
+                new ChangeEvent(Constants.ProductTimeStampDb, "p3", 5, 0),
+                new ChangeEvent(Constants.CatalogDb, null, 6, 0));
+        ReflectionTestUtils.invokeMethod(cacheInvalidationService, "processChangeEvent", changeEventList);
+
+        Assert.assertEquals(Arrays.asList("catalog", "activityProduct", "timeStamp"), new ArrayList<>(processedMap.keySet()));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("p1", "p2")), processedMap.get("catalog"));
+        Assert.assertEquals(new TreeSet<>(Collections.singletonList("p2")), processedMap.get("activityProduct"));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("p1", "p3")), processedMap.get("timeStamp"));
+        Assert.assertEquals(6L, cacheInvalidationService.getStats().get("eventCount").longValue());
+    }
+
+    /**
+     * 测试变更源正常状态超过时间戳缓存过期时间没有刷新时(拉取卡住)自动失效
+     */
+    @Test
+    public void testChangeFeedActiveExpire() {
+        CacheProps cacheProps = new CacheProps();
+        cacheProps.setTimeStampCacheExpireTime(2000);
+        TimeStampCache timeStampCache = new TimeStampCache();
+        ReflectionTestUtils.setField(timeStampCache, "cacheProps", cacheProps);
+
+        long now = System.currentTimeMillis();
+        Assert.assertFalse(timeStampCache.isChangeFeedActive(now));
+        timeStampCache.setChangeFeedActive(true);
+        Assert.assertTrue(timeStampCache.isChangeFeedActive(now + 1000));
+        Assert.assertFalse(timeStampCache.isChangeFeedActive(now + 5000));
+        timeStampCache.setChangeFeedActive(false);
+        Assert.assertFalse(timeStampCache.isChangeFeedActive(now));
+    }
+
+    private String createPositionFile() throws IOException {
+        File file = File.createTempFile("changefeed", ".position");
+        file.delete();
+        file.deleteOnExit();
+        return file.getPath();
+    }
+}
@@ -0,0 +1,85 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.infrastructure.util.CircuitBreaker;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 熔断器测试
+ * Created by chenpengxuan on 2017/5/25.
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * 测试失败与慢调用占比达到阈值时熔断 熔断期间不允许调用
+     */
+    @Test
+    public void testOpen() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(() -> 4, () -> 50, () -> 100, () -> 60000);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(circuitBreaker.tryAcquire());
+            circuitBreaker.onSuccess(10);
+        }
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        //最近4次中1次失败 1次慢调用
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess(200);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertFalse(circuitBreaker.tryAcquire());
+    }
+
+    /**
+     * 测试熔断时间过后只放行一次试探调用 试探成功后恢复
+     */
+    @Test
+    public void testHalfOpen() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(() -> 1, () -> 100, () -> 100, () -> 20);
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        Assert.assertFalse(circuitBreaker.tryAcquire());
+
+        Thread.sleep(30);
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        Assert.assertFalse(circuitBreaker.tryAcquire());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        //未发起调用时释放试探许可
+        circuitBreaker.release();
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess(10);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    /**
+     * 测试等待时间被请求剩余时间截断的超时不计入失败 只有完整超时计入失败
+     */
+    @Test
+    public void testDeadlineTimeout() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(() -> 2, () -> 100, () -> 100, () -> 20);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(circuitBreaker.tryAcquire());
+            circuitBreaker.onTimeout(true);
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(5L, circuitBreaker.getStats().get("deadlineTimeoutCount"));
+        Assert.assertEquals(0L, circuitBreaker.getStats().get("failureCount"));
+
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onTimeout(false);
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onTimeout(false);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        //试探调用被截断时释放试探许可 不重新熔断
+        Thread.sleep(30);
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onTimeout(true);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+    }
+}
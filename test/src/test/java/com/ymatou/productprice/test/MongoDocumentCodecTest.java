@@ -0,0 +1,114 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.domain.model.ActivityCatalog;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.domain.model.ProductPriceData;
+import com.ymatou.productprice.domain.repo.mongorepo.codec.ActivityProductBsonCodec;
+import com.ymatou.productprice.domain.repo.mongorepo.codec.CatalogBsonCodec;
+import com.ymatou.productprice.domain.repo.mongorepo.codec.ProductPriceDataBsonCodec;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * mongo文档编解码器测试
+ * Created by chenpengxuan on 2017/5/17.
+ */
+public class MongoDocumentCodecTest {
+
+    /**
+     * 测试规格编码后再解码与原数据一致 规格更新时间通过stamp数组还原
+     */
+    @Test
+    public void testCatalogRoundTrip() {
+        Catalog catalog = new Catalog();
+        catalog.setProductId("37bd5942-3ccf-4c24-ad2b-f026b18e6794");
+        catalog.setCatalogId("c1ba2ba5-ee5b-4139-8731-99127715ffb0");
+        catalog.setSellerId(3383);
+        catalog.setQuotePrice(199.99D);
+        catalog.setNewCustomerPrice(0D);
+        catalog.setVipPrice(150.13D);
+        catalog.setFlightBalance(12.5D);
+        catalog.setMultiLogistics(1);
+        catalog.setUpdateTime(new Date());
+
+        Catalog result = roundTrip(new CatalogBsonCodec(), catalog);
+        Assert.assertEquals(catalog.getProductId(), result.getProductId());
+        Assert.assertEquals(catalog.getCatalogId(), result.getCatalogId());
+        Assert.assertEquals(catalog.getSellerId(), result.getSellerId());
+        Assert.assertEquals(catalog.getQuotePrice(), result.getQuotePrice());
+        Assert.assertEquals(catalog.getNewCustomerPrice(), result.getNewCustomerPrice());
+        Assert.assertEquals(catalog.getVipPrice(), result.getVipPrice());
+        Assert.assertEquals(catalog.getFlightBalance(), result.getFlightBalance());
+        Assert.assertEquals(catalog.getMultiLogistics(), result.getMultiLogistics());
+        Assert.assertEquals(catalog.getUpdateTime(), result.getUpdateTime());
+    }
+
+    /**
+     * 测试活动商品编码后再解码与原数据一致 未设置的时间字段写为null
+     */
+    @Test
+    public void testActivityProductRoundTrip() {
+        ActivityCatalog activityCatalog = new ActivityCatalog();
+        activityCatalog.setActivityCatalogId("c1ba2ba5-ee5b-4139-8731-99127715ffb0");
+        activityCatalog.setActivityCatalogPrice(99.5D);
+        activityCatalog.setActivityStock(20);
+
+        ActivityProduct activityProduct = new ActivityProduct();
+        activityProduct.setProductInActivityId(1001);
+        activityProduct.setProductId("37bd5942-3ccf-4c24-ad2b-f026b18e6794");
+        activityProduct.setActivityCatalogList(Arrays.asList(activityCatalog));
+        activityProduct.setHasIsolation(true);
+        activityProduct.setNewBuyer(false);
+        activityProduct.setStartTime(new Date());
+
+        ActivityProduct result = roundTrip(new ActivityProductBsonCodec(), activityProduct);
+        Assert.assertEquals(activityProduct.getProductInActivityId(), result.getProductInActivityId());
+        Assert.assertEquals(activityProduct.getProductId(), result.getProductId());
+        Assert.assertEquals(activityProduct.getHasIsolation(), result.getHasIsolation());
+        Assert.assertEquals(activityProduct.getNewBuyer(), result.getNewBuyer());
+        Assert.assertEquals(activityProduct.getStartTime(), result.getStartTime());
+        Assert.assertNull(result.getEndTime());
+        Assert.assertEquals(1, result.getActivityCatalogList().size());
+        ActivityCatalog resultCatalog = result.getActivityCatalogList().get(0);
+        Assert.assertEquals(activityCatalog.getActivityCatalogId(), resultCatalog.getActivityCatalogId());
+        Assert.assertEquals(activityCatalog.getActivityCatalogPrice(), resultCatalog.getActivityCatalogPrice());
+        Assert.assertEquals(activityCatalog.getActivityStock(), resultCatalog.getActivityStock());
+    }
+
+    /**
+     * 测试价格区间编码后再解码与原数据一致 解码后重新解析价格区间
+     */
+    @Test
+    public void testProductPriceDataRoundTrip() {
+        ProductPriceData productPriceData = new ProductPriceData();
+        productPriceData.setProductId("37bd5942-3ccf-4c24-ad2b-f026b18e6794");
+        productPriceData.setPriceMaxRange("100.5,90,80");
+        productPriceData.setPriceMinRange("10,9,8");
+        productPriceData.setSellerId(3383);
+
+        ProductPriceData result = roundTrip(new ProductPriceDataBsonCodec(), productPriceData);
+        Assert.assertEquals(productPriceData.getProductId(), result.getProductId());
+        Assert.assertEquals(productPriceData.getPriceMaxRange(), result.getPriceMaxRange());
+        Assert.assertEquals(productPriceData.getPriceMinRange(), result.getPriceMinRange());
+        Assert.assertEquals(productPriceData.getSellerId(), result.getSellerId());
+        Assert.assertEquals(100.5D, result.getMaxOriginalPrice(), 0);
+        Assert.assertEquals(8D, result.getMinVipPrice(), 0);
+    }
+
+    private <T> T roundTrip(Codec<T> codec, T value) {
+        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(outputBuffer), value, EncoderContext.builder().build());
+        return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(outputBuffer.toByteArray())), DecoderContext.builder().build());
+    }
+}
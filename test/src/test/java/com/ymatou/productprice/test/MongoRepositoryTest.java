@@ -1,17 +1,22 @@
 package com.ymatou.productprice.test;
 
 import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.domain.repo.AsyncRepository;
 import com.ymatou.productprice.domain.repo.mongorepo.MongoRepository;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
 import com.ymatou.productprice.web.ProductPriceApplication;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * mongo 数据仓储测试
@@ -23,6 +28,12 @@ public class MongoRepositoryTest {
     @Resource(name="mongoRepository")
     private MongoRepository mongoRepository;
 
+    @Autowired
+    private BizProps bizProps;
+
+    @Autowired
+    private AsyncRepository asyncRepository;
+
     /**
      * 测试根据商品id获取规格信息列表
      * 商品存在的情况
@@ -62,4 +73,59 @@ public class MongoRepositoryTest {
         Assert.assertNotNull("规格列表不能为空",catalogList);
         Assert.assertTrue(!catalogList.isEmpty());
     }
+
+    /**
+     * 测试通过$lookup关联时间戳获取规格信息列表
+     * 与分两次查询的结果一致
+     */
+    @Test
+    public void testGetCatalogListByProduct_LookupQuery(){
+        List<String> productIdList = new ArrayList<>();
+        productIdList.add("c1ba2ba5-ee5b-4139-8731-99127715ffb0");
+        productIdList.add("ce4fed93-0e50-4595-a8c2-5adf9d99725e");
+        productIdList.add("37bd5942-3ccf-4c24-ad2b-f026b18e6794");
+        boolean useLookupQuery = bizProps.isUseLookupQuery();
+        try {
+            bizProps.setUseLookupQuery(false);
+            Map<String, Catalog> findCatalogMap = mongoRepository.getCatalogListByProduct(productIdList)
+                    .stream().collect(Collectors.toMap(Catalog::getCatalogId, x -> x));
+
+            bizProps.setUseLookupQuery(true);
+            List<Catalog> lookupCatalogList = mongoRepository.getCatalogListByProduct(productIdList);
+
+            Assert.assertEquals(findCatalogMap.size(), lookupCatalogList.size());
+            lookupCatalogList.forEach(x -> {
+                Catalog findCatalog = findCatalogMap.get(x.getCatalogId());
+                Assert.assertNotNull(findCatalog);
+                Assert.assertEquals(findCatalog.getQuotePrice(), x.getQuotePrice());
+                Assert.assertEquals(findCatalog.getUpdateTime(), x.getUpdateTime());
+            });
+        } finally {
+            bizProps.setUseLookupQuery(useLookupQuery);
+        }
+    }
+
+    /**
+     * 测试异步仓储获取规格信息列表
+     * 与同步仓储的结果一致
+     */
+    @Test
+    public void testGetCatalogListByProduct_AsyncRepository(){
+        List<String> productIdList = new ArrayList<>();
+        productIdList.add("c1ba2ba5-ee5b-4139-8731-99127715ffb0");
+        productIdList.add("ce4fed93-0e50-4595-a8c2-5adf9d99725e");
+        productIdList.add("37bd5942-3ccf-4c24-ad2b-f026b18e6794");
+        Map<String, Catalog> syncCatalogMap = mongoRepository.getCatalogListByProduct(productIdList)
+                .stream().collect(Collectors.toMap(Catalog::getCatalogId, x -> x));
+
+        List<Catalog> asyncCatalogList = asyncRepository.getCatalogListByProduct(productIdList).join();
+
+        Assert.assertEquals(syncCatalogMap.size(), asyncCatalogList.size());
+        asyncCatalogList.forEach(x -> {
+            Catalog syncCatalog = syncCatalogMap.get(x.getCatalogId());
+            Assert.assertNotNull(syncCatalog);
+            Assert.assertEquals(syncCatalog.getQuotePrice(), x.getQuotePrice());
+            Assert.assertEquals(syncCatalog.getUpdateTime(), x.getUpdateTime());
+        });
+    }
 }
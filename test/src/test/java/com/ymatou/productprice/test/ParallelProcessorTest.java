@@ -0,0 +1,170 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelProcessException;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelProcessor;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelResult;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelTypeEnum;
+import com.ymatou.productprice.infrastructure.util.RequestDeadline;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 并行处理器测试
+ * Created by chenpengxuan on 2017/5/30.
+ */
+public class ParallelProcessorTest {
+
+    private BizProps bizProps;
+
+    private ParallelProcessor<List<Integer>, List<Integer>> parallelProcessor;
+
+    public ParallelProcessorTest() {
+        bizProps = new BizProps();
+        bizProps.setParallelCount(2);
+        bizProps.setParallelMaxCount(2);
+        bizProps.setParallelQueueSize(4);
+        bizProps.setParallelThresHoldCount(10);
+        bizProps.setExceptionWarningSwitch(false);
+        LogWrapper logWrapper = new LogWrapper();
+        ReflectionTestUtils.setField(logWrapper, "bizProps", bizProps);
+        parallelProcessor = new ParallelProcessor<>();
+        ReflectionTestUtils.setField(parallelProcessor, "bizProps", bizProps);
+        ReflectionTestUtils.setField(parallelProcessor, "logWrapper", logWrapper);
+        ReflectionTestUtils.invokeMethod(parallelProcessor, "init");
+    }
+
+    /**
+     * 测试并发调用时结果不串 线程池队列满时由调用线程处理剩余分块
+     */
+    @Test
+    public void testConcurrentCallers() throws Exception {
+        ExecutorService callerPool = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futureList = new ArrayList<>();
+        for (int caller = 0; caller < 8; caller++) {
+            int offset = caller * 1000;
+            futureList.add(callerPool.submit(() -> {
+                List<Integer> sourceList = range(offset, 200);
+                for (ParallelTypeEnum parallelType : ParallelTypeEnum.values()) {
+                    List<Integer> result = parallelProcessor.doParallelProcess(sourceList, this::square, parallelType);
+                    if (!square(sourceList).equals(result)) {
+                        return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> future : futureList) {
+            Assert.assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+        callerPool.shutdown();
+    }
+
+    /**
+     * 测试分块失败时返回失败分块的源数据 doParallelProcess抛出异常
+     */
+    @Test
+    public void testPartialFailure() {
+        List<Integer> sourceList = range(0, 40);
+        ParallelResult<List<Integer>> parallelResult = parallelProcessor.process(sourceList, x -> {
+            if (x.contains(15)) {
+                throw new IllegalStateException("chunk failed");
+            }
+            return square(x);
+        }, ParallelTypeEnum.THREADPOOL);
+
+        Assert.assertFalse(parallelResult.isComplete());
+        Assert.assertFalse(parallelResult.isTimedOut());
+        Assert.assertEquals(range(10, 10), parallelResult.getFailedSourceList());
+        Assert.assertEquals(30, parallelResult.getResult().size());
+        Assert.assertEquals("chunk failed", parallelResult.getErrorList().get(0).getMessage());
+
+        try {
+            parallelProcessor.doParallelProcess(sourceList, x -> {
+                throw new IllegalStateException("chunk failed");
+            }, ParallelTypeEnum.ADAPTIVE);
+            Assert.fail();
+        } catch (ParallelProcessException e) {
+            Assert.assertEquals(sourceList, e.getParallelResult().getFailedSourceList());
+        }
+    }
+
+    /**
+     * 测试请求中的调用超时后不再领取和等待未完成的分块
+     */
+    @Test
+    public void testTimeout() {
+        bizProps.setParallelTimeout(50);
+        List<Integer> sourceList = range(0, 80);
+        long startTime = System.nanoTime();
+        RequestDeadline.start(60000);
+        ParallelResult<List<Integer>> parallelResult;
+        try {
+            parallelResult = parallelProcessor.process(sourceList, x -> {
+                if (!x.contains(0)) {
+                    sleep(1000);
+                }
+                return square(x);
+            }, ParallelTypeEnum.THREADPOOL);
+        } finally {
+            RequestDeadline.clear();
+            bizProps.setParallelTimeout(0);
+        }
+
+        //分块数多于线程数 调用线程最多多处理一个已领取的分块
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 1800);
+        Assert.assertTrue(parallelResult.isTimedOut());
+        Assert.assertEquals(square(range(0, 10)), parallelResult.getResult().subList(0, 10));
+        Assert.assertFalse(parallelResult.getFailedSourceList().isEmpty());
+        Assert.assertEquals(80, parallelResult.getResult().size() + parallelResult.getFailedSourceList().size());
+    }
+
+    /**
+     * 测试没有请求截止时间的后台调用不受parallelTimeout限制
+     */
+    @Test
+    public void testNoTimeoutWithoutRequestDeadline() {
+        bizProps.setParallelTimeout(50);
+        List<Integer> sourceList = range(0, 40);
+        ParallelResult<List<Integer>> parallelResult;
+        try {
+            parallelResult = parallelProcessor.process(sourceList, x -> {
+                sleep(200);
+                return square(x);
+            }, ParallelTypeEnum.THREADPOOL);
+        } finally {
+            bizProps.setParallelTimeout(0);
+        }
+
+        Assert.assertTrue(parallelResult.isComplete());
+        Assert.assertEquals(square(sourceList), parallelResult.getResult());
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<Integer> range(int from, int count) {
+        List<Integer> list = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    private List<Integer> square(List<Integer> list) {
+        List<Integer> result = new ArrayList<>(list.size());
+        list.forEach(x -> result.add(x * x));
+        return result;
+    }
+}
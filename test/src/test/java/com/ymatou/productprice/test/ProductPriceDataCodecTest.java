@@ -0,0 +1,172 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.domain.cache.ProductPriceDataCodec;
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.domain.model.ProductPriceData;
+import com.ymatou.productprice.infrastructure.util.CacheUtil.OffHeapCacheEngine;
+import com.ymatou.productprice.infrastructure.util.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 堆外缓存序列化测试
+ * Created by chenpengxuan on 2017/5/4.
+ */
+public class ProductPriceDataCodecTest {
+
+    private ProductPriceDataCodec codec = new ProductPriceDataCodec();
+
+    /**
+     * 测试序列化与反序列化后的规格数据与原数据一致
+     */
+    @Test
+    public void testEncodeAndDecode() {
+        ProductPriceData productPriceData = buildProductPriceData("c1ba2ba5-ee5b-4139-8731-99127715ffb0", 5);
+
+        ProductPriceData decodeData = codec.decode(codec.encode(productPriceData));
+
+        assertProductPriceDataEquals(productPriceData, decodeData);
+    }
+
+    /**
+     * 测试空字段保持null语义
+     */
+    @Test
+    public void testEncodeAndDecode_NullField() {
+        ProductPriceData productPriceData = new ProductPriceData();
+        List<Catalog> catalogList = new ArrayList<>();
+        catalogList.add(new Catalog());
+        productPriceData.setCatalogList(catalogList);
+
+        ProductPriceData decodeData = codec.decode(codec.encode(productPriceData));
+
+        assertProductPriceDataEquals(productPriceData, decodeData);
+        Assert.assertNull(decodeData.getCatalogList().get(0).getQuotePrice());
+    }
+
+    /**
+     * 测试价格区间解析 缺失或无法解析的价格按0处理
+     */
+    @Test
+    public void testParsePriceRange() {
+        ProductPriceData productPriceData = buildProductPriceData("3b4cbb2a-62d5-4b7e-9d3b-7a8d0d1f6c21", 0);
+        Assert.assertEquals(10D, productPriceData.getMinOriginalPrice(), 0);
+        Assert.assertEquals(100.5D, productPriceData.getMaxOriginalPrice(), 0);
+        Assert.assertEquals(90D, productPriceData.getMaxNewCustomerPrice(), 0);
+        Assert.assertEquals(8D, productPriceData.getMinVipPrice(), 0);
+
+        productPriceData.setPriceMaxRange("100,abc");
+        productPriceData.setPriceMinRange("");
+        productPriceData.parsePriceRange();
+        Assert.assertEquals(100D, productPriceData.getMaxOriginalPrice(), 0);
+        Assert.assertEquals(0D, productPriceData.getMaxNewCustomerPrice(), 0);
+        Assert.assertEquals(0D, productPriceData.getMaxVipPrice(), 0);
+        Assert.assertEquals(0D, productPriceData.getMinOriginalPrice(), 0);
+    }
+
+    /**
+     * 测试堆外缓存引擎存取与淘汰
+     */
+    @Test
+    public void testOffHeapCacheEngine() {
+        OffHeapCacheEngine<String, ProductPriceData> engine = new OffHeapCacheEngine<>(
+                2L * OffHeapCacheEngine.SEGMENT_SIZE, 48, codec);
+
+        ProductPriceData productPriceData = buildProductPriceData("37bd5942-3ccf-4c24-ad2b-f026b18e6794", 3);
+        engine.put(productPriceData.getProductId(), productPriceData);
+        assertProductPriceDataEquals(productPriceData, engine.getIfPresent(productPriceData.getProductId()));
+
+        //写满两个内存段后第一个内存段被复用 最早写入的数据被淘汰
+        for (int i = 0; engine.stats().evictionCount() == 0; i++) {
+            String productId = "product-" + i;
+            engine.put(productId, buildProductPriceData(productId, 20));
+        }
+        Assert.assertNull(engine.getIfPresent(productPriceData.getProductId()));
+    }
+
+    /**
+     * 测试堆外缓存引擎按最后访问时间过期 与guava/TinyLFU缓存引擎一致
+     */
+    @Test
+    public void testOffHeapCacheEngineExpireAfterAccess() throws InterruptedException {
+        OffHeapCacheEngine<String, ProductPriceData> engine = new OffHeapCacheEngine<>(
+                2L * OffHeapCacheEngine.SEGMENT_SIZE, 48, codec);
+        ReflectionTestUtils.setField(engine, "expireNanos", TimeUnit.MILLISECONDS.toNanos(1000));
+
+        ProductPriceData productPriceData = buildProductPriceData("37bd5942-3ccf-4c24-ad2b-f026b18e6794", 3);
+        engine.put(productPriceData.getProductId(), productPriceData);
+        //每600毫秒访问一次 写入已超过过期时间但仍在缓存中
+        Thread.sleep(600);
+        Assert.assertNotNull(engine.getIfPresent(productPriceData.getProductId()));
+        Thread.sleep(600);
+        Assert.assertNotNull(engine.getIfPresent(productPriceData.getProductId()));
+
+        //超过过期时间未访问
+        Thread.sleep(1200);
+        Assert.assertNull(engine.getIfPresent(productPriceData.getProductId()));
+        Assert.assertEquals(0, engine.size());
+    }
+
+    private ProductPriceData buildProductPriceData(String productId, int catalogCount) {
+        ProductPriceData productPriceData = new ProductPriceData();
+        productPriceData.setProductId(productId);
+        productPriceData.setPriceMaxRange("100.5,90,80");
+        productPriceData.setPriceMinRange("10,9,8");
+        productPriceData.parsePriceRange();
+        productPriceData.setSellerId(3383);
+        productPriceData.setUpdateTime(new Date());
+
+        List<Catalog> catalogList = new ArrayList<>();
+        for (int i = 0; i < catalogCount; i++) {
+            //与MongoRepository.convertMapToCatalog的转换结果保持一致
+            Catalog catalog = new Catalog();
+            catalog.setProductId(productId);
+            catalog.setCatalogId(productId + "-" + i);
+            catalog.setSellerId(3383);
+            catalog.setQuotePrice(Utils.doubleFormat(199.999D + i, 2));
+            catalog.setNewCustomerPrice(Utils.doubleFormat(0D, 2));
+            catalog.setVipPrice(Utils.doubleFormat(150.125D, 2));
+            catalog.setFlightBalance(Utils.doubleFormat(12.5D, 2));
+            catalog.setMultiLogistics(i % 2);
+            catalog.setUpdateTime(new Date());
+            catalogList.add(catalog);
+        }
+        productPriceData.setCatalogList(catalogList);
+        return productPriceData;
+    }
+
+    private void assertProductPriceDataEquals(ProductPriceData expected, ProductPriceData actual) {
+        Assert.assertEquals(expected.getProductId(), actual.getProductId());
+        Assert.assertEquals(expected.getPriceMaxRange(), actual.getPriceMaxRange());
+        Assert.assertEquals(expected.getPriceMinRange(), actual.getPriceMinRange());
+        Assert.assertEquals(expected.getMinOriginalPrice(), actual.getMinOriginalPrice(), 0);
+        Assert.assertEquals(expected.getMaxOriginalPrice(), actual.getMaxOriginalPrice(), 0);
+        Assert.assertEquals(expected.getMinNewCustomerPrice(), actual.getMinNewCustomerPrice(), 0);
+        Assert.assertEquals(expected.getMaxNewCustomerPrice(), actual.getMaxNewCustomerPrice(), 0);
+        Assert.assertEquals(expected.getMinVipPrice(), actual.getMinVipPrice(), 0);
+        Assert.assertEquals(expected.getMaxVipPrice(), actual.getMaxVipPrice(), 0);
+        Assert.assertEquals(expected.getSellerId(), actual.getSellerId());
+        Assert.assertEquals(expected.getUpdateTime(), actual.getUpdateTime());
+        Assert.assertEquals(expected.getCatalogList().size(), actual.getCatalogList().size());
+
+        for (int i = 0; i < expected.getCatalogList().size(); i++) {
+            Catalog expectedCatalog = expected.getCatalogList().get(i);
+            Catalog actualCatalog = actual.getCatalogList().get(i);
+            Assert.assertEquals(expectedCatalog.getCatalogId(), actualCatalog.getCatalogId());
+            Assert.assertEquals(expectedCatalog.getProductId(), actualCatalog.getProductId());
+            Assert.assertEquals(expectedCatalog.getSellerId(), actualCatalog.getSellerId());
+            Assert.assertEquals(expectedCatalog.getQuotePrice(), actualCatalog.getQuotePrice());
+            Assert.assertEquals(expectedCatalog.getNewCustomerPrice(), actualCatalog.getNewCustomerPrice());
+            Assert.assertEquals(expectedCatalog.getVipPrice(), actualCatalog.getVipPrice());
+            Assert.assertEquals(expectedCatalog.getFlightBalance(), actualCatalog.getFlightBalance());
+            Assert.assertEquals(expectedCatalog.getUpdateTime(), actualCatalog.getUpdateTime());
+            Assert.assertEquals(expectedCatalog.getMultiLogistics(), actualCatalog.getMultiLogistics());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.domain.model.ActivityCatalog;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.model.ProductPriceData;
+import com.ymatou.productprice.domain.model.SearchPriceColumns;
+import com.ymatou.productprice.domain.service.CalcPriceServiceForSearch;
+import com.ymatou.productprice.domain.service.PriceCoreService;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics.SellerOrderStatistics;
+import com.ymatou.productprice.model.ProductPriceForSearched;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+/**
+ * 搜索商品列表列式价格计算测试
+ * 随机生成价格区间、活动商品与用户行为 列式计算结果与按对象计算的结果一致
+ * Created by chenpengxuan on 2017/5/28.
+ */
+public class SearchPriceColumnsTest {
+
+    private static final double[] PRICES = {0D, 50D, 80D, 99.9D, 100D, 120D};
+
+    private PriceCoreService priceCoreService;
+
+    public SearchPriceColumnsTest() {
+        CalcPriceServiceForSearch calcPriceServiceForSearch = new CalcPriceServiceForSearch();
+        ReflectionTestUtils.setField(calcPriceServiceForSearch, "logWrapper", new LogWrapper());
+        priceCoreService = new PriceCoreService();
+        ReflectionTestUtils.setField(priceCoreService, "calcPriceServiceForSearch", calcPriceServiceForSearch);
+    }
+
+    /**
+     * 测试访客、vip、新客、原价与活动价的各种组合
+     */
+    @Test
+    public void testConsistentWithObjectPricing() {
+        Random random = new Random(20170528);
+        for (int round = 0; round < 200; round++) {
+            int productCount = 1 + random.nextInt(60);
+            List<String> productIdList = new ArrayList<>();
+            List<ProductPriceData> productList = new ArrayList<>();
+            for (int i = 0; i < productCount; i++) {
+                productIdList.add("p" + i);
+                productList.add(buildProductPriceData("p" + i, random));
+            }
+            List<ActivityProduct> activityProductList = buildActivityProductList(productIdList, random);
+            BuyerOrderStatistics resp = buildBuyerOrderStatistics(random);
+
+            for (int buyerId : new int[]{0, 1}) {
+                for (boolean isNewBuyer : new boolean[]{true, false}) {
+                    for (boolean isTradeIsolation : new boolean[]{true, false}) {
+                        BuyerOrderStatistics tempResp = buyerId > 0 ? resp : null;
+                        List<ProductPriceForSearched> expected = objectPricing(buyerId, productList,
+                                activityProductList, tempResp, isNewBuyer, isTradeIsolation);
+
+                        SearchPriceColumns priceColumns = new SearchPriceColumns(productIdList);
+                        priceColumns.fillPriceRange(productList);
+                        priceCoreService.decideProductRealPriceForSearch(buyerId, priceColumns,
+                                activityProductList, tempResp, isNewBuyer, isTradeIsolation);
+
+                        assertEquals(expected, priceColumns.toProductPriceForSearchedList());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 按对象计算 价格区间与用户行为的填充方式与PriceQueryService、PriceCoreService一致
+     */
+    private List<ProductPriceForSearched> objectPricing(int buyerId,
+                                                        List<ProductPriceData> productList,
+                                                        List<ActivityProduct> activityProductList,
+                                                        BuyerOrderStatistics resp,
+                                                        boolean isNewBuyer,
+                                                        boolean isTradeIsolation) {
+        List<ProductPriceForSearched> productPriceList = new ArrayList<>();
+        for (ProductPriceData productPriceData : productList) {
+            ProductPriceForSearched productPrice = new ProductPriceForSearched();
+            productPrice.setProductId(productPriceData.getProductId());
+            productPrice.setMinOriginalPrice(productPriceData.getMinOriginalPrice());
+            productPrice.setMaxOriginalPrice(productPriceData.getMaxOriginalPrice());
+            productPrice.setMinNewpersonPrice(productPriceData.getMinNewCustomerPrice());
+            productPrice.setMaxNewpersonPrice(productPriceData.getMaxNewCustomerPrice());
+            productPrice.setMinVipPrice(productPriceData.getMinVipPrice());
+            productPrice.setMaxVipPrice(productPriceData.getMaxVipPrice());
+            productPrice.setSellerId(Long.valueOf(productPriceData.getSellerId()));
+
+            SellerOrderStatistics sellerOrderStatistics = resp != null ? resp.getFromSeller().get(productPrice.getSellerId()) : null;
+            productPrice.setHasConfirmedOrders(sellerOrderStatistics != null && sellerOrderStatistics.isHasConfirmedOrders());
+            productPrice.setNoOrdersOrAllCancelled(sellerOrderStatistics != null && sellerOrderStatistics.isNoOrdersOrAllCancelled());
+            productPriceList.add(productPrice);
+        }
+        priceCoreService.decideProductRealPriceForSearch(buyerId, productPriceList,
+                activityProductList, resp, isNewBuyer, isTradeIsolation);
+        return productPriceList;
+    }
+
+    private ProductPriceData buildProductPriceData(String productId, Random random) {
+        ProductPriceData productPriceData = new ProductPriceData();
+        productPriceData.setProductId(productId);
+        productPriceData.setSellerId(1 + random.nextInt(5));
+        double[] originalPrices = randomRange(random);
+        double[] newCustomerPrices = randomRange(random);
+        double[] vipPrices = randomRange(random);
+        productPriceData.setMinOriginalPrice(originalPrices[0]);
+        productPriceData.setMaxOriginalPrice(originalPrices[1]);
+        productPriceData.setMinNewCustomerPrice(newCustomerPrices[0]);
+        productPriceData.setMaxNewCustomerPrice(newCustomerPrices[1]);
+        productPriceData.setMinVipPrice(vipPrices[0]);
+        productPriceData.setMaxVipPrice(vipPrices[1]);
+        return productPriceData;
+    }
+
+    private double[] randomRange(Random random) {
+        double first = PRICES[random.nextInt(PRICES.length)];
+        double second = PRICES[random.nextInt(PRICES.length)];
+        return new double[]{Math.min(first, second), Math.max(first, second)};
+    }
+
+    private List<ActivityProduct> buildActivityProductList(List<String> productIdList, Random random) {
+        List<ActivityProduct> activityProductList = new ArrayList<>();
+        for (String productId : productIdList) {
+            //同一商品可能有多个活动商品
+            int activityProductCount = random.nextInt(4) == 0 ? 2 : random.nextInt(2);
+            for (int i = 0; i < activityProductCount; i++) {
+                ActivityProduct activityProduct = new ActivityProduct();
+                activityProduct.setProductId(productId);
+                activityProduct.setHasIsolation(random.nextBoolean());
+                activityProduct.setNewBuyer(random.nextBoolean());
+                List<ActivityCatalog> activityCatalogList = new ArrayList<>();
+                for (int j = random.nextInt(4); j > 0; j--) {
+                    ActivityCatalog activityCatalog = new ActivityCatalog();
+                    activityCatalog.setActivityCatalogId(productId + "-" + j);
+                    activityCatalog.setActivityCatalogPrice(PRICES[random.nextInt(PRICES.length)]);
+                    activityCatalog.setActivityStock(random.nextInt(3));
+                    activityCatalogList.add(activityCatalog);
+                }
+                activityProduct.setActivityCatalogList(activityCatalogList);
+                activityProductList.add(activityProduct);
+            }
+        }
+        Collections.shuffle(activityProductList, random);
+        return activityProductList;
+    }
+
+    private BuyerOrderStatistics buildBuyerOrderStatistics(Random random) {
+        Map<Long, SellerOrderStatistics> fromSeller = new HashMap<>();
+        for (long sellerId = 1; sellerId <= 5; sellerId++) {
+            if (random.nextInt(4) > 0) {
+                fromSeller.put(sellerId, new SellerOrderStatistics(random.nextBoolean(), random.nextBoolean()));
+            }
+        }
+        return new BuyerOrderStatistics(fromSeller);
+    }
+
+    private void assertEquals(List<ProductPriceForSearched> expected, List<ProductPriceForSearched> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ProductPriceForSearched expectedPrice = expected.get(i);
+            ProductPriceForSearched actualPrice = actual.get(i);
+            String productId = expectedPrice.getProductId();
+            Assert.assertEquals(productId, actualPrice.getProductId());
+            Assert.assertEquals(productId, expectedPrice.getMinPrice(), actualPrice.getMinPrice(), 0);
+            Assert.assertEquals(productId, expectedPrice.getMaxPrice(), actualPrice.getMaxPrice(), 0);
+            Assert.assertEquals(productId, expectedPrice.getPriceType(), actualPrice.getPriceType());
+            Assert.assertEquals(productId, expectedPrice.getSellerId(), actualPrice.getSellerId());
+            Assert.assertEquals(productId, expectedPrice.getMinOriginalPrice(), actualPrice.getMinOriginalPrice(), 0);
+            Assert.assertEquals(productId, expectedPrice.getMaxVipPrice(), actualPrice.getMaxVipPrice(), 0);
+            Assert.assertEquals(productId, expectedPrice.getHasConfirmedOrders(), actualPrice.getHasConfirmedOrders());
+            Assert.assertEquals(productId, expectedPrice.getNoOrdersOrAllCancelled(), actualPrice.getNoOrdersOrAllCancelled());
+        }
+    }
+}
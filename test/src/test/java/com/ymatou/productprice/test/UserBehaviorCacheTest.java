@@ -0,0 +1,191 @@
+package com.ymatou.productprice.test;
+
+import com.ymatou.productprice.infrastructure.config.props.CacheProps;
+import com.ymatou.productprice.intergration.cache.UserBehaviorCache;
+import com.ymatou.productprice.intergration.client.UserBehaviorAnalysisService;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.useranalysis.facade.model.resp.GetBuyerFirstOrderInfoResp;
+import com.ymatou.useranalysis.facade.model.resp.GetBuyerOrderStatisticsResp;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+/**
+ * 用户行为缓存测试
+ * Created by chenpengxuan on 2017/5/23.
+ */
+public class UserBehaviorCacheTest {
+
+    /**
+     * 测试部分命中时只查询缺少的买手 服务未返回的买手按没有订单处理 结果与不使用缓存时一致
+     */
+    @Test
+    public void testFetchMissingSellerOnly() {
+        CacheProps cacheProps = newCacheProps();
+        FakeUserBehaviorAnalysisService userBehaviorAnalysisService = new FakeUserBehaviorAnalysisService();
+        UserBehaviorCache userBehaviorCache = newUserBehaviorCache(cacheProps, userBehaviorAnalysisService);
+        userBehaviorAnalysisService.confirmedSellerIdSet.add(1L);
+        BuyerOrderStatistics first = userBehaviorCache.getBuyerOrderStatistics(Arrays.asList(1L, 2L), 10);
+        Assert.assertEquals(Collections.singletonList(new TreeSet<>(Arrays.asList(1L, 2L))), userBehaviorAnalysisService.sellerRequestList);
+
+        BuyerOrderStatistics second = userBehaviorCache.getBuyerOrderStatistics(Arrays.asList(1L, 2L, 3L), 10);
+        Assert.assertEquals(new TreeSet<>(Collections.singletonList(3L)), userBehaviorAnalysisService.sellerRequestList.get(1));
+        Assert.assertEquals(2L, userBehaviorCache.getStats().get("sellerHitCount").longValue());
+
+        Assert.assertTrue(first.getFromSeller().get(1L).isHasConfirmedOrders());
+        Assert.assertTrue(second.getFromSeller().get(1L).isHasConfirmedOrders());
+        Assert.assertFalse(second.getFromSeller().get(2L).isHasConfirmedOrders());
+        Assert.assertSame(BuyerOrderStatistics.SellerOrderStatistics.NONE, second.getFromSeller().get(3L));
+
+        cacheProps.setUseUserBehaviorCache(false);
+        BuyerOrderStatistics uncached = userBehaviorCache.getBuyerOrderStatistics(Arrays.asList(1L, 2L, 3L), 10);
+        Assert.assertEquals(second.getFromSeller().toString(), uncached.getFromSeller().toString());
+    }
+
+    /**
+     * 测试服务调用失败时不缓存 下次重新查询
+     */
+    @Test
+    public void testFailedFetchNotCached() {
+        CacheProps cacheProps = newCacheProps();
+        FakeUserBehaviorAnalysisService userBehaviorAnalysisService = new FakeUserBehaviorAnalysisService();
+        UserBehaviorCache userBehaviorCache = newUserBehaviorCache(cacheProps, userBehaviorAnalysisService);
+        userBehaviorAnalysisService.fail = true;
+        BuyerOrderStatistics failed = userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), 10);
+        Assert.assertTrue(failed.getFromSeller().isEmpty());
+
+        userBehaviorAnalysisService.fail = false;
+        userBehaviorAnalysisService.confirmedSellerIdSet.add(1L);
+        BuyerOrderStatistics result = userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), 10);
+        Assert.assertEquals(2, userBehaviorAnalysisService.sellerRequestList.size());
+        Assert.assertTrue(result.getFromSeller().get(1L).isHasConfirmedOrders());
+
+        userBehaviorAnalysisService.fail = true;
+        Assert.assertFalse(userBehaviorCache.isNewCustomer(10));
+        userBehaviorAnalysisService.fail = false;
+        userBehaviorAnalysisService.newCustomerIdSet.add(10L);
+        Assert.assertTrue(userBehaviorCache.isNewCustomer(10));
+        Assert.assertEquals(2, userBehaviorAnalysisService.firstOrderCallCount);
+    }
+
+    /**
+     * 测试码头新客结果缓存 按买家失效时同时删除买手订单统计与码头新客缓存
+     */
+    @Test
+    public void testNewCustomerCacheAndInvalidate() {
+        CacheProps cacheProps = newCacheProps();
+        FakeUserBehaviorAnalysisService userBehaviorAnalysisService = new FakeUserBehaviorAnalysisService();
+        UserBehaviorCache userBehaviorCache = newUserBehaviorCache(cacheProps, userBehaviorAnalysisService);
+        userBehaviorAnalysisService.newCustomerIdSet.add(10L);
+        Assert.assertTrue(userBehaviorCache.isNewCustomer(10));
+        Assert.assertTrue(userBehaviorCache.isNewCustomer(10));
+        Assert.assertEquals(1, userBehaviorAnalysisService.firstOrderCallCount);
+        userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), 10);
+        userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), 10);
+        Assert.assertEquals(1, userBehaviorAnalysisService.sellerRequestList.size());
+
+        userBehaviorCache.invalidate(10);
+        userBehaviorAnalysisService.newCustomerIdSet.clear();
+        Assert.assertFalse(userBehaviorCache.isNewCustomer(10));
+        userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), 10);
+        Assert.assertEquals(2, userBehaviorAnalysisService.firstOrderCallCount);
+        Assert.assertEquals(2, userBehaviorAnalysisService.sellerRequestList.size());
+    }
+
+    /**
+     * 测试买家未登录时与不使用缓存时一样返回null 不调用服务
+     */
+    @Test
+    public void testNotLoggedInBuyer() {
+        CacheProps cacheProps = newCacheProps();
+        FakeUserBehaviorAnalysisService userBehaviorAnalysisService = new FakeUserBehaviorAnalysisService();
+        UserBehaviorCache userBehaviorCache = newUserBehaviorCache(cacheProps, userBehaviorAnalysisService);
+        Assert.assertNull(userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), 0));
+        Assert.assertNull(userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), -1));
+        cacheProps.setUseUserBehaviorCache(false);
+        Assert.assertNull(userBehaviorCache.getBuyerOrderStatistics(Collections.singletonList(1L), 0));
+        Assert.assertTrue(userBehaviorAnalysisService.sellerRequestList.isEmpty());
+    }
+
+    private CacheProps newCacheProps() {
+        CacheProps cacheProps = new CacheProps();
+        cacheProps.setUseUserBehaviorCache(true);
+        cacheProps.setUserBehaviorCacheSize(100);
+        cacheProps.setUserBehaviorCacheExpireTime(60000);
+        return cacheProps;
+    }
+
+    private UserBehaviorCache newUserBehaviorCache(CacheProps cacheProps, UserBehaviorAnalysisService userBehaviorAnalysisService) {
+        UserBehaviorCache userBehaviorCache = new UserBehaviorCache();
+        ReflectionTestUtils.setField(userBehaviorCache, "cacheProps", cacheProps);
+        ReflectionTestUtils.setField(userBehaviorCache, "userBehaviorAnalysisService", userBehaviorAnalysisService);
+        userBehaviorCache.init();
+        return userBehaviorCache;
+    }
+
+    /**
+     * 用户行为服务 记录调用 按设置的买手与买家返回结果
+     */
+    private static class FakeUserBehaviorAnalysisService extends UserBehaviorAnalysisService {
+
+        private final List<Set<Long>> sellerRequestList = new ArrayList<>();
+
+        private final Set<Long> confirmedSellerIdSet = new HashSet<>();
+
+        private final Set<Long> newCustomerIdSet = new HashSet<>();
+
+        private int firstOrderCallCount;
+
+        private boolean fail;
+
+        @Override
+        public GetBuyerOrderStatisticsResp getBuyerBehavior(List<Long> sellerIdList, int buyerId) {
+            if (buyerId <= 0) {
+                return null;
+            }
+            sellerRequestList.add(new TreeSet<>(sellerIdList));
+            if (fail) {
+                return null;
+            }
+            Map<Long, GetBuyerOrderStatisticsResp.FromSellerOrderStatistics> fromSeller = new HashMap<>();
+            //只返回有确认订单的买手 其他买手由缓存按没有订单处理
+            sellerIdList.stream().filter(confirmedSellerIdSet::contains).forEach(x ->
+                    fromSeller.put(x, new GetBuyerOrderStatisticsResp.FromSellerOrderStatistics() {
+                        @Override
+                        public boolean isHasConfirmedOrders() {
+                            return true;
+                        }
+                    }));
+            return new GetBuyerOrderStatisticsResp() {
+                @Override
+                public Map<Long, FromSellerOrderStatistics> getFromSeller() {
+                    return fromSeller;
+                }
+            };
+        }
+
+        @Override
+        public GetBuyerFirstOrderInfoResp getBuyerFirstOrderInfo(long buyerId) {
+            firstOrderCallCount++;
+            if (fail) {
+                return null;
+            }
+            boolean isNewCustomer = newCustomerIdSet.contains(buyerId);
+            Map<Long, GetBuyerFirstOrderInfoResp.FirstOrderInfo> firstOrderInfos = new HashMap<>();
+            firstOrderInfos.put(buyerId, new GetBuyerFirstOrderInfoResp.FirstOrderInfo() {
+                @Override
+                public boolean isNewCustomer() {
+                    return isNewCustomer;
+                }
+            });
+            return new GetBuyerFirstOrderInfoResp() {
+                @Override
+                public Map<Long, FirstOrderInfo> getFirstOrderInfos() {
+                    return firstOrderInfos;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.domain.cache.ActivityProductIndex;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 活动商品增量同步性能测试
+ * 缓存中已有activityCount条活动商品 mongo中有效活动商品另有deltaCount条新增
+ * listDiff为原实现 展开缓存中全部活动商品id后用List.removeAll求差集 再按商品合并列表
+ * indexMerge为ActivityProductIndex 按活动商品id索引筛选缺失id 只合并新增的活动商品并清理过期
+ * 运行方式：gradle :test:jmh -PjmhInclude=ActivitySyncBenchmark
+ * Created by chenpengxuan on 2017/6/1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivitySyncBenchmark {
+
+    @Param({"5000", "50000"})
+    private int activityCount;
+
+    @Param({"50"})
+    private int deltaCount;
+
+    private List<ActivityProduct> cachedActivityProductList;
+
+    private List<ActivityProduct> deltaActivityProductList;
+
+    private List<Integer> validInActivityIdList;
+
+    private ConcurrentMap<String, List<ActivityProduct>> activityProductCacheContainer;
+
+    private ActivityProductIndex activityProductIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long now = System.currentTimeMillis();
+        cachedActivityProductList = new ArrayList<>(activityCount);
+        validInActivityIdList = new ArrayList<>(activityCount + deltaCount);
+        for (int i = 0; i < activityCount; i++) {
+            cachedActivityProductList.add(newActivityProduct(i, now));
+            validInActivityIdList.add(i);
+        }
+        deltaActivityProductList = new ArrayList<>(deltaCount);
+        for (int i = activityCount; i < activityCount + deltaCount; i++) {
+            deltaActivityProductList.add(newActivityProduct(i, now));
+            validInActivityIdList.add(i);
+        }
+    }
+
+    /**
+     * 每次调用前恢复到只有已缓存活动商品的状态
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+        activityProductCacheContainer = new ConcurrentHashMap<>(cachedActivityProductList.stream()
+                .collect(Collectors.groupingBy(ActivityProduct::getProductId)));
+        activityProductIndex = new ActivityProductIndex(() -> Integer.MAX_VALUE);
+        activityProductIndex.merge(cachedActivityProductList, null);
+    }
+
+    @Benchmark
+    public Object listDiff() {
+        List<Integer> cacheInActivityIdList = new ArrayList<>();
+        activityProductCacheContainer.values().forEach(z ->
+                z.forEach(x -> cacheInActivityIdList.add(x.getProductInActivityId())));
+
+        List<Integer> needReloadInActivityIdList = new ArrayList<>(validInActivityIdList);
+        needReloadInActivityIdList.removeAll(cacheInActivityIdList);
+
+        List<ActivityProduct> cacheActivityProductList = new ArrayList<>();
+        deltaActivityProductList.forEach(x -> {
+            List<ActivityProduct> tempCacheList = activityProductCacheContainer.get(x.getProductId());
+            if (tempCacheList != null) {
+                cacheActivityProductList.addAll(tempCacheList);
+            }
+        });
+        cacheActivityProductList.addAll(deltaActivityProductList);
+        activityProductCacheContainer.putAll(cacheActivityProductList.stream().distinct()
+                .collect(Collectors.groupingBy(ActivityProduct::getProductId)));
+        return needReloadInActivityIdList;
+    }
+
+    @Benchmark
+    public Object indexMerge() {
+        activityProductIndex.removeExpired(System.currentTimeMillis());
+        List<Integer> needReloadInActivityIdList = activityProductIndex.getMissingProductInActivityIdList(validInActivityIdList);
+        activityProductIndex.merge(deltaActivityProductList, null);
+        return needReloadInActivityIdList;
+    }
+
+    private ActivityProduct newActivityProduct(int productInActivityId, long now) {
+        ActivityProduct activityProduct = new ActivityProduct();
+        activityProduct.setProductInActivityId(productInActivityId);
+        //约一半商品有两个活动商品
+        activityProduct.setProductId("p" + productInActivityId * 2 / 3);
+        activityProduct.setStartTime(new Date(now - TimeUnit.DAYS.toMillis(1)));
+        activityProduct.setEndTime(new Date(now + TimeUnit.DAYS.toMillis(1) + productInActivityId));
+        activityProduct.setActivityCatalogList(new ArrayList<>());
+        return activityProduct;
+    }
+}
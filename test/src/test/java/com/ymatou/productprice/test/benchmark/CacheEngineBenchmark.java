@@ -0,0 +1,131 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.infrastructure.util.CacheUtil.CacheEngine;
+import com.ymatou.productprice.infrastructure.util.CacheUtil.GuavaCacheEngine;
+import com.ymatou.productprice.infrastructure.util.CacheUtil.TinyLfuCacheEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 缓存引擎请求延迟测试
+ * 16个请求线程回放同一条倾斜分布的key序列(热点商品 + 30%爬虫顺序扫描长尾) 每次请求查询REQUEST_KEY_COUNT个商品
+ * 未命中的商品批量回源 模拟mongo查询每次阻塞200微秒 每条另加20微秒 回源后写入缓存
+ * 按请求采样耗时 输出p50/p99等分位值 命中与未命中条数通过辅助计数器输出
+ * 运行方式：gradle :test:jmh -PjmhInclude=CacheEngineBenchmark
+ * Created by chenpengxuan on 2017/5/2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class CacheEngineBenchmark {
+
+    private static final int KEY_SPACE = 200000;
+
+    private static final int CACHE_SIZE = 5000;
+
+    private static final int TRACE_LENGTH = 1 << 20;
+
+    private static final int REQUEST_KEY_COUNT = 20;
+
+    private static final long LOAD_OVERHEAD_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private static final long LOAD_PER_ITEM_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    @Param({"guava", "tinyLfu"})
+    private String engineType;
+
+    private CacheEngine<Integer, Integer> engine;
+
+    private int[] trace;
+
+    /**
+     * 各请求线程在序列中的起始位置
+     */
+    private final AtomicInteger threadOffset = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        engine = "guava".equals(engineType)
+                ? new GuavaCacheEngine<>(CACHE_SIZE, 48, 8)
+                : new TinyLfuCacheEngine<>(CACHE_SIZE, 48, 8);
+        trace = buildSkewedTrace(TRACE_LENGTH);
+    }
+
+    @Benchmark
+    public int request(RequestCounters requestCounters) {
+        Map<Integer, Integer> missMap = new HashMap<>();
+        int result = 0;
+        for (int i = 0; i < REQUEST_KEY_COUNT; i++) {
+            int key = trace[requestCounters.nextIndex()];
+            Integer value = engine.getIfPresent(key);
+            if (value != null) {
+                requestCounters.hitCount++;
+                result += value;
+            } else {
+                requestCounters.missCount++;
+                missMap.put(key, key);
+            }
+        }
+        if (!missMap.isEmpty()) {
+            LockSupport.parkNanos(LOAD_OVERHEAD_NANOS + LOAD_PER_ITEM_NANOS * missMap.size());
+            engine.putAll(missMap);
+        }
+        return result;
+    }
+
+    /**
+     * 请求线程的回放位置与命中计数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RequestCounters {
+
+        public long hitCount;
+
+        public long missCount;
+
+        private int index;
+
+        @Setup
+        public void setup(CacheEngineBenchmark benchmark) {
+            index = benchmark.threadOffset.getAndAdd(TRACE_LENGTH / 16) % TRACE_LENGTH;
+        }
+
+        int nextIndex() {
+            index = (index + 1) & (TRACE_LENGTH - 1);
+            return index;
+        }
+    }
+
+    private int[] buildSkewedTrace(int length) {
+        Random random = new Random(42);
+        double[] cdf = new double[KEY_SPACE];
+        double sum = 0;
+        for (int i = 0; i < KEY_SPACE; i++) {
+            sum += 1.0d / Math.pow(i + 1, 0.9d);
+            cdf[i] = sum;
+        }
+        int[] result = new int[length];
+        int scanKey = KEY_SPACE;
+        for (int i = 0; i < length; i++) {
+            if (i % 10 < 3) {
+                result[i] = scanKey++;
+            } else {
+                int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                result[i] = index < 0 ? -index - 1 : index;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.domain.mapper.CatalogMapper;
+import com.ymatou.productprice.infrastructure.util.Utils;
+import com.ymatou.productprice.model.Catalog;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 规格结构转换性能测试
+ * beanUtils为原实现 Utils.copyProperties通过反射按属性复制
+ * mapper为CatalogMapper逐字段赋值
+ * 运行方式：gradle :test:jmh -PjmhInclude=CatalogMappingBenchmark -PjmhArgs="-prof gc"
+ * Created by chenpengxuan on 2017/5/29.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogMappingBenchmark {
+
+    /**
+     * 规格数
+     */
+    @Param({"10", "200"})
+    private int catalogCount;
+
+    private List<com.ymatou.productprice.domain.model.Catalog> catalogList;
+
+    @Setup
+    public void setup() {
+        catalogList = new ArrayList<>(catalogCount);
+        for (int i = 0; i < catalogCount; i++) {
+            //与MongoRepository.convertMapToCatalog的转换结果保持一致
+            com.ymatou.productprice.domain.model.Catalog catalog = new com.ymatou.productprice.domain.model.Catalog();
+            catalog.setProductId("p" + i / 5);
+            catalog.setCatalogId("c" + i);
+            catalog.setSellerId(3383);
+            catalog.setQuotePrice(Utils.doubleFormat(199.99D + i, 2));
+            catalog.setNewCustomerPrice(0D);
+            catalog.setVipPrice(Utils.doubleFormat(150.12D, 2));
+            catalog.setFlightBalance(Utils.doubleFormat(12.5D, 2));
+            catalog.setMultiLogistics(i % 2);
+            catalog.setUpdateTime(new Date());
+            catalogList.add(catalog);
+        }
+    }
+
+    @Benchmark
+    public List<Catalog> beanUtils() {
+        List<Catalog> outputCatalogList = new ArrayList<>(catalogList.size());
+        catalogList.forEach(x -> {
+            Catalog tempOutputCatalog = new Catalog();
+            Utils.copyProperties(tempOutputCatalog, x);
+            tempOutputCatalog.setExtraDelivery(x.getMultiLogistics() > 0);
+            outputCatalogList.add(tempOutputCatalog);
+        });
+        return outputCatalogList;
+    }
+
+    @Benchmark
+    public List<Catalog> mapper() {
+        return CatalogMapper.toOutputCatalogList(catalogList);
+    }
+}
@@ -0,0 +1,241 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.domain.model.ActivityCatalog;
+import com.ymatou.productprice.domain.model.ActivityProduct;
+import com.ymatou.productprice.domain.service.CalcPriceService;
+import com.ymatou.productprice.domain.service.PriceCoreService;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics.SellerOrderStatistics;
+import com.ymatou.productprice.model.Catalog;
+import com.ymatou.productprice.model.ProductPrice;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 价格核心逻辑性能测试
+ * 两种实现都通过PriceCoreService.fillCatalogs与CalcPriceService.decideProductRealPrice入口计算 注入相同的依赖
+ * linearPricing为原实现 每个商品扫描全部规格与活动商品 每个规格扫描两次活动规格 访客、vip、新客判断与现有实现相同
+ * indexedPricing为现有实现 按商品id与活动规格id建立索引
+ * 买手交替为vip买家、新客买家与无订单统计 覆盖全部价格判断分支
+ * 运行方式：gradle :test:jmh -PjmhInclude=CatalogPricingBenchmark
+ * Created by chenpengxuan on 2017/5/26.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogPricingBenchmark {
+
+    /**
+     * 规格数
+     */
+    @Param({"1", "30", "200", "2000"})
+    private int catalogCount;
+
+    /**
+     * 每个商品的规格数
+     */
+    @Param({"5"})
+    private int catalogCountPerProduct;
+
+    private List<Catalog> catalogList;
+
+    private List<ProductPrice> productPriceList;
+
+    private List<ActivityProduct> activityProductList;
+
+    private BuyerOrderStatistics buyerOrderStatistics;
+
+    private PriceCoreService linearPriceCoreService;
+
+    private CalcPriceService linearCalcPriceService;
+
+    private PriceCoreService indexedPriceCoreService;
+
+    private CalcPriceService indexedCalcPriceService;
+
+    @Setup
+    public void setup() {
+        BizProps bizProps = new BizProps();
+        bizProps.setExceptionWarningSwitch(false);
+        LogWrapper logWrapper = new LogWrapper();
+        ReflectionTestUtils.setField(logWrapper, "bizProps", bizProps);
+
+        linearCalcPriceService = new LinearCalcPriceService();
+        linearPriceCoreService = new LinearPriceCoreService();
+        indexedCalcPriceService = new CalcPriceService();
+        indexedPriceCoreService = new PriceCoreService();
+        ReflectionTestUtils.setField(linearCalcPriceService, "logWrapper", logWrapper);
+        ReflectionTestUtils.setField(indexedCalcPriceService, "logWrapper", logWrapper);
+        ReflectionTestUtils.setField(linearPriceCoreService, "calcPriceService", linearCalcPriceService);
+        ReflectionTestUtils.setField(indexedPriceCoreService, "calcPriceService", indexedCalcPriceService);
+
+        catalogList = new ArrayList<>(catalogCount);
+        activityProductList = new ArrayList<>();
+        Map<String, ProductPrice> productPriceMap = new LinkedHashMap<>();
+        Date now = new Date();
+        for (int i = 0; i < catalogCount; i++) {
+            String productId = "p" + i / catalogCountPerProduct;
+            Catalog catalog = new Catalog();
+            catalog.setProductId(productId);
+            catalog.setCatalogId(productId + "-c" + i);
+            catalog.setSellerId(i / catalogCountPerProduct % 10);
+            catalog.setQuotePrice(100 + i);
+            catalog.setVipPrice(90 + i);
+            catalog.setNewCustomerPrice(80 + i);
+            catalogList.add(catalog);
+
+            ProductPrice productPrice = productPriceMap.computeIfAbsent(productId, x -> {
+                ProductPrice tempProductPrice = new ProductPrice();
+                tempProductPrice.setProductId(x);
+                return tempProductPrice;
+            });
+
+            //一半商品参与活动
+            if (i / catalogCountPerProduct % 2 == 0) {
+                ActivityProduct activityProduct = activityProductList.stream()
+                        .filter(x -> x.getProductId().equals(productPrice.getProductId()))
+                        .findAny()
+                        .orElseGet(() -> newActivityProduct(productPrice.getProductId(), now));
+                ActivityCatalog activityCatalog = new ActivityCatalog();
+                activityCatalog.setActivityCatalogId(catalog.getCatalogId());
+                activityCatalog.setActivityCatalogPrice(50D + i);
+                activityCatalog.setActivityStock(10);
+                activityProduct.getActivityCatalogList().add(activityCatalog);
+            }
+        }
+        productPriceList = new ArrayList<>(productPriceMap.values());
+        //规格与活动商品返回顺序与查询顺序无关
+        Collections.shuffle(catalogList, new Random(17));
+        Collections.shuffle(activityProductList, new Random(17));
+        //买手0、3、6、9为vip买家 1、4、7为新客买家 其余买手没有订单统计
+        Map<Long, SellerOrderStatistics> fromSeller = new HashMap<>();
+        for (long sellerId = 0; sellerId < 10; sellerId++) {
+            if (sellerId % 3 != 2) {
+                fromSeller.put(sellerId, new SellerOrderStatistics(sellerId % 3 == 0, sellerId % 3 == 1));
+            }
+        }
+        buyerOrderStatistics = new BuyerOrderStatistics(fromSeller);
+        checkSamePrice();
+    }
+
+    @Benchmark
+    public List<ProductPrice> linearPricing() {
+        return pricing(linearPriceCoreService, linearCalcPriceService);
+    }
+
+    @Benchmark
+    public List<ProductPrice> indexedPricing() {
+        return pricing(indexedPriceCoreService, indexedCalcPriceService);
+    }
+
+    private List<ProductPrice> pricing(PriceCoreService priceCoreService, CalcPriceService calcPriceService) {
+        priceCoreService.fillCatalogs(catalogList, productPriceList);
+        calcPriceService.decideProductRealPrice(1L,
+                productPriceList,
+                activityProductList,
+                buyerOrderStatistics,
+                false,
+                false);
+        return productPriceList;
+    }
+
+    /**
+     * 两种实现的计算结果必须一致 否则对比没有意义
+     */
+    private void checkSamePrice() {
+        String linearResult = describe(pricing(linearPriceCoreService, linearCalcPriceService));
+        String indexedResult = describe(pricing(indexedPriceCoreService, indexedCalcPriceService));
+        if (!linearResult.equals(indexedResult)) {
+            throw new IllegalStateException("linearPricing与indexedPricing计算结果不一致");
+        }
+    }
+
+    private String describe(List<ProductPrice> productPriceList) {
+        StringBuilder builder = new StringBuilder();
+        productPriceList.forEach(productPrice -> productPrice.getCatalogs().forEach(catalog ->
+                builder.append(catalog.getCatalogId()).append(':')
+                        .append(catalog.getPrice()).append(':')
+                        .append(catalog.getPriceType()).append(';')));
+        return builder.toString();
+    }
+
+    private ActivityProduct newActivityProduct(String productId, Date now) {
+        ActivityProduct activityProduct = new ActivityProduct();
+        activityProduct.setProductId(productId);
+        activityProduct.setProductInActivityId(activityProductList.size() + 1);
+        activityProduct.setHasIsolation(false);
+        activityProduct.setNewBuyer(false);
+        activityProduct.setStartTime(new Date(now.getTime() - TimeUnit.DAYS.toMillis(1)));
+        activityProduct.setEndTime(new Date(now.getTime() + TimeUnit.DAYS.toMillis(1)));
+        activityProduct.setActivityCatalogList(new ArrayList<>());
+        activityProductList.add(activityProduct);
+        return activityProduct;
+    }
+
+    /**
+     * 原实现的规格分组 每个商品扫描全部规格
+     */
+    private static class LinearPriceCoreService extends PriceCoreService {
+
+        @Override
+        public void fillCatalogs(List<Catalog> catalogList, List<ProductPrice> productPriceList) {
+            productPriceList.forEach(productPrice -> {
+                List<Catalog> tempCatalogList = catalogList
+                        .stream().filter(x -> x.getProductId().equals(productPrice.getProductId()))
+                        .collect(Collectors.toList());
+                productPrice.setCatalogs(tempCatalogList);
+                productPrice.setSellerId(tempCatalogList.isEmpty() ? 0L : tempCatalogList.get(0).getSellerId());
+            });
+        }
+    }
+
+    /**
+     * 原实现的价格计算 每个商品扫描全部活动商品 每个规格在判断与设置活动价时各扫描一次活动规格
+     * 访客判断与订单统计查找按规格执行 价格判断分支使用CalcPriceService.calcRealPrice
+     */
+    private static class LinearCalcPriceService extends CalcPriceService {
+
+        @Override
+        public void decideProductRealPrice(long buyerId,
+                                           List<ProductPrice> productPriceList,
+                                           List<ActivityProduct> activityProductInfoList,
+                                           BuyerOrderStatistics resp,
+                                           boolean isNewBuyer,
+                                           boolean isTradeIsolation) {
+            long now = new Date().getTime();
+            productPriceList.forEach(productPrice -> {
+                ActivityProduct tempActivityProduct = activityProductInfoList != null
+                        && !activityProductInfoList.isEmpty() ?
+                        activityProductInfoList.stream()
+                                .filter(x -> x.getProductId().equals(productPrice.getProductId())
+                                        && x.getStartTime().getTime() <= now && x.getEndTime().getTime() >= now)
+                                .findAny().orElse(null) : null;
+
+                productPrice.getCatalogs().forEach(catalog -> {
+                    ActivityCatalog activityCatalog = findActivityCatalog(tempActivityProduct, catalog);
+                    if (activityCatalog != null) {
+                        activityCatalog = findActivityCatalog(tempActivityProduct, catalog);
+                    }
+                    calcRealPrice(checkVisitorPriceAsRealPrice(buyerId, resp),
+                            getSellerOrderStatistics(catalog.getSellerId(), resp),
+                            isNewBuyer, isTradeIsolation, catalog, tempActivityProduct, activityCatalog);
+                });
+            });
+        }
+
+        private ActivityCatalog findActivityCatalog(ActivityProduct activityProduct, Catalog catalog) {
+            return activityProduct != null ? activityProduct.getActivityCatalogList()
+                    .stream().filter(x -> x.getActivityCatalogId().equals(catalog.getCatalogId()))
+                    .findAny().orElse(null) : null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.domain.repo.mongorepo.codec.CatalogBsonCodec;
+import com.ymatou.productprice.infrastructure.util.Utils;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonReader;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 规格文档解码性能测试
+ * mapDecode为原查询路径 文档先解码为HashMap 再由MongoRepository.convertMapToCatalog转换为规格
+ * typedDecode为CatalogBsonCodec直接从bson解码为规格
+ * 运行方式：gradle :test:jmh -PjmhInclude=MongoDecodeBenchmark -PjmhArgs="-prof gc"
+ * Created by chenpengxuan on 2017/5/17.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MongoDecodeBenchmark {
+
+    /**
+     * 单次查询返回的规格数
+     */
+    @Param({"30", "300"})
+    private int catalogCount;
+
+    private List<byte[]> documentList;
+
+    private final DocumentCodec documentCodec = new DocumentCodec();
+
+    private final CatalogBsonCodec catalogBsonCodec = new CatalogBsonCodec();
+
+    private final DecoderContext decoderContext = DecoderContext.builder().build();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(17);
+        documentList = new ArrayList<>(catalogCount);
+        for (int i = 0; i < catalogCount; i++) {
+            Document document = new Document("spid", UUID.randomUUID().toString())
+                    .append("cid", UUID.randomUUID().toString())
+                    .append("sid", random.nextInt(100000))
+                    .append("price", random.nextInt(100000) / 100D)
+                    .append("newp", random.nextInt(100000) / 100D)
+                    .append("vip", random.nextInt(100000) / 100D)
+                    .append("mflight", random.nextInt(1000) / 100D)
+                    .append("mdeliv", random.nextInt(3));
+
+            BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+            documentCodec.encode(new BsonBinaryWriter(outputBuffer), document, EncoderContext.builder().build());
+            documentList.add(outputBuffer.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public void mapDecode(Blackhole blackhole) {
+        for (byte[] bytes : documentList) {
+            Map<String, Object> catalogMap = new HashMap<>(documentCodec.decode(newReader(bytes), decoderContext));
+            blackhole.consume(convertMapToCatalog(catalogMap));
+        }
+    }
+
+    @Benchmark
+    public void typedDecode(Blackhole blackhole) {
+        for (byte[] bytes : documentList) {
+            blackhole.consume(catalogBsonCodec.decode(newReader(bytes), decoderContext));
+        }
+    }
+
+    private BsonReader newReader(byte[] bytes) {
+        return new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 与MongoRepository.convertMapToCatalog保持一致
+     *
+     * @param catalogMap
+     * @return
+     */
+    private Catalog convertMapToCatalog(Map<String, Object> catalogMap) {
+        Catalog tempCatalog = new Catalog();
+        tempCatalog.setProductId(Optional.ofNullable((String) catalogMap.get("spid")).orElse(""));
+        tempCatalog.setCatalogId(Optional.ofNullable((String) catalogMap.get("cid")).orElse(""));
+        tempCatalog.setSellerId(Optional.ofNullable((Integer) catalogMap.get("sid")).orElse(0));
+        tempCatalog.setQuotePrice(
+                Utils.doubleFormat(Optional.ofNullable((Double) catalogMap.get("price")).orElse(0D), 2)
+        );
+        tempCatalog.setNewCustomerPrice(
+                Utils.doubleFormat(
+                        Optional.of(Double.valueOf(catalogMap.get("newp") != null ? catalogMap.get("newp").toString():"0")).orElse(0D), 2)
+        );
+        tempCatalog.setVipPrice(
+                Utils.doubleFormat(Optional.of(Double.valueOf(catalogMap.get("vip") != null ? catalogMap.get("vip").toString():"0")).orElse(0D), 2)
+        );
+        tempCatalog.setFlightBalance(
+                Utils.doubleFormat(Optional.of(Double.valueOf(catalogMap.get("mflight") != null ? catalogMap.get("mflight").toString():"0")).orElse(0D), 2)
+        );
+        tempCatalog.setMultiLogistics(Optional.ofNullable(Integer.valueOf(catalogMap.get("mdeliv") != null ? catalogMap.get("mdeliv").toString():"0")).orElse(0));
+
+        return tempCatalog;
+    }
+}
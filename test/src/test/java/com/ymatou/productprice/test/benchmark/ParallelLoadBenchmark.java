@@ -0,0 +1,138 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelProcessor;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelTypeEnum;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 并行处理器并发负载测试
+ * 32个请求线程同时发起批量查询 模拟mongo查询每次调用阻塞2毫秒 每条id另加5微秒
+ * 吞吐量为每秒完成的批量查询数 另通过辅助计数器输出每轮JVM峰值平台线程数(虚拟线程不计入)与处理器的拒绝、超时、失败分块累计数
+ * VIRTUAL需在JDK21及以上运行 否则使用按需创建的平台线程
+ * 运行方式：gradle :test:jmh -PjmhInclude=ParallelLoadBenchmark
+ * Created by chenpengxuan on 2017/5/31.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class ParallelLoadBenchmark {
+
+    private static final long CALL_OVERHEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final long PER_ITEM_NANOS = TimeUnit.MICROSECONDS.toNanos(5);
+
+    /**
+     * 批量查询条数
+     */
+    @Param({"100", "1000"})
+    private int batchSize;
+
+    @Param({"THREADPOOL", "FORKJOIN", "VIRTUAL"})
+    private ParallelTypeEnum parallelType;
+
+    private List<String> idList;
+
+    private ParallelProcessor<List<String>, List<String>> parallelProcessor;
+
+    private ThreadMXBean threadMXBean;
+
+    /**
+     * 辅助计数器按线程汇总 全局值只由一个请求线程上报 其他线程上报0
+     */
+    private final AtomicBoolean reporterClaimed = new AtomicBoolean();
+
+    @Setup
+    public void setup() {
+        BizProps bizProps = new BizProps();
+        bizProps.setExceptionWarningSwitch(false);
+        bizProps.setParallelCount(4);
+        bizProps.setParallelMaxCount(16);
+        bizProps.setParallelQueueSize(200);
+        bizProps.setParallelThresHoldCount(30);
+        bizProps.setParallelVirtualMaxCount(100);
+        LogWrapper logWrapper = new LogWrapper();
+        ReflectionTestUtils.setField(logWrapper, "bizProps", bizProps);
+        parallelProcessor = new ParallelProcessor<>();
+        ReflectionTestUtils.setField(parallelProcessor, "bizProps", bizProps);
+        ReflectionTestUtils.setField(parallelProcessor, "logWrapper", logWrapper);
+        ReflectionTestUtils.invokeMethod(parallelProcessor, "init");
+
+        idList = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            idList.add("id-" + i);
+        }
+        threadMXBean = ManagementFactory.getThreadMXBean();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakThreadCount() {
+        threadMXBean.resetPeakThreadCount();
+    }
+
+    @Benchmark
+    public List<String> query(ProcessorCounters processorCounters) {
+        return parallelProcessor.doParallelProcess(idList, this::mockQuery, parallelType);
+    }
+
+    /**
+     * 并行处理器辅助计数器
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ProcessorCounters {
+
+        private ParallelLoadBenchmark benchmark;
+
+        private boolean reporter;
+
+        @Setup
+        public void setup(ParallelLoadBenchmark benchmark) {
+            this.benchmark = benchmark;
+            reporter = benchmark.reporterClaimed.compareAndSet(false, true);
+        }
+
+        public long peakThreadCount() {
+            return reporter ? benchmark.threadMXBean.getPeakThreadCount() : 0;
+        }
+
+        public long rejectedCount() {
+            return getStat("rejectedCount");
+        }
+
+        public long timeoutCount() {
+            return getStat("timeoutCount");
+        }
+
+        public long failedChunkCount() {
+            return getStat("failedChunkCount");
+        }
+
+        private long getStat(String name) {
+            if (!reporter) {
+                return 0;
+            }
+            Object value = benchmark.parallelProcessor.getStats().get(name);
+            return value instanceof Number ? ((Number) value).longValue() : 0;
+        }
+    }
+
+    private List<String> mockQuery(List<String> subIdList) {
+        LockSupport.parkNanos(CALL_OVERHEAD_NANOS + PER_ITEM_NANOS * subIdList.size());
+        return new ArrayList<>(subIdList);
+    }
+}
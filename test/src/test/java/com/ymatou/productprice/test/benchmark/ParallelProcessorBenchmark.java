@@ -0,0 +1,72 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelProcessor;
+import com.ymatou.productprice.infrastructure.util.ParallelUtil.ParallelTypeEnum;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 并行处理器性能测试
+ * 模拟mongo批量查询 每次调用固定耗时1毫秒 每条id另加5微秒
+ * THREADPOOL为按并行阀值固定分块 ADAPTIVE为按线程池状态与分块耗时自适应分块
+ * 运行方式：gradle :test:jmh -PjmhInclude=ParallelProcessorBenchmark
+ * Created by chenpengxuan on 2017/5/29.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelProcessorBenchmark {
+
+    private static final long CALL_OVERHEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long PER_ITEM_NANOS = TimeUnit.MICROSECONDS.toNanos(5);
+
+    /**
+     * 批量查询条数
+     */
+    @Param({"10", "100", "1000", "5000"})
+    private int batchSize;
+
+    @Param({"THREADPOOL", "ADAPTIVE"})
+    private ParallelTypeEnum parallelType;
+
+    private List<String> idList;
+
+    private ParallelProcessor<List<String>, List<String>> parallelProcessor;
+
+    @Setup
+    public void setup() {
+        BizProps bizProps = new BizProps();
+        bizProps.setParallelCount(4);
+        bizProps.setParallelThresHoldCount(30);
+        parallelProcessor = new ParallelProcessor<>();
+        ReflectionTestUtils.setField(parallelProcessor, "bizProps", bizProps);
+        ReflectionTestUtils.setField(parallelProcessor, "logWrapper", new LogWrapper());
+        ReflectionTestUtils.invokeMethod(parallelProcessor, "init");
+
+        idList = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            idList.add("id-" + i);
+        }
+    }
+
+    @Benchmark
+    public List<String> query() {
+        return parallelProcessor.doParallelProcess(idList, this::mockQuery, parallelType);
+    }
+
+    private List<String> mockQuery(List<String> subIdList) {
+        LockSupport.parkNanos(CALL_OVERHEAD_NANOS + PER_ITEM_NANOS * subIdList.size());
+        return new ArrayList<>(subIdList);
+    }
+}
@@ -0,0 +1,129 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.domain.service.CalcPriceService;
+import com.ymatou.productprice.infrastructure.util.LogWrapper;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics;
+import com.ymatou.productprice.intergration.model.BuyerOrderStatistics.SellerOrderStatistics;
+import com.ymatou.productprice.model.Catalog;
+import com.ymatou.productprice.model.PriceEnum;
+import com.ymatou.productprice.model.ProductPrice;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 规格价格选择性能测试
+ * 每次调用计算CATALOG_COUNT个规格 结果按单个规格统计 配合-prof gc查看每个规格的内存分配(gc.alloc.rate.norm)
+ * mapPricing为原访客价逻辑 每个规格创建HashMap并通过stream取最低价
+ * branchPricing为CalcPriceService.decideProductRealPrice 访客、vip、新客价均通过比较分支决定
+ * 运行方式：gradle :test:jmh -PjmhInclude=PriceSelectionBenchmark -PjmhArgs="-prof gc"
+ * Created by chenpengxuan on 2017/5/27.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(PriceSelectionBenchmark.CATALOG_COUNT)
+public class PriceSelectionBenchmark {
+
+    static final int CATALOG_COUNT = 1000;
+
+    /**
+     * 买家类型 visitor:访客 vip:有确认订单 newCustomer:没有订单
+     */
+    @Param({"visitor", "vip", "newCustomer"})
+    private String buyerType;
+
+    private List<ProductPrice> productPriceList;
+
+    private long buyerId;
+
+    private BuyerOrderStatistics buyerOrderStatistics;
+
+    private CalcPriceService calcPriceService;
+
+    @Setup
+    public void setup() {
+        calcPriceService = new CalcPriceService();
+        ReflectionTestUtils.setField(calcPriceService, "logWrapper", new LogWrapper());
+
+        productPriceList = new ArrayList<>();
+        Map<Long, SellerOrderStatistics> fromSeller = new HashMap<>();
+        for (int i = 0; i < CATALOG_COUNT; i++) {
+            ProductPrice productPrice;
+            if (i % 5 == 0) {
+                productPrice = new ProductPrice();
+                productPrice.setProductId("p" + i / 5);
+                productPrice.setCatalogs(new ArrayList<>());
+                productPriceList.add(productPrice);
+            } else {
+                productPrice = productPriceList.get(productPriceList.size() - 1);
+            }
+            //买手id超出Long缓存范围
+            int sellerId = 1000 + i / 20;
+            Catalog catalog = new Catalog();
+            catalog.setProductId(productPrice.getProductId());
+            catalog.setCatalogId(productPrice.getProductId() + "-c" + i);
+            catalog.setSellerId(sellerId);
+            catalog.setQuotePrice(100 + i % 7);
+            catalog.setVipPrice(95 + i % 11);
+            catalog.setNewCustomerPrice(90 + i % 13);
+            productPrice.getCatalogs().add(catalog);
+
+            fromSeller.put((long) sellerId, "vip".equals(buyerType)
+                    ? new SellerOrderStatistics(true, false)
+                    : new SellerOrderStatistics(false, true));
+        }
+        buyerId = "visitor".equals(buyerType) ? 0L : 1L;
+        buyerOrderStatistics = "visitor".equals(buyerType) ? null : new BuyerOrderStatistics(fromSeller);
+    }
+
+    @Benchmark
+    public List<ProductPrice> mapPricing() {
+        for (ProductPrice productPrice : productPriceList) {
+            for (Catalog catalog : productPrice.getCatalogs()) {
+                SellerOrderStatistics sellerOrderStatistics = buyerOrderStatistics != null
+                        ? buyerOrderStatistics.getFromSeller().get((long) catalog.getSellerId()) : null;
+                if (buyerId <= 0) {
+                    Map<PriceEnum, Double> priceMap = new HashMap<>();
+                    priceMap.put(PriceEnum.NEWCUSTOMERPRICE, catalog.getNewCustomerPrice());
+                    priceMap.put(PriceEnum.QUOTEPRICE, catalog.getQuotePrice());
+                    priceMap.put(PriceEnum.VIPPRICE, catalog.getVipPrice());
+                    Map.Entry<PriceEnum, Double> entry = priceMap.entrySet()
+                            .stream()
+                            .min((x, y) -> Double.compare(x.getValue().doubleValue(), y.getValue().doubleValue()))
+                            .get();
+                    catalog.setPrice(entry.getValue());
+                    catalog.setPriceType(entry.getKey().getCode());
+                } else if (sellerOrderStatistics != null && sellerOrderStatistics.isHasConfirmedOrders()
+                        && catalog.getVipPrice() > 0 && catalog.getVipPrice() < catalog.getQuotePrice()) {
+                    catalog.setPrice(catalog.getVipPrice());
+                    catalog.setPriceType(PriceEnum.VIPPRICE.getCode());
+                } else if (sellerOrderStatistics != null && sellerOrderStatistics.isNoOrdersOrAllCancelled()
+                        && catalog.getNewCustomerPrice() > 0 && catalog.getNewCustomerPrice() < catalog.getQuotePrice()) {
+                    catalog.setPrice(catalog.getNewCustomerPrice());
+                    catalog.setPriceType(PriceEnum.NEWCUSTOMERPRICE.getCode());
+                } else {
+                    catalog.setPrice(catalog.getQuotePrice());
+                    catalog.setPriceType(PriceEnum.QUOTEPRICE.getCode());
+                }
+            }
+        }
+        return productPriceList;
+    }
+
+    @Benchmark
+    public List<ProductPrice> branchPricing() {
+        calcPriceService.decideProductRealPrice(buyerId,
+                productPriceList,
+                Collections.emptyList(),
+                buyerOrderStatistics,
+                false,
+                false);
+        return productPriceList;
+    }
+}
@@ -0,0 +1,103 @@
+package com.ymatou.productprice.test.benchmark;
+
+import com.ymatou.productprice.domain.model.Catalog;
+import com.ymatou.productprice.infrastructure.util.MapUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 规格时间戳组装性能测试
+ * linearJoin为原MongoRepository.setCatalogStamp的实现 每个规格线性扫描时间戳列表
+ * indexJoin为商品id去重后按spid建立索引的实现
+ * 运行方式：gradle :test:jmh -PjmhInclude=StampJoinBenchmark
+ * Created by chenpengxuan on 2017/5/15.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StampJoinBenchmark {
+
+    /**
+     * 商品数
+     */
+    @Param({"30", "200", "1000"})
+    private int productCount;
+
+    /**
+     * 每个商品的规格数
+     */
+    @Param({"10"})
+    private int catalogCountPerProduct;
+
+    private List<Catalog> catalogList;
+
+    private List<Map<String, Object>> stampList;
+
+    @Setup
+    public void setup() {
+        catalogList = new ArrayList<>(productCount * catalogCountPerProduct);
+        stampList = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            String productId = UUID.randomUUID().toString();
+            for (int j = 0; j < catalogCountPerProduct; j++) {
+                Catalog catalog = new Catalog();
+                catalog.setProductId(productId);
+                catalog.setCatalogId(productId + "-" + j);
+                catalogList.add(catalog);
+            }
+            Map<String, Object> stampMap = new HashMap<>();
+            stampMap.put("spid", productId);
+            stampMap.put("cut", new Date());
+            stampList.add(stampMap);
+        }
+        //mongo返回顺序与查询顺序无关
+        Collections.shuffle(stampList, new Random(17));
+    }
+
+    @Benchmark
+    public List<Catalog> linearJoin() {
+        List<String> productIdList = catalogList.stream().map(Catalog::getProductId).collect(Collectors.toList());
+        queryStamp(productIdList);
+
+        catalogList.forEach(x -> {
+            Map<String, Object> tempStampMap = stampList.stream().filter(z ->
+                    Optional.ofNullable(z.get("spid")).orElse("").equals(x.getProductId()))
+                    .findAny().orElse(null);
+
+            x.setUpdateTime(tempStampMap != null ? Optional.ofNullable((Date) tempStampMap.get("cut")).orElse(null) : null);
+        });
+        return catalogList;
+    }
+
+    @Benchmark
+    public List<Catalog> indexJoin() {
+        List<String> productIdList = catalogList.stream()
+                .map(Catalog::getProductId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        queryStamp(productIdList);
+
+        Map<String, Date> stampMap = MapUtil.indexByKey(stampList, "spid", "cut");
+        catalogList.forEach(x -> x.setUpdateTime(stampMap.get(x.getProductId())));
+        return catalogList;
+    }
+
+    /**
+     * 模拟组装$in查询条件(MongoProcessor会将参数序列化为查询语句)
+     *
+     * @param productIdList
+     * @return
+     */
+    private Map<String, Object> queryStamp(List<String> productIdList) {
+        Map<String, Object> tempMap = new HashMap<>();
+        tempMap.put("$in", new ArrayList<>(productIdList));
+        return tempMap;
+    }
+}
@@ -1,6 +1,7 @@
 package com.ymatou.productprice.test.domain;
 
 import com.ymatou.productprice.domain.service.PriceQueryService;
+import com.ymatou.productprice.infrastructure.config.props.BizProps;
 import com.ymatou.productprice.model.CatalogPrice;
 import com.ymatou.productprice.model.ProductPrice;
 import com.ymatou.productprice.web.ProductPriceApplication;
@@ -14,6 +15,10 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 /**
  * 商品价格查询服务测试
@@ -25,6 +30,9 @@ public class PriceQueryServiceTest {
     @Autowired
     private PriceQueryService priceQueryService;
 
+    @Autowired
+    private BizProps bizProps;
+
     /**
      * 测试根据商品id获取价格信息
      * 正常场景
@@ -484,4 +492,48 @@ public class PriceQueryServiceTest {
         Assert.assertEquals(catalogIdList.size(),catalogPriceList.size());
         Assert.assertTrue(catalogPriceList.stream().allMatch(x -> x.getCatalogInfo().getPrice() > 0));
     }
+
+    /**
+     * 测试查询阶段并行执行
+     * 开启阶段线程池后 多个请求并发查询的价格 买手id 多物流信息与顺序执行一致
+     */
+    @Test
+    public void testGetPriceInfoByProductIdList_ParallelQueryStage() throws Exception {
+        int buyerId = 20345997;
+        List<String> productIdList = new ArrayList<>();
+        productIdList.add("c1ba2ba5-ee5b-4139-8731-99127715ffb0");
+        productIdList.add("ce4fed93-0e50-4595-a8c2-5adf9d99725e");
+        productIdList.add("37bd5942-3ccf-4c24-ad2b-f026b18e6794");
+        productIdList.add("8d74a622-fb36-456d-8927-5336b0226486");
+        productIdList.add("88d079ac-45cf-430c-9f8d-0629bb8f17be");
+        productIdList.add("8ffec130-316b-48c2-97ec-70f0a54d7cb5");
+
+        boolean useParallelQueryStage = bizProps.isUseParallelQueryStage();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            bizProps.setUseParallelQueryStage(false);
+            List<String> expected = describe(priceQueryService.getPriceInfoByProductIdList(buyerId, productIdList, false));
+
+            bizProps.setUseParallelQueryStage(true);
+            List<Future<List<String>>> futureList = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futureList.add(executorService.submit(() ->
+                        describe(priceQueryService.getPriceInfoByProductIdList(buyerId, productIdList, false))));
+            }
+            for (Future<List<String>> future : futureList) {
+                Assert.assertEquals(expected, future.get());
+            }
+            Assert.assertTrue(priceQueryService.getQueryStageStatisticsInfo().get("buyerBehavior").get("count") > 0);
+        } finally {
+            bizProps.setUseParallelQueryStage(useParallelQueryStage);
+            executorService.shutdownNow();
+        }
+    }
+
+    private List<String> describe(List<ProductPrice> productPriceList) {
+        return productPriceList.stream().map(x -> x.getProductId() + "|" + x.getSellerId() + "|" + x.getDeliveryMethod() + "|"
+                + x.getCatalogs().stream().map(y -> y.getCatalogId() + ":" + y.getPrice() + ":" + y.getPriceType())
+                .collect(Collectors.joining(",")))
+                .collect(Collectors.toList());
+    }
 }